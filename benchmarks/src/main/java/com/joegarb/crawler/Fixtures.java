@@ -0,0 +1,107 @@
+package com.joegarb.crawler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * HTML pages used by the benchmarks.
+ *
+ * <ul>
+ *   <li>{@code small}: a hand-written 4 KB documentation page with navigation, inline script,
+ *       comments and a few dozen links of every kind (relative, absolute, fragments, mailto).
+ *   <li>{@code dense}: a 256 KB category listing where most of the markup is links.
+ *   <li>{@code large}: a 4 MB page of article teasers with a couple of links each, like an archive
+ *       page or a long forum thread.
+ * </ul>
+ */
+final class Fixtures {
+  /** URL the fixtures are assumed to have been fetched from. */
+  static final String BASE_URL = "https://crawlme.example.com/docs/releases/4.2/";
+
+  private Fixtures() {}
+
+  /**
+   * Returns a fixture page.
+   *
+   * @param name "small", "dense" or "large"
+   * @return HTML page
+   */
+  static String page(String name) {
+    return switch (name) {
+      case "small" -> resource("fixtures/small.html");
+      case "dense" -> dense(256 * 1024);
+      case "large" -> large(4 * 1024 * 1024);
+      default -> throw new IllegalArgumentException("Unknown fixture: " + name);
+    };
+  }
+
+  private static String resource(String path) {
+    try (InputStream in = Fixtures.class.getClassLoader().getResourceAsStream(path)) {
+      if (in == null) {
+        throw new IllegalStateException("Missing resource " + path);
+      }
+      return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /** Builds a listing of product links with pagination and facet links. */
+  private static String dense(int targetBytes) {
+    StringBuilder html = new StringBuilder(targetBytes + 1024);
+    html.append(
+        "<!DOCTYPE html><html><head><title>Catalog</title></head><body><ul class=\"grid\">");
+    int i = 0;
+    while (html.length() < targetBytes) {
+      html.append("<li><a href=\"/products/")
+          .append(i)
+          .append("-item\">Item ")
+          .append(i)
+          .append("</a> <a href=\"/products/")
+          .append(i)
+          .append("-item#reviews\">Reviews</a> <a href=\"?page=")
+          .append(i / 50)
+          .append("&amp;sort=price&amp;color=")
+          .append(i % 7)
+          .append("\">Similar</a> <a href=\"https://cdn")
+          .append(i % 4)
+          .append(".example.net/p/")
+          .append(i)
+          .append(".jpg\">Image</a></li>\n");
+      i++;
+    }
+    return html.append("</ul></body></html>").toString();
+  }
+
+  /** Builds an archive page mixing text, inline script, comments and a few links per article. */
+  private static String large(int targetBytes) {
+    StringBuilder html = new StringBuilder(targetBytes + 1024);
+    html.append("<!DOCTYPE html><html><head><title>Archive</title>")
+        .append("<script>var nav = '<a href=\"/not-a-link\">';</script></head><body>");
+    int i = 0;
+    while (html.length() < targetBytes) {
+      html.append("<article id=\"post-")
+          .append(i)
+          .append("\"><h2><a href=\"/articles/")
+          .append(i)
+          .append("?ref=archive&amp;page=")
+          .append(i % 10)
+          .append("\">Article ")
+          .append(i)
+          .append("</a></h2><p>Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do ")
+          .append("eiusmod tempor incididunt ut labore et dolore magna aliqua &amp; more. Ut enim ")
+          .append("ad minim veniam, quis nostrud exercitation ullamco laboris nisi ut aliquip.</p>")
+          .append("<p>Filed under <a href=\"https://other.example.org/topics/")
+          .append(i % 100)
+          .append("\">topic ")
+          .append(i % 100)
+          .append("</a></p><!-- post ")
+          .append(i)
+          .append(" --></article>\n");
+      i++;
+    }
+    return html.append("</body></html>").toString();
+  }
+}
@@ -0,0 +1,178 @@
+package com.joegarb.crawler;
+
+import static com.joegarb.crawler.FrontierStore.FrontierUrl;
+import static com.joegarb.crawler.UrlNormalizer.NormalizedUrl;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Steady-state frontier throughput of each storage engine holding {@code rows} pending URLs spread
+ * over 1000 hosts.
+ *
+ * <p>Each operation does what the crawler does for a batch of {@value #BATCH} pages: claims a batch
+ * while {@value #COOLING_HOSTS} hosts are excluded as if cooling down, then adds a batch of newly
+ * discovered URLs and removes the claimed ones, in one transaction for the SQLite engine. The queue
+ * therefore stays the same size. Throughput is in batches per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class FrontierBenchmark {
+  private static final int BATCH = 64;
+  private static final int HOSTS = 1000;
+  private static final int COOLING_HOSTS = 16;
+  private static final String HOST_FORMAT = "host%d.example.com";
+
+  @Param({"10000000"})
+  public int rows;
+
+  @Param({"sqlite", "log", "memory"})
+  public String backend;
+
+  private Path directory;
+  private ConnectionPool pool;
+  private Connection conn;
+  private Frontier frontier;
+  private Set<String> coolingHosts;
+  private long nextUrl;
+
+  @Setup
+  public void setUp() throws IOException, SQLException {
+    directory = Files.createTempDirectory("crawler-frontier-bench");
+    switch (backend) {
+      case "sqlite" -> {
+        Path file = directory.resolve("crawler.db");
+        pool = new ConnectionPool(() -> DriverManager.getConnection("jdbc:sqlite:" + file), 2, 32);
+        conn = pool.getConnection();
+        try (Statement statement = conn.createStatement()) {
+          statement.execute("PRAGMA journal_mode=WAL");
+        }
+        FrontierStore.createTable(conn);
+        populateTable();
+        frontier = new SqliteFrontier(pool::getConnection);
+      }
+      case "log" -> {
+        frontier = new SegmentLogFrontier(directory.resolve("frontier-log"), 64 * 1024 * 1024);
+        populate();
+      }
+      case "memory" -> {
+        frontier = new InMemoryFrontier();
+        populate();
+      }
+      default -> throw new IllegalArgumentException("Unknown backend: " + backend);
+    }
+    coolingHosts = new HashSet<>();
+    for (int i = 0; i < COOLING_HOSTS; i++) {
+      coolingHosts.add(String.format(HOST_FORMAT, i * (HOSTS / COOLING_HOSTS)));
+    }
+  }
+
+  @TearDown
+  public void tearDown() throws IOException, SQLException {
+    frontier.close();
+    if (conn != null) {
+      conn.close();
+      pool.close();
+    }
+    try (Stream<Path> files = Files.walk(directory)) {
+      for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+        Files.deleteIfExists(path);
+      }
+    }
+  }
+
+  @Benchmark
+  public int claimAddRemove() throws SQLException {
+    List<FrontierUrl> claimed = frontier.claim(coolingHosts, BATCH);
+    List<NormalizedUrl> discovered = nextUrls(BATCH);
+    if (conn != null) {
+      DatabaseManager.inTransaction(conn, () -> addAndRemove(conn, discovered, claimed));
+    } else {
+      addAndRemove(null, discovered, claimed);
+    }
+    return claimed.size();
+  }
+
+  private void addAndRemove(
+      Connection connection, List<NormalizedUrl> discovered, List<FrontierUrl> claimed)
+      throws SQLException {
+    frontier.add(connection, discovered);
+    for (FrontierUrl url : claimed) {
+      frontier.remove(connection, url.id());
+    }
+  }
+
+  private List<NormalizedUrl> nextUrls(int count) {
+    List<NormalizedUrl> urls = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      long n = nextUrl++;
+      String host = String.format(HOST_FORMAT, n % HOSTS);
+      urls.add(new NormalizedUrl("https://" + host + "/queued/" + n, host));
+    }
+    return urls;
+  }
+
+  /** Fills the frontier through its own add method, in crawler-sized batches. */
+  private void populate() throws SQLException {
+    while (nextUrl < rows) {
+      frontier.add(null, nextUrls((int) Math.min(10_000, rows - nextUrl)));
+    }
+  }
+
+  /** Fills the frontier_queue table directly, in one transaction, which is faster than add. */
+  private void populateTable() throws SQLException {
+    // Older than anything added during the benchmark
+    long oldest = System.currentTimeMillis() - rows;
+    DatabaseManager.inTransaction(
+        conn,
+        () -> {
+          try (PreparedStatement statement =
+              conn.prepareStatement(
+                  "INSERT INTO frontier_queue (url, host, added_at) VALUES (?, ?, ?)")) {
+            while (nextUrl < rows) {
+              long first = nextUrl;
+              List<NormalizedUrl> urls = nextUrls((int) Math.min(10_000, rows - nextUrl));
+              for (int i = 0; i < urls.size(); i++) {
+                statement.setString(1, urls.get(i).url());
+                statement.setString(2, urls.get(i).host());
+                statement.setLong(3, oldest + first + i);
+                statement.addBatch();
+              }
+              statement.executeBatch();
+            }
+          }
+        });
+    try (Statement statement = conn.createStatement()) {
+      statement.execute("ANALYZE");
+    }
+  }
+}
@@ -0,0 +1,50 @@
+package com.joegarb.crawler;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Link extraction on each fixture page in both extraction modes, both for finding the raw hrefs
+ * alone and for full extraction including resolution and normalization.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LinkExtractorBenchmark {
+  @Param({"small", "dense", "large"})
+  public String page;
+
+  @Param({"STREAMING", "DOM"})
+  public LinkExtractor.Mode mode;
+
+  private String html;
+
+  @Setup
+  public void setUp() {
+    html = Fixtures.page(page);
+  }
+
+  @Benchmark
+  public List<String> findHrefs() {
+    return LinkExtractor.findHrefs(html, mode).hrefs();
+  }
+
+  @Benchmark
+  public List<String> extractLinks() {
+    return LinkExtractor.extractLinks(html, Fixtures.BASE_URL, mode);
+  }
+}
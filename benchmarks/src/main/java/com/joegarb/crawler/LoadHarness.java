@@ -0,0 +1,226 @@
+package com.joegarb.crawler;
+
+import ch.qos.logback.classic.Level;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Crawls a {@link SyntheticSite} in-process with the real crawler and reports throughput,
+ * end-to-end latency, heap usage and database growth, so that concurrency and storage changes can
+ * be compared on the same workload.
+ *
+ * <p>Options are given as {@code --name value} pairs; see {@link #USAGE}. The crawler itself is
+ * configured with system properties named after its properties file keys, e.g. {@code
+ * -Dworker.mode=virtual -Dnum.threads=64}. Unless set, the harness uses a fresh database file,
+ * frontier snapshot path and frontier log directory in a temporary directory, no politeness delay
+ * and no periodic stats report. Each run should use a fresh JVM, since the crawler reads its
+ * configuration once.
+ */
+public class LoadHarness {
+  private static final String USAGE =
+      """
+      Usage: java [-D<crawler.property>=<value>...] -cp benchmarks.jar \
+      com.joegarb.crawler.LoadHarness [options]
+        --pages <n>          Pages in the synthetic site (default: 2000)
+        --fan-out <n>        Links per page (default: 10)
+        --page-bytes <n>     Approximate page size (default: 8192)
+        --latency-ms <n>     Mean response delay (default: 0)
+        --error-rate <x>     Fraction of pages answering HTTP 500 (default: 0)
+        --seed <n>           Seed for the site graph (default: 1)
+        --entry main|worker  Run Main with the start URL, or seed the frontier and run Main
+                             --worker; worker needs the sqlite frontier (default: main)
+        --log-level <level>  Crawler log level (default: WARN)
+      """;
+
+  /** Interval in milliseconds between heap samples. */
+  private static final long HEAP_SAMPLE_MS = 50;
+
+  public static void main(String[] args) throws IOException, SQLException {
+    Map<String, String> options = parse(args);
+    if (options == null) {
+      System.err.print(USAGE);
+      System.exit(2);
+    }
+    SyntheticSite.Options site =
+        new SyntheticSite.Options(
+            Integer.parseInt(options.getOrDefault("pages", "2000")),
+            Integer.parseInt(options.getOrDefault("fan-out", "10")),
+            Integer.parseInt(options.getOrDefault("page-bytes", "8192")),
+            Integer.parseInt(options.getOrDefault("latency-ms", "0")),
+            Double.parseDouble(options.getOrDefault("error-rate", "0")),
+            Long.parseLong(options.getOrDefault("seed", "1")));
+    boolean workerEntry = "worker".equals(options.getOrDefault("entry", "main"));
+
+    Path database = configureCrawler();
+    ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME))
+        .setLevel(Level.toLevel(options.getOrDefault("log-level", "WARN")));
+
+    try (SyntheticSite server = new SyntheticSite(site)) {
+      long databaseBefore = databaseBytes(database);
+      MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+      AtomicLong peakHeap = new AtomicLong();
+      ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+      sampler.scheduleAtFixedRate(
+          () -> peakHeap.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max),
+          0,
+          HEAP_SAMPLE_MS,
+          TimeUnit.MILLISECONDS);
+
+      long start = System.nanoTime();
+      if (workerEntry) {
+        DatabaseManager.initializeDatabase();
+        try (Connection conn = DatabaseManager.getConnection()) {
+          FrontierStore.addUrl(conn, server.startUrl());
+        }
+        Main.main(new String[] {"--worker"});
+      } else {
+        Main.main(new String[] {server.startUrl()});
+      }
+      double seconds = (System.nanoTime() - start) / 1e9;
+      sampler.shutdownNow();
+
+      System.gc();
+      long heapAfter = memory.getHeapMemoryUsage().getUsed();
+      long databaseAfter = databaseBytes(database);
+      report(
+          site,
+          server,
+          seconds,
+          peakHeap.get(),
+          heapAfter,
+          databaseBefore,
+          databaseAfter,
+          workerEntry);
+    }
+  }
+
+  /**
+   * Applies the harness's defaults for crawler settings that were not given as system properties.
+   *
+   * @return Path of the SQLite database file, or null if the database is not a SQLite file
+   */
+  private static Path configureCrawler() throws IOException {
+    Path directory = Files.createTempDirectory("crawler-load");
+    if (System.getProperty("db.url") == null) {
+      System.setProperty("db.url", "jdbc:sqlite:" + directory.resolve("crawler.db"));
+    }
+    if (System.getProperty("frontier.snapshot.path") == null) {
+      System.setProperty(
+          "frontier.snapshot.path", directory.resolve("frontier.snapshot").toString());
+    }
+    if (System.getProperty("frontier.log.dir") == null) {
+      System.setProperty("frontier.log.dir", directory.resolve("frontier-log").toString());
+    }
+    System.setProperty(
+        "delay.between.requests.ms", System.getProperty("delay.between.requests.ms", "0"));
+    System.setProperty(
+        "stats.report.interval.seconds", System.getProperty("stats.report.interval.seconds", "0"));
+    String url = System.getProperty("db.url");
+    return url.startsWith("jdbc:sqlite:") && !url.contains(":memory:")
+        ? Path.of(url.substring("jdbc:sqlite:".length()))
+        : null;
+  }
+
+  private static void report(
+      SyntheticSite.Options site,
+      SyntheticSite server,
+      double seconds,
+      long peakHeap,
+      long heapAfter,
+      long databaseBefore,
+      long databaseAfter,
+      boolean workerEntry) {
+    long pages = CrawlStats.pagesCrawled();
+    long[] latencies = server.latencies();
+    System.out.printf(
+        "Site: %d pages, fan-out %d, %d bytes/page, %d ms latency, %.1f%% errors, seed %d%n",
+        site.pages(),
+        site.fanOut(),
+        site.pageBytes(),
+        site.latencyMs(),
+        site.errorRate() * 100,
+        site.seed());
+    System.out.printf(
+        "Crawler: entry=%s, mode=%s, threads=%d, frontier=%s, db=%s%n",
+        workerEntry ? "worker" : "main",
+        Configuration.WORKER_MODE,
+        Configuration.NUM_THREADS,
+        Configuration.FRONTIER_BACKEND,
+        Configuration.DB_URL);
+    System.out.printf(
+        "Crawled %d pages (%d failed) in %.2f s: %.1f pages/s; %d of %d pages requested, %d"
+            + " requests%n",
+        pages,
+        CrawlStats.pagesFailed(),
+        seconds,
+        pages / seconds,
+        server.pagesRequested(),
+        site.pages(),
+        server.requests());
+    System.out.printf(
+        "End-to-end latency (link served to link requested): p50 %.1f ms, p99 %.1f ms, max %.1f"
+            + " ms over %d pages%n",
+        percentile(latencies, 0.50) / 1e6,
+        percentile(latencies, 0.99) / 1e6,
+        latencies.length > 0 ? latencies[latencies.length - 1] / 1e6 : 0.0,
+        latencies.length);
+    System.out.printf(
+        "Heap: %.1f MB peak, %.1f MB after GC%n", peakHeap / 1048576.0, heapAfter / 1048576.0);
+    if (databaseAfter >= 0) {
+      System.out.printf(
+          "Database: %.1f MB -> %.1f MB (%.0f bytes/page)%n",
+          databaseBefore / 1048576.0,
+          databaseAfter / 1048576.0,
+          pages > 0 ? (databaseAfter - databaseBefore) / (double) pages : 0.0);
+    }
+  }
+
+  /** Returns the nearest-rank percentile of sorted values, or 0 if there are none. */
+  private static long percentile(long[] sorted, double fraction) {
+    if (sorted.length == 0) {
+      return 0;
+    }
+    int rank = (int) Math.ceil(fraction * sorted.length);
+    return sorted[Math.max(0, rank - 1)];
+  }
+
+  /** Returns the size of the database and its WAL file, or -1 if it is not a SQLite file. */
+  private static long databaseBytes(Path database) throws IOException {
+    if (database == null) {
+      return -1;
+    }
+    long bytes = 0;
+    for (String suffix : new String[] {"", "-wal"}) {
+      Path file = Path.of(database + suffix);
+      if (Files.exists(file)) {
+        bytes += Files.size(file);
+      }
+    }
+    return bytes;
+  }
+
+  /** Parses {@code --name value} pairs, returning null if they are malformed. */
+  private static Map<String, String> parse(String[] args) {
+    Map<String, String> options = new HashMap<>();
+    for (int i = 0; i < args.length; i += 2) {
+      if (!args[i].startsWith("--") || i + 1 >= args.length) {
+        return null;
+      }
+      options.put(args[i].substring(2), args[i + 1]);
+    }
+    return options;
+  }
+}
@@ -0,0 +1,144 @@
+package com.joegarb.crawler;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Frontier claims and crawl-history lookups against SQLite tables pre-populated with {@code rows}
+ * entries each, in a temporary WAL-mode database file.
+ *
+ * <p>Statements run on a connection from a {@link ConnectionPool}, as in the crawler, so prepared
+ * statements are cached. Half of the crawled URLs are due for a refresh, so lookups of existing
+ * URLs take both outcomes. Each claim removes the claimed entry and queues its URL again at the
+ * back, as crawling and rediscovering it would, so that successive claims walk through the queue
+ * rather than taking the same row, while the table stays the same size across iterations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StoreBenchmark {
+  private static final String HOST_FORMAT = "host%d.example.com";
+
+  @Param({"1000000"})
+  public int rows;
+
+  private Path file;
+  private ConnectionPool pool;
+  private Connection conn;
+  private SplittableRandom random;
+
+  @Setup
+  public void setUp() throws IOException, SQLException {
+    file = Files.createTempFile("crawler-bench", ".db");
+    pool = new ConnectionPool(() -> DriverManager.getConnection("jdbc:sqlite:" + file), 1, 32);
+    conn = pool.getConnection();
+    try (Statement statement = conn.createStatement()) {
+      statement.execute("PRAGMA journal_mode=WAL");
+    }
+    FrontierStore.createTable(conn);
+    MetadataStore.createTable(conn);
+    populate();
+    random = new SplittableRandom(42);
+  }
+
+  @TearDown
+  public void tearDown() throws IOException, SQLException {
+    conn.close();
+    pool.close();
+    Files.deleteIfExists(file);
+    Files.deleteIfExists(Path.of(file + "-wal"));
+    Files.deleteIfExists(Path.of(file + "-shm"));
+  }
+
+  @Benchmark
+  public long frontierGetNextUrl() throws SQLException {
+    FrontierStore.FrontierUrl url = FrontierStore.getNextUrl(conn);
+    FrontierStore.removeUrl(conn, url.id());
+    FrontierStore.addUrl(conn, url.url());
+    return url.id();
+  }
+
+  @Benchmark
+  public boolean metadataHasBeenCrawled() throws SQLException {
+    return MetadataStore.hasBeenCrawled(conn, crawledUrl(random.nextInt(rows)));
+  }
+
+  @Benchmark
+  public boolean metadataHasBeenCrawledMiss() throws SQLException {
+    return MetadataStore.hasBeenCrawled(conn, frontierUrl(random.nextInt(rows)));
+  }
+
+  /** Fills both tables in one transaction. */
+  private void populate() throws SQLException {
+    long now = System.currentTimeMillis();
+    DatabaseManager.inTransaction(
+        conn,
+        () -> {
+          try (PreparedStatement statement =
+              conn.prepareStatement(
+                  "INSERT INTO crawled_urls (url, crawled_at, next_fetch_at, http_status_code) "
+                      + "VALUES (?, ?, ?, 200)")) {
+            for (int i = 0; i < rows; i++) {
+              statement.setString(1, crawledUrl(i));
+              statement.setLong(2, now - 1000);
+              // Every other URL is due for a refresh
+              statement.setLong(3, i % 2 == 0 ? now + 86_400_000 : now - 1);
+              statement.addBatch();
+              if (i % 10_000 == 9_999) {
+                statement.executeBatch();
+              }
+            }
+            statement.executeBatch();
+          }
+          try (PreparedStatement statement =
+              conn.prepareStatement(
+                  "INSERT INTO frontier_queue (url, host, added_at) VALUES (?, ?, ?)")) {
+            for (int i = 0; i < rows; i++) {
+              statement.setString(1, frontierUrl(i));
+              statement.setString(2, String.format(HOST_FORMAT, i % 1000));
+              // Queued in the past, so that URLs queued again during the run go to the back
+              statement.setLong(3, now - rows + i);
+              statement.addBatch();
+              if (i % 10_000 == 9_999) {
+                statement.executeBatch();
+              }
+            }
+            statement.executeBatch();
+          }
+        });
+    try (Statement statement = conn.createStatement()) {
+      statement.execute("ANALYZE");
+    }
+  }
+
+  private static String crawledUrl(int i) {
+    return "https://" + String.format(HOST_FORMAT, i % 1000) + "/pages/" + i;
+  }
+
+  private static String frontierUrl(int i) {
+    return "https://" + String.format(HOST_FORMAT, i % 1000) + "/queued/" + i;
+  }
+}
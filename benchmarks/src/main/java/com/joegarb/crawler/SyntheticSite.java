@@ -0,0 +1,249 @@
+package com.joegarb.crawler;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An in-process HTTP server for a deterministic synthetic site of {@code pages} HTML pages at
+ * {@code /p/<n>.html}.
+ *
+ * <p>Page {@code n} links to page {@code n + 1}, so every page is reachable from page 0, and to
+ * {@code fanOut - 1} further pages chosen by a generator seeded from the site seed and {@code n}.
+ * The same options always produce the same graph. A seeded fraction of pages answer with HTTP 500
+ * instead, and every response is delayed by about the configured latency. Bodies are padded with
+ * text to the configured size.
+ *
+ * <p>The site records when each page was first linked from a served page and when it was first
+ * requested. The difference is the page's end-to-end latency through the crawler: parsing the
+ * linking page, persisting the link, claiming it from the frontier and sending the request.
+ */
+final class SyntheticSite implements AutoCloseable {
+  /**
+   * Shape of the site.
+   *
+   * @param pages Number of pages
+   * @param fanOut Links per page
+   * @param pageBytes Approximate size of each page body
+   * @param latencyMs Mean response delay in milliseconds; each response waits between half and one
+   *     and a half times this
+   * @param errorRate Fraction of pages, other than page 0, that answer with HTTP 500
+   * @param seed Seed for the link graph and the choice of failing pages
+   */
+  record Options(
+      int pages, int fanOut, int pageBytes, int latencyMs, double errorRate, long seed) {}
+
+  private static final String FILLER =
+      "Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do eiusmod tempor incididunt ut "
+          + "labore et dolore magna aliqua. ";
+
+  private final Options options;
+  private final HttpServer server;
+  private final ExecutorService executor;
+  private final AtomicLongArray linkedAt;
+  private final AtomicLongArray requestedAt;
+  private final LongAdder requests = new LongAdder();
+  private final LongAdder errors = new LongAdder();
+
+  /**
+   * Starts serving the site on a free loopback port.
+   *
+   * @param options Shape of the site
+   * @throws IOException if the server cannot be started
+   */
+  SyntheticSite(Options options) throws IOException {
+    this.options = options;
+    this.linkedAt = new AtomicLongArray(options.pages());
+    this.requestedAt = new AtomicLongArray(options.pages());
+    // Virtual threads so that simulated latency does not limit the number of concurrent responses
+    this.executor = Executors.newVirtualThreadPerTaskExecutor();
+    this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.createContext("/p/", this::handle);
+    server.setExecutor(executor);
+    server.start();
+  }
+
+  /**
+   * Returns the URL of page 0, where a crawl should start.
+   *
+   * @return Start URL
+   */
+  String startUrl() {
+    return "http://127.0.0.1:" + server.getAddress().getPort() + "/p/0.html";
+  }
+
+  /**
+   * Returns the links of a page, in document order.
+   *
+   * @param page Page number
+   * @return Linked page numbers, possibly with duplicates
+   */
+  int[] links(int page) {
+    int[] links = new int[Math.max(0, options.fanOut())];
+    if (links.length == 0) {
+      return links;
+    }
+    links[0] = (page + 1) % options.pages();
+    SplittableRandom random = new SplittableRandom(options.seed() * 31 + page);
+    for (int i = 1; i < links.length; i++) {
+      links[i] = random.nextInt(options.pages());
+    }
+    return links;
+  }
+
+  /**
+   * Returns whether a page answers with an error.
+   *
+   * @param page Page number
+   * @return true for HTTP 500, false for HTTP 200
+   */
+  boolean fails(int page) {
+    return page != 0
+        && new SplittableRandom(options.seed() ^ 0x5DEECE66DL ^ page).nextDouble()
+            < options.errorRate();
+  }
+
+  /**
+   * Returns the number of requests served, including errors and repeated requests.
+   *
+   * @return Request count
+   */
+  long requests() {
+    return requests.sum();
+  }
+
+  /**
+   * Returns the number of error responses served.
+   *
+   * @return Error count
+   */
+  long errors() {
+    return errors.sum();
+  }
+
+  /**
+   * Returns the number of distinct pages requested.
+   *
+   * @return Page count
+   */
+  int pagesRequested() {
+    int count = 0;
+    for (int i = 0; i < requestedAt.length(); i++) {
+      if (requestedAt.get(i) != 0) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Returns the end-to-end latency of every page that was both linked and requested, sorted.
+   *
+   * @return Latencies in nanoseconds, ascending
+   */
+  long[] latencies() {
+    List<Long> latencies = new ArrayList<>();
+    for (int i = 0; i < linkedAt.length(); i++) {
+      long linked = linkedAt.get(i);
+      long requested = requestedAt.get(i);
+      if (linked != 0 && requested != 0 && requested >= linked) {
+        latencies.add(requested - linked);
+      }
+    }
+    long[] sorted = latencies.stream().mapToLong(Long::longValue).toArray();
+    Arrays.sort(sorted);
+    return sorted;
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    try (exchange) {
+      requests.increment();
+      int page = pageNumber(exchange.getRequestURI().getPath());
+      if (page < 0) {
+        exchange.sendResponseHeaders(404, -1);
+        return;
+      }
+      requestedAt.compareAndSet(page, 0, System.nanoTime());
+      delay();
+      if (fails(page)) {
+        errors.increment();
+        exchange.sendResponseHeaders(500, -1);
+        return;
+      }
+      byte[] body = render(page).getBytes(StandardCharsets.UTF_8);
+      // Recorded before sending, so that the crawler cannot request a link before it is recorded
+      long now = System.nanoTime();
+      for (int link : links(page)) {
+        linkedAt.compareAndSet(link, 0, now);
+      }
+      exchange.getResponseHeaders().set("Content-Type", "text/html; charset=utf-8");
+      exchange.sendResponseHeaders(200, body.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(body);
+      }
+    }
+  }
+
+  /** Parses {@code /p/<n>.html}, returning -1 for anything else. */
+  private int pageNumber(String path) {
+    if (!path.startsWith("/p/") || !path.endsWith(".html")) {
+      return -1;
+    }
+    try {
+      int page = Integer.parseInt(path.substring(3, path.length() - 5));
+      return page >= 0 && page < options.pages() ? page : -1;
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  private void delay() {
+    if (options.latencyMs() <= 0) {
+      return;
+    }
+    long mean = options.latencyMs() * 1_000_000L;
+    long nanos = mean / 2 + ThreadLocalRandom.current().nextLong(mean + 1);
+    try {
+      Thread.sleep(nanos / 1_000_000, (int) (nanos % 1_000_000));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private String render(int page) {
+    StringBuilder html = new StringBuilder(options.pageBytes() + 256);
+    html.append("<!DOCTYPE html><html><head><meta charset=\"utf-8\"><title>Page ")
+        .append(page)
+        .append("</title></head><body><h1>Page ")
+        .append(page)
+        .append("</h1><ul>");
+    for (int link : links(page)) {
+      html.append("<li><a href=\"/p/").append(link).append(".html\">Page ").append(link);
+      html.append("</a></li>");
+    }
+    html.append("</ul>");
+    while (html.length() < options.pageBytes()) {
+      html.append("<p>").append(FILLER).append("</p>");
+    }
+    return html.append("</body></html>").toString();
+  }
+}
@@ -0,0 +1,44 @@
+package com.joegarb.crawler;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * URL normalization over a mix of URLs as they appear in pages: already normalized ones, ones with
+ * default ports, fragments, dot segments and mixed-case hosts, and percent-encoded paths.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UrlNormalizerBenchmark {
+  private static final String[] URLS = {
+    "https://crawlme.example.com/docs/releases/4.2/",
+    "https://crawlme.example.com/products/1234-item",
+    "HTTPS://CrawlMe.Example.COM:443/docs/../blog/./post?id=7#comments",
+    "http://crawlme.example.com:80/search?q=caf%C3%A9&page=2",
+    "https://other.example.org/topics/%7Euser/a%2Fb",
+    "https://crawlme.example.com/articles/99?ref=archive&page=9#top",
+    "https://cdn3.example.net/p/512.jpg",
+    "https://crawlme.example.com/a/b/c/d/e/f/g/../../../index.html",
+  };
+
+  private int next;
+
+  @Benchmark
+  public String normalize() {
+    String url = URLS[next];
+    next = (next + 1) % URLS.length;
+    return UrlNormalizer.normalize(url);
+  }
+}
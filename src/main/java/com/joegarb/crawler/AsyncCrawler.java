@@ -0,0 +1,207 @@
+package com.joegarb.crawler;
+
+import static com.joegarb.crawler.FrontierStore.FrontierUrl;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Crawls with non-blocking HTTP requests instead of a thread per request.
+ *
+ * <p>A single dispatcher thread takes URLs from the frontier buffer and starts their fetches with
+ * {@link PageFetcher#fetchAsync}, keeping at most a fixed number of requests in flight overall and
+ * per host. When a response arrives, link extraction and persistence run on a virtual thread, so
+ * the HTTP client's threads are never blocked on parsing or the database. Politeness still applies:
+ * the buffer only hands out URLs whose host is ready and reserves the host's next slot.
+ */
+public class AsyncCrawler {
+  private static final Logger logger = LoggerFactory.getLogger(AsyncCrawler.class);
+
+  /** Handles the outcome of a fetch, e.g. by recording it and queuing discovered links. */
+  @FunctionalInterface
+  public interface ResultHandler {
+    void handle(
+        FrontierUrl frontierUrl,
+        MetadataStore.PageValidators previous,
+        PageFetcher.FetchResult result)
+        throws SQLException;
+  }
+
+  /** A fetch result together with the validators the request was made with. */
+  private record Fetched(MetadataStore.PageValidators previous, PageFetcher.FetchResult result) {}
+
+  private final ConnectionPool.ConnectionFactory connections;
+  private final FrontierBuffer frontier;
+  private final PageFetcher fetcher;
+  private final ResultHandler handler;
+  private final int maxInFlight;
+  private final int maxInFlightPerHost;
+
+  private final Semaphore inFlight;
+  private final ConcurrentHashMap<String, Integer> inFlightByHost = new ConcurrentHashMap<>();
+  private volatile boolean failed;
+
+  /**
+   * Creates a crawler.
+   *
+   * @param connections Source of database connections
+   * @param frontier Buffer of claimed URLs
+   * @param fetcher Page fetcher
+   * @param handler Called with each fetch result, off the HTTP client's threads
+   * @param maxInFlight Maximum number of requests in flight at once
+   * @param maxInFlightPerHost Maximum number of requests in flight to a single host
+   */
+  public AsyncCrawler(
+      ConnectionPool.ConnectionFactory connections,
+      FrontierBuffer frontier,
+      PageFetcher fetcher,
+      ResultHandler handler,
+      int maxInFlight,
+      int maxInFlightPerHost) {
+    this.connections = connections;
+    this.frontier = frontier;
+    this.fetcher = fetcher;
+    this.handler = handler;
+    this.maxInFlight = Math.max(1, maxInFlight);
+    this.maxInFlightPerHost = Math.max(1, maxInFlightPerHost);
+    this.inFlight = new Semaphore(this.maxInFlight);
+  }
+
+  /**
+   * Crawls until the frontier queue is empty, a database error occurs or the thread is interrupted,
+   * then waits for requests in flight to finish.
+   */
+  public void run() {
+    logger.info(
+        "Async crawl: up to {} requests in flight, {} per host", maxInFlight, maxInFlightPerHost);
+    try (ExecutorService completions = Executors.newVirtualThreadPerTaskExecutor()) {
+      dispatch(completions);
+      // Wait for the remaining requests; their handlers may still add links, but nobody will
+      // dispatch them in this run
+      inFlight.acquireUninterruptibly(maxInFlight);
+    }
+    logger.info("Async crawl complete");
+  }
+
+  /**
+   * Starts fetches until there is nothing left to crawl.
+   *
+   * @param completions Executor for result handlers
+   */
+  private void dispatch(ExecutorService completions) {
+    while (!Thread.currentThread().isInterrupted() && !failed) {
+      try {
+        inFlight.acquire();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+
+      FrontierUrl frontierUrl;
+      try {
+        frontierUrl = frontier.take(this::hostAvailable);
+      } catch (SQLException e) {
+        inFlight.release();
+        logger.error("Database error in async crawler", e);
+        return;
+      }
+
+      if (frontierUrl == null) {
+        inFlight.release();
+        // Pending urls may belong to hosts that are cooling down or busy, and requests in flight
+        // may still add more, so only stop once the queue is empty
+        boolean hasUrls;
+        try {
+          hasUrls = frontier.hasUrls();
+        } catch (SQLException e) {
+          logger.error("Database error in async crawler", e);
+          return;
+        }
+        if (!hasUrls) {
+          return;
+        }
+        frontier.awaitWork();
+        continue;
+      }
+
+      start(frontierUrl, completions);
+    }
+  }
+
+  /**
+   * Starts fetching a URL. The global in-flight permit has already been acquired.
+   *
+   * @param frontierUrl The claimed frontier entry
+   * @param completions Executor for the result handler
+   */
+  private void start(FrontierUrl frontierUrl, ExecutorService completions) {
+    String host = hostKey(frontierUrl.host());
+    inFlightByHost.merge(host, 1, Integer::sum);
+    logger.debug("Dispatching URL: {}", frontierUrl.url());
+
+    CompletableFuture.supplyAsync(() -> loadValidators(frontierUrl.url()), completions)
+        .thenCompose(
+            previous ->
+                fetcher
+                    .fetchAsync(frontierUrl.url(), previous)
+                    .thenApply(result -> new Fetched(previous, result)))
+        .thenAcceptAsync(
+            fetched -> {
+              try {
+                handler.handle(frontierUrl, fetched.previous(), fetched.result());
+              } catch (SQLException e) {
+                logger.error("Database error while recording {}", frontierUrl.url(), e);
+                failed = true;
+              }
+            },
+            completions)
+        .whenComplete(
+            (ignored, error) -> {
+              if (error != null) {
+                logger.error("Unexpected error while crawling {}", frontierUrl.url(), error);
+              }
+              inFlightByHost.computeIfPresent(host, (key, count) -> count == 1 ? null : count - 1);
+              inFlight.release();
+              // Wakes an idle dispatcher, since the host may now take another request
+              frontier.signalWork();
+            });
+  }
+
+  /**
+   * Loads the validators of a URL's previous crawl for a conditional request. Runs on a virtual
+   * thread so the dispatcher never waits on the database.
+   *
+   * @param url Normalized URL
+   * @return The validators, or null if there are none or they cannot be read
+   */
+  private MetadataStore.PageValidators loadValidators(String url) {
+    try (Connection conn = connections.open()) {
+      return MetadataStore.getValidators(conn, url);
+    } catch (SQLException e) {
+      logger.warn("Could not load validators for {}, fetching unconditionally", url, e);
+      return null;
+    }
+  }
+
+  /**
+   * Checks whether another request may be started to a host.
+   *
+   * @param host Host, or "" for URLs without a host
+   * @return true if the host is below its in-flight limit
+   */
+  private boolean hostAvailable(String host) {
+    Integer count = inFlightByHost.get(host);
+    return count == null || count < maxInFlightPerHost;
+  }
+
+  private static String hostKey(String host) {
+    return host == null ? "" : host;
+  }
+}
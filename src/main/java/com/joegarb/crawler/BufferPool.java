@@ -0,0 +1,103 @@
+package com.joegarb.crawler;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Reusable byte arrays for collecting and decompressing response bodies.
+ *
+ * <p>Every fetched page used to allocate fresh arrays for its raw and decompressed bytes, only to
+ * copy them into a String and drop them. Borrowing from this pool instead leaves the decoded String
+ * as the only per-page allocation of body size. Arrays are handed out in power-of-two sizes and
+ * only modest ones are kept, so a single huge page cannot pin memory after it has been processed.
+ */
+final class BufferPool {
+  /** Smallest array handed out. */
+  static final int MIN_BUFFER_BYTES = 16 * 1024;
+
+  /** Largest array kept for reuse; bigger ones are left to the garbage collector. */
+  static final int MAX_POOLED_BUFFER_BYTES = 1024 * 1024;
+
+  /** Maximum number of idle arrays kept. */
+  static final int MAX_POOLED_BUFFERS = 16;
+
+  private static final ArrayBlockingQueue<byte[]> idle =
+      new ArrayBlockingQueue<>(MAX_POOLED_BUFFERS);
+  private static final LongAdder reused = new LongAdder();
+  private static final LongAdder allocated = new LongAdder();
+
+  private BufferPool() {}
+
+  /**
+   * Borrows an array. Its contents are undefined. Return it with {@link #release} when done.
+   *
+   * @param minCapacity Minimum length required
+   * @return An array of at least the requested length
+   */
+  static byte[] acquire(int minCapacity) {
+    byte[] buffer = idle.poll();
+    if (buffer != null) {
+      if (buffer.length >= minCapacity) {
+        reused.increment();
+        return buffer;
+      }
+      idle.offer(buffer);
+    }
+    allocated.increment();
+    return new byte[sizeFor(minCapacity)];
+  }
+
+  /**
+   * Borrows a larger array holding the first bytes of another, releasing the old one.
+   *
+   * @param buffer Array to grow
+   * @param used Number of leading bytes to keep
+   * @param minCapacity Minimum length required
+   * @return The new array
+   */
+  static byte[] grow(byte[] buffer, int used, int minCapacity) {
+    byte[] grown = acquire(minCapacity);
+    System.arraycopy(buffer, 0, grown, 0, used);
+    release(buffer);
+    return grown;
+  }
+
+  /**
+   * Returns an array to the pool. The caller must not use it afterwards.
+   *
+   * @param buffer Array from {@link #acquire} or {@link #grow}
+   */
+  static void release(byte[] buffer) {
+    if (buffer.length <= MAX_POOLED_BUFFER_BYTES) {
+      idle.offer(buffer);
+    }
+  }
+
+  /**
+   * Returns the number of arrays handed out from the pool rather than allocated.
+   *
+   * @return Reused array count
+   */
+  static long reused() {
+    return reused.sum();
+  }
+
+  /**
+   * Returns the number of arrays allocated because none suitable was idle.
+   *
+   * @return Allocated array count
+   */
+  static long allocated() {
+    return allocated.sum();
+  }
+
+  /** Rounds a capacity up to a power of two, at least {@link #MIN_BUFFER_BYTES}. */
+  private static int sizeFor(int minCapacity) {
+    if (minCapacity <= MIN_BUFFER_BYTES) {
+      return MIN_BUFFER_BYTES;
+    }
+    int size = Integer.highestOneBit(minCapacity - 1) << 1;
+    // Beyond 2^30 a power of two no longer fits in an int
+    return size > 0 ? size : Integer.MAX_VALUE - 8;
+  }
+}
@@ -0,0 +1,208 @@
+package com.joegarb.crawler;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * Determines the character encoding of an HTML body the way browsers do: a byte order mark wins,
+ * then the charset parameter of the Content-Type header, then a {@code <meta>} declaration in the
+ * first 1024 bytes, and UTF-8 otherwise.
+ *
+ * <p>The meta prescan is a simplified version of the one in the HTML standard: it finds {@code
+ * <meta} tags outside comments and takes the first {@code charset=} value inside one, which covers
+ * both {@code <meta charset="...">} and {@code <meta http-equiv="Content-Type" content="...;
+ * charset=...">}.
+ */
+final class CharsetDetector {
+  /** Number of leading bytes searched for a meta charset declaration. */
+  static final int PRESCAN_BYTES = 1024;
+
+  private static final Charset WINDOWS_1252 = Charset.forName("windows-1252");
+
+  private CharsetDetector() {}
+
+  /**
+   * Detects the encoding of a body.
+   *
+   * @param body Decoded body bytes
+   * @param length Number of valid bytes in {@code body}
+   * @param contentType Content-Type header value, or "" if absent
+   * @return The charset to decode the body with
+   */
+  static Charset detect(byte[] body, int length, String contentType) {
+    Charset charset = byteOrderMark(body, length);
+    if (charset == null) {
+      charset = fromContentType(contentType);
+    }
+    if (charset == null) {
+      charset = fromMeta(body, length);
+    }
+    return charset != null ? charset : StandardCharsets.UTF_8;
+  }
+
+  /**
+   * Returns the length of the byte order mark a body starts with.
+   *
+   * @param body Body bytes
+   * @param length Number of valid bytes in {@code body}
+   * @return 3 for UTF-8, 2 for UTF-16, or 0 if there is none
+   */
+  static int bomLength(byte[] body, int length) {
+    Charset charset = byteOrderMark(body, length);
+    if (charset == null) {
+      return 0;
+    }
+    return charset == StandardCharsets.UTF_8 ? 3 : 2;
+  }
+
+  /**
+   * Returns the charset named in a Content-Type header.
+   *
+   * @param contentType Content-Type header value
+   * @return The named charset, or null if none is named or it is not supported
+   */
+  static Charset fromContentType(String contentType) {
+    for (String parameter : contentType.split(";")) {
+      String trimmed = parameter.trim();
+      if (trimmed.regionMatches(true, 0, "charset=", 0, 8)) {
+        return forLabel(trimmed.substring(8).replace("\"", "").replace("'", ""));
+      }
+    }
+    return null;
+  }
+
+  private static Charset byteOrderMark(byte[] body, int length) {
+    if (length >= 3
+        && (body[0] & 0xff) == 0xef
+        && (body[1] & 0xff) == 0xbb
+        && (body[2] & 0xff) == 0xbf) {
+      return StandardCharsets.UTF_8;
+    }
+    if (length >= 2 && (body[0] & 0xff) == 0xfe && (body[1] & 0xff) == 0xff) {
+      return StandardCharsets.UTF_16BE;
+    }
+    if (length >= 2 && (body[0] & 0xff) == 0xff && (body[1] & 0xff) == 0xfe) {
+      return StandardCharsets.UTF_16LE;
+    }
+    return null;
+  }
+
+  /**
+   * Searches the start of a body for a meta charset declaration.
+   *
+   * @return The declared charset, or null if there is none or it is not supported
+   */
+  private static Charset fromMeta(byte[] body, int length) {
+    int end = Math.min(length, PRESCAN_BYTES);
+    int i = 0;
+    while (i < end) {
+      if (startsWith(body, i, end, "<!--")) {
+        int close = indexOf(body, i + 4, end, "-->");
+        if (close < 0) {
+          return null;
+        }
+        i = close + 3;
+      } else if (startsWith(body, i, end, "<meta") && i + 5 < end && isTagBoundary(body[i + 5])) {
+        int close = indexOf(body, i + 5, end, ">");
+        int tagEnd = close < 0 ? end : close;
+        Charset charset = charsetAttribute(body, i + 5, tagEnd);
+        if (charset != null) {
+          // A UTF-16 declaration cannot be right if the ASCII prescan could read it
+          return charset == StandardCharsets.UTF_16
+                  || charset == StandardCharsets.UTF_16BE
+                  || charset == StandardCharsets.UTF_16LE
+              ? StandardCharsets.UTF_8
+              : charset;
+        }
+        i = tagEnd;
+      } else {
+        i++;
+      }
+    }
+    return null;
+  }
+
+  /** Finds "charset", optional whitespace, "=" and a quoted or unquoted value within a tag. */
+  private static Charset charsetAttribute(byte[] body, int from, int to) {
+    int i = indexOf(body, from, to, "charset");
+    while (i >= 0) {
+      int j = skipWhitespace(body, i + 7, to);
+      if (j < to && body[j] == '=') {
+        j = skipWhitespace(body, j + 1, to);
+        int start = j;
+        byte quote = 0;
+        if (j < to && (body[j] == '"' || body[j] == '\'')) {
+          quote = body[j];
+          start = ++j;
+        }
+        while (j < to
+            && body[j] != quote
+            && (quote != 0 || (body[j] != ';' && body[j] != '"' && !isWhitespace(body[j])))) {
+          j++;
+        }
+        return forLabel(new String(body, start, j - start, StandardCharsets.US_ASCII));
+      }
+      i = indexOf(body, i + 7, to, "charset");
+    }
+    return null;
+  }
+
+  /**
+   * Resolves an encoding label, mapping the ASCII and Latin-1 labels to windows-1252 as browsers
+   * do, since pages labelled with them routinely contain windows-1252 characters.
+   *
+   * @return The charset, or null if the label is empty or not supported
+   */
+  private static Charset forLabel(String label) {
+    String name = label.trim().toLowerCase(Locale.ROOT);
+    if (name.isEmpty()) {
+      return null;
+    }
+    if (name.equals("iso-8859-1") || name.equals("latin1") || name.equals("us-ascii")) {
+      return WINDOWS_1252;
+    }
+    try {
+      return Charset.forName(name);
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  /** Checks for an ASCII string at an offset, ignoring case. */
+  private static boolean startsWith(byte[] body, int offset, int end, String ascii) {
+    if (offset + ascii.length() > end) {
+      return false;
+    }
+    for (int k = 0; k < ascii.length(); k++) {
+      if (Character.toLowerCase((char) (body[offset + k] & 0xff)) != ascii.charAt(k)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int indexOf(byte[] body, int from, int end, String ascii) {
+    for (int i = from; i + ascii.length() <= end; i++) {
+      if (startsWith(body, i, end, ascii)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static int skipWhitespace(byte[] body, int from, int end) {
+    while (from < end && isWhitespace(body[from])) {
+      from++;
+    }
+    return from;
+  }
+
+  private static boolean isWhitespace(byte b) {
+    return b == ' ' || b == '\t' || b == '\n' || b == '\r' || b == '\f';
+  }
+
+  private static boolean isTagBoundary(byte b) {
+    return isWhitespace(b) || b == '/' || b == '>';
+  }
+}
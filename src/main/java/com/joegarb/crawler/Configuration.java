@@ -7,6 +7,9 @@ import org.slf4j.LoggerFactory;
 
 /**
  * Configuration for the crawler, loaded from properties file with environment variable overrides.
+ * JVM system properties named like the properties file keys (e.g. {@code -Dnum.threads=8}) take
+ * precedence over both, which lets an embedding process such as a load test configure the crawler
+ * before starting it.
  */
 public class Configuration {
   private static final Logger logger = LoggerFactory.getLogger(Configuration.class);
@@ -15,10 +18,144 @@ public class Configuration {
   /** Database connection URL. */
   public static final String DB_URL = getProperty("db.url", "DB_URL", "jdbc:sqlite:crawler.db");
 
+  /** Size of the database connection pool, i.e. the maximum number of open connections. */
+  public static final int DB_MAX_CONNECTIONS =
+      getIntProperty("db.max.connections", "DB_MAX_CONNECTIONS", 8);
+
+  /** Maximum number of prepared statements cached per pooled connection, 0 to disable. */
+  public static final int DB_STATEMENT_CACHE_SIZE =
+      getIntProperty("db.statement.cache.size", "DB_STATEMENT_CACHE_SIZE", 32);
+
+  /** Time in milliseconds a connection waits on a locked SQLite database before failing. */
+  public static final int DB_BUSY_TIMEOUT_MS =
+      getIntProperty("db.busy.timeout.ms", "DB_BUSY_TIMEOUT_MS", 30000);
+
   /** Number of worker threads per process. */
   public static final int NUM_THREADS = getIntProperty("num.threads", "NUM_THREADS", 4);
 
-  /** Delay in milliseconds between processing URLs. */
+  /**
+   * Worker threading mode: "platform" runs each worker on its own OS thread, "virtual" runs each
+   * worker on a virtual thread so that NUM_THREADS can be set in the thousands, "async" issues
+   * non-blocking requests from a single dispatcher thread instead of running workers, and
+   * "pipeline" runs NUM_THREADS fetch threads feeding separate parse and persist stages.
+   */
+  public static final String WORKER_MODE =
+      getProperty("worker.mode", "WORKER_MODE", "platform").toLowerCase().trim();
+
+  /** Maximum number of HTTP requests in flight at once per process in async mode. */
+  public static final int FETCH_MAX_IN_FLIGHT =
+      getIntProperty("fetch.max.in.flight", "FETCH_MAX_IN_FLIGHT", 64);
+
+  /** Maximum number of HTTP requests in flight to a single host at once in async mode. */
+  public static final int FETCH_MAX_IN_FLIGHT_PER_HOST =
+      getIntProperty("fetch.max.in.flight.per.host", "FETCH_MAX_IN_FLIGHT_PER_HOST", 1);
+
+  /** Number of parse threads in pipeline mode, or 0 for one per available core. */
+  public static final int PIPELINE_PARSE_THREADS =
+      getIntProperty("pipeline.parse.threads", "PIPELINE_PARSE_THREADS", 0);
+
+  /** Maximum number of fetched pages waiting to be parsed in pipeline mode. */
+  public static final int PIPELINE_QUEUE_CAPACITY =
+      getIntProperty("pipeline.queue.capacity", "PIPELINE_QUEUE_CAPACITY", 64);
+
+  /** Interval in seconds between throughput log reports, or 0 to disable them. */
+  public static final int STATS_REPORT_INTERVAL_SECONDS =
+      getIntProperty("stats.report.interval.seconds", "STATS_REPORT_INTERVAL_SECONDS", 30);
+
+  /**
+   * Local port on which to serve metrics in the Prometheus text format at /metrics, or 0 to not
+   * serve them. The server listens on the loopback interface only.
+   */
+  public static final int METRICS_HTTP_PORT =
+      getIntProperty("metrics.http.port", "METRICS_HTTP_PORT", 0);
+
+  /** Whether to expose metrics as attributes of a JMX MBean. */
+  public static final boolean METRICS_JMX_ENABLED =
+      getBooleanProperty("metrics.jmx.enabled", "METRICS_JMX_ENABLED", true);
+
+  /**
+   * Where the frontier queue is kept: "sqlite" in the database, shared by every process using it,
+   * "memory" in this process only, with periodic snapshots to FRONTIER_SNAPSHOT_PATH, or "log" in
+   * memory-mapped segment files in FRONTIER_LOG_DIR, used by this process only.
+   */
+  public static final String FRONTIER_BACKEND =
+      getProperty("frontier.backend", "FRONTIER_BACKEND", "sqlite").toLowerCase().trim();
+
+  /** Snapshot file of the in-memory frontier, restored at startup if it exists. */
+  public static final String FRONTIER_SNAPSHOT_PATH =
+      getProperty("frontier.snapshot.path", "FRONTIER_SNAPSHOT_PATH", "frontier.snapshot");
+
+  /**
+   * Interval in seconds between snapshots of the in-memory frontier, or 0 to only write one when
+   * the crawl stops.
+   */
+  public static final int FRONTIER_SNAPSHOT_INTERVAL_SECONDS =
+      getIntProperty(
+          "frontier.snapshot.interval.seconds", "FRONTIER_SNAPSHOT_INTERVAL_SECONDS", 60);
+
+  /**
+   * Number of shards the SQLite frontier is split into by host. Each process sharing the database
+   * leases a share of the shards and claims only their URLs, so that processes do not compete for
+   * the same rows or hosts. Every process must use the same value; 1 lets every process claim from
+   * the whole queue.
+   */
+  public static final int FRONTIER_SHARDS =
+      getIntProperty("frontier.shards", "FRONTIER_SHARDS", 16);
+
+  /**
+   * Time in seconds after which the shard leases of a process that stopped renewing them expire and
+   * its shards go to the other processes. Leases are renewed every third of it.
+   */
+  public static final int FRONTIER_SHARD_LEASE_SECONDS =
+      getIntProperty("frontier.shard.lease.seconds", "FRONTIER_SHARD_LEASE_SECONDS", 30);
+
+  /**
+   * Time in seconds after which a URL claimed from the SQLite frontier that was neither processed
+   * nor released, e.g. because the process that claimed it died, is returned to the queue. Each
+   * process renews the claims it holds every quarter of this time. 0 never returns claims.
+   */
+  public static final int FRONTIER_CLAIM_LEASE_SECONDS =
+      getIntProperty("frontier.claim.lease.seconds", "FRONTIER_CLAIM_LEASE_SECONDS", 600);
+
+  /**
+   * Scorer that orders the SQLite frontier: "priority" for {@link PriorityScorer}, "fifo" to claim
+   * URLs oldest first, or the class name of a custom {@link FrontierScorer}.
+   */
+  public static final String FRONTIER_SCORER =
+      getProperty("frontier.scorer", "FRONTIER_SCORER", "priority");
+
+  /** URLs per host the priority scorer adds at full priority before lowering that host's score. */
+  public static final int FRONTIER_HOST_BUDGET =
+      getIntProperty("frontier.host.budget", "FRONTIER_HOST_BUDGET", 1000);
+
+  /** Directory of the segment files of the log frontier. */
+  public static final String FRONTIER_LOG_DIR =
+      getProperty("frontier.log.dir", "FRONTIER_LOG_DIR", "frontier-log");
+
+  /** Size in megabytes of each segment file of the log frontier. */
+  public static final int FRONTIER_LOG_SEGMENT_MB =
+      getIntProperty("frontier.log.segment.mb", "FRONTIER_LOG_SEGMENT_MB", 64);
+
+  /** Smallest number of frontier URLs claimed at once into the in-process buffer. */
+  public static final int FRONTIER_BATCH_MIN =
+      getIntProperty("frontier.batch.min", "FRONTIER_BATCH_MIN", 1);
+
+  /**
+   * Largest number of frontier URLs claimed at once into the in-process buffer, which is also the
+   * buffer's capacity. The batch size adapts between the minimum and this value.
+   */
+  public static final int FRONTIER_BATCH_MAX =
+      getIntProperty("frontier.batch.max", "FRONTIER_BATCH_MAX", 64);
+
+  /** Maximum number of processed pages recorded in one database transaction. */
+  public static final int PERSISTENCE_FLUSH_SIZE =
+      getIntProperty("persistence.flush.size", "PERSISTENCE_FLUSH_SIZE", 100);
+
+  /** Maximum time in milliseconds a processed page waits before its transaction is committed. */
+  public static final int PERSISTENCE_FLUSH_INTERVAL_MS =
+      getIntProperty("persistence.flush.interval.ms", "PERSISTENCE_FLUSH_INTERVAL_MS", 100);
+
+  /** Minimum delay in milliseconds between requests to the same host. */
   public static final int DELAY_BETWEEN_REQUESTS_MS =
       getIntProperty("delay.between.requests.ms", "DELAY_BETWEEN_REQUESTS_MS", 1000);
 
@@ -26,7 +163,17 @@ public class Configuration {
   public static final int HTTP_TIMEOUT_SECONDS =
       getIntProperty("http.timeout.seconds", "HTTP_TIMEOUT_SECONDS", 10);
 
-  /** Time in seconds to wait before retrying a failed URL fetch. */
+  /**
+   * Largest HTML response body in bytes to read, both as received and after decompression; longer
+   * bodies are cut off and only the part read is parsed for links. 0 or less disables the limit.
+   */
+  public static final int HTTP_MAX_BODY_BYTES =
+      getIntProperty("http.max.body.bytes", "HTTP_MAX_BODY_BYTES", 5 * 1024 * 1024);
+
+  /**
+   * Time in seconds to wait before retrying a failed URL fetch. It doubles with each consecutive
+   * failure of the same URL, up to {@link #RECRAWL_MAX_INTERVAL_SECONDS}.
+   */
   public static final int FAILED_RETRY_INTERVAL_SECONDS =
       getIntProperty("failed.retry.interval.seconds", "FAILED_RETRY_INTERVAL_SECONDS", 300);
 
@@ -34,10 +181,58 @@ public class Configuration {
   public static final int SUCCESS_REFRESH_INTERVAL_SECONDS =
       getIntProperty("success.refresh.interval.seconds", "SUCCESS_REFRESH_INTERVAL_SECONDS", 86400);
 
+  /**
+   * Number of due URLs per second the recrawl scheduler re-enqueues into the frontier, per process.
+   * 0 disables the scheduler, so that URLs are only refreshed when a link to them is found again.
+   */
+  public static final double RECRAWL_RATE_PER_SECOND =
+      getDoubleProperty("recrawl.rate.per.second", "RECRAWL_RATE_PER_SECOND", 10);
+
+  /** Largest number of due URLs the recrawl scheduler re-enqueues in one transaction. */
+  public static final int RECRAWL_BATCH_SIZE =
+      getIntProperty("recrawl.batch.size", "RECRAWL_BATCH_SIZE", 100);
+
+  /**
+   * Bounds in seconds of the refresh interval of a successfully crawled URL, which halves when a
+   * refresh finds its content changed and doubles when it finds it unchanged.
+   */
+  public static final int RECRAWL_MIN_INTERVAL_SECONDS =
+      getIntProperty("recrawl.min.interval.seconds", "RECRAWL_MIN_INTERVAL_SECONDS", 3600);
+
+  /** See {@link #RECRAWL_MIN_INTERVAL_SECONDS}. */
+  public static final int RECRAWL_MAX_INTERVAL_SECONDS =
+      getIntProperty("recrawl.max.interval.seconds", "RECRAWL_MAX_INTERVAL_SECONDS", 30 * 86400);
+
   /** Whether to restrict crawling to the same host (and its subdomains). */
   public static final boolean RESTRICT_TO_HOST =
       getBooleanProperty("restrict.to.host", "RESTRICT_TO_HOST", true);
 
+  /**
+   * How links are extracted from pages: "streaming" scans the HTML for anchor tags without building
+   * a document tree, "dom" parses the full page with jsoup.
+   */
+  public static final String LINK_EXTRACTION_MODE =
+      getProperty("link.extraction.mode", "LINK_EXTRACTION_MODE", "streaming").toLowerCase().trim();
+
+  /**
+   * Whether to queue links never seen before without checking them against the database. Ignored
+   * when other processes may crawl the same database.
+   */
+  public static final boolean SEEN_FILTER_ENABLED =
+      getBooleanProperty("seen.filter.enabled", "SEEN_FILTER_ENABLED", true);
+
+  /** Number of URLs the seen-URL filter is sized for; determines its memory use. */
+  public static final int SEEN_FILTER_EXPECTED_URLS =
+      getIntProperty("seen.filter.expected.urls", "SEEN_FILTER_EXPECTED_URLS", 10_000_000);
+
+  /**
+   * Target false-positive rate of the seen-URL filter at its expected size, i.e. the fraction of
+   * new links that are looked up in the database although they could have skipped it.
+   */
+  public static final double SEEN_FILTER_FALSE_POSITIVE_RATE =
+      getDoubleProperty(
+          "seen.filter.false.positive.rate", "SEEN_FILTER_FALSE_POSITIVE_RATE", 0.0001);
+
   /**
    * Loads properties from application.properties file.
    *
@@ -60,7 +255,8 @@ public class Configuration {
   }
 
   /**
-   * Gets a property value, checking environment variable first, then properties file, then default.
+   * Gets a property value, checking system properties first, then environment variables, then the
+   * properties file, then the default.
    *
    * @param propertyKey Properties file key
    * @param envKey Environment variable name
@@ -68,7 +264,14 @@ public class Configuration {
    * @return Property value
    */
   private static String getProperty(String propertyKey, String envKey, String defaultValue) {
-    // Environment variables take precedence
+    // An explicit system property overrides everything
+    String systemValue = System.getProperty(propertyKey);
+    if (systemValue != null && !systemValue.isEmpty()) {
+      logger.debug("Using {}={} from system property", propertyKey, systemValue);
+      return systemValue;
+    }
+
+    // Then environment variables
     String envValue = System.getenv(envKey);
     if (envValue != null && !envValue.isEmpty()) {
       logger.debug("Using {}={} from environment variable", envKey, envValue);
@@ -109,6 +312,29 @@ public class Configuration {
     }
   }
 
+  /**
+   * Gets a double property value.
+   *
+   * @param propertyKey Properties file key
+   * @param envKey Environment variable name
+   * @param defaultValue Default value if not found or invalid
+   * @return Property value as double
+   */
+  private static double getDoubleProperty(String propertyKey, String envKey, double defaultValue) {
+    String stringValue = getProperty(propertyKey, envKey, String.valueOf(defaultValue));
+    try {
+      return Double.parseDouble(stringValue);
+    } catch (NumberFormatException e) {
+      logger.warn(
+          "Invalid number value for {}/{}: {}, using default: {}",
+          propertyKey,
+          envKey,
+          stringValue,
+          defaultValue);
+      return defaultValue;
+    }
+  }
+
   /**
    * Gets a boolean property value.
    *
@@ -0,0 +1,371 @@
+package com.joegarb.crawler;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A fixed-size pool of database connections with a prepared-statement cache per connection.
+ *
+ * <p>Connections handed out by the pool are proxies: closing one returns the physical connection to
+ * the pool, and closing a statement obtained through {@code prepareStatement(String)} returns it to
+ * the connection's statement cache so the SQL is only compiled once per connection. Callers keep
+ * using try-with-resources exactly as with unpooled connections.
+ */
+public class ConnectionPool implements AutoCloseable {
+  private static final Logger logger = LoggerFactory.getLogger(ConnectionPool.class);
+
+  /** Opens new physical connections for the pool. */
+  @FunctionalInterface
+  public interface ConnectionFactory {
+    Connection open() throws SQLException;
+  }
+
+  /**
+   * Snapshot of pool sizing and wait-time metrics.
+   *
+   * @param maxSize Maximum number of physical connections
+   * @param open Physical connections currently open
+   * @param idle Open connections waiting in the pool
+   * @param borrows Total number of connections handed out
+   * @param waits Number of borrows that had to wait for a connection to be returned
+   * @param totalWaitMillis Total time spent waiting for connections
+   * @param maxWaitMillis Longest single wait for a connection
+   * @param statementCacheHits Prepared statements served from a connection's cache
+   * @param statementCacheMisses Prepared statements that had to be compiled
+   */
+  public record Stats(
+      int maxSize,
+      int open,
+      int idle,
+      long borrows,
+      long waits,
+      long totalWaitMillis,
+      long maxWaitMillis,
+      long statementCacheHits,
+      long statementCacheMisses) {
+    /**
+     * Returns the number of connections currently borrowed.
+     *
+     * @return Active connections
+     */
+    public int active() {
+      return open - idle;
+    }
+  }
+
+  private final ConnectionFactory factory;
+  private final int maxSize;
+  private final int statementCacheSize;
+  // One permit per connection slot; fair so that waiting borrowers are served in arrival order
+  private final Semaphore permits;
+  private final Deque<PooledConnection> idle = new ConcurrentLinkedDeque<>();
+  private final AtomicInteger open = new AtomicInteger();
+  private final LongAdder borrows = new LongAdder();
+  private final LongAdder waits = new LongAdder();
+  private final LongAdder waitNanos = new LongAdder();
+  private final LongAccumulator maxWaitNanos = new LongAccumulator(Math::max, 0);
+  private final LongAdder statementCacheHits = new LongAdder();
+  private final LongAdder statementCacheMisses = new LongAdder();
+  private volatile boolean closed;
+
+  /**
+   * Creates a pool. Connections are opened lazily, up to maxSize.
+   *
+   * @param factory Opens new physical connections
+   * @param maxSize Maximum number of physical connections
+   * @param statementCacheSize Maximum number of cached prepared statements per connection, 0 to
+   *     disable caching
+   */
+  public ConnectionPool(ConnectionFactory factory, int maxSize, int statementCacheSize) {
+    this.factory = factory;
+    this.maxSize = Math.max(1, maxSize);
+    this.permits = new Semaphore(this.maxSize, true);
+    this.statementCacheSize = Math.max(0, statementCacheSize);
+  }
+
+  /**
+   * Borrows a connection, opening a new one if no idle connection is available and the pool is
+   * below its maximum size, and otherwise blocking until another caller returns one.
+   *
+   * @return A pooled connection; close it to return it to the pool
+   * @throws SQLException if a new connection cannot be opened, the pool is closed, or the thread is
+   *     interrupted while waiting
+   */
+  public Connection getConnection() throws SQLException {
+    if (closed) {
+      throw new SQLException("Connection pool is closed");
+    }
+    borrows.increment();
+    try {
+      // A zero-timeout tryAcquire honors the fair ordering, so new callers never overtake waiters
+      if (!permits.tryAcquire(0, TimeUnit.MILLISECONDS)) {
+        long start = System.nanoTime();
+        try {
+          permits.acquire();
+        } finally {
+          long waited = System.nanoTime() - start;
+          waits.increment();
+          waitNanos.add(waited);
+          maxWaitNanos.accumulate(waited);
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SQLException("Interrupted while waiting for a database connection", e);
+    }
+    try {
+      PooledConnection pooled = idle.pollFirst();
+      if (pooled == null) {
+        pooled = new PooledConnection(factory.open());
+        open.incrementAndGet();
+      }
+      return pooled.lease();
+    } catch (SQLException | RuntimeException e) {
+      permits.release();
+      throw e;
+    }
+  }
+
+  /**
+   * Returns a snapshot of the pool's metrics.
+   *
+   * @return Current pool statistics
+   */
+  public Stats stats() {
+    return new Stats(
+        maxSize,
+        open.get(),
+        idle.size(),
+        borrows.sum(),
+        waits.sum(),
+        waitNanos.sum() / 1_000_000,
+        maxWaitNanos.get() / 1_000_000,
+        statementCacheHits.sum(),
+        statementCacheMisses.sum());
+  }
+
+  /** Closes all idle connections. Borrowed connections are closed when they are returned. */
+  @Override
+  public void close() {
+    closed = true;
+    PooledConnection pooled;
+    while ((pooled = idle.pollFirst()) != null) {
+      pooled.closePhysical();
+    }
+  }
+
+  /**
+   * Returns a connection to the pool, or discards it if it is broken or the pool is closed.
+   *
+   * @param pooled Connection being returned
+   */
+  private void release(PooledConnection pooled) {
+    // Statements the borrower left open are stale once their lease ends, so none stay in use
+    pooled.statementsInUse.clear();
+    boolean reusable;
+    try {
+      Connection physical = pooled.physical;
+      reusable = !closed && !physical.isClosed();
+      if (reusable && !physical.getAutoCommit()) {
+        // Never hand out a connection with a half-finished transaction
+        physical.rollback();
+        physical.setAutoCommit(true);
+      }
+    } catch (SQLException e) {
+      logger.warn("Discarding pooled connection: {}", e.getMessage());
+      reusable = false;
+    }
+    if (reusable) {
+      idle.offerFirst(pooled);
+    } else {
+      pooled.closePhysical();
+    }
+    permits.release();
+  }
+
+  /** A physical connection and its prepared-statement cache. */
+  private final class PooledConnection {
+    private final Connection physical;
+    private final Map<String, PreparedStatement> statementCache;
+    private final Set<String> statementsInUse = new HashSet<>();
+
+    PooledConnection(Connection physical) {
+      this.physical = physical;
+      // Access order, so iteration starts at the least recently used statement
+      this.statementCache = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Wraps the physical connection for a single borrower.
+     *
+     * @return Proxy that returns the connection to the pool when closed
+     */
+    Connection lease() {
+      boolean[] released = {false};
+      return (Connection)
+          Proxy.newProxyInstance(
+              Connection.class.getClassLoader(),
+              new Class<?>[] {Connection.class},
+              (proxy, method, args) -> {
+                String name = method.getName();
+                if ("close".equals(name) && method.getParameterCount() == 0) {
+                  if (!released[0]) {
+                    released[0] = true;
+                    release(this);
+                  }
+                  return null;
+                }
+                if ("isClosed".equals(name) && method.getParameterCount() == 0) {
+                  return released[0] || physical.isClosed();
+                }
+                if (released[0]) {
+                  throw new SQLException("Connection has been returned to the pool");
+                }
+                if ("prepareStatement".equals(name)
+                    && method.getParameterCount() == 1
+                    && statementCacheSize > 0) {
+                  return prepareCached((String) args[0], released);
+                }
+                return invoke(physical, method, args);
+              });
+    }
+
+    /**
+     * Returns a cached statement for the SQL, compiling it on first use.
+     *
+     * @param sql SQL text
+     * @param released Flag of the lease the statement is prepared through, set once the connection
+     *     is returned to the pool
+     * @return Statement proxy whose close() returns the statement to the cache, and which rejects
+     *     calls once it or its lease is closed
+     * @throws SQLException if the statement cannot be prepared
+     */
+    private PreparedStatement prepareCached(String sql, boolean[] released) throws SQLException {
+      if (statementsInUse.contains(sql)) {
+        // The same SQL is already open on this connection, so hand out an uncached statement
+        statementCacheMisses.increment();
+        return physical.prepareStatement(sql);
+      }
+      PreparedStatement statement = statementCache.get(sql);
+      if (statement == null || statement.isClosed()) {
+        statementCacheMisses.increment();
+        statementCache.remove(sql);
+        if (!makeRoom()) {
+          // Every cached statement is in use, so hand out an uncached one rather than grow
+          return physical.prepareStatement(sql);
+        }
+        statement = physical.prepareStatement(sql);
+        statementCache.put(sql, statement);
+      } else {
+        statementCacheHits.increment();
+      }
+      statementsInUse.add(sql);
+      PreparedStatement cached = statement;
+      boolean[] returned = {false};
+      return (PreparedStatement)
+          Proxy.newProxyInstance(
+              PreparedStatement.class.getClassLoader(),
+              new Class<?>[] {PreparedStatement.class},
+              (proxy, method, args) -> {
+                String name = method.getName();
+                if ("close".equals(name) && method.getParameterCount() == 0) {
+                  if (!returned[0]) {
+                    returned[0] = true;
+                    if (released[0]) {
+                      // Released with the lease; the statement may now be in use by another
+                      // borrower
+                      return null;
+                    }
+                    statementsInUse.remove(sql);
+                    try {
+                      cached.clearParameters();
+                      cached.clearBatch();
+                    } catch (SQLException e) {
+                      statementCache.remove(sql);
+                      closeQuietly(cached);
+                    }
+                  }
+                  return null;
+                }
+                if ("isClosed".equals(name) && method.getParameterCount() == 0) {
+                  return returned[0] || released[0];
+                }
+                if (returned[0]) {
+                  throw new SQLException("Statement has been returned to the cache");
+                }
+                if (released[0]) {
+                  throw new SQLException("Connection has been returned to the pool");
+                }
+                return invoke(cached, method, args);
+              });
+    }
+
+    /**
+     * Evicts least recently used statements that are not in use until the cache has room for one
+     * more.
+     *
+     * @return true if there is room, false if every cached statement is in use
+     */
+    private boolean makeRoom() {
+      Iterator<Map.Entry<String, PreparedStatement>> entries = statementCache.entrySet().iterator();
+      while (statementCache.size() >= statementCacheSize && entries.hasNext()) {
+        Map.Entry<String, PreparedStatement> eldest = entries.next();
+        if (!statementsInUse.contains(eldest.getKey())) {
+          closeQuietly(eldest.getValue());
+          entries.remove();
+        }
+      }
+      return statementCache.size() < statementCacheSize;
+    }
+
+    /** Closes all cached statements and the physical connection. */
+    void closePhysical() {
+      List<PreparedStatement> statements = new ArrayList<>(statementCache.values());
+      statementCache.clear();
+      statements.forEach(ConnectionPool::closeQuietly);
+      try {
+        physical.close();
+      } catch (SQLException e) {
+        logger.debug("Error closing pooled connection: {}", e.getMessage());
+      } finally {
+        open.decrementAndGet();
+      }
+    }
+  }
+
+  private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+    try {
+      return method.invoke(target, args);
+    } catch (InvocationTargetException e) {
+      throw e.getCause();
+    }
+  }
+
+  private static void closeQuietly(PreparedStatement statement) {
+    try {
+      statement.close();
+    } catch (SQLException e) {
+      logger.debug("Error closing cached statement: {}", e.getMessage());
+    }
+  }
+}
@@ -0,0 +1,361 @@
+package com.joegarb.crawler;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.http.HttpHeaders;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Decodes HTTP response bodies sent with a gzip or deflate Content-Encoding.
+ *
+ * <p>Java's HttpClient neither asks for nor undoes compression, so {@link PageFetcher} sends
+ * Accept-Encoding itself, and {@link PageBodyHandler} feeds each chunk of the body to a decoder as
+ * it arrives. Compressed chunks are inflated straight into a pooled buffer that stops at the size
+ * limit, so a body that inflates past the limit is cut off without downloading the rest of it. The
+ * result is turned into text once, in the charset {@link CharsetDetector} finds.
+ *
+ * <p>A decoder is not thread-safe; it is fed from the serialized signals of one body subscriber.
+ */
+final class ContentDecoder {
+  /** Content codings sent in the Accept-Encoding request header. */
+  static final String ACCEPT_ENCODING = "gzip, deflate";
+
+  private static final int GZIP_MAGIC = 0x8b1f;
+  private static final int GZIP_TRAILER_BYTES = 8;
+  private static final int MAX_HEADER_BYTES = 64 * 1024;
+  private static final int FHCRC = 2;
+  private static final int FEXTRA = 4;
+  private static final int FNAME = 8;
+  private static final int FCOMMENT = 16;
+
+  private enum State {
+    HEADER,
+    BODY,
+    TRAILER,
+    DONE
+  }
+
+  private final HttpHeaders headers;
+  private final String encoding;
+  private final boolean gzip;
+  private final boolean compressed;
+  private final int maxBytes;
+  // One byte past the limit, to tell whether anything was cut off
+  private final int limit;
+  private final CRC32 crc;
+  private Inflater inflater;
+  private State state = State.HEADER;
+  private byte[] header = new byte[16];
+  private int headerLength;
+  private int members;
+  private byte[] buffer;
+  private int size;
+  private long wireBytes;
+
+  /**
+   * Creates a decoder for one response body.
+   *
+   * @param headers Response headers
+   * @param maxBytes Largest decoded body to return
+   * @param contentLength Body size as received, per its Content-Length; -1 if unknown
+   */
+  ContentDecoder(HttpHeaders headers, int maxBytes, long contentLength) {
+    this.headers = headers;
+    this.encoding =
+        headers.firstValue("Content-Encoding").orElse("").trim().toLowerCase(Locale.ROOT);
+    this.gzip = encoding.equals("gzip") || encoding.equals("x-gzip");
+    this.compressed = gzip || encoding.equals("deflate");
+    this.maxBytes = maxBytes;
+    this.limit = maxBytes < Integer.MAX_VALUE ? maxBytes + 1 : maxBytes;
+    this.crc = gzip ? new CRC32() : null;
+    if (gzip) {
+      inflater = new Inflater(true);
+    }
+    long expected = Math.max(0, contentLength);
+    // Text typically compresses several times over, so start from a multiple of the input
+    buffer = BufferPool.acquire((int) Math.min(limit, compressed ? expected * 4 : expected));
+  }
+
+  /**
+   * Decodes a complete response body into text, recording wire and decoded sizes in {@link
+   * CrawlStats}. Output beyond the size limit is cut off.
+   *
+   * @param body Body bytes as received; the caller keeps ownership of the array
+   * @param length Number of valid bytes in {@code body}
+   * @param headers Response headers
+   * @param maxBytes Largest decoded body to return
+   * @param truncated Whether the body was cut off before its end, in which case a compressed stream
+   *     is decoded as far as it goes instead of being rejected as incomplete
+   * @return The body text, in the charset found by {@link CharsetDetector}
+   * @throws UncheckedIOException if the body is not valid for its Content-Encoding
+   */
+  static String decode(
+      byte[] body, int length, HttpHeaders headers, int maxBytes, boolean truncated) {
+    ContentDecoder decoder = new ContentDecoder(headers, maxBytes, length);
+    try {
+      decoder.write(ByteBuffer.wrap(body, 0, length));
+    } catch (UncheckedIOException e) {
+      decoder.release();
+      throw e;
+    }
+    return decoder.finish(truncated);
+  }
+
+  /**
+   * Decodes the next chunk of the body, up to the size limit.
+   *
+   * @param chunk Encoded bytes as received; consumed unless the limit is reached first
+   * @return false once the decoded body has passed the size limit, after which the rest of the body
+   *     can be discarded
+   * @throws UncheckedIOException if the body is not valid for its Content-Encoding; the decoder has
+   *     then released its buffer
+   */
+  boolean write(ByteBuffer chunk) {
+    wireBytes += chunk.remaining();
+    try {
+      if (!compressed) {
+        int length = Math.min(chunk.remaining(), limit - size);
+        ensureCapacity(size + length);
+        chunk.get(buffer, size, length);
+        size += length;
+      }
+      while (compressed && chunk.hasRemaining() && size < limit) {
+        switch (state) {
+          case HEADER -> readHeader(chunk);
+          case BODY -> inflate(chunk);
+          case TRAILER -> readTrailer(chunk);
+          case DONE -> chunk.position(chunk.limit());
+        }
+      }
+    } catch (IOException e) {
+      release();
+      throw new UncheckedIOException("Invalid " + encoding + " response body", e);
+    }
+    return size < limit;
+  }
+
+  /**
+   * Finishes decoding and turns the body into text, recording wire and decoded sizes in {@link
+   * CrawlStats}. Releases the decoder's buffer.
+   *
+   * @param truncated Whether the body was cut off before its end, in which case a compressed stream
+   *     is decoded as far as it goes instead of being rejected as incomplete
+   * @return The body text, in the charset found by {@link CharsetDetector}
+   * @throws UncheckedIOException if a complete body ends in the middle of its compressed stream
+   */
+  String finish(boolean truncated) {
+    try {
+      boolean complete =
+          !compressed
+              || size >= limit
+              || state == State.DONE
+              || (state == State.HEADER && members > 0 && headerLength == 0);
+      if (!complete && !truncated) {
+        throw new UncheckedIOException(
+            "Invalid " + encoding + " response body",
+            new EOFException("Unexpected end of " + encoding + " stream"));
+      }
+      int decodedLength = size;
+      if (decodedLength > maxBytes) {
+        decodedLength = maxBytes;
+        if (!truncated) {
+          CrawlStats.recordTruncatedBody(0);
+        }
+      }
+      CrawlStats.recordTransfer(wireBytes, decodedLength);
+      Charset charset =
+          CharsetDetector.detect(
+              buffer, decodedLength, headers.firstValue("Content-Type").orElse(""));
+      int bom = CharsetDetector.bomLength(buffer, decodedLength);
+      return new String(buffer, bom, decodedLength - bom, charset);
+    } finally {
+      release();
+    }
+  }
+
+  /** Returns the decoder's buffer to the pool without decoding, if it has not been already. */
+  void release() {
+    if (buffer != null) {
+      BufferPool.release(buffer);
+      buffer = null;
+    }
+    if (inflater != null) {
+      inflater.end();
+      inflater = null;
+    }
+  }
+
+  /**
+   * Collects a gzip member header or the first two bytes of a deflate stream, one byte at a time so
+   * that none of the compressed data that follows is taken, then starts inflating.
+   */
+  private void readHeader(ByteBuffer chunk) throws IOException {
+    while (chunk.hasRemaining()) {
+      if (headerLength == header.length) {
+        if (headerLength >= MAX_HEADER_BYTES) {
+          throw new ZipException("Header too long");
+        }
+        header = Arrays.copyOf(header, headerLength * 2);
+      }
+      header[headerLength++] = chunk.get();
+      if (!gzip) {
+        if (headerLength == 2) {
+          // "deflate" is meant to be zlib-wrapped, but some servers send a raw deflate stream
+          inflater = new Inflater(!hasZlibHeader(header));
+          state = State.BODY;
+          inflate(ByteBuffer.wrap(header, 0, headerLength));
+          headerLength = 0;
+        }
+        return;
+      }
+      int length;
+      try {
+        length = gzipHeaderLength(header, headerLength);
+      } catch (ZipException e) {
+        if (members == 0) {
+          throw e;
+        }
+        // Like GZIPInputStream, ignore anything after a complete member that is not another one
+        state = State.DONE;
+        return;
+      }
+      if (length > 0) {
+        headerLength = 0;
+        state = State.BODY;
+        return;
+      }
+    }
+  }
+
+  /**
+   * Inflates input into the buffer until the input runs out, the stream ends or the limit is hit.
+   */
+  private void inflate(ByteBuffer input) throws IOException {
+    inflater.setInput(input);
+    try {
+      while (size < limit) {
+        ensureCapacity(Math.min(limit, size + 1));
+        int n = inflater.inflate(buffer, size, Math.min(buffer.length, limit) - size);
+        if (crc != null) {
+          crc.update(buffer, size, n);
+        }
+        size += n;
+        if (inflater.finished()) {
+          state = gzip ? State.TRAILER : State.DONE;
+          return;
+        }
+        if (n == 0) {
+          if (inflater.needsDictionary()) {
+            throw new ZipException("Preset dictionaries are not supported");
+          }
+          if (inflater.needsInput()) {
+            return;
+          }
+        }
+      }
+    } catch (DataFormatException e) {
+      throw new ZipException(e.getMessage());
+    }
+  }
+
+  /** Collects and checks the CRC-32 and size that end a gzip member. */
+  private void readTrailer(ByteBuffer chunk) throws IOException {
+    while (chunk.hasRemaining() && headerLength < GZIP_TRAILER_BYTES) {
+      header[headerLength++] = chunk.get();
+    }
+    if (headerLength < GZIP_TRAILER_BYTES) {
+      return;
+    }
+    if (readInt(header, 0) != crc.getValue()) {
+      throw new ZipException("Corrupt GZIP trailer");
+    }
+    if (readInt(header, 4) != (inflater.getBytesWritten() & 0xffffffffL)) {
+      throw new ZipException("Corrupt GZIP trailer");
+    }
+    members++;
+    headerLength = 0;
+    inflater.reset();
+    crc.reset();
+    state = State.HEADER;
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity > buffer.length) {
+      int grown = (int) Math.min(limit, Math.max(capacity, buffer.length * 2L));
+      buffer = BufferPool.grow(buffer, size, grown);
+    }
+  }
+
+  /**
+   * Returns the length of a gzip member header (RFC 1952) once all of it has been collected.
+   *
+   * @param header Bytes collected so far
+   * @param length Number of bytes collected
+   * @return The header length, or 0 if more bytes are needed
+   * @throws ZipException if the bytes are not a gzip header
+   */
+  private static int gzipHeaderLength(byte[] header, int length) throws ZipException {
+    if (length >= 2 && readShort(header, 0) != GZIP_MAGIC) {
+      throw new ZipException("Not in GZIP format");
+    }
+    if (length >= 3 && header[2] != 8) {
+      throw new ZipException("Unsupported compression method");
+    }
+    if (length < 10) {
+      return 0;
+    }
+    int flags = header[3] & 0xff;
+    int position = 10;
+    if ((flags & FEXTRA) != 0) {
+      if (length < position + 2) {
+        return 0;
+      }
+      position += 2 + readShort(header, position);
+    }
+    if ((flags & FNAME) != 0) {
+      position = skipString(header, position, length);
+    }
+    if ((flags & FCOMMENT) != 0 && position > 0) {
+      position = skipString(header, position, length);
+    }
+    if ((flags & FHCRC) != 0 && position > 0) {
+      position += 2;
+    }
+    return position > 0 && position <= length ? position : 0;
+  }
+
+  /** Returns the position after a zero-terminated string, or 0 if it has not ended yet. */
+  private static int skipString(byte[] header, int position, int length) {
+    for (int i = position; i < length; i++) {
+      if (header[i] == 0) {
+        return i + 1;
+      }
+    }
+    return 0;
+  }
+
+  private static int readShort(byte[] bytes, int offset) {
+    return (bytes[offset] & 0xff) | (bytes[offset + 1] & 0xff) << 8;
+  }
+
+  private static long readInt(byte[] bytes, int offset) {
+    return (readShort(bytes, offset) | (long) readShort(bytes, offset + 2) << 16) & 0xffffffffL;
+  }
+
+  /**
+   * Checks for the two-byte zlib header (RFC 1950): compression method 8 and a valid check value.
+   */
+  private static boolean hasZlibHeader(byte[] header) {
+    int cmf = header[0] & 0xff;
+    int flg = header[1] & 0xff;
+    return (cmf & 0x0f) == 8 && ((cmf << 8) | flg) % 31 == 0;
+  }
+}
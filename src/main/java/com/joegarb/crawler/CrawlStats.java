@@ -0,0 +1,349 @@
+package com.joegarb.crawler;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Process-wide crawl counters used to report throughput. The counters live in the {@link Metrics}
+ * registry, so they are also exported over JMX and the metrics endpoint.
+ */
+public class CrawlStats {
+  private static final Logger logger = LoggerFactory.getLogger(CrawlStats.class);
+  private static final Metrics.Counter pagesCrawled =
+      Metrics.counter("crawler_pages_total", "URLs processed, including failures");
+  private static final Metrics.Counter pagesFailed =
+      Metrics.counter("crawler_pages_failed_total", "URLs whose fetch failed");
+  private static final Metrics.Counter pagesUnchanged =
+      Metrics.counter(
+          "crawler_pages_unchanged_total",
+          "Refreshed pages found unchanged, by 304 or content hash");
+  private static final Metrics.Counter bytesReceived =
+      Metrics.counter("crawler_body_received_bytes_total", "Response body bytes as received");
+  private static final Metrics.Counter bytesDecoded =
+      Metrics.counter(
+          "crawler_body_decoded_bytes_total", "Response body bytes after decompression");
+  private static final Metrics.Counter bodiesSkipped =
+      Metrics.counter(
+          "crawler_bodies_skipped_total", "Non-HTML or error response bodies discarded unread");
+  private static final Metrics.Counter bodiesTruncated =
+      Metrics.counter(
+          "crawler_bodies_truncated_total", "HTML bodies cut off at the maximum body size");
+  private static final Metrics.Counter bytesAvoided =
+      Metrics.counter(
+          "crawler_body_avoided_bytes_total",
+          "Body bytes not read because of skipped or truncated bodies, per Content-Length");
+  private static final Metrics.Counter pagesWritten =
+      Metrics.counter("crawler_db_pages_written_total", "Pages recorded by the persistence writer");
+  private static final Metrics.Histogram writeLatency =
+      Metrics.latency(
+          "crawler_db_transaction_seconds", "Time to write and commit a batch of pages");
+  private static final long startNanos = System.nanoTime();
+
+  /**
+   * Records that a URL has been processed.
+   *
+   * @param success Whether the fetch succeeded
+   */
+  public static void recordPage(boolean success) {
+    pagesCrawled.increment();
+    if (!success) {
+      pagesFailed.increment();
+    }
+  }
+
+  /** Records that a refreshed page was unchanged, so its links were not extracted again. */
+  public static void recordUnchanged() {
+    pagesUnchanged.increment();
+  }
+
+  /**
+   * Returns the number of refreshed pages found unchanged, by a 304 response or an identical body.
+   *
+   * @return Number of unchanged pages
+   */
+  public static long pagesUnchanged() {
+    return pagesUnchanged.value();
+  }
+
+  /**
+   * Records the size of a response body as received and after undoing its Content-Encoding.
+   *
+   * @param receivedBytes Body size on the wire
+   * @param decodedBytes Body size after decompression
+   */
+  public static void recordTransfer(long receivedBytes, long decodedBytes) {
+    bytesReceived.add(receivedBytes);
+    bytesDecoded.add(decodedBytes);
+  }
+
+  /**
+   * Returns the number of response body bytes received, before decompression.
+   *
+   * @return Compressed body bytes
+   */
+  public static long bytesReceived() {
+    return bytesReceived.value();
+  }
+
+  /**
+   * Returns the number of response body bytes after decompression.
+   *
+   * @return Uncompressed body bytes
+   */
+  public static long bytesDecoded() {
+    return bytesDecoded.value();
+  }
+
+  /**
+   * Records a response body discarded unread because it is not HTML or the request failed.
+   *
+   * @param avoidedBytes Body size per its Content-Length, or 0 if unknown
+   */
+  public static void recordSkippedBody(long avoidedBytes) {
+    bodiesSkipped.increment();
+    bytesAvoided.add(avoidedBytes);
+  }
+
+  /**
+   * Records an HTML body cut off at the maximum body size.
+   *
+   * @param avoidedBytes Bytes left unread per the Content-Length, or 0 if unknown
+   */
+  public static void recordTruncatedBody(long avoidedBytes) {
+    bodiesTruncated.increment();
+    bytesAvoided.add(avoidedBytes);
+  }
+
+  /**
+   * Returns the number of response bodies discarded without being read into memory.
+   *
+   * @return Number of skipped bodies
+   */
+  public static long bodiesSkipped() {
+    return bodiesSkipped.value();
+  }
+
+  /**
+   * Returns the number of HTML bodies cut off at the maximum body size.
+   *
+   * @return Number of truncated bodies
+   */
+  public static long bodiesTruncated() {
+    return bodiesTruncated.value();
+  }
+
+  /**
+   * Returns the number of body bytes not buffered because of skipped or truncated bodies, as far as
+   * Content-Length headers reveal.
+   *
+   * @return Avoided body bytes
+   */
+  public static long bytesAvoided() {
+    return bytesAvoided.value();
+  }
+
+  /**
+   * Records a committed transaction of the persistence writer.
+   *
+   * @param pages Number of pages recorded in it
+   * @param nanos Time taken to write and commit it
+   */
+  public static void recordFlush(int pages, long nanos) {
+    pagesWritten.add(pages);
+    writeLatency.record(nanos);
+  }
+
+  /**
+   * Returns the number of pages recorded by the persistence writer.
+   *
+   * @return Pages written
+   */
+  public static long pagesWritten() {
+    return pagesWritten.value();
+  }
+
+  /**
+   * Returns the number of transactions committed by the persistence writer.
+   *
+   * @return Write transactions
+   */
+  public static long writeTransactions() {
+    return writeLatency.count();
+  }
+
+  /**
+   * Returns the number of URLs processed by this process.
+   *
+   * @return Number of processed URLs, including failures
+   */
+  public static long pagesCrawled() {
+    return pagesCrawled.value();
+  }
+
+  /**
+   * Returns the number of processed URLs whose fetch failed.
+   *
+   * @return Number of failed URLs
+   */
+  public static long pagesFailed() {
+    return pagesFailed.value();
+  }
+
+  /**
+   * Starts logging throughput at a fixed interval.
+   *
+   * @param intervalSeconds Interval between reports; 0 or less disables reporting
+   * @return The scheduler running the reports (to be shut down by the caller), or null if disabled
+   */
+  public static ScheduledExecutorService startReporting(int intervalSeconds) {
+    if (intervalSeconds <= 0) {
+      return null;
+    }
+    ScheduledExecutorService scheduler =
+        Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+              Thread thread = new Thread(runnable, "stats-reporter");
+              thread.setDaemon(true);
+              return thread;
+            });
+    long[] lastCount = {pagesCrawled()};
+    scheduler.scheduleAtFixedRate(
+        () -> {
+          long count = pagesCrawled();
+          double intervalRate = (count - lastCount[0]) / (double) intervalSeconds;
+          lastCount[0] = count;
+          logger.info(
+              "Throughput: {} pages/sec over last {}s ({} pages, {} failed, {} unchanged,"
+                  + " {} pages/min overall)",
+              String.format("%.2f", intervalRate),
+              intervalSeconds,
+              count,
+              pagesFailed(),
+              pagesUnchanged(),
+              String.format("%.1f", pagesPerMinute()));
+          logTransferStats();
+          logWriteStats();
+          logPipelineStats();
+          logPoolStats();
+          logSeenFilterStats();
+        },
+        intervalSeconds,
+        intervalSeconds,
+        TimeUnit.SECONDS);
+    return scheduler;
+  }
+
+  /** Logs overall throughput since the process started. */
+  public static void logSummary() {
+    logger.info(
+        "Crawled {} pages ({} failed, {} unchanged) in {}s: {} pages/min (mode={}, threads={})",
+        pagesCrawled(),
+        pagesFailed(),
+        pagesUnchanged(),
+        (System.nanoTime() - startNanos) / 1_000_000_000L,
+        String.format("%.1f", pagesPerMinute()),
+        Configuration.WORKER_MODE,
+        Configuration.NUM_THREADS);
+    logTransferStats();
+    logWriteStats();
+    logPipelineStats();
+    logPoolStats();
+    logSeenFilterStats();
+  }
+
+  /**
+   * Logs response body bytes received, what they decompressed to, bodies left unread and buffer
+   * reuse.
+   */
+  private static void logTransferStats() {
+    long received = bytesReceived();
+    long decoded = bytesDecoded();
+    logger.info(
+        "Transfer: {} KB received, {} KB decoded ({}x compression); {} bodies skipped,"
+            + " {} truncated, {} KB avoided; body buffers {} reused / {} allocated",
+        received / 1024,
+        decoded / 1024,
+        String.format("%.1f", received > 0 ? decoded / (double) received : 1.0),
+        bodiesSkipped(),
+        bodiesTruncated(),
+        bytesAvoided() / 1024,
+        BufferPool.reused(),
+        BufferPool.allocated());
+  }
+
+  /** Logs how many pages the persistence writer recorded per transaction, and how fast. */
+  private static void logWriteStats() {
+    long pages = pagesWritten();
+    long transactions = writeTransactions();
+    logger.info(
+        "Writes: {} pages in {} transactions ({} pages/transaction, {} ms/transaction)",
+        pages,
+        transactions,
+        String.format("%.1f", transactions > 0 ? pages / (double) transactions : 0.0),
+        String.format("%.1f", transactions > 0 ? writeLatency.sum() * 1000 / transactions : 0.0));
+  }
+
+  /** Logs queue depths and stage latencies when running in pipeline mode. */
+  private static void logPipelineStats() {
+    Pipeline pipeline = Pipeline.running();
+    if (pipeline == null) {
+      return;
+    }
+    Pipeline.Stats stats = pipeline.stats();
+    logger.info(
+        "Pipeline: fetch {} pages at {} ms; parse queue {}/{}, waited {} ms, parsed at {} ms;"
+            + " persist queue {}/{}",
+        stats.fetch().processed(),
+        String.format("%.1f", stats.fetch().avgBusyMillis()),
+        stats.parseQueued(),
+        stats.parseCapacity(),
+        String.format("%.1f", stats.parse().avgWaitMillis()),
+        String.format("%.1f", stats.parse().avgBusyMillis()),
+        stats.persistQueued(),
+        stats.persistCapacity());
+  }
+
+  /** Logs connection pool sizing, wait times and statement cache effectiveness. */
+  private static void logPoolStats() {
+    ConnectionPool.Stats pool = DatabaseManager.poolStats();
+    logger.info(
+        "DB pool: {}/{} open, {} active, {} waits of {} borrows ({} ms total, {} ms max),"
+            + " statement cache {} hits / {} misses",
+        pool.open(),
+        pool.maxSize(),
+        pool.active(),
+        pool.waits(),
+        pool.borrows(),
+        pool.totalWaitMillis(),
+        pool.maxWaitMillis(),
+        pool.statementCacheHits(),
+        pool.statementCacheMisses());
+  }
+
+  /** Logs how many discovered links the seen-URL filter queued without a database lookup. */
+  private static void logSeenFilterStats() {
+    SeenUrlFilter filter = SeenUrlFilter.installed();
+    if (filter == null) {
+      return;
+    }
+    logger.info(
+        "Seen-URL filter: {} of {} links unseen, {} URLs added ({} MB)",
+        filter.unseen(),
+        filter.checked(),
+        filter.added(),
+        filter.sizeInBytes() / (1024 * 1024));
+  }
+
+  /**
+   * Returns the average number of pages processed per minute since the process started.
+   *
+   * @return Pages per minute
+   */
+  private static double pagesPerMinute() {
+    double elapsedMinutes = (System.nanoTime() - startNanos) / 60_000_000_000.0;
+    return elapsedMinutes > 0 ? pagesCrawled() / elapsedMinutes : 0;
+  }
+}
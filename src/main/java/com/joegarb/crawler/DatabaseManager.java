@@ -1,8 +1,14 @@
 package com.joegarb.crawler;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collection;
+import java.util.Properties;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -10,14 +16,196 @@ import org.slf4j.LoggerFactory;
 public class DatabaseManager {
   private static final Logger logger = LoggerFactory.getLogger(DatabaseManager.class);
 
+  // Bounds the number of open connections so that thousands of (virtual) workers queue here rather
+  // than all contending for the SQLite file lock at once.
+  private static final ConnectionPool pool =
+      new ConnectionPool(
+          DatabaseManager::openConnection,
+          Configuration.DB_MAX_CONNECTIONS,
+          Configuration.DB_STATEMENT_CACHE_SIZE);
+
   /**
-   * Gets a database connection.
+   * Gets a pooled database connection, blocking until one of the DB_MAX_CONNECTIONS connections is
+   * free.
+   *
+   * <p>Closing the returned connection returns it to the pool, and statements prepared on it are
+   * cached for reuse by the next borrower.
    *
    * @return A connection to the database
    * @throws SQLException if a database access error occurs
    */
   public static Connection getConnection() throws SQLException {
-    return DriverManager.getConnection(Configuration.DB_URL);
+    return pool.getConnection();
+  }
+
+  /**
+   * Returns sizing and wait-time metrics for the connection pool.
+   *
+   * @return Current pool statistics
+   */
+  public static ConnectionPool.Stats poolStats() {
+    return pool.stats();
+  }
+
+  /** Closes the pooled connections. Called once the crawl has finished. */
+  public static void shutdown() {
+    pool.close();
+  }
+
+  /**
+   * Opens a new physical connection to the configured database.
+   *
+   * @return A new connection
+   * @throws SQLException if a database access error occurs
+   */
+  private static Connection openConnection() throws SQLException {
+    Properties properties = new Properties();
+    if (Configuration.DB_URL.startsWith("jdbc:sqlite:")) {
+      properties.setProperty("busy_timeout", String.valueOf(Configuration.DB_BUSY_TIMEOUT_MS));
+      // Transactions read before they write. Deferred ones would have to upgrade to a write lock
+      // mid-transaction, which fails at once instead of waiting if another connection has written
+      // since the read, so take the write lock at BEGIN where busy_timeout applies.
+      properties.setProperty("transaction_mode", "IMMEDIATE");
+    }
+    return DriverManager.getConnection(Configuration.DB_URL, properties);
+  }
+
+  /**
+   * Encodes strings as a JSON array so that a list can be bound to a single statement parameter and
+   * expanded in SQL with {@code json_each(?)}, keeping the statement text constant.
+   *
+   * @param values Values to encode
+   * @return JSON array text
+   */
+  static String toJsonArray(Collection<String> values) {
+    StringBuilder json = new StringBuilder("[");
+    for (String value : values) {
+      if (json.length() > 1) {
+        json.append(',');
+      }
+      json.append('"');
+      for (int i = 0; i < value.length(); i++) {
+        char c = value.charAt(i);
+        if (c == '"' || c == '\\') {
+          json.append('\\').append(c);
+        } else if (c < 0x20) {
+          json.append(String.format("\\u%04x", (int) c));
+        } else {
+          json.append(c);
+        }
+      }
+      json.append('"');
+    }
+    return json.append(']').toString();
+  }
+
+  /** A unit of database work that may throw SQLException. */
+  @FunctionalInterface
+  interface SqlAction {
+    void run() throws SQLException;
+  }
+
+  /**
+   * Runs an action in a single transaction on the given connection, rolling back if it fails.
+   *
+   * @param conn Database connection, in auto-commit mode
+   * @param action Work to run inside the transaction
+   * @throws SQLException if a database access error occurs
+   */
+  static void inTransaction(Connection conn, SqlAction action) throws SQLException {
+    conn.setAutoCommit(false);
+    try {
+      action.run();
+      conn.commit();
+    } catch (SQLException | RuntimeException e) {
+      conn.rollback();
+      throw e;
+    } finally {
+      conn.setAutoCommit(true);
+    }
+  }
+
+  /**
+   * Returns the declared type of a table column, used by schema migrations.
+   *
+   * @param conn Database connection
+   * @param table Table name
+   * @param column Column name
+   * @return Declared column type, or null if the column does not exist
+   * @throws SQLException if a database access error occurs
+   */
+  static String columnType(Connection conn, String table, String column) throws SQLException {
+    try (Statement statement = conn.createStatement();
+        ResultSet resultSet = statement.executeQuery("PRAGMA table_info(" + table + ")")) {
+      while (resultSet.next()) {
+        if (column.equalsIgnoreCase(resultSet.getString("name"))) {
+          return resultSet.getString("type");
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns a SQL expression converting a legacy TEXT datetime column (UTC, as written by
+   * datetime('now')) to epoch milliseconds. NULL stays NULL.
+   *
+   * @param column Column name
+   * @return SQL expression
+   */
+  static String epochMillis(String column) {
+    return "CAST(ROUND((julianday(" + column + ") - 2440587.5) * 86400000) AS INTEGER)";
+  }
+
+  /**
+   * Opens the frontier storage engine selected by {@link Configuration#FRONTIER_BACKEND}. The
+   * "sqlite" engine uses the frontier_queue table created by {@link #initializeDatabase}.
+   *
+   * @return The frontier
+   * @throws IOException if the frontier's files cannot be read or created
+   * @throws SQLException if the SQLite frontier's shard leases cannot be taken
+   */
+  public static Frontier openFrontier() throws IOException, SQLException {
+    switch (Configuration.FRONTIER_BACKEND) {
+      case "memory" -> {
+        logger.info("In-memory frontier, snapshot: {}", Configuration.FRONTIER_SNAPSHOT_PATH);
+        return InMemoryFrontier.open(
+            Path.of(Configuration.FRONTIER_SNAPSHOT_PATH),
+            Configuration.FRONTIER_SNAPSHOT_INTERVAL_SECONDS);
+      }
+      case "log" -> {
+        logger.info("Segment log frontier in {}", Configuration.FRONTIER_LOG_DIR);
+        return new SegmentLogFrontier(
+            Path.of(Configuration.FRONTIER_LOG_DIR),
+            Configuration.FRONTIER_LOG_SEGMENT_MB * 1024 * 1024);
+      }
+      case "sqlite" -> {
+        return openSqliteFrontier();
+      }
+      default -> {
+        logger.warn("Unknown frontier backend: {}, using sqlite", Configuration.FRONTIER_BACKEND);
+        return openSqliteFrontier();
+      }
+    }
+  }
+
+  /**
+   * Opens the frontier_queue frontier, leasing this process's share of its shards if it is sharded
+   * and reclaiming expired claims.
+   *
+   * @return SQLite frontier
+   * @throws SQLException if the shard leases cannot be taken
+   */
+  private static Frontier openSqliteFrontier() throws SQLException {
+    ShardLeases leases =
+        Configuration.FRONTIER_SHARDS > 1
+            ? ShardLeases.open(
+                DatabaseManager::getConnection,
+                Configuration.FRONTIER_SHARDS,
+                Configuration.FRONTIER_SHARD_LEASE_SECONDS * 1000L)
+            : null;
+    return SqliteFrontier.open(
+        DatabaseManager::getConnection, leases, Configuration.FRONTIER_CLAIM_LEASE_SECONDS * 1000L);
   }
 
   /**
@@ -27,7 +215,7 @@ public class DatabaseManager {
    */
   public static void initializeDatabase() throws SQLException {
     logger.info("Initializing database...");
-    try (Connection connection = DriverManager.getConnection(Configuration.DB_URL)) {
+    try (Connection connection = openConnection()) {
       // Enable WAL (Write-Ahead Logging) mode for SQLite to improve concurrency.
       if (Configuration.DB_URL.startsWith("jdbc:sqlite:")) {
         try (var statement = connection.createStatement()) {
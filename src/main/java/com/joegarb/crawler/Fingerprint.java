@@ -0,0 +1,40 @@
+package com.joegarb.crawler;
+
+/** Computes 64-bit fingerprints used to identify URLs without storing them. */
+public class Fingerprint {
+  private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+
+  /**
+   * Computes a 64-bit fingerprint of a character sequence.
+   *
+   * <p>FNV-1a over the UTF-16 code units followed by the MurmurHash3 finalizer, which spreads the
+   * bits well enough for hash tables and Bloom filters. Not cryptographic.
+   *
+   * @param text Text to fingerprint
+   * @return 64-bit fingerprint
+   */
+  public static long of(CharSequence text) {
+    long hash = FNV_OFFSET_BASIS;
+    for (int i = 0; i < text.length(); i++) {
+      hash ^= text.charAt(i);
+      hash *= FNV_PRIME;
+    }
+    return mix(hash);
+  }
+
+  /**
+   * MurmurHash3 64-bit finalizer.
+   *
+   * @param hash Value to mix
+   * @return Mixed value
+   */
+  static long mix(long hash) {
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+}
@@ -0,0 +1,105 @@
+package com.joegarb.crawler;
+
+import static com.joegarb.crawler.FrontierStore.FrontierUrl;
+import static com.joegarb.crawler.UrlNormalizer.NormalizedUrl;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The queue of URLs waiting to be crawled, behind which the workers, the {@link FrontierBuffer} and
+ * the {@link PersistenceWriter} operate.
+ *
+ * <p>A URL is pending until claimed, claimed until removed or released, and queued at most once
+ * while pending or claimed. Pending URLs are claimed oldest first, except by the SQLite frontier,
+ * which claims them in the order of the {@link FrontierScorer} installed in {@link FrontierStore}.
+ * Methods that take a connection are called from within the persistence writer's transaction when
+ * the implementation is {@link #isTransactional transactional}, i.e. backed by the same database
+ * and taking part in it. Other implementations ignore the connection and apply the change
+ * immediately, so callers hold their changes back until the transaction has committed.
+ */
+public interface Frontier extends AutoCloseable {
+  /**
+   * Checks whether changes made through a connection take part in its transaction, and are undone
+   * with it.
+   *
+   * @return true if changes commit and roll back with the caller's transaction; false by default
+   */
+  default boolean isTransactional() {
+    return false;
+  }
+
+  /**
+   * Queues URLs that are not already pending or claimed.
+   *
+   * @param conn Connection of the enclosing transaction
+   * @param urls Normalized URLs with their hosts
+   * @throws SQLException if a database access error occurs
+   */
+  void add(Connection conn, List<NormalizedUrl> urls) throws SQLException;
+
+  /**
+   * Queues links found on a claimed page, one link deeper than the page. Same as {@link #add} by
+   * default, for implementations that do not track depth.
+   *
+   * @param conn Connection of the enclosing transaction
+   * @param parentId ID of the claimed entry of the page the links were found on
+   * @param urls Normalized URLs with their hosts
+   * @throws SQLException if a database access error occurs
+   */
+  default void addDiscovered(Connection conn, long parentId, List<NormalizedUrl> urls)
+      throws SQLException {
+    add(conn, urls);
+  }
+
+  /**
+   * Claims up to {@code limit} of the next pending URLs whose hosts are not excluded. URLs without
+   * a host are never excluded.
+   *
+   * @param excludedHosts Hosts that must not be claimed, e.g. hosts still in their politeness delay
+   * @param limit Maximum number of URLs to claim
+   * @return Claimed entries in claim order
+   * @throws SQLException if a database access error occurs
+   */
+  List<FrontierUrl> claim(Collection<String> excludedHosts, int limit) throws SQLException;
+
+  /**
+   * Returns claimed URLs to the pending state so that they can be claimed again.
+   *
+   * @param ids IDs of the claimed entries
+   * @throws SQLException if a database access error occurs
+   */
+  void release(Collection<Long> ids) throws SQLException;
+
+  /**
+   * Removes a claimed URL once it has been processed.
+   *
+   * @param conn Connection of the enclosing transaction
+   * @param id ID of the claimed entry
+   * @throws SQLException if a database access error occurs
+   */
+  void remove(Connection conn, long id) throws SQLException;
+
+  /**
+   * Checks whether any URL is pending or claimed.
+   *
+   * @return true if the crawl has work left
+   * @throws SQLException if a database access error occurs
+   */
+  boolean hasUrls() throws SQLException;
+
+  /**
+   * Counts the URLs in the frontier, for reporting.
+   *
+   * @param claimed true to count claimed URLs, false to count pending URLs
+   * @return Number of matching URLs
+   * @throws SQLException if a database access error occurs
+   */
+  long count(boolean claimed) throws SQLException;
+
+  /** Releases resources held by the frontier. Does nothing by default. */
+  @Override
+  default void close() {}
+}
@@ -0,0 +1,285 @@
+package com.joegarb.crawler;
+
+import static com.joegarb.crawler.FrontierStore.FrontierUrl;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-process prefetch buffer that claims URLs from the frontier queue in batches and hands them out
+ * to workers one at a time.
+ *
+ * <p>Claiming a batch from a {@link SqliteFrontier} takes SQLite's write lock once instead of once
+ * per URL. URLs are only handed out once their host is ready according to the {@link
+ * PolitenessScheduler}, and the host is reserved as part of the hand-out. The batch size adapts to
+ * how fast the queue drains: it doubles while full batches are used up in quick succession and
+ * halves when the queue cannot fill a batch or refills become infrequent, so a slow crawl does not
+ * hold many claimed rows that other processes could be working on.
+ *
+ * <p>Workers that find nothing to take call {@link #awaitWork} instead of polling in a loop. Each
+ * worker's wait backs off exponentially while the frontier stays empty for it, is capped by the
+ * time until the next cooling host is ready, and ends early when {@link #signalWork} reports that
+ * URLs may have been added, processed or freed. The backoff is kept per calling thread, so a worker
+ * that has been idle for long does not slow down one that just ran out of work; only the signal is
+ * shared.
+ */
+public class FrontierBuffer {
+  private static final Logger logger = LoggerFactory.getLogger(FrontierBuffer.class);
+
+  /** Refills closer together than this grow the batch size; much further apart shrink it. */
+  private static final long TARGET_REFILL_INTERVAL_NANOS = 1_000_000_000L;
+
+  /** Longest idle wait in milliseconds; idle waits start at 1 ms and double up to this. */
+  private static final long MAX_IDLE_MILLIS = 1000;
+
+  private final Frontier frontier;
+  private final PolitenessScheduler politeness;
+  private final int minBatchSize;
+  private final int maxBatchSize;
+
+  // Guarded by lock. A ReentrantLock rather than synchronized so that virtual threads waiting on a
+  // refill do not pin their carrier threads.
+  private final ReentrantLock lock = new ReentrantLock();
+  private final LinkedList<FrontierUrl> buffered = new LinkedList<>();
+  private int batchSize;
+  private long lastRefillNanos;
+  private boolean lastRefillFilled = true;
+
+  // Separate from lock so that signalling never waits for a refill in progress
+  private final ReentrantLock idleLock = new ReentrantLock();
+  private final Condition workSignalled = idleLock.newCondition();
+  private final ThreadLocal<IdleBackoff> idleBackoff = ThreadLocal.withInitial(IdleBackoff::new);
+  // Guarded by idleLock
+  private long signals;
+
+  /** Idle backoff of one calling thread, confined to it. */
+  private static final class IdleBackoff {
+    long millis = 1;
+    // Value of signals when this thread last waited, to tell whether work was signalled since
+    long signalsSeen;
+  }
+
+  /**
+   * Creates a buffer.
+   *
+   * @param frontier Frontier to claim URLs from
+   * @param politeness Scheduler deciding which hosts may be fetched
+   * @param minBatchSize Smallest number of URLs claimed per refill
+   * @param maxBatchSize Largest number of URLs claimed per refill, and the buffer's capacity
+   */
+  public FrontierBuffer(
+      Frontier frontier, PolitenessScheduler politeness, int minBatchSize, int maxBatchSize) {
+    this.frontier = frontier;
+    this.politeness = politeness;
+    this.minBatchSize = Math.max(1, minBatchSize);
+    this.maxBatchSize = Math.max(this.minBatchSize, maxBatchSize);
+    this.batchSize = this.minBatchSize;
+    this.lastRefillNanos = System.nanoTime() - TARGET_REFILL_INTERVAL_NANOS;
+  }
+
+  /**
+   * Takes the next URL whose host is ready to be fetched, refilling from the frontier queue if no
+   * buffered URL is ready. The URL's host is reserved in the politeness scheduler.
+   *
+   * @return A claimed URL ready to fetch, or null if none is available right now
+   * @throws SQLException if a database access error occurs
+   */
+  public FrontierUrl take() throws SQLException {
+    return take(host -> true);
+  }
+
+  /**
+   * Takes the next URL whose host is ready to be fetched and accepted by the caller, refilling from
+   * the frontier queue if no buffered URL qualifies. The URL's host is reserved in the politeness
+   * scheduler.
+   *
+   * @param hostAvailable Additional per-host condition, e.g. a limit on requests in flight; called
+   *     with "" for URLs without a host
+   * @return A claimed URL ready to fetch, or null if none is available right now
+   * @throws SQLException if a database access error occurs
+   */
+  public FrontierUrl take(Predicate<String> hostAvailable) throws SQLException {
+    lock.lock();
+    try {
+      FrontierUrl frontierUrl = pollReady(hostAvailable);
+      if (frontierUrl == null && buffered.size() < maxBatchSize) {
+        refill();
+        frontierUrl = pollReady(hostAvailable);
+      }
+      if (frontierUrl != null) {
+        resetIdle();
+      }
+      return frontierUrl;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Waits after {@link #take} returned nothing, until {@link #signalWork} is called, the next
+   * cooling host is ready or the calling thread's idle backoff elapses, whichever comes first. Each
+   * wait without a successful take or a signal in between doubles the caller's backoff, up to one
+   * second. Returns early if interrupted, preserving the interrupt status.
+   */
+  public void awaitWork() {
+    IdleBackoff backoff = idleBackoff.get();
+    idleLock.lock();
+    try {
+      if (signals != backoff.signalsSeen) {
+        backoff.signalsSeen = signals;
+        backoff.millis = 1;
+      }
+      long wait = Math.min(backoff.millis, politeness.millisUntilNextReady());
+      backoff.millis = Math.min(MAX_IDLE_MILLIS, backoff.millis * 2);
+      long signalsBefore = signals;
+      long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(1, wait));
+      long remaining;
+      while (signals == signalsBefore && (remaining = deadline - System.nanoTime()) > 0) {
+        workSignalled.awaitNanos(remaining);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      idleLock.unlock();
+    }
+  }
+
+  /**
+   * Wakes the workers waiting in {@link #awaitWork} and resets every worker's idle backoff, e.g.
+   * after this process added URLs to the frontier, removed processed ones or finished a request.
+   */
+  public void signalWork() {
+    idleLock.lock();
+    try {
+      signals++;
+      workSignalled.signalAll();
+    } finally {
+      idleLock.unlock();
+    }
+  }
+
+  private void resetIdle() {
+    idleBackoff.get().millis = 1;
+  }
+
+  /**
+   * Releases all buffered URLs back to the frontier queue so that other workers or processes can
+   * claim them. Called on shutdown.
+   *
+   * @throws SQLException if a database access error occurs
+   */
+  public void releaseAll() throws SQLException {
+    lock.lock();
+    try {
+      if (buffered.isEmpty()) {
+        return;
+      }
+      List<Long> ids = new ArrayList<>();
+      for (FrontierUrl frontierUrl : buffered) {
+        ids.add(frontierUrl.id());
+      }
+      frontier.release(ids);
+      buffered.clear();
+      logger.info("Released {} buffered frontier URLs", ids.size());
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Checks whether the frontier has any URLs left, pending or claimed. Buffered URLs count as
+   * claimed.
+   *
+   * @return true if the crawl has work left
+   * @throws SQLException if a database access error occurs
+   */
+  public boolean hasUrls() throws SQLException {
+    return frontier.hasUrls();
+  }
+
+  /**
+   * Returns the number of claimed URLs waiting in the buffer.
+   *
+   * @return Buffered URL count
+   */
+  public int size() {
+    lock.lock();
+    try {
+      return buffered.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the number of URLs the next refill will try to claim.
+   *
+   * @return Current batch size
+   */
+  public int batchSize() {
+    lock.lock();
+    try {
+      return batchSize;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Removes and reserves the first buffered URL whose host is ready and available.
+   *
+   * @param hostAvailable Additional per-host condition
+   * @return The URL, or null if no buffered host qualifies
+   */
+  private FrontierUrl pollReady(Predicate<String> hostAvailable) {
+    for (Iterator<FrontierUrl> iterator = buffered.iterator(); iterator.hasNext(); ) {
+      FrontierUrl frontierUrl = iterator.next();
+      if (politeness.isReady(frontierUrl.host())
+          && hostAvailable.test(frontierUrl.host() == null ? "" : frontierUrl.host())) {
+        iterator.remove();
+        politeness.reserve(frontierUrl.host());
+        return frontierUrl;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Claims a batch of URLs for hosts that are neither cooling down nor already buffered, and adapts
+   * the batch size to the time since the previous refill.
+   *
+   * @throws SQLException if a database access error occurs
+   */
+  private void refill() throws SQLException {
+    long now = System.nanoTime();
+    long sinceLastRefill = now - lastRefillNanos;
+    if (lastRefillFilled && sinceLastRefill < TARGET_REFILL_INTERVAL_NANOS) {
+      // The last batch was full and has already drained
+      batchSize = Math.min(maxBatchSize, batchSize * 2);
+    } else if (!lastRefillFilled || sinceLastRefill > 4 * TARGET_REFILL_INTERVAL_NANOS) {
+      batchSize = Math.max(minBatchSize, batchSize / 2);
+    }
+    lastRefillNanos = now;
+
+    Set<String> excludedHosts = new HashSet<>(politeness.coolingHosts());
+    for (FrontierUrl frontierUrl : buffered) {
+      excludedHosts.add(frontierUrl.host() == null ? "" : frontierUrl.host());
+    }
+    int limit = Math.min(batchSize, maxBatchSize - buffered.size());
+    List<FrontierUrl> claimed = frontier.claim(excludedHosts, limit);
+    buffered.addAll(claimed);
+    lastRefillFilled = claimed.size() == limit;
+    logger.debug("Claimed {} of {} requested frontier URLs", claimed.size(), limit);
+  }
+}
@@ -0,0 +1,16 @@
+package com.joegarb.crawler;
+
+/**
+ * Metrics shared by every {@link Frontier} backend, so that dashboards do not depend on which one
+ * is configured.
+ */
+final class FrontierMetrics {
+  static final Metrics.Histogram claimLatency =
+      Metrics.latency("crawler_frontier_claim_seconds", "Time to claim a batch of frontier URLs");
+  static final Metrics.Counter urlsClaimed =
+      Metrics.counter("crawler_frontier_claimed_total", "Frontier URLs claimed by workers");
+  static final Metrics.Counter urlsAdded =
+      Metrics.counter("crawler_frontier_added_total", "New URLs added to the frontier queue");
+
+  private FrontierMetrics() {}
+}
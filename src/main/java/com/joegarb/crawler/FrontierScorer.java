@@ -0,0 +1,63 @@
+package com.joegarb.crawler;
+
+import static com.joegarb.crawler.UrlNormalizer.NormalizedUrl;
+
+/**
+ * Computes the priority of a URL when it is added to the SQLite frontier. Pending URLs are claimed
+ * highest score first, and in the order they were added among equal scores.
+ *
+ * <p>Implementations are called concurrently from every thread that adds URLs, and must be
+ * thread-safe. A custom scorer is a public class implementing this interface with a public no-arg
+ * constructor, selected by its fully qualified name in {@link Configuration#FRONTIER_SCORER}.
+ */
+public interface FrontierScorer {
+  /** Scores every URL the same, so that URLs are claimed oldest first. */
+  FrontierScorer FIFO = (url, depth) -> 0;
+
+  /**
+   * Scores a URL being added to the frontier.
+   *
+   * @param url Normalized URL with its host
+   * @param depth Number of links followed from the start URL to reach it; 0 for URLs added directly
+   * @return Score; higher scores are claimed first
+   */
+  double score(NormalizedUrl url, int depth);
+
+  /**
+   * Returns the amount added to the score of a pending URL each time it is discovered again.
+   *
+   * @return Score increase per rediscovery; 0 by default
+   */
+  default double rediscoveryBonus() {
+    return 0;
+  }
+
+  /**
+   * Creates a scorer by name.
+   *
+   * @param name "fifo", "priority" for {@link PriorityScorer}, or the fully qualified name of a
+   *     custom scorer class
+   * @param hostBudget Host budget of the priority scorer
+   * @return The scorer
+   * @throws IllegalArgumentException if the name is neither built in nor a loadable scorer class
+   *     with a public no-arg constructor
+   */
+  static FrontierScorer create(String name, int hostBudget) {
+    switch (name) {
+      case "fifo" -> {
+        return FIFO;
+      }
+      case "priority" -> {
+        return new PriorityScorer(hostBudget);
+      }
+      default -> {
+        try {
+          return (FrontierScorer)
+              Class.forName(name).asSubclass(FrontierScorer.class).getConstructor().newInstance();
+        } catch (ReflectiveOperationException | ClassCastException | LinkageError e) {
+          throw new IllegalArgumentException("Unknown frontier scorer: " + name, e);
+        }
+      }
+    }
+  }
+}
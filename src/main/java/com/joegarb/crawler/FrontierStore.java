@@ -1,45 +1,233 @@
 package com.joegarb.crawler;
 
+import static com.joegarb.crawler.UrlNormalizer.NormalizedUrl;
+
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Manages the frontier queue of URLs to be crawled.
  *
- * <p>Note: Database migrations have not been implemented, so deleting the database file is
- * necessary to pick up schema changes.
+ * <p>Timestamps are stored as epoch milliseconds. Tables created by older versions, with TEXT
+ * timestamps or without the host or host_hash columns, are migrated in place by {@link
+ * #createTable}.
+ *
+ * <p>Each row stores a hash of its host, which partitions the queue into any number of shards: a
+ * URL belongs to shard {@code host_hash % shards}, so all URLs of a host are in the same shard.
+ * Processes sharing the queue can then claim from disjoint sets of shards, see {@link ShardLeases}.
+ *
+ * <p>Each row also stores its link depth and a score computed by the installed {@link
+ * FrontierScorer} when it is added. Pending URLs are claimed highest score first, and oldest first
+ * among equal scores, through an index in that order. With the default {@link FrontierScorer#FIFO}
+ * scorer every score is 0, so URLs are claimed oldest first.
  */
 public class FrontierStore {
   private static final Logger logger = LoggerFactory.getLogger(FrontierStore.class);
 
-  public static record FrontierUrl(long id, String url) {}
+  private static final Metrics.Counter urlsReclaimed =
+      Metrics.counter(
+          "crawler_frontier_reclaimed_total",
+          "Claimed frontier URLs returned to the queue after their claim expired");
+
+  // Replaced by installScorer; read by every add
+  private static volatile FrontierScorer scorer = FrontierScorer.FIFO;
+
+  /**
+   * A claimed frontier entry.
+   *
+   * @param id Row ID, used to remove the entry once processed
+   * @param url Normalized URL
+   * @param host Lowercase host of the URL, or null if it could not be determined
+   */
+  public static record FrontierUrl(long id, String url, String host) {}
 
   /**
-   * Creates the frontier_queue table if it doesn't exist.
+   * Installs the scorer that computes the score of URLs added from now on, replacing the previous
+   * one. URLs already queued keep their score.
+   *
+   * @param frontierScorer Scorer to use
+   */
+  public static void installScorer(FrontierScorer frontierScorer) {
+    scorer = frontierScorer;
+  }
+
+  /**
+   * Creates the frontier_queue table and its indexes if they don't exist, migrating a table created
+   * by an older version in place.
    *
    * @param conn Database connection
    * @throws SQLException if a database access error occurs
    */
   public static void createTable(Connection conn) throws SQLException {
-    String sql =
-        "CREATE TABLE IF NOT EXISTS frontier_queue ("
-            + "id INTEGER PRIMARY KEY AUTOINCREMENT,"
-            + "url TEXT NOT NULL UNIQUE,"
-            + "added_at TEXT NOT NULL DEFAULT (datetime('now')),"
-            + "claimed_at TEXT"
-            + ")";
     try (Statement statement = conn.createStatement()) {
-      statement.execute(sql);
+      statement.execute(tableDefinition("frontier_queue"));
+      migrate(conn);
+      // Partial index over pending rows in claim order; it includes host and host_hash so that
+      // excluded hosts and other shards are filtered without visiting the table. Older versions
+      // created it without score or host_hash.
+      if (!indexColumns(conn, "frontier_queue_pending").contains("score")) {
+        statement.execute("DROP INDEX IF EXISTS frontier_queue_pending");
+      }
+      statement.execute(
+          "CREATE INDEX IF NOT EXISTS frontier_queue_pending "
+              + "ON frontier_queue (score DESC, added_at, host, host_hash) "
+              + "WHERE claimed_at IS NULL");
+      statement.execute(
+          "CREATE INDEX IF NOT EXISTS frontier_queue_claimed "
+              + "ON frontier_queue (claimed_at) WHERE claimed_at IS NOT NULL");
       logger.debug("Frontier queue table created or already exists");
     }
   }
 
+  /**
+   * Returns the frontier table definition.
+   *
+   * @param tableName Name of the table to create
+   * @return CREATE TABLE statement
+   */
+  private static String tableDefinition(String tableName) {
+    return "CREATE TABLE IF NOT EXISTS "
+        + tableName
+        + " ("
+        + "id INTEGER PRIMARY KEY AUTOINCREMENT,"
+        + "url TEXT NOT NULL UNIQUE,"
+        + "host TEXT,"
+        + "host_hash INTEGER NOT NULL DEFAULT 0,"
+        + "depth INTEGER NOT NULL DEFAULT 0,"
+        + "score REAL NOT NULL DEFAULT 0,"
+        + "added_at INTEGER NOT NULL,"
+        + "claimed_at INTEGER"
+        + ")";
+  }
+
+  /**
+   * Returns the columns of an index.
+   *
+   * @param conn Database connection
+   * @param indexName Name of the index
+   * @return Column names in index order; empty if the index does not exist
+   * @throws SQLException if a database access error occurs
+   */
+  private static List<String> indexColumns(Connection conn, String indexName) throws SQLException {
+    List<String> columns = new ArrayList<>();
+    try (Statement statement = conn.createStatement();
+        ResultSet resultSet = statement.executeQuery("PRAGMA index_info(" + indexName + ")")) {
+      while (resultSet.next()) {
+        columns.add(resultSet.getString("name"));
+      }
+    }
+    return columns;
+  }
+
+  /**
+   * Migrates a frontier_queue table with TEXT datetime columns to epoch milliseconds, fills in the
+   * host and host hash of rows added before those columns existed, and adds the depth and score
+   * columns, which are 0 for existing rows.
+   *
+   * @param conn Database connection
+   * @throws SQLException if a database access error occurs
+   */
+  private static void migrate(Connection conn) throws SQLException {
+    boolean rehash = false;
+    if ("TEXT".equalsIgnoreCase(DatabaseManager.columnType(conn, "frontier_queue", "added_at"))) {
+      rehash = true;
+      boolean hasHost = DatabaseManager.columnType(conn, "frontier_queue", "host") != null;
+      logger.info("Migrating frontier_queue timestamps to epoch milliseconds...");
+      DatabaseManager.inTransaction(
+          conn,
+          () -> {
+            try (Statement statement = conn.createStatement()) {
+              statement.execute(tableDefinition("frontier_queue_migrated"));
+              statement.execute(
+                  "INSERT INTO frontier_queue_migrated (id, url, host, added_at, claimed_at) "
+                      + "SELECT id, url, "
+                      + (hasHost ? "host" : "NULL")
+                      + ", "
+                      + DatabaseManager.epochMillis("added_at")
+                      + ", "
+                      + DatabaseManager.epochMillis("claimed_at")
+                      + " FROM frontier_queue");
+              statement.execute("DROP TABLE frontier_queue");
+              statement.execute("ALTER TABLE frontier_queue_migrated RENAME TO frontier_queue");
+            }
+          });
+    } else if (DatabaseManager.columnType(conn, "frontier_queue", "host_hash") == null) {
+      logger.info("Adding host_hash column to frontier_queue...");
+      rehash = true;
+      try (Statement statement = conn.createStatement()) {
+        statement.execute(
+            "ALTER TABLE frontier_queue ADD COLUMN host_hash INTEGER NOT NULL DEFAULT 0");
+      }
+    }
+    if (DatabaseManager.columnType(conn, "frontier_queue", "score") == null) {
+      logger.info("Adding depth and score columns to frontier_queue...");
+      try (Statement statement = conn.createStatement()) {
+        statement.execute("ALTER TABLE frontier_queue ADD COLUMN depth INTEGER NOT NULL DEFAULT 0");
+        statement.execute("ALTER TABLE frontier_queue ADD COLUMN score REAL NOT NULL DEFAULT 0");
+      }
+    }
+
+    // Rows without a host, or every row if host_hash was just added
+    Map<Long, String> missingHosts = new LinkedHashMap<>();
+    try (Statement statement = conn.createStatement();
+        ResultSet resultSet =
+            statement.executeQuery(
+                "SELECT id, url, host FROM frontier_queue"
+                    + (rehash ? "" : " WHERE host IS NULL"))) {
+      while (resultSet.next()) {
+        String host = resultSet.getString("host");
+        if (host == null) {
+          host = UrlNormalizer.extractHost(resultSet.getString("url"));
+        }
+        if (host != null) {
+          missingHosts.put(resultSet.getLong("id"), host);
+        }
+      }
+    }
+    if (!missingHosts.isEmpty()) {
+      DatabaseManager.inTransaction(
+          conn,
+          () -> {
+            try (PreparedStatement statement =
+                conn.prepareStatement(
+                    "UPDATE frontier_queue SET host = ?, host_hash = ? WHERE id = ?")) {
+              for (Map.Entry<Long, String> entry : missingHosts.entrySet()) {
+                statement.setString(1, entry.getValue());
+                statement.setInt(2, hostHash(entry.getValue()));
+                statement.setLong(3, entry.getKey());
+                statement.addBatch();
+              }
+              statement.executeBatch();
+            }
+          });
+      logger.info("Filled in host for {} frontier URLs", missingHosts.size());
+    }
+  }
+
+  /**
+   * Returns the hash of a host stored with each of its URLs, which determines the URL's shard.
+   *
+   * @param host Lowercase host, or null
+   * @return Non-negative 31-bit hash; 0 for a null host
+   */
+  static int hostHash(String host) {
+    return host == null ? 0 : (int) (Fingerprint.of(host) >>> 33);
+  }
+
   /**
    * Adds a URL to the frontier queue if it doesn't already exist.
    *
@@ -48,12 +236,7 @@ public class FrontierStore {
    * @throws SQLException if a database access error occurs
    */
   public static void addUrl(Connection conn, String url) throws SQLException {
-    String normalizedUrl = UrlNormalizer.normalize(url);
-    String sql = "INSERT OR IGNORE INTO frontier_queue (url) VALUES (?)";
-    try (PreparedStatement statement = conn.prepareStatement(sql)) {
-      statement.setString(1, normalizedUrl);
-      statement.executeUpdate();
-    }
+    addNormalizedUrls(conn, List.of(UrlNormalizer.normalizeWithHost(url)));
   }
 
   /**
@@ -68,15 +251,113 @@ public class FrontierStore {
       return;
     }
 
-    String sql = "INSERT OR IGNORE INTO frontier_queue (url) VALUES (?)";
+    List<NormalizedUrl> normalizedUrls = new ArrayList<>(urls.size());
+    for (String url : urls) {
+      normalizedUrls.add(UrlNormalizer.normalizeWithHost(url));
+    }
+    addNormalizedUrls(conn, normalizedUrls);
+  }
+
+  /**
+   * Adds multiple already normalized URLs to the frontier queue at depth 0 if they don't already
+   * exist.
+   *
+   * @param conn Database connection
+   * @param urls Normalized URLs with their hosts, e.g. as returned by {@link LinkExtractor}
+   * @throws SQLException if a database access error occurs
+   */
+  public static void addNormalizedUrls(Connection conn, List<NormalizedUrl> urls)
+      throws SQLException {
+    addNormalizedUrls(conn, urls, 0);
+  }
+
+  /**
+   * Adds multiple already normalized URLs to the frontier queue, scored by the installed scorer.
+   * The scorer is called once for each URL that is newly queued. URLs that are already pending
+   * instead get the scorer's rediscovery bonus added to their score; claimed URLs are left as they
+   * are.
+   *
+   * @param conn Database connection
+   * @param urls Normalized URLs with their hosts, e.g. as returned by {@link LinkExtractor}
+   * @param depth Link depth of the URLs, one more than that of the page they were found on
+   * @throws SQLException if a database access error occurs
+   */
+  public static void addNormalizedUrls(Connection conn, List<NormalizedUrl> urls, int depth)
+      throws SQLException {
+    if (urls == null || urls.isEmpty()) {
+      return;
+    }
+
+    // Look up the URLs already queued first, so that only new ones are scored; a scorer that
+    // counts URLs per host would otherwise count every rediscovery as well
+    Map<String, NormalizedUrl> byUrl = new LinkedHashMap<>();
+    for (NormalizedUrl url : urls) {
+      byUrl.putIfAbsent(url.url(), url);
+    }
+    List<String> queued = new ArrayList<>();
+    String existingSql =
+        "SELECT url FROM frontier_queue WHERE url IN (SELECT value FROM json_each(?))";
+    try (PreparedStatement statement = conn.prepareStatement(existingSql)) {
+      statement.setString(1, DatabaseManager.toJsonArray(byUrl.keySet()));
+      try (ResultSet resultSet = statement.executeQuery()) {
+        while (resultSet.next()) {
+          queued.add(resultSet.getString(1));
+        }
+      }
+    }
+    byUrl.keySet().removeAll(queued);
+
+    FrontierScorer currentScorer = scorer;
+    double bonus = currentScorer.rediscoveryBonus();
+    if (bonus != 0 && !queued.isEmpty()) {
+      String rescoreSql =
+          "UPDATE frontier_queue SET score = score + ? "
+              + "WHERE url IN (SELECT value FROM json_each(?)) AND claimed_at IS NULL";
+      try (PreparedStatement statement = conn.prepareStatement(rescoreSql)) {
+        statement.setDouble(1, bonus);
+        statement.setString(2, DatabaseManager.toJsonArray(queued));
+        statement.executeUpdate();
+      }
+    }
+    if (byUrl.isEmpty()) {
+      return;
+    }
+
+    String sql =
+        "INSERT OR IGNORE INTO frontier_queue (url, host, host_hash, depth, score, added_at) "
+            + "VALUES (?, ?, ?, ?, ?, ?)";
+    long now = System.currentTimeMillis();
     try (PreparedStatement statement = conn.prepareStatement(sql)) {
-      for (String url : urls) {
-        String normalizedUrl = UrlNormalizer.normalize(url);
-        statement.setString(1, normalizedUrl);
+      for (NormalizedUrl url : byUrl.values()) {
+        statement.setString(1, url.url());
+        statement.setString(2, url.host());
+        statement.setInt(3, hostHash(url.host()));
+        statement.setInt(4, depth);
+        statement.setDouble(5, currentScorer.score(url, depth));
+        statement.setLong(6, now);
         statement.addBatch();
       }
       statement.executeBatch();
     }
+    FrontierMetrics.urlsAdded.add(byUrl.size());
+  }
+
+  /**
+   * Returns the link depth of a frontier entry.
+   *
+   * @param conn Database connection
+   * @param id ID of the entry
+   * @return Its depth, or 0 if no such entry exists
+   * @throws SQLException if a database access error occurs
+   */
+  public static int depth(Connection conn, long id) throws SQLException {
+    String sql = "SELECT depth FROM frontier_queue WHERE id = ?";
+    try (PreparedStatement statement = conn.prepareStatement(sql)) {
+      statement.setLong(1, id);
+      try (ResultSet resultSet = statement.executeQuery()) {
+        return resultSet.next() ? resultSet.getInt(1) : 0;
+      }
+    }
   }
 
   /**
@@ -87,19 +368,200 @@ public class FrontierStore {
    * @throws SQLException if a database access error occurs
    */
   public static FrontierUrl getNextUrl(Connection conn) throws SQLException {
+    return getNextUrl(conn, Set.of());
+  }
+
+  /**
+   * Atomically claims and returns the highest-scored, then oldest, pending URL whose host is not
+   * excluded.
+   *
+   * @param conn Database connection
+   * @param excludedHosts Hosts that must not be claimed, e.g. hosts still in their politeness delay
+   * @return The next URL entry to crawl, or null if no pending URL belongs to an allowed host
+   * @throws SQLException if a database access error occurs
+   */
+  public static FrontierUrl getNextUrl(Connection conn, Collection<String> excludedHosts)
+      throws SQLException {
+    List<FrontierUrl> claimed = claimUrls(conn, excludedHosts, 1);
+    return claimed.isEmpty() ? null : claimed.get(0);
+  }
+
+  /**
+   * Atomically claims up to {@code limit} of the highest-scored, then oldest, pending URLs whose
+   * hosts are not excluded, in a single statement.
+   *
+   * @param conn Database connection
+   * @param excludedHosts Hosts that must not be claimed, e.g. hosts still in their politeness delay
+   * @param limit Maximum number of URLs to claim
+   * @return Claimed entries in claim order; empty if no pending URL belongs to an allowed host
+   * @throws SQLException if a database access error occurs
+   */
+  public static List<FrontierUrl> claimUrls(
+      Connection conn, Collection<String> excludedHosts, int limit) throws SQLException {
+    return claimUrls(conn, excludedHosts, limit, 1, List.of(0));
+  }
+
+  /**
+   * Atomically claims up to {@code limit} of the highest-scored, then oldest, pending URLs whose
+   * hosts are not excluded and belong to one of the given shards, in a single statement.
+   *
+   * @param conn Database connection
+   * @param excludedHosts Hosts that must not be claimed, e.g. hosts still in their politeness delay
+   * @param limit Maximum number of URLs to claim
+   * @param shardCount Number of shards the queue is partitioned into
+   * @param shards Shards to claim from, each less than {@code shardCount}
+   * @return Claimed entries in claim order; empty if no pending URL belongs to an allowed host
+   * @throws SQLException if a database access error occurs
+   */
+  public static List<FrontierUrl> claimUrls(
+      Connection conn,
+      Collection<String> excludedHosts,
+      int limit,
+      int shardCount,
+      Collection<Integer> shards)
+      throws SQLException {
+    if (shards.isEmpty()) {
+      return List.of();
+    }
+    // The excluded hosts and shards are bound as JSON array parameters so the SQL text stays
+    // constant
     String sql =
-        "UPDATE frontier_queue SET claimed_at = datetime('now') WHERE id = ("
+        "UPDATE frontier_queue SET claimed_at = ? WHERE id IN ("
             + "SELECT id FROM frontier_queue WHERE claimed_at IS NULL "
-            + "ORDER BY added_at ASC LIMIT 1"
-            + ") RETURNING id, url";
+            + "AND (host IS NULL OR host NOT IN (SELECT value FROM json_each(?))) "
+            + "AND host_hash % ? IN (SELECT value FROM json_each(?)) "
+            + "ORDER BY score DESC, added_at ASC LIMIT ?"
+            + ") RETURNING id, url, host, score";
+    long start = System.nanoTime();
+    List<FrontierUrl> claimed = new ArrayList<>();
+    Map<Long, Double> scores = new HashMap<>();
     try (PreparedStatement statement = conn.prepareStatement(sql)) {
+      statement.setLong(1, System.currentTimeMillis());
+      statement.setString(2, DatabaseManager.toJsonArray(excludedHosts));
+      statement.setInt(3, shardCount);
+      statement.setString(
+          4, shards.stream().map(String::valueOf).collect(Collectors.joining(",", "[", "]")));
+      statement.setInt(5, limit);
       try (ResultSet resultSet = statement.executeQuery()) {
-        if (resultSet.next()) {
-          return new FrontierUrl(resultSet.getLong("id"), resultSet.getString("url"));
+        while (resultSet.next()) {
+          scores.put(resultSet.getLong("id"), resultSet.getDouble("score"));
+          claimed.add(
+              new FrontierUrl(
+                  resultSet.getLong("id"),
+                  resultSet.getString("url"),
+                  resultSet.getString("host")));
         }
       }
     }
-    return null;
+    // RETURNING does not guarantee order; IDs increase with insertion order
+    claimed.sort(
+        Comparator.comparingDouble((FrontierUrl url) -> -scores.get(url.id()))
+            .thenComparingLong(FrontierUrl::id));
+    FrontierMetrics.claimLatency.recordSince(start);
+    FrontierMetrics.urlsClaimed.add(claimed.size());
+    return claimed;
+  }
+
+  /**
+   * Returns claimed URLs to the pending state so that any worker can claim them again.
+   *
+   * @param conn Database connection
+   * @param ids IDs of the claimed entries to release
+   * @throws SQLException if a database access error occurs
+   */
+  public static void releaseUrls(Connection conn, Collection<Long> ids) throws SQLException {
+    if (ids.isEmpty()) {
+      return;
+    }
+    String sql =
+        "UPDATE frontier_queue SET claimed_at = NULL "
+            + "WHERE id IN (SELECT value FROM json_each(?))";
+    try (PreparedStatement statement = conn.prepareStatement(sql)) {
+      statement.setString(
+          1, ids.stream().map(String::valueOf).collect(Collectors.joining(",", "[", "]")));
+      statement.executeUpdate();
+    }
+  }
+
+  /**
+   * Renews claims that are still held, so that they are not taken for the claims of a dead process.
+   *
+   * @param conn Database connection
+   * @param ids IDs of the claimed entries to renew
+   * @param now Epoch milliseconds to record as their claim time
+   * @return Number of claims renewed
+   * @throws SQLException if a database access error occurs
+   */
+  public static int renewClaims(Connection conn, Collection<Long> ids, long now)
+      throws SQLException {
+    if (ids.isEmpty()) {
+      return 0;
+    }
+    String sql =
+        "UPDATE frontier_queue SET claimed_at = ? "
+            + "WHERE id IN (SELECT value FROM json_each(?)) AND claimed_at IS NOT NULL";
+    try (PreparedStatement statement = conn.prepareStatement(sql)) {
+      statement.setLong(1, now);
+      statement.setString(
+          2, ids.stream().map(String::valueOf).collect(Collectors.joining(",", "[", "]")));
+      return statement.executeUpdate();
+    }
+  }
+
+  /**
+   * Returns URLs claimed before a cutoff to the pending state, e.g. the claims of a process that
+   * died before processing or releasing them. They keep their place in the queue.
+   *
+   * @param conn Database connection
+   * @param claimedBefore Epoch milliseconds; URLs claimed before this are released
+   * @return Number of URLs returned to the queue
+   * @throws SQLException if a database access error occurs
+   */
+  public static int releaseExpiredClaims(Connection conn, long claimedBefore) throws SQLException {
+    String sql =
+        "UPDATE frontier_queue SET claimed_at = NULL "
+            + "WHERE claimed_at IS NOT NULL AND claimed_at < ?";
+    try (PreparedStatement statement = conn.prepareStatement(sql)) {
+      statement.setLong(1, claimedBefore);
+      int released = statement.executeUpdate();
+      urlsReclaimed.add(released);
+      return released;
+    }
+  }
+
+  /**
+   * Checks if the frontier queue has any entries, claimed or not.
+   *
+   * @param conn Database connection
+   * @return true if any URL is pending or being processed, false otherwise
+   * @throws SQLException if a database access error occurs
+   */
+  public static boolean hasUrls(Connection conn) throws SQLException {
+    String sql = "SELECT EXISTS (SELECT 1 FROM frontier_queue)";
+    try (PreparedStatement statement = conn.prepareStatement(sql)) {
+      try (ResultSet resultSet = statement.executeQuery()) {
+        return resultSet.next() && resultSet.getInt(1) == 1;
+      }
+    }
+  }
+
+  /**
+   * Counts the entries in the frontier queue, for reporting.
+   *
+   * @param conn Database connection
+   * @param claimed true to count URLs being processed, false to count pending URLs
+   * @return Number of matching entries
+   * @throws SQLException if a database access error occurs
+   */
+  public static long countUrls(Connection conn, boolean claimed) throws SQLException {
+    String sql =
+        "SELECT COUNT(*) FROM frontier_queue WHERE claimed_at IS "
+            + (claimed ? "NOT NULL" : "NULL");
+    try (PreparedStatement statement = conn.prepareStatement(sql)) {
+      try (ResultSet resultSet = statement.executeQuery()) {
+        return resultSet.next() ? resultSet.getLong(1) : 0;
+      }
+    }
   }
 
   /**
@@ -110,15 +572,12 @@ public class FrontierStore {
    * @throws SQLException if a database access error occurs
    */
   public static boolean hasClaimedUrls(Connection conn) throws SQLException {
-    String sql = "SELECT COUNT(*) FROM frontier_queue WHERE claimed_at IS NOT NULL";
+    String sql = "SELECT EXISTS (SELECT 1 FROM frontier_queue WHERE claimed_at IS NOT NULL)";
     try (PreparedStatement statement = conn.prepareStatement(sql)) {
       try (ResultSet resultSet = statement.executeQuery()) {
-        if (resultSet.next()) {
-          return resultSet.getInt(1) > 0;
-        }
+        return resultSet.next() && resultSet.getInt(1) == 1;
       }
     }
-    return false;
   }
 
   /**
@@ -0,0 +1,158 @@
+package com.joegarb.crawler;
+
+import static com.joegarb.crawler.FrontierStore.FrontierUrl;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Pending frontier URLs grouped by host, polled oldest first while skipping excluded hosts.
+ *
+ * <p>Each host's URLs are ordered by ID, and hosts are ordered by the ID of their oldest URL, so a
+ * poll takes the oldest URLs of the allowed hosts without looking at the excluded hosts' URLs.
+ * Entries share their queue's host string. Not thread-safe.
+ */
+final class HostQueues {
+  /** Pending URLs of one host, oldest first. */
+  private static final class HostQueue {
+    final String host;
+    final PriorityQueue<FrontierUrl> urls =
+        new PriorityQueue<>(Comparator.comparingLong(FrontierUrl::id));
+
+    HostQueue(String host) {
+      this.host = host;
+    }
+
+    long headId() {
+      return urls.peek().id();
+    }
+  }
+
+  // Keyed by host; URLs without a host share the null key
+  private final Map<String, HostQueue> hosts = new HashMap<>();
+  // Hosts with pending URLs, by the ID of their oldest one
+  private final TreeSet<HostQueue> ready =
+      new TreeSet<>(Comparator.comparingLong(HostQueue::headId));
+  private int size;
+
+  /**
+   * Adds a pending URL.
+   *
+   * @param id Entry ID, unique among the entries
+   * @param url Normalized URL
+   * @param host Host of the URL, or null
+   */
+  void add(long id, String url, String host) {
+    HostQueue queue = hosts.get(host);
+    boolean reposition;
+    if (queue == null) {
+      queue = new HostQueue(host);
+      hosts.put(host, queue);
+      reposition = true;
+    } else {
+      // A URL older than the host's oldest, e.g. a released one, changes the host's position
+      reposition = id < queue.headId();
+      if (reposition) {
+        ready.remove(queue);
+      }
+    }
+    queue.urls.add(new FrontierUrl(id, url, queue.host));
+    size++;
+    if (reposition) {
+      ready.add(queue);
+    }
+  }
+
+  /**
+   * Removes up to {@code limit} of the oldest URLs whose hosts are not excluded. URLs without a
+   * host are never excluded.
+   *
+   * @param excludedHosts Hosts to skip
+   * @param limit Maximum number of URLs to remove
+   * @param polled Receives the removed URLs, oldest first
+   */
+  void poll(Set<String> excludedHosts, int limit, List<FrontierUrl> polled) {
+    List<HostQueue> skipped = new ArrayList<>();
+    int taken = 0;
+    while (taken < limit) {
+      HostQueue queue = ready.pollFirst();
+      if (queue == null) {
+        break;
+      }
+      if (queue.host != null && excludedHosts.contains(queue.host)) {
+        skipped.add(queue);
+        continue;
+      }
+      polled.add(queue.urls.poll());
+      size--;
+      taken++;
+      if (queue.urls.isEmpty()) {
+        hosts.remove(queue.host);
+      } else {
+        ready.add(queue);
+      }
+    }
+    ready.addAll(skipped);
+  }
+
+  /**
+   * Removes every URL matching a condition. Takes time proportional to the number of URLs.
+   *
+   * @param filter Condition
+   * @param removed Receives the removed URLs
+   */
+  void removeIf(Predicate<FrontierUrl> filter, List<FrontierUrl> removed) {
+    ready.clear();
+    hosts
+        .values()
+        .removeIf(
+            queue -> {
+              queue.urls.removeIf(
+                  url -> {
+                    if (filter.test(url)) {
+                      removed.add(url);
+                      size--;
+                      return true;
+                    }
+                    return false;
+                  });
+              return queue.urls.isEmpty();
+            });
+    ready.addAll(hosts.values());
+  }
+
+  /**
+   * Calls an action with every URL, in no particular order.
+   *
+   * @param action Action to call
+   */
+  void forEach(Consumer<FrontierUrl> action) {
+    for (HostQueue queue : hosts.values()) {
+      queue.urls.forEach(action);
+    }
+  }
+
+  /**
+   * Returns the number of URLs.
+   *
+   * @return Size
+   */
+  int size() {
+    return size;
+  }
+
+  /** Removes all URLs. */
+  void clear() {
+    hosts.clear();
+    ready.clear();
+    size = 0;
+  }
+}
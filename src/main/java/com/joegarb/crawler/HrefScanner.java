@@ -0,0 +1,346 @@
+package com.joegarb.crawler;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.jsoup.parser.Parser;
+
+/**
+ * Single-pass scanner that pulls {@code href} attribute values out of {@code <a>} and {@code
+ * <base>} tags without building a DOM.
+ *
+ * <p>The scanner only tokenizes as much HTML as it needs to find tags reliably: comments, doctype
+ * and processing instructions, end tags, quoted attribute values containing {@code >}, and the raw
+ * text of {@code <script>}, {@code <style>}, {@code <textarea>}, {@code <title>}, {@code <xmp>} and
+ * {@code <iframe>} are skipped without looking inside them, as is everything after {@code
+ * <plaintext>}. Like jsoup, a {@code <noscript>} before the body starts is skipped too, while one
+ * in the body is markup like any other. Apart from the returned strings it allocates nothing per
+ * tag.
+ */
+final class HrefScanner {
+  /** Elements whose content is text up to the matching end tag, so tags inside do not count. */
+  private static final String[] RAW_TEXT_ELEMENTS = {
+    "script", "style", "textarea", "title", "xmp", "iframe"
+  };
+
+  /** Start tags that do not end the head, so a {@code <noscript>} after them is still raw text. */
+  private static final String[] HEAD_ELEMENTS = {
+    "html", "head", "base", "link", "meta", "title", "style", "script", "noscript", "template"
+  };
+
+  /**
+   * Hrefs found in a document.
+   *
+   * @param baseHref Value of the first {@code <base href>}, or null if there is none
+   * @param hrefs Non-empty {@code <a href>} values in document order, with entities decoded
+   */
+  record Hrefs(String baseHref, List<String> hrefs) {}
+
+  private final String html;
+  private final int length;
+  private int pos;
+  private String baseHref;
+  private boolean inBody;
+  private final List<String> hrefs = new ArrayList<>();
+
+  private HrefScanner(String html) {
+    this.html = html;
+    this.length = html.length();
+  }
+
+  /**
+   * Scans HTML for link hrefs.
+   *
+   * @param html HTML content
+   * @return The base href and link hrefs found
+   */
+  static Hrefs scan(String html) {
+    HrefScanner scanner = new HrefScanner(html);
+    scanner.run();
+    return new Hrefs(scanner.baseHref, scanner.hrefs);
+  }
+
+  private void run() {
+    while (true) {
+      int tagStart = html.indexOf('<', pos);
+      if (tagStart < 0 || tagStart + 1 >= length) {
+        return;
+      }
+      pos = tagStart + 1;
+      char next = html.charAt(pos);
+      if (next == '!') {
+        if (html.startsWith("--", pos + 1)) {
+          skipPast("-->", pos + 3);
+        } else {
+          skipPast(">", pos);
+        }
+      } else if (next == '?' || next == '/') {
+        if (next == '/'
+            && html.regionMatches(true, pos + 1, "head", 0, 4)
+            && (pos + 5 >= length || isTagNameEnd(html.charAt(pos + 5)))) {
+          inBody = true;
+        }
+        skipPast(">", pos);
+      } else if (isAsciiLetter(next)) {
+        startTag();
+      }
+      // Anything else is a literal '<' in text
+    }
+  }
+
+  /** Reads a start tag beginning at pos (just after the '<'). */
+  private void startTag() {
+    int nameStart = pos;
+    while (pos < length && !isTagNameEnd(html.charAt(pos))) {
+      pos++;
+    }
+    int nameLength = pos - nameStart;
+    boolean isAnchor = nameLength == 1 && (html.charAt(nameStart) | 0x20) == 'a';
+    boolean isBase = nameLength == 4 && html.regionMatches(true, nameStart, "base", 0, 4);
+    boolean wantHref = isAnchor || (isBase && baseHref == null);
+
+    String href = attributes(wantHref);
+    if (href != null) {
+      if (isAnchor) {
+        if (!href.isEmpty()) {
+          hrefs.add(href);
+        }
+      } else {
+        baseHref = href;
+      }
+    }
+
+    if (!inBody && !isElement(nameStart, nameLength, HEAD_ELEMENTS)) {
+      inBody = true;
+    }
+    if (nameLength == 8 && !inBody && html.regionMatches(true, nameStart, "noscript", 0, 8)) {
+      skipRawText("noscript");
+      return;
+    }
+    if (nameLength == 9 && html.regionMatches(true, nameStart, "plaintext", 0, 9)) {
+      // Everything after it is text; it has no end tag
+      pos = length;
+      return;
+    }
+    for (String element : RAW_TEXT_ELEMENTS) {
+      if (nameLength == element.length()
+          && html.regionMatches(true, nameStart, element, 0, nameLength)) {
+        skipRawText(element);
+        return;
+      }
+    }
+  }
+
+  private boolean isElement(int nameStart, int nameLength, String[] elements) {
+    for (String element : elements) {
+      if (nameLength == element.length()
+          && html.regionMatches(true, nameStart, element, 0, nameLength)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Reads a tag's attributes up to and including the closing '>'.
+   *
+   * @param wantHref Whether to return the href attribute's value
+   * @return The first href value if wanted and present, otherwise null
+   */
+  private String attributes(boolean wantHref) {
+    String href = null;
+    while (pos < length) {
+      char c = html.charAt(pos);
+      if (c == '>') {
+        pos++;
+        return href;
+      }
+      if (isWhitespace(c) || c == '/') {
+        pos++;
+        continue;
+      }
+
+      int nameStart = pos;
+      pos++;
+      while (pos < length && !isAttributeNameEnd(html.charAt(pos))) {
+        pos++;
+      }
+      boolean isHref =
+          wantHref
+              && href == null
+              && pos - nameStart == 4
+              && html.regionMatches(true, nameStart, "href", 0, 4);
+
+      skipWhitespace();
+      if (pos >= length || html.charAt(pos) != '=') {
+        if (isHref) {
+          href = "";
+        }
+        continue;
+      }
+      pos++;
+      skipWhitespace();
+      if (pos >= length) {
+        break;
+      }
+
+      int valueStart;
+      int valueEnd;
+      char quote = html.charAt(pos);
+      if (quote == '"' || quote == '\'') {
+        valueStart = pos + 1;
+        valueEnd = html.indexOf(quote, valueStart);
+        if (valueEnd < 0) {
+          valueEnd = length;
+        }
+        pos = Math.min(length, valueEnd + 1);
+      } else {
+        valueStart = pos;
+        while (pos < length && !isWhitespace(html.charAt(pos)) && html.charAt(pos) != '>') {
+          pos++;
+        }
+        valueEnd = pos;
+      }
+      if (isHref) {
+        href = decode(valueStart, valueEnd);
+      }
+    }
+    return href;
+  }
+
+  /**
+   * Returns an attribute value with character references decoded.
+   *
+   * <p>Numeric references and the handful of named references that appear in URLs are decoded here;
+   * anything else is handed to jsoup, whose decoder is complete but allocates a large buffer on
+   * every call.
+   *
+   * @param start Start index of the value
+   * @param end End index of the value (exclusive)
+   * @return The decoded value
+   */
+  private String decode(int start, int end) {
+    int amp = html.indexOf('&', start);
+    if (amp < 0 || amp >= end) {
+      return html.substring(start, end);
+    }
+    StringBuilder decoded = new StringBuilder(end - start);
+    int i = start;
+    while (i < end) {
+      char c = html.charAt(i);
+      if (c != '&') {
+        decoded.append(c);
+        i++;
+        continue;
+      }
+      int semicolon = html.indexOf(';', i);
+      if (semicolon < 0 || semicolon >= end) {
+        return Parser.unescapeEntities(html.substring(start, end), true);
+      }
+      int codePoint = referenceCodePoint(i + 1, semicolon);
+      if (codePoint < 0) {
+        return Parser.unescapeEntities(html.substring(start, end), true);
+      }
+      decoded.appendCodePoint(codePoint);
+      i = semicolon + 1;
+    }
+    return decoded.toString();
+  }
+
+  /**
+   * Decodes a numeric or common named character reference.
+   *
+   * @param start Index just after the '&'
+   * @param end Index of the terminating ';'
+   * @return The code point, or -1 if the reference is not one handled here
+   */
+  private int referenceCodePoint(int start, int end) {
+    int length = end - start;
+    if (length >= 2 && html.charAt(start) == '#') {
+      boolean hex = (html.charAt(start + 1) | 0x20) == 'x';
+      int digitsStart = hex ? start + 2 : start + 1;
+      if (digitsStart >= end || end - digitsStart > 6) {
+        return -1;
+      }
+      int codePoint = 0;
+      for (int i = digitsStart; i < end; i++) {
+        int digit = Character.digit(html.charAt(i), hex ? 16 : 10);
+        if (digit < 0) {
+          return -1;
+        }
+        codePoint = codePoint * (hex ? 16 : 10) + digit;
+      }
+      return Character.isValidCodePoint(codePoint) && codePoint != 0 ? codePoint : -1;
+    }
+    if (length == 3 && html.startsWith("amp", start)) {
+      return '&';
+    }
+    if (length == 4 && html.startsWith("quot", start)) {
+      return '"';
+    }
+    if (length == 4 && html.startsWith("apos", start)) {
+      return '\'';
+    }
+    if (length == 2 && html.startsWith("lt", start)) {
+      return '<';
+    }
+    if (length == 2 && html.startsWith("gt", start)) {
+      return '>';
+    }
+    return -1;
+  }
+
+  /**
+   * Skips the content of a raw text element up to and including its end tag.
+   *
+   * @param element Lowercase element name
+   */
+  private void skipRawText(String element) {
+    int nameLength = element.length();
+    while (pos < length) {
+      int endTag = html.indexOf("</", pos);
+      if (endTag < 0) {
+        pos = length;
+        return;
+      }
+      pos = endTag + 2;
+      if (html.regionMatches(true, pos, element, 0, nameLength)
+          && (pos + nameLength >= length || isTagNameEnd(html.charAt(pos + nameLength)))) {
+        skipPast(">", pos + nameLength);
+        return;
+      }
+    }
+  }
+
+  /**
+   * Moves pos just past the next occurrence of a terminator, or to the end of the input.
+   *
+   * @param terminator Text to look for
+   * @param from Index to start searching at
+   */
+  private void skipPast(String terminator, int from) {
+    int found = html.indexOf(terminator, Math.min(from, length));
+    pos = found < 0 ? length : found + terminator.length();
+  }
+
+  private void skipWhitespace() {
+    while (pos < length && isWhitespace(html.charAt(pos))) {
+      pos++;
+    }
+  }
+
+  private static boolean isAsciiLetter(char c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+  }
+
+  private static boolean isWhitespace(char c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+  }
+
+  private static boolean isTagNameEnd(char c) {
+    return isWhitespace(c) || c == '/' || c == '>';
+  }
+
+  private static boolean isAttributeNameEnd(char c) {
+    return isWhitespace(c) || c == '/' || c == '>' || c == '=';
+  }
+}
@@ -0,0 +1,349 @@
+package com.joegarb.crawler;
+
+import static com.joegarb.crawler.FrontierStore.FrontierUrl;
+import static com.joegarb.crawler.UrlNormalizer.NormalizedUrl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Frontier held in the memory of a single process, for crawls that need more claims than a database
+ * round trip per batch allows.
+ *
+ * <p>Pending URLs are kept in {@link HostQueues}, so a claim takes the oldest URLs of the allowed
+ * hosts like {@link FrontierStore#claimUrls} does without looking at the excluded hosts' URLs.
+ * Queued and claimed URLs are deduplicated by their 64-bit {@link Fingerprint} in a primitive hash
+ * set, and claimed URLs are looked up by ID in a primitive hash map. All operations take one lock.
+ *
+ * <p>Additions and removals take effect immediately rather than with the persistence writer's
+ * transaction, so the writer makes them once its transaction has committed. The frontier can be
+ * written to a snapshot file, periodically and on {@link #close}, and restored from it at startup.
+ * Claimed URLs are restored as pending, so a URL being processed when the process stopped is
+ * crawled again; URLs queued after the last snapshot are lost if the process dies without closing
+ * the frontier.
+ */
+public class InMemoryFrontier implements Frontier {
+  private static final Logger logger = LoggerFactory.getLogger(InMemoryFrontier.class);
+
+  private static final int SNAPSHOT_MAGIC = 0x43524c46;
+  private static final int SNAPSHOT_VERSION = 1;
+
+  private final Path snapshotFile;
+  private final ScheduledExecutorService snapshotter;
+
+  // Guarded by lock. A ReentrantLock rather than synchronized so that virtual threads waiting on it
+  // do not pin their carrier threads.
+  private final ReentrantLock lock = new ReentrantLock();
+  private final HostQueues pending = new HostQueues();
+  private final LongHashMap<FrontierUrl> claimed = new LongHashMap<>(1024);
+  private final LongHashSet fingerprints = new LongHashSet(1024);
+  private long nextId = 1;
+  private boolean closed;
+
+  /** Creates an empty frontier that is never written to disk. */
+  public InMemoryFrontier() {
+    this.snapshotFile = null;
+    this.snapshotter = null;
+  }
+
+  private InMemoryFrontier(Path snapshotFile, boolean periodic) {
+    this.snapshotFile = snapshotFile;
+    this.snapshotter =
+        periodic
+            ? Executors.newSingleThreadScheduledExecutor(
+                runnable -> {
+                  Thread thread = new Thread(runnable, "frontier-snapshot");
+                  thread.setDaemon(true);
+                  return thread;
+                })
+            : null;
+  }
+
+  /**
+   * Opens a frontier restored from a snapshot file, if it exists, and written back to it
+   * periodically and on {@link #close}.
+   *
+   * @param snapshotFile Snapshot file
+   * @param snapshotIntervalSeconds Interval between snapshots, or 0 to only write one on close
+   * @return The frontier
+   * @throws IOException if an existing snapshot cannot be read
+   */
+  public static InMemoryFrontier open(Path snapshotFile, int snapshotIntervalSeconds)
+      throws IOException {
+    InMemoryFrontier frontier = new InMemoryFrontier(snapshotFile, snapshotIntervalSeconds > 0);
+    if (Files.exists(snapshotFile)) {
+      try {
+        frontier.restore(snapshotFile);
+      } catch (IOException | RuntimeException e) {
+        if (frontier.snapshotter != null) {
+          frontier.snapshotter.shutdownNow();
+        }
+        throw e;
+      }
+    }
+    if (frontier.snapshotter != null) {
+      frontier.snapshotter.scheduleWithFixedDelay(
+          frontier::snapshotQuietly,
+          snapshotIntervalSeconds,
+          snapshotIntervalSeconds,
+          TimeUnit.SECONDS);
+    }
+    return frontier;
+  }
+
+  @Override
+  public void add(Connection conn, List<NormalizedUrl> urls) {
+    if (urls == null || urls.isEmpty()) {
+      return;
+    }
+    int added = 0;
+    lock.lock();
+    try {
+      for (NormalizedUrl url : urls) {
+        if (fingerprints.add(Fingerprint.of(url.url()))) {
+          pending.add(nextId++, url.url(), url.host());
+          added++;
+        }
+      }
+    } finally {
+      lock.unlock();
+    }
+    FrontierMetrics.urlsAdded.add(added);
+  }
+
+  @Override
+  public List<FrontierUrl> claim(Collection<String> excludedHosts, int limit) {
+    long start = System.nanoTime();
+    Set<String> excluded =
+        excludedHosts instanceof Set<String> set ? set : new HashSet<>(excludedHosts);
+    List<FrontierUrl> claimedUrls = new ArrayList<>(Math.max(0, Math.min(limit, 1024)));
+    lock.lock();
+    try {
+      pending.poll(excluded, limit, claimedUrls);
+      for (FrontierUrl url : claimedUrls) {
+        claimed.put(url.id(), url);
+      }
+    } finally {
+      lock.unlock();
+    }
+    FrontierMetrics.claimLatency.recordSince(start);
+    FrontierMetrics.urlsClaimed.add(claimedUrls.size());
+    return claimedUrls;
+  }
+
+  @Override
+  public void release(Collection<Long> ids) {
+    lock.lock();
+    try {
+      for (long id : ids) {
+        FrontierUrl url = claimed.remove(id);
+        if (url != null) {
+          pending.add(url.id(), url.url(), url.host());
+        }
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Removes a claimed URL once it has been processed. IDs that are not claimed are ignored.
+   *
+   * @param conn Ignored
+   * @param id ID of the claimed entry
+   */
+  @Override
+  public void remove(Connection conn, long id) {
+    lock.lock();
+    try {
+      FrontierUrl url = claimed.remove(id);
+      if (url != null) {
+        fingerprints.remove(Fingerprint.of(url.url()));
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public boolean hasUrls() {
+    lock.lock();
+    try {
+      return pending.size() > 0 || claimed.size() > 0;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public long count(boolean claimedUrls) {
+    lock.lock();
+    try {
+      return claimedUrls ? claimed.size() : pending.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Writes every pending and claimed URL to the snapshot file, replacing it atomically. The lock is
+   * only held while the entries are copied, not while they are written.
+   *
+   * @throws IOException if the snapshot cannot be written
+   * @throws IllegalStateException if the frontier has no snapshot file
+   */
+  public void snapshot() throws IOException {
+    if (snapshotFile == null) {
+      throw new IllegalStateException("No snapshot file configured");
+    }
+    List<FrontierUrl> entries;
+    long idAfterLast;
+    lock.lock();
+    try {
+      entries = new ArrayList<>(pending.size() + claimed.size());
+      claimed.forEachValue(entries::add);
+      pending.forEach(entries::add);
+      idAfterLast = nextId;
+    } finally {
+      lock.unlock();
+    }
+
+    long start = System.nanoTime();
+    Path directory = snapshotFile.toAbsolutePath().getParent();
+    Path temporary = Files.createTempFile(directory, snapshotFile.getFileName().toString(), ".tmp");
+    try {
+      try (DataOutputStream out =
+          new DataOutputStream(
+              new BufferedOutputStream(Files.newOutputStream(temporary), 1 << 16))) {
+        out.writeInt(SNAPSHOT_MAGIC);
+        out.writeInt(SNAPSHOT_VERSION);
+        out.writeLong(idAfterLast);
+        out.writeLong(entries.size());
+        for (FrontierUrl entry : entries) {
+          out.writeLong(entry.id());
+          writeString(out, entry.url());
+          writeString(out, entry.host());
+        }
+      }
+      Files.move(
+          temporary,
+          snapshotFile,
+          StandardCopyOption.ATOMIC_MOVE,
+          StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+    logger.debug(
+        "Wrote {} frontier URLs to {} in {} ms",
+        entries.size(),
+        snapshotFile,
+        (System.nanoTime() - start) / 1_000_000);
+  }
+
+  /**
+   * Stops periodic snapshots and writes a final one, if the frontier has a snapshot file. Safe to
+   * call more than once, e.g. from both the main thread and a shutdown hook.
+   */
+  @Override
+  public void close() {
+    lock.lock();
+    try {
+      if (closed) {
+        return;
+      }
+      closed = true;
+    } finally {
+      lock.unlock();
+    }
+    if (snapshotter != null) {
+      snapshotter.shutdownNow();
+    }
+    if (snapshotFile != null) {
+      snapshotQuietly();
+      logger.info("Saved frontier snapshot to {}", snapshotFile);
+    }
+  }
+
+  /**
+   * Replaces the frontier's contents with a snapshot. Claimed URLs in the snapshot become pending.
+   *
+   * @param file Snapshot file
+   * @throws IOException if the file cannot be read or is not a frontier snapshot
+   */
+  private void restore(Path file) throws IOException {
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+      if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+        throw new IOException("Not a frontier snapshot: " + file);
+      }
+      long idAfterLast = in.readLong();
+      long count = in.readLong();
+      lock.lock();
+      try {
+        pending.clear();
+        claimed.clear();
+        fingerprints.clear();
+        nextId = idAfterLast;
+        for (long i = 0; i < count; i++) {
+          long id = in.readLong();
+          String url = readString(in);
+          String host = readString(in);
+          if (fingerprints.add(Fingerprint.of(url))) {
+            pending.add(id, url, host);
+            nextId = Math.max(nextId, id + 1);
+          }
+        }
+      } finally {
+        lock.unlock();
+      }
+      logger.info("Restored {} frontier URLs from {}", count, file);
+    }
+  }
+
+  private void snapshotQuietly() {
+    try {
+      snapshot();
+    } catch (IOException | RuntimeException e) {
+      logger.error("Failed to write frontier snapshot to {}", snapshotFile, e);
+    }
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    if (value == null) {
+      out.writeInt(-1);
+      return;
+    }
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length < 0) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
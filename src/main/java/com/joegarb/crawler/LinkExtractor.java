@@ -1,5 +1,7 @@
 package com.joegarb.crawler;
 
+import static com.joegarb.crawler.UrlNormalizer.NormalizedUrl;
+
 import io.mola.galimatias.GalimatiasParseException;
 import io.mola.galimatias.URL;
 import java.util.ArrayList;
@@ -7,7 +9,6 @@ import java.util.List;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
-import org.jsoup.select.Elements;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -15,35 +16,125 @@ import org.slf4j.LoggerFactory;
 public class LinkExtractor {
   private static final Logger logger = LoggerFactory.getLogger(LinkExtractor.class);
 
+  /** How hrefs are pulled out of a page. */
+  public enum Mode {
+    /** Parse the page into a jsoup DOM and select {@code a[href]} elements. */
+    DOM,
+    /** Scan the page for {@code <a>} and {@code <base>} tags without building a DOM. */
+    STREAMING
+  }
+
+  private static final Mode DEFAULT_MODE = mode(Configuration.LINK_EXTRACTION_MODE);
+
+  private static final Metrics.Histogram extractLatency =
+      Metrics.latency(
+          "crawler_extract_seconds", "Time to extract and normalize the links of a page");
+  private static final Metrics.Counter linksExtracted =
+      Metrics.counter("crawler_links_extracted_total", "Links extracted, after host filtering");
+  private static final Metrics.Histogram linksPerPage =
+      Metrics.histogram(
+          "crawler_links_per_page",
+          "Links extracted per page",
+          0,
+          1,
+          5,
+          10,
+          25,
+          50,
+          100,
+          250,
+          500,
+          1000);
+
   /**
-   * Extracts all links from HTML content that could be crawled.
+   * Extracts all links from HTML content that could be crawled, using the configured extraction
+   * mode.
    *
    * @param htmlContent The HTML content to parse
    * @param baseUrl The base URL used to resolve relative links (also used to determine target host)
    * @return List of normalized URLs
    */
   public static List<String> extractLinks(String htmlContent, String baseUrl) {
-    List<String> links = new ArrayList<>();
+    return extractLinks(htmlContent, baseUrl, DEFAULT_MODE);
+  }
+
+  /**
+   * Extracts all links from HTML content that could be crawled.
+   *
+   * @param htmlContent The HTML content to parse
+   * @param baseUrl The base URL used to resolve relative links (also used to determine target host)
+   * @param mode How to find the hrefs in the content
+   * @return List of normalized URLs
+   */
+  public static List<String> extractLinks(String htmlContent, String baseUrl, Mode mode) {
+    List<NormalizedUrl> normalizedLinks = extractNormalizedLinks(htmlContent, baseUrl, mode);
+    List<String> links = new ArrayList<>(normalizedLinks.size());
+    for (NormalizedUrl link : normalizedLinks) {
+      links.add(link.url());
+    }
+    return links;
+  }
 
-    String targetHost = extractHost(baseUrl);
+  /**
+   * Extracts all links from HTML content that could be crawled, with their hosts, using the
+   * configured extraction mode.
+   *
+   * @param htmlContent The HTML content to parse
+   * @param baseUrl The base URL used to resolve relative links (also used to determine target host)
+   * @return List of normalized URLs and their hosts
+   */
+  public static List<NormalizedUrl> extractNormalizedLinks(String htmlContent, String baseUrl) {
+    return extractNormalizedLinks(htmlContent, baseUrl, DEFAULT_MODE);
+  }
+
+  /**
+   * Extracts all links from HTML content that could be crawled, with their hosts.
+   *
+   * <p>The page URL is parsed once, and each href is resolved, normalized and host-filtered from a
+   * single parse. Relative links are resolved against the page's {@code <base href>} if it has one,
+   * and against baseUrl otherwise. Only http and https links are returned.
+   *
+   * @param htmlContent The HTML content to parse
+   * @param baseUrl The base URL used to resolve relative links (also used to determine target host)
+   * @param mode How to find the hrefs in the content
+   * @return List of normalized URLs and their hosts
+   */
+  public static List<NormalizedUrl> extractNormalizedLinks(
+      String htmlContent, String baseUrl, Mode mode) {
+    long start = System.nanoTime();
+    List<NormalizedUrl> links = new ArrayList<>();
 
+    URL pageUrl;
     try {
-      Document doc = Jsoup.parse(htmlContent, baseUrl);
-      Elements linkElements = doc.select("a[href]");
+      pageUrl = URL.parse(baseUrl);
+    } catch (GalimatiasParseException e) {
+      logger.warn("Cannot extract links from page with invalid URL: {}", baseUrl);
+      return links;
+    }
+    String targetHost = pageUrl.host() == null ? null : pageUrl.host().toString().toLowerCase();
 
-      for (Element element : linkElements) {
-        String href = element.attr("href");
-        if (href == null || href.isEmpty()) {
-          continue;
+    try {
+      HrefScanner.Hrefs hrefs = findHrefs(htmlContent, mode);
+      URL resolutionBase = pageUrl;
+      if (hrefs.baseHref() != null) {
+        try {
+          resolutionBase = pageUrl.resolve(hrefs.baseHref());
+        } catch (GalimatiasParseException e) {
+          logger.debug("Ignoring invalid base href: {}", hrefs.baseHref());
         }
+      }
 
+      for (String href : hrefs.hrefs()) {
         try {
           // Resolve relative URLs against the base URL
-          URL absoluteUrl = URL.parse(baseUrl).resolve(href);
-          String normalizedUrl = UrlNormalizer.normalize(absoluteUrl.toString());
+          URL absoluteUrl = resolutionBase.resolve(href);
+          if (!isHttp(absoluteUrl)) {
+            continue;
+          }
+          NormalizedUrl normalizedUrl = UrlNormalizer.normalizeParsed(absoluteUrl);
 
           // Check if link should be included based on host restriction
-          if (shouldIncludeLink(normalizedUrl, targetHost)) {
+          if (shouldIncludeLink(normalizedUrl.host(), targetHost)) {
             links.add(normalizedUrl);
           }
         } catch (GalimatiasParseException e) {
@@ -54,48 +145,70 @@ public class LinkExtractor {
       logger.warn("Error parsing HTML for links: {}", e.getMessage());
     }
 
+    extractLatency.recordSince(start);
+    linksExtracted.add(links.size());
+    linksPerPage.record(links.size());
     return links;
   }
 
   /**
-   * Extracts the host from a URL (e.g., "crawlme.example.com" from
-   * "https://crawlme.example.com/page").
+   * Returns the extraction mode for a configuration value.
    *
-   * @param url The URL to extract host from
-   * @return The host (e.g., "crawlme.example.com"), or null if extraction fails
+   * @param value "dom" or "streaming"; unknown values fall back to streaming
+   * @return The extraction mode
    */
-  private static String extractHost(String url) {
-    if (url == null || url.trim().isEmpty()) {
-      return null;
+  static Mode mode(String value) {
+    if ("dom".equals(value)) {
+      return Mode.DOM;
     }
-
-    String urlToParse = url.trim();
-
-    // Assume http:// if not specified
-    if (!urlToParse.contains("://")) {
-      urlToParse = "http://" + urlToParse;
+    if (!"streaming".equals(value)) {
+      logger.warn("Unknown link extraction mode: {}, using streaming", value);
     }
+    return Mode.STREAMING;
+  }
 
-    try {
-      URL parsedUrl = URL.parse(urlToParse);
-      io.mola.galimatias.Host host = parsedUrl.host();
-      if (host != null) {
-        return host.toString().toLowerCase();
+  /**
+   * Finds the raw base and link hrefs in a page, before resolution and filtering.
+   *
+   * @param htmlContent The HTML content to parse
+   * @param mode How to find the hrefs in the content
+   * @return The base href and non-empty link hrefs in document order
+   */
+  static HrefScanner.Hrefs findHrefs(String htmlContent, Mode mode) {
+    if (mode == Mode.STREAMING) {
+      return HrefScanner.scan(htmlContent);
+    }
+    Document doc = Jsoup.parse(htmlContent);
+    Element base = doc.selectFirst("base[href]");
+    List<String> hrefs = new ArrayList<>();
+    for (Element element : doc.select("a[href]")) {
+      String href = element.attr("href");
+      if (!href.isEmpty()) {
+        hrefs.add(href);
       }
-    } catch (GalimatiasParseException e) {
-      logger.debug("Could not parse URL for host extraction: {}", url);
     }
-    return null;
+    return new HrefScanner.Hrefs(base == null ? null : base.attr("href"), hrefs);
+  }
+
+  /**
+   * Checks whether a URL can be fetched over HTTP, as opposed to mailto:, javascript: and similar.
+   *
+   * @param url The resolved URL
+   * @return true for http and https URLs
+   */
+  private static boolean isHttp(URL url) {
+    String scheme = url.scheme();
+    return "http".equals(scheme) || "https".equals(scheme);
   }
 
   /**
    * Determines if a link should be included based on host restriction configuration.
    *
-   * @param normalizedUrl The normalized URL to check
+   * @param linkHost The link's host
    * @param targetHost The target host (e.g., "crawlme.example.com")
    * @return true if the link should be included, false otherwise
    */
-  private static boolean shouldIncludeLink(String normalizedUrl, String targetHost) {
+  private static boolean shouldIncludeLink(String linkHost, String targetHost) {
     if (!Configuration.RESTRICT_TO_HOST) {
       return true;
     }
@@ -105,7 +218,6 @@ public class LinkExtractor {
       return false;
     }
 
-    String linkHost = extractHost(normalizedUrl);
     if (linkHost == null) {
       return false;
     }
@@ -0,0 +1,156 @@
+package com.joegarb.crawler;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Map from {@code long} keys to non-null values in open-addressing arrays, without boxing the keys.
+ *
+ * <p>Linear probing with backward-shift deletion, so removals leave no tombstones. A null value
+ * marks a free slot. Not thread-safe.
+ *
+ * @param <V> Value type
+ */
+final class LongHashMap<V> {
+  private long[] keys;
+  private Object[] values;
+  private int mask;
+  private int size;
+
+  /**
+   * Creates an empty map.
+   *
+   * @param expectedSize Number of entries the map can hold before it first grows
+   */
+  LongHashMap(int expectedSize) {
+    allocate(LongHashSet.capacityFor(expectedSize));
+  }
+
+  /**
+   * Returns the value for a key.
+   *
+   * @param key Key
+   * @return The value, or null if the key is absent
+   */
+  @SuppressWarnings("unchecked")
+  V get(long key) {
+    for (int slot = slot(key); values[slot] != null; slot = (slot + 1) & mask) {
+      if (keys[slot] == key) {
+        return (V) values[slot];
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Associates a value with a key.
+   *
+   * @param key Key
+   * @param value Value, not null
+   * @return The previous value, or null if the key was absent
+   */
+  @SuppressWarnings("unchecked")
+  V put(long key, V value) {
+    int slot = slot(key);
+    while (values[slot] != null) {
+      if (keys[slot] == key) {
+        V previous = (V) values[slot];
+        values[slot] = value;
+        return previous;
+      }
+      slot = (slot + 1) & mask;
+    }
+    keys[slot] = key;
+    values[slot] = value;
+    if (++size > (mask + 1) / 4 * 3) {
+      rehash((mask + 1) * 2);
+    }
+    return null;
+  }
+
+  /**
+   * Removes a key.
+   *
+   * @param key Key
+   * @return The removed value, or null if the key was absent
+   */
+  @SuppressWarnings("unchecked")
+  V remove(long key) {
+    int slot = slot(key);
+    while (values[slot] != null && keys[slot] != key) {
+      slot = (slot + 1) & mask;
+    }
+    if (values[slot] == null) {
+      return null;
+    }
+    V removed = (V) values[slot];
+    // Shift later entries of the probe run back so that lookups never stop at a gap too early
+    int free = slot;
+    for (int next = (free + 1) & mask; values[next] != null; next = (next + 1) & mask) {
+      int home = slot(keys[next]);
+      if (((next - home) & mask) >= ((next - free) & mask)) {
+        keys[free] = keys[next];
+        values[free] = values[next];
+        free = next;
+      }
+    }
+    values[free] = null;
+    size--;
+    return removed;
+  }
+
+  /**
+   * Returns the number of entries.
+   *
+   * @return Size
+   */
+  int size() {
+    return size;
+  }
+
+  /**
+   * Calls an action with every value, in no particular order.
+   *
+   * @param action Action to call
+   */
+  @SuppressWarnings("unchecked")
+  void forEachValue(Consumer<? super V> action) {
+    for (Object value : values) {
+      if (value != null) {
+        action.accept((V) value);
+      }
+    }
+  }
+
+  /** Removes all entries. */
+  void clear() {
+    Arrays.fill(values, null);
+    size = 0;
+  }
+
+  private int slot(long key) {
+    return (int) Fingerprint.mix(key) & mask;
+  }
+
+  private void rehash(int capacity) {
+    long[] oldKeys = keys;
+    Object[] oldValues = values;
+    allocate(capacity);
+    for (int i = 0; i < oldValues.length; i++) {
+      if (oldValues[i] != null) {
+        int slot = slot(oldKeys[i]);
+        while (values[slot] != null) {
+          slot = (slot + 1) & mask;
+        }
+        keys[slot] = oldKeys[i];
+        values[slot] = oldValues[i];
+      }
+    }
+  }
+
+  private void allocate(int capacity) {
+    keys = new long[capacity];
+    values = new Object[capacity];
+    mask = capacity - 1;
+  }
+}
@@ -0,0 +1,158 @@
+package com.joegarb.crawler;
+
+import java.util.Arrays;
+
+/**
+ * Set of {@code long} values in a single open-addressing array, without boxing.
+ *
+ * <p>Linear probing with backward-shift deletion, so removals leave no tombstones. Zero is used to
+ * mark free slots and tracked separately. Not thread-safe.
+ */
+final class LongHashSet {
+  private static final int MIN_CAPACITY = 16;
+
+  private long[] slots;
+  private int mask;
+  private int size;
+  private boolean hasZero;
+
+  /**
+   * Creates an empty set.
+   *
+   * @param expectedSize Number of values the set can hold before it first grows
+   */
+  LongHashSet(int expectedSize) {
+    allocate(capacityFor(expectedSize));
+  }
+
+  /**
+   * Adds a value.
+   *
+   * @param value Value to add
+   * @return true if the value was not already present
+   */
+  boolean add(long value) {
+    if (value == 0) {
+      if (hasZero) {
+        return false;
+      }
+      hasZero = true;
+      size++;
+      return true;
+    }
+    int slot = slot(value);
+    while (slots[slot] != 0) {
+      if (slots[slot] == value) {
+        return false;
+      }
+      slot = (slot + 1) & mask;
+    }
+    slots[slot] = value;
+    if (++size > (mask + 1) / 4 * 3) {
+      rehash((mask + 1) * 2);
+    }
+    return true;
+  }
+
+  /**
+   * Checks whether a value is present.
+   *
+   * @param value Value to look for
+   * @return true if present
+   */
+  boolean contains(long value) {
+    if (value == 0) {
+      return hasZero;
+    }
+    for (int slot = slot(value); slots[slot] != 0; slot = (slot + 1) & mask) {
+      if (slots[slot] == value) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Removes a value.
+   *
+   * @param value Value to remove
+   * @return true if the value was present
+   */
+  boolean remove(long value) {
+    if (value == 0) {
+      if (!hasZero) {
+        return false;
+      }
+      hasZero = false;
+      size--;
+      return true;
+    }
+    int slot = slot(value);
+    while (slots[slot] != value) {
+      if (slots[slot] == 0) {
+        return false;
+      }
+      slot = (slot + 1) & mask;
+    }
+    // Shift later entries of the probe run back so that lookups never stop at a gap too early
+    int free = slot;
+    for (int next = (free + 1) & mask; slots[next] != 0; next = (next + 1) & mask) {
+      int home = slot(slots[next]);
+      if (((next - home) & mask) >= ((next - free) & mask)) {
+        slots[free] = slots[next];
+        free = next;
+      }
+    }
+    slots[free] = 0;
+    size--;
+    return true;
+  }
+
+  /**
+   * Returns the number of values in the set.
+   *
+   * @return Size
+   */
+  int size() {
+    return size;
+  }
+
+  /** Removes all values. */
+  void clear() {
+    Arrays.fill(slots, 0);
+    hasZero = false;
+    size = 0;
+  }
+
+  private int slot(long value) {
+    return (int) Fingerprint.mix(value) & mask;
+  }
+
+  private void rehash(int capacity) {
+    long[] old = slots;
+    allocate(capacity);
+    for (long value : old) {
+      if (value != 0) {
+        int slot = slot(value);
+        while (slots[slot] != 0) {
+          slot = (slot + 1) & mask;
+        }
+        slots[slot] = value;
+      }
+    }
+  }
+
+  private void allocate(int capacity) {
+    slots = new long[capacity];
+    mask = capacity - 1;
+  }
+
+  /** Returns the power-of-two capacity that holds {@code expectedSize} values below 3/4 load. */
+  static int capacityFor(int expectedSize) {
+    long needed = Math.max(MIN_CAPACITY, (long) Math.max(0, expectedSize) * 4 / 3 + 1);
+    if (needed > 1 << 30) {
+      return 1 << 30;
+    }
+    return Integer.highestOneBit((int) needed - 1) << 1;
+  }
+}
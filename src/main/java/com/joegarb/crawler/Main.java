@@ -1,13 +1,19 @@
 package com.joegarb.crawler;
 
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /** Main entry point for the web crawler. */
 public class Main {
   private static final Logger logger = LoggerFactory.getLogger(Main.class);
+  // The frontier size gauges count rows in the database, so scrapes reuse a recent count
+  private static final long FRONTIER_GAUGE_MAX_AGE_MILLIS = 5_000;
 
   /**
    * Main method that starts the web crawler.
@@ -34,37 +40,125 @@ public class Main {
       System.exit(1);
     }
 
+    try {
+      FrontierStore.installScorer(
+          FrontierScorer.create(Configuration.FRONTIER_SCORER, Configuration.FRONTIER_HOST_BUDGET));
+    } catch (IllegalArgumentException e) {
+      logger.error("Invalid FRONTIER_SCORER", e);
+      System.exit(1);
+    }
+    Frontier frontier;
+    try {
+      frontier = DatabaseManager.openFrontier();
+    } catch (IOException | SQLException e) {
+      logger.error("Failed to open frontier", e);
+      System.exit(1);
+      return;
+    }
+
+    SeenUrlFilter seenFilter = null;
     try {
       if (!workerMode) {
         // In normal mode, initialize database and add the start URL to the frontier
         DatabaseManager.initializeDatabase();
         try (Connection conn = DatabaseManager.getConnection()) {
-          FrontierStore.addUrl(conn, startUrl);
+          frontier.add(conn, List.of(UrlNormalizer.normalizeWithHost(startUrl)));
         }
         logger.info("Start URL: {}", startUrl);
       } else {
         logger.info("Running in worker mode");
       }
+      // Worker processes, and the processes a sharded frontier is split between, record pages in
+      // the same database
+      boolean sharedDatabase =
+          workerMode
+              || (Configuration.FRONTIER_BACKEND.equals("sqlite")
+                  && Configuration.FRONTIER_SHARDS > 1);
+      try (Connection conn = DatabaseManager.getConnection()) {
+        seenFilter = SeenUrlFilter.open(conn, sharedDatabase);
+      }
+      SeenUrlFilter.install(seenFilter);
     } catch (SQLException e) {
       logger.error("Failed to initialize database", e);
       System.exit(1);
     }
 
-    if (workerMode) {
+    PolitenessScheduler politeness =
+        new PolitenessScheduler(Configuration.DELAY_BETWEEN_REQUESTS_MS);
+    FrontierBuffer buffer =
+        new FrontierBuffer(
+            frontier,
+            politeness,
+            Configuration.FRONTIER_BATCH_MIN,
+            Configuration.FRONTIER_BATCH_MAX);
+    PersistenceWriter writer =
+        new PersistenceWriter(
+            DatabaseManager::getConnection,
+            frontier,
+            Configuration.PERSISTENCE_FLUSH_SIZE,
+            Configuration.PERSISTENCE_FLUSH_INTERVAL_MS,
+            seenFilter,
+            buffer::signalWork);
+    RecrawlScheduler recrawl = RecrawlScheduler.start(frontier, buffer::signalWork);
+    // If the process is stopped mid-crawl, write the pages already processed, give buffered claims
+    // back to the queue and save or close the frontier
+    Thread releaseHook =
+        new Thread(
+            () -> {
+              if (recrawl != null) {
+                recrawl.close();
+              }
+              writer.close();
+              releaseBuffered(buffer);
+              frontier.close();
+            },
+            "frontier-release");
+    Runtime.getRuntime().addShutdownHook(releaseHook);
+
+    ScheduledExecutorService statsReporter =
+        CrawlStats.startReporting(Configuration.STATS_REPORT_INTERVAL_SECONDS);
+    HttpServer metricsServer = startMetrics(frontier);
+
+    if ("async".equals(Configuration.WORKER_MODE)) {
+      // Asynchronous fetching from the main thread, in both normal and worker mode
+      AsyncCrawler crawler =
+          new AsyncCrawler(
+              DatabaseManager::getConnection,
+              buffer,
+              new PageFetcher(),
+              (frontierUrl, previous, result) ->
+                  Worker.handleResult(writer, frontierUrl, previous, result),
+              Configuration.FETCH_MAX_IN_FLIGHT,
+              Configuration.FETCH_MAX_IN_FLIGHT_PER_HOST);
+      crawler.run();
+    } else if ("pipeline".equals(Configuration.WORKER_MODE)) {
+      // Staged fetch, parse and persist threads, in both normal and worker mode
+      Pipeline pipeline =
+          new Pipeline(
+              DatabaseManager::getConnection,
+              buffer,
+              new PageFetcher(),
+              writer,
+              Configuration.NUM_THREADS,
+              Configuration.PIPELINE_PARSE_THREADS,
+              Configuration.PIPELINE_QUEUE_CAPACITY);
+      pipeline.run();
+    } else if (workerMode) {
       // In worker mode, run a single worker on the main thread
       logger.info("Running single worker on main thread");
-      Worker worker = new Worker();
+      Worker worker = new Worker(buffer, writer);
       worker.doWork();
     } else {
       // In normal mode, run multiple worker threads
-      logger.info("Worker threads: {}", Configuration.NUM_THREADS);
-      Worker[] workers = new Worker[Configuration.NUM_THREADS];
+      logger.info(
+          "Worker threads: {} (mode: {})", Configuration.NUM_THREADS, Configuration.WORKER_MODE);
+      Thread.Builder threadBuilder = workerThreadBuilder(Configuration.WORKER_MODE);
+      Thread[] workers = new Thread[Configuration.NUM_THREADS];
       for (int i = 0; i < Configuration.NUM_THREADS; i++) {
-        workers[i] = new Worker();
-        workers[i].start();
+        workers[i] = threadBuilder.start(new Worker(buffer, writer));
       }
 
-      for (Worker worker : workers) {
+      for (Thread worker : workers) {
         try {
           worker.join();
         } catch (InterruptedException e) {
@@ -75,6 +169,81 @@ public class Main {
       }
     }
 
+    if (statsReporter != null) {
+      statsReporter.shutdownNow();
+    }
+    if (metricsServer != null) {
+      metricsServer.stop(0);
+    }
+    if (recrawl != null) {
+      recrawl.close();
+    }
+    writer.close();
+    releaseBuffered(buffer);
+    frontier.close();
+    Runtime.getRuntime().removeShutdownHook(releaseHook);
+    CrawlStats.logSummary();
+    DatabaseManager.shutdown();
     logger.info("Crawl complete.");
   }
+
+  /**
+   * Registers the frontier size gauges and exposes the metrics registry as configured.
+   *
+   * @param frontier The process's frontier
+   * @return The metrics HTTP server, or null if it is disabled or could not be started
+   */
+  private static HttpServer startMetrics(Frontier frontier) {
+    for (boolean claimed : new boolean[] {false, true}) {
+      Metrics.gauge(
+          "crawler_frontier_urls",
+          "URLs in the frontier queue, pending or claimed by a worker",
+          "state",
+          claimed ? "claimed" : "pending",
+          Metrics.cached(
+              FRONTIER_GAUGE_MAX_AGE_MILLIS,
+              () -> {
+                try {
+                  return frontier.count(claimed);
+                } catch (SQLException e) {
+                  return Double.NaN;
+                }
+              }));
+    }
+    if (Configuration.METRICS_JMX_ENABLED) {
+      MetricsJmx.register();
+    }
+    return Configuration.METRICS_HTTP_PORT > 0
+        ? MetricsServer.start(Configuration.METRICS_HTTP_PORT)
+        : null;
+  }
+
+  /**
+   * Releases URLs that were claimed into the buffer but not processed.
+   *
+   * @param buffer The process's frontier buffer
+   */
+  private static void releaseBuffered(FrontierBuffer buffer) {
+    try {
+      buffer.releaseAll();
+    } catch (SQLException e) {
+      logger.error("Failed to release buffered frontier URLs", e);
+    }
+  }
+
+  /**
+   * Returns a builder for worker threads of the given mode.
+   *
+   * @param workerMode "platform" or "virtual"; unknown values fall back to platform threads
+   * @return Thread builder producing named worker threads
+   */
+  static Thread.Builder workerThreadBuilder(String workerMode) {
+    if ("virtual".equals(workerMode)) {
+      return Thread.ofVirtual().name("worker-", 0);
+    }
+    if (!"platform".equals(workerMode)) {
+      logger.warn("Unknown worker mode: {}, using platform threads", workerMode);
+    }
+    return Thread.ofPlatform().name("worker-", 0);
+  }
 }
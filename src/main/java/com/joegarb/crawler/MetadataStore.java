@@ -5,38 +5,229 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Manages metadata about crawled URLs.
  *
- * <p>Note: Database migrations have not been implemented, so deleting the database file is
- * necessary to pick up schema changes.
+ * <p>Timestamps are stored as epoch milliseconds. Each row carries a precomputed next_fetch_at, the
+ * time after which the URL is due for a retry (failures) or refresh (successes), so freshness
+ * checks are a primary-key lookup and a numeric comparison. Successful crawls also keep the
+ * response's ETag and Last-Modified validators and a hash of the body, so that refreshes can be
+ * conditional requests. Tables created by older versions are migrated in place by {@link
+ * #createTable}.
+ *
+ * <p>The refresh interval of each successfully crawled URL adapts to how often its content changes:
+ * it starts at the configured success refresh interval, halves each time a refresh finds the
+ * content changed and doubles each time it finds it unchanged, within the configured recrawl
+ * bounds. An index on next_fetch_at lets {@link RecrawlScheduler} walk the URLs in due order.
+ *
+ * <p>A failed URL is retried after the configured retry interval, which doubles with each further
+ * consecutive failure up to the maximum recrawl interval, so that pages that are gone for good stop
+ * being fetched every few minutes. The next success resets it.
  */
 public class MetadataStore {
   private static final Logger logger = LoggerFactory.getLogger(MetadataStore.class);
 
+  private static final Metrics.Histogram markCrawledLatency = statementLatency("mark_crawled");
+  private static final Metrics.Histogram markNotModifiedLatency =
+      statementLatency("mark_not_modified");
+  private static final Metrics.Histogram getValidatorsLatency = statementLatency("get_validators");
+  private static final Metrics.Histogram filterUncrawledLatency =
+      statementLatency("filter_uncrawled");
+
   /**
-   * Creates the crawled_urls table if it doesn't exist.
+   * What is known about the last successfully fetched version of a page.
+   *
+   * @param etag ETag response header, or null
+   * @param lastModified Last-Modified response header, or null
+   * @param contentHash {@link Fingerprint} of the body text, or null
+   */
+  public static record PageValidators(String etag, String lastModified, Long contentHash) {}
+
+  /**
+   * Creates the crawled_urls table if it doesn't exist, migrating a table created by an older
+   * version in place.
    *
    * @param conn Database connection
    * @throws SQLException if a database access error occurs
    */
   public static void createTable(Connection conn) throws SQLException {
-    String sql =
-        "CREATE TABLE IF NOT EXISTS crawled_urls ("
-            + "url TEXT PRIMARY KEY,"
-            + "crawled_at TEXT NOT NULL DEFAULT (datetime('now')),"
-            + "http_status_code INTEGER,"
-            + "error_message TEXT"
-            + ")";
     try (Statement statement = conn.createStatement()) {
-      statement.execute(sql);
+      statement.execute(tableDefinition("crawled_urls"));
+      migrate(conn);
+      statement.execute(
+          "CREATE INDEX IF NOT EXISTS crawled_urls_due ON crawled_urls (next_fetch_at)");
       logger.debug("Crawled URLs table created or already exists");
     }
   }
 
+  /**
+   * Returns the crawled URLs table definition.
+   *
+   * <p>The table is clustered on url (WITHOUT ROWID), so a lookup by URL reads next_fetch_at from
+   * the primary key b-tree directly.
+   *
+   * @param tableName Name of the table to create
+   * @return CREATE TABLE statement
+   */
+  private static String tableDefinition(String tableName) {
+    return "CREATE TABLE IF NOT EXISTS "
+        + tableName
+        + " ("
+        + "url TEXT PRIMARY KEY,"
+        + "crawled_at INTEGER NOT NULL,"
+        + "next_fetch_at INTEGER NOT NULL,"
+        + "http_status_code INTEGER,"
+        + "error_message TEXT,"
+        + "etag TEXT,"
+        + "last_modified TEXT,"
+        + "content_hash INTEGER,"
+        + "refresh_interval INTEGER,"
+        + "retry_interval INTEGER"
+        + ") WITHOUT ROWID";
+  }
+
+  /**
+   * Brings a crawled_urls table created by an older version up to date: converts TEXT timestamps to
+   * epoch milliseconds, computing next_fetch_at from the configured intervals, and adds the
+   * validator, refresh interval and retry interval columns.
+   *
+   * @param conn Database connection
+   * @throws SQLException if a database access error occurs
+   */
+  private static void migrate(Connection conn) throws SQLException {
+    if ("TEXT".equalsIgnoreCase(DatabaseManager.columnType(conn, "crawled_urls", "crawled_at"))) {
+      migrateTimestamps(conn);
+    }
+    if (DatabaseManager.columnType(conn, "crawled_urls", "etag") == null) {
+      logger.info("Adding validator columns to crawled_urls...");
+      try (Statement statement = conn.createStatement()) {
+        statement.execute("ALTER TABLE crawled_urls ADD COLUMN etag TEXT");
+        statement.execute("ALTER TABLE crawled_urls ADD COLUMN last_modified TEXT");
+        statement.execute("ALTER TABLE crawled_urls ADD COLUMN content_hash INTEGER");
+      }
+    }
+    if (DatabaseManager.columnType(conn, "crawled_urls", "refresh_interval") == null) {
+      logger.info("Adding refresh_interval column to crawled_urls...");
+      try (Statement statement = conn.createStatement()) {
+        statement.execute("ALTER TABLE crawled_urls ADD COLUMN refresh_interval INTEGER");
+      }
+    }
+    if (DatabaseManager.columnType(conn, "crawled_urls", "retry_interval") == null) {
+      logger.info("Adding retry_interval column to crawled_urls...");
+      try (Statement statement = conn.createStatement()) {
+        statement.execute("ALTER TABLE crawled_urls ADD COLUMN retry_interval INTEGER");
+      }
+    }
+  }
+
+  /**
+   * Rebuilds a crawled_urls table with a TEXT crawled_at column using epoch milliseconds.
+   *
+   * @param conn Database connection
+   * @throws SQLException if a database access error occurs
+   */
+  private static void migrateTimestamps(Connection conn) throws SQLException {
+    logger.info("Migrating crawled_urls timestamps to epoch milliseconds...");
+    String crawledAt = DatabaseManager.epochMillis("crawled_at");
+    DatabaseManager.inTransaction(
+        conn,
+        () -> {
+          try (Statement statement = conn.createStatement()) {
+            statement.execute(tableDefinition("crawled_urls_migrated"));
+            statement.execute(
+                "INSERT INTO crawled_urls_migrated "
+                    + "(url, crawled_at, next_fetch_at, http_status_code, error_message) "
+                    + "SELECT url, "
+                    + crawledAt
+                    + ", "
+                    + crawledAt
+                    + " + 1000 * CASE WHEN http_status_code BETWEEN 200 AND 299 THEN "
+                    + Configuration.SUCCESS_REFRESH_INTERVAL_SECONDS
+                    + " ELSE "
+                    + Configuration.FAILED_RETRY_INTERVAL_SECONDS
+                    + " END, http_status_code, error_message FROM crawled_urls");
+            statement.execute("DROP TABLE crawled_urls");
+            statement.execute("ALTER TABLE crawled_urls_migrated RENAME TO crawled_urls");
+          }
+        });
+  }
+
+  /**
+   * Computes the retry interval of a failed URL from the interval of its previous consecutive
+   * failure.
+   *
+   * @param previousInterval Retry interval in milliseconds after the previous failure, or null if
+   *     the previous crawl succeeded or there was none
+   * @return Retry interval in milliseconds: the failed retry interval, doubled for each consecutive
+   *     failure up to the maximum recrawl interval
+   */
+  static long retryInterval(Long previousInterval) {
+    long first = Configuration.FAILED_RETRY_INTERVAL_SECONDS * 1000L;
+    if (previousInterval == null) {
+      return first;
+    }
+    long max = Math.max(first, Configuration.RECRAWL_MAX_INTERVAL_SECONDS * 1000L);
+    return Math.min(max, previousInterval * 2);
+  }
+
+  /**
+   * Computes the refresh interval of a successfully crawled URL from its previous interval and
+   * whether its content changed since the previous crawl.
+   *
+   * @param previousInterval Previous refresh interval in milliseconds, or null to start from the
+   *     success refresh interval
+   * @param changed Whether the content changed, or null if unknown
+   * @return Refresh interval in milliseconds, within the recrawl bounds
+   */
+  static long refreshInterval(Long previousInterval, Boolean changed) {
+    long interval =
+        previousInterval != null
+            ? previousInterval
+            : Configuration.SUCCESS_REFRESH_INTERVAL_SECONDS * 1000L;
+    if (changed != null) {
+      interval = changed ? interval / 2 : interval * 2;
+    }
+    return Math.max(
+        Configuration.RECRAWL_MIN_INTERVAL_SECONDS * 1000L,
+        Math.min(Configuration.RECRAWL_MAX_INTERVAL_SECONDS * 1000L, interval));
+  }
+
+  /**
+   * What is stored about the previous crawl of a URL that its next crawl adapts to.
+   *
+   * @param contentHash Content hash of the previous crawl, or null
+   * @param refreshInterval Refresh interval in milliseconds, or null if never computed
+   * @param retryInterval Retry interval in milliseconds if the previous crawl failed, otherwise
+   *     null
+   */
+  private static record PreviousCrawl(Long contentHash, Long refreshInterval, Long retryInterval) {}
+
+  private static PreviousCrawl previousCrawl(Connection conn, String url) throws SQLException {
+    String sql =
+        "SELECT content_hash, refresh_interval, retry_interval FROM crawled_urls WHERE url = ?";
+    try (PreparedStatement statement = conn.prepareStatement(sql)) {
+      statement.setString(1, url);
+      try (ResultSet resultSet = statement.executeQuery()) {
+        if (!resultSet.next()) {
+          return new PreviousCrawl(null, null, null);
+        }
+        long contentHash = resultSet.getLong(1);
+        Long hash = resultSet.wasNull() ? null : contentHash;
+        long refreshInterval = resultSet.getLong(2);
+        Long refresh = resultSet.wasNull() ? null : refreshInterval;
+        long retryInterval = resultSet.getLong(3);
+        return new PreviousCrawl(hash, refresh, resultSet.wasNull() ? null : retryInterval);
+      }
+    }
+  }
+
   /**
    * Records that a URL has been crawled.
    *
@@ -52,18 +243,140 @@ public class MetadataStore {
   public static void markAsCrawled(
       Connection conn, String url, Integer httpStatusCode, String errorMessage)
       throws SQLException {
+    markAsCrawled(conn, url, httpStatusCode, errorMessage, null);
+  }
+
+  /**
+   * Records that a URL has been crawled, along with the validators of the fetched version.
+   *
+   * <p>If the URL has already been crawled, the row is replaced. A successful crawl whose content
+   * hash can be compared with the previous one adapts the URL's refresh interval; a failed crawl
+   * keeps it for the next success, and backs off its own retry interval.
+   *
+   * @param conn Database connection
+   * @param url URL that was crawled
+   * @param httpStatusCode HTTP status code if an HTTP response was received, null for network
+   *     errors
+   * @param errorMessage Error message if the crawl failed, null if successful
+   * @param validators ETag, Last-Modified and content hash of the response, or null
+   * @throws SQLException if a database access error occurs
+   */
+  public static void markAsCrawled(
+      Connection conn,
+      String url,
+      Integer httpStatusCode,
+      String errorMessage,
+      PageValidators validators)
+      throws SQLException {
     String sql =
-        "INSERT OR REPLACE INTO crawled_urls (url, http_status_code, error_message) VALUES (?, ?, ?)";
+        "INSERT OR REPLACE INTO crawled_urls "
+            + "(url, crawled_at, next_fetch_at, http_status_code, error_message, "
+            + "etag, last_modified, content_hash, refresh_interval, retry_interval) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    long start = System.nanoTime();
+    long now = System.currentTimeMillis();
+    PreviousCrawl previous = previousCrawl(conn, url);
+    boolean success = httpStatusCode != null && httpStatusCode >= 200 && httpStatusCode < 300;
+    Long contentHash = validators != null ? validators.contentHash() : null;
+    Long refreshInterval = previous.refreshInterval();
+    Long retryInterval = null;
+    if (success) {
+      Boolean changed =
+          previous.contentHash() != null && contentHash != null
+              ? !previous.contentHash().equals(contentHash)
+              : null;
+      refreshInterval = refreshInterval(refreshInterval, changed);
+    } else {
+      retryInterval = retryInterval(previous.retryInterval());
+    }
     try (PreparedStatement statement = conn.prepareStatement(sql)) {
       statement.setString(1, url);
+      statement.setLong(2, now);
+      statement.setLong(3, now + (success ? refreshInterval : retryInterval));
       if (httpStatusCode != null) {
-        statement.setInt(2, httpStatusCode);
+        statement.setInt(4, httpStatusCode);
+      } else {
+        statement.setNull(4, java.sql.Types.INTEGER);
+      }
+      statement.setString(5, errorMessage);
+      statement.setString(6, validators != null ? validators.etag() : null);
+      statement.setString(7, validators != null ? validators.lastModified() : null);
+      if (contentHash != null) {
+        statement.setLong(8, contentHash);
+      } else {
+        statement.setNull(8, java.sql.Types.INTEGER);
+      }
+      if (refreshInterval != null) {
+        statement.setLong(9, refreshInterval);
       } else {
-        statement.setNull(2, java.sql.Types.INTEGER);
+        statement.setNull(9, java.sql.Types.INTEGER);
       }
-      statement.setString(3, errorMessage);
+      if (retryInterval != null) {
+        statement.setLong(10, retryInterval);
+      } else {
+        statement.setNull(10, java.sql.Types.INTEGER);
+      }
+      statement.executeUpdate();
+    }
+    markCrawledLatency.recordSince(start);
+  }
+
+  /**
+   * Records that a refresh found the page unchanged (HTTP 304), keeping its status, validators and
+   * content hash, doubling its refresh interval and scheduling the next refresh.
+   *
+   * @param conn Database connection
+   * @param url URL that was revalidated
+   * @throws SQLException if a database access error occurs
+   */
+  public static void markAsNotModified(Connection conn, String url) throws SQLException {
+    String sql =
+        "UPDATE crawled_urls SET crawled_at = ?, next_fetch_at = ?, refresh_interval = ?, "
+            + "retry_interval = NULL, error_message = NULL WHERE url = ?";
+    long start = System.nanoTime();
+    long now = System.currentTimeMillis();
+    // A 304 confirms the stored successful crawl, so the success refresh interval applies
+    long refreshInterval = refreshInterval(previousCrawl(conn, url).refreshInterval(), false);
+    try (PreparedStatement statement = conn.prepareStatement(sql)) {
+      statement.setLong(1, now);
+      statement.setLong(2, now + refreshInterval);
+      statement.setLong(3, refreshInterval);
+      statement.setString(4, url);
       statement.executeUpdate();
     }
+    markNotModifiedLatency.recordSince(start);
+  }
+
+  /**
+   * Returns the validators stored for the last successful crawl of a URL.
+   *
+   * @param conn Database connection
+   * @param url Normalized URL
+   * @return The validators, or null if the URL has no successful crawl with any validator
+   * @throws SQLException if a database access error occurs
+   */
+  public static PageValidators getValidators(Connection conn, String url) throws SQLException {
+    String sql =
+        "SELECT etag, last_modified, content_hash FROM crawled_urls "
+            + "WHERE url = ? AND http_status_code BETWEEN 200 AND 299";
+    long start = System.nanoTime();
+    PageValidators validators = null;
+    try (PreparedStatement statement = conn.prepareStatement(sql)) {
+      statement.setString(1, url);
+      try (ResultSet resultSet = statement.executeQuery()) {
+        if (resultSet.next()) {
+          String etag = resultSet.getString(1);
+          String lastModified = resultSet.getString(2);
+          long contentHash = resultSet.getLong(3);
+          Long hash = resultSet.wasNull() ? null : contentHash;
+          if (etag != null || lastModified != null || hash != null) {
+            validators = new PageValidators(etag, lastModified, hash);
+          }
+        }
+      }
+    }
+    getValidatorsLatency.recordSince(start);
+    return validators;
   }
 
   /**
@@ -80,44 +393,104 @@ public class MetadataStore {
    */
   public static boolean hasBeenCrawled(Connection conn, String url) throws SQLException {
     String normalizedUrl = UrlNormalizer.normalize(url);
-    String sql = "SELECT http_status_code, crawled_at FROM crawled_urls WHERE url = ?";
+    String sql = "SELECT next_fetch_at > ? FROM crawled_urls WHERE url = ?";
     try (PreparedStatement statement = conn.prepareStatement(sql)) {
-      statement.setString(1, normalizedUrl);
+      statement.setLong(1, System.currentTimeMillis());
+      statement.setString(2, normalizedUrl);
       try (ResultSet resultSet = statement.executeQuery()) {
-        if (!resultSet.next()) {
-          // URL has never been crawled
-          return false;
-        }
+        // No row means the URL has never been crawled; otherwise it is fresh until next_fetch_at
+        return resultSet.next() && resultSet.getBoolean(1);
+      }
+    }
+  }
 
-        // URL has been crawled - check if enough time has passed for retry/refresh
-        Integer statusCode = null;
-        int statusCodeValue = resultSet.getInt("http_status_code");
-        if (!resultSet.wasNull()) {
-          statusCode = statusCodeValue;
-        }
-        String crawledAt = resultSet.getString("crawled_at");
-
-        int retryInterval;
-        if (statusCode != null && statusCode >= 200 && statusCode < 300) {
-          // Successful URL - use refresh interval
-          retryInterval = Configuration.SUCCESS_REFRESH_INTERVAL_SECONDS;
-        } else {
-          // Failed URL (non-2xx or NULL) - use retry interval
-          retryInterval = Configuration.FAILED_RETRY_INTERVAL_SECONDS;
+  /**
+   * Returns the URLs from a list that need crawling, i.e. those that have never been crawled or
+   * whose retry/refresh interval has passed, using a single query.
+   *
+   * <p>This is the set-based equivalent of calling {@link #hasBeenCrawled} for every URL. The URLs
+   * are bound as one JSON array parameter and the freshness comparison is done in the same query.
+   *
+   * @param conn Database connection
+   * @param urls Normalized URLs to check, e.g. as returned by LinkExtractor
+   * @return The distinct URLs that need crawling, in their original order
+   * @throws SQLException if a database access error occurs
+   */
+  public static List<String> filterUncrawled(Connection conn, Collection<String> urls)
+      throws SQLException {
+    if (urls == null || urls.isEmpty()) {
+      return List.of();
+    }
+
+    String sql =
+        "SELECT links.value FROM json_each(?) AS links "
+            + "LEFT JOIN crawled_urls ON crawled_urls.url = links.value "
+            + "WHERE crawled_urls.url IS NULL OR crawled_urls.next_fetch_at <= ? "
+            + "ORDER BY links.key";
+    long start = System.nanoTime();
+    List<String> uncrawled = new ArrayList<>();
+    try (PreparedStatement statement = conn.prepareStatement(sql)) {
+      statement.setString(1, DatabaseManager.toJsonArray(new LinkedHashSet<>(urls)));
+      statement.setLong(2, System.currentTimeMillis());
+      try (ResultSet resultSet = statement.executeQuery()) {
+        while (resultSet.next()) {
+          uncrawled.add(resultSet.getString(1));
         }
+      }
+    }
+    filterUncrawledLatency.recordSince(start);
+    return uncrawled;
+  }
 
-        // Check if enough time has passed
-        String checkSql = "SELECT 1 WHERE datetime(?, '+' || ? || ' seconds') > datetime('now')";
-        try (PreparedStatement checkStatement = conn.prepareStatement(checkSql)) {
-          checkStatement.setString(1, crawledAt);
-          checkStatement.setInt(2, retryInterval);
-          try (ResultSet checkResult = checkStatement.executeQuery()) {
-            // If the check returns a row, the URL is still fresh (not ready for retry)
-            // If it doesn't return a row, enough time has passed (should retry/refresh)
-            return checkResult.next();
-          }
+  /**
+   * Takes up to {@code limit} URLs that are due for a retry or refresh, most overdue first, and
+   * postpones them so that they are not taken again while they wait in the frontier. Crawling a URL
+   * reschedules it as usual; one that is never crawled, e.g. because it was lost with an in-memory
+   * frontier, becomes due again once postponed. Called in a transaction, so that processes taking
+   * due URLs at the same time take different ones.
+   *
+   * @param conn Database connection
+   * @param now Current time in epoch milliseconds
+   * @param limit Maximum number of URLs to take
+   * @param postponeUntil Epoch milliseconds to set next_fetch_at of the taken URLs to
+   * @return Taken URLs, most overdue first
+   * @throws SQLException if a database access error occurs
+   */
+  public static List<String> takeDueUrls(Connection conn, long now, int limit, long postponeUntil)
+      throws SQLException {
+    // Walks crawled_urls_due, which also holds the primary key, without visiting the table
+    List<String> due = new ArrayList<>();
+    try (PreparedStatement statement =
+        conn.prepareStatement(
+            "SELECT url FROM crawled_urls WHERE next_fetch_at <= ? "
+                + "ORDER BY next_fetch_at LIMIT ?")) {
+      statement.setLong(1, now);
+      statement.setInt(2, limit);
+      try (ResultSet resultSet = statement.executeQuery()) {
+        while (resultSet.next()) {
+          due.add(resultSet.getString(1));
         }
       }
     }
+    if (due.isEmpty()) {
+      return due;
+    }
+    try (PreparedStatement statement =
+        conn.prepareStatement(
+            "UPDATE crawled_urls SET next_fetch_at = ? "
+                + "WHERE url IN (SELECT value FROM json_each(?))")) {
+      statement.setLong(1, postponeUntil);
+      statement.setString(2, DatabaseManager.toJsonArray(due));
+      statement.executeUpdate();
+    }
+    return due;
+  }
+
+  private static Metrics.Histogram statementLatency(String statement) {
+    return Metrics.latency(
+        "crawler_db_statement_seconds",
+        "Time to run a crawl metadata statement",
+        "statement",
+        statement);
   }
 }
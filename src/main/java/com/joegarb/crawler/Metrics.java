@@ -0,0 +1,431 @@
+package com.joegarb.crawler;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Process-wide registry of crawl metrics: counters, latency and size histograms, and gauges.
+ *
+ * <p>Metrics are registered once, typically into static fields of the class they instrument, and
+ * updated with {@link LongAdder}s, so recording costs a few uncontended increments. Registering the
+ * same name and label again returns the existing metric. The registry is exposed in the Prometheus
+ * text format by {@link MetricsServer} and as JMX attributes by {@link MetricsJmx}.
+ *
+ * <p>Metric names follow Prometheus conventions: a {@code crawler_} prefix, base units (seconds,
+ * bytes) and a {@code _total} suffix for counters. A metric may carry one label, e.g. the status
+ * class of HTTP responses.
+ */
+final class Metrics {
+  /** Latency bucket upper bounds in seconds, from 1 ms to 10 s. */
+  private static final double[] LATENCY_BUCKETS = {
+    0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10
+  };
+
+  private static final Map<String, Family> families = new ConcurrentHashMap<>();
+
+  private Metrics() {}
+
+  /** A monotonically increasing count. */
+  static final class Counter {
+    private final LongAdder value = new LongAdder();
+
+    void increment() {
+      value.increment();
+    }
+
+    void add(long amount) {
+      value.add(amount);
+    }
+
+    long value() {
+      return value.sum();
+    }
+  }
+
+  /**
+   * A distribution of observations over fixed buckets. Observations are longs in a unit of the
+   * caller's choosing and are multiplied by a scale for export, e.g. nanoseconds recorded and
+   * seconds exported.
+   */
+  static final class Histogram {
+    private final double[] bounds;
+    private final long[] scaledBounds;
+    private final double scale;
+    private final LongAdder[] buckets;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+
+    private Histogram(double[] bounds, double scale) {
+      this.bounds = bounds;
+      this.scale = scale;
+      this.scaledBounds = new long[bounds.length];
+      for (int i = 0; i < bounds.length; i++) {
+        scaledBounds[i] = (long) Math.floor(bounds[i] / scale);
+      }
+      // One bucket per bound plus one for observations above the largest bound
+      this.buckets = new LongAdder[bounds.length + 1];
+      for (int i = 0; i < buckets.length; i++) {
+        buckets[i] = new LongAdder();
+      }
+    }
+
+    /**
+     * Records an observation.
+     *
+     * @param value Observed value, in the histogram's recording unit
+     */
+    void record(long value) {
+      int i = 0;
+      while (i < scaledBounds.length && value > scaledBounds[i]) {
+        i++;
+      }
+      buckets[i].increment();
+      count.increment();
+      sum.add(value);
+    }
+
+    /**
+     * Records the time elapsed since a {@link System#nanoTime} reading, for latency histograms.
+     *
+     * @param startNanos Reading taken when the operation started
+     */
+    void recordSince(long startNanos) {
+      record(System.nanoTime() - startNanos);
+    }
+
+    long count() {
+      return count.sum();
+    }
+
+    /**
+     * Returns the sum of all observations in the export unit.
+     *
+     * @return Scaled sum
+     */
+    double sum() {
+      return sum.sum() * scale;
+    }
+  }
+
+  /** The kind of a metric family, as named in the Prometheus TYPE line. */
+  private enum Type {
+    COUNTER,
+    GAUGE,
+    HISTOGRAM
+  }
+
+  /** All metrics sharing a name, keyed by their label value ("" if unlabelled). */
+  private record Family(
+      String name, String help, Type type, String label, Map<String, Object> metrics) {}
+
+  /**
+   * Registers or returns an unlabelled counter.
+   *
+   * @param name Metric name, ending in {@code _total}
+   * @param help One-line description
+   * @return The counter
+   */
+  static Counter counter(String name, String help) {
+    return counter(name, help, null, "");
+  }
+
+  /**
+   * Registers or returns one labelled counter of a family.
+   *
+   * @param name Metric name, ending in {@code _total}
+   * @param help One-line description
+   * @param label Label name shared by the family
+   * @param value Label value of this counter
+   * @return The counter
+   */
+  static Counter counter(String name, String help, String label, String value) {
+    return (Counter) register(name, help, Type.COUNTER, label, value, Counter::new);
+  }
+
+  /**
+   * Registers or returns an unlabelled latency histogram, recorded in nanoseconds and exported in
+   * seconds.
+   *
+   * @param name Metric name, ending in {@code _seconds}
+   * @param help One-line description
+   * @return The histogram
+   */
+  static Histogram latency(String name, String help) {
+    return latency(name, help, null, "");
+  }
+
+  /**
+   * Registers or returns one labelled latency histogram of a family.
+   *
+   * @param name Metric name, ending in {@code _seconds}
+   * @param help One-line description
+   * @param label Label name shared by the family
+   * @param value Label value of this histogram
+   * @return The histogram
+   */
+  static Histogram latency(String name, String help, String label, String value) {
+    return (Histogram)
+        register(
+            name, help, Type.HISTOGRAM, label, value, () -> new Histogram(LATENCY_BUCKETS, 1e-9));
+  }
+
+  /**
+   * Registers or returns a histogram of plain values, such as sizes or counts.
+   *
+   * @param name Metric name
+   * @param help One-line description
+   * @param bounds Bucket upper bounds, ascending
+   * @return The histogram
+   */
+  static Histogram histogram(String name, String help, double... bounds) {
+    return (Histogram)
+        register(name, help, Type.HISTOGRAM, null, "", () -> new Histogram(bounds, 1));
+  }
+
+  /**
+   * Registers a gauge whose value is read when metrics are exported, replacing any earlier gauge of
+   * the same name.
+   *
+   * @param name Metric name
+   * @param help One-line description
+   * @param value Supplies the current value; NaN or an exception omits the gauge from an export
+   */
+  static void gauge(String name, String help, DoubleSupplier value) {
+    gauge(name, help, null, "", value);
+  }
+
+  /**
+   * Registers one labelled gauge of a family, replacing any earlier gauge with the same label.
+   *
+   * @param name Metric name
+   * @param help One-line description
+   * @param label Label name shared by the family
+   * @param labelValue Label value of this gauge
+   * @param value Supplies the current value; NaN or an exception omits the gauge from an export
+   */
+  static void gauge(
+      String name, String help, String label, String labelValue, DoubleSupplier value) {
+    Family family = family(name, help, Type.GAUGE, label);
+    family.metrics().put(labelValue, value);
+  }
+
+  /**
+   * Renders all metrics in the Prometheus text exposition format (version 0.0.4).
+   *
+   * @return Exposition text, one family after another in name order
+   */
+  static String prometheusText() {
+    StringBuilder text = new StringBuilder();
+    for (Family family : new TreeMap<>(families).values()) {
+      List<String> lines = new ArrayList<>();
+      for (Map.Entry<String, Object> entry : new TreeMap<>(family.metrics()).entrySet()) {
+        String labels =
+            family.label() == null ? "" : family.label() + "=\"" + escape(entry.getKey()) + "\"";
+        appendSamples(lines, family.name(), labels, entry.getValue());
+      }
+      if (lines.isEmpty()) {
+        continue;
+      }
+      text.append("# HELP ").append(family.name()).append(' ').append(family.help()).append('\n');
+      text.append("# TYPE ")
+          .append(family.name())
+          .append(' ')
+          .append(family.type().name().toLowerCase(Locale.ROOT))
+          .append('\n');
+      for (String line : lines) {
+        text.append(line).append('\n');
+      }
+    }
+    return text.toString();
+  }
+
+  /**
+   * Returns current values as a flat map, for JMX. Labelled metrics are keyed {@code
+   * name.labelValue}; histograms contribute {@code .count}, {@code .sum} and {@code .mean} entries.
+   *
+   * @return Metric values in name order
+   */
+  static Map<String, Double> snapshot() {
+    Map<String, Double> values = new LinkedHashMap<>();
+    for (Family family : new TreeMap<>(families).values()) {
+      for (Map.Entry<String, Object> entry : new TreeMap<>(family.metrics()).entrySet()) {
+        String key = key(family, entry.getKey());
+        Object metric = entry.getValue();
+        if (metric instanceof Counter counter) {
+          values.put(key, (double) counter.value());
+        } else if (metric instanceof Histogram histogram) {
+          long count = histogram.count();
+          values.put(key + ".count", (double) count);
+          values.put(key + ".sum", histogram.sum());
+          values.put(key + ".mean", count > 0 ? histogram.sum() / count : 0.0);
+        } else {
+          double value = read((DoubleSupplier) metric);
+          if (!Double.isNaN(value)) {
+            values.put(key, value);
+          }
+        }
+      }
+    }
+    return values;
+  }
+
+  /**
+   * Returns the keys of {@link #snapshot()} without reading any gauge. Gauges that would currently
+   * be omitted from a snapshot are included.
+   *
+   * @return Metric keys in name order
+   */
+  static Set<String> keys() {
+    Set<String> keys = new TreeSet<>();
+    for (Family family : families.values()) {
+      for (Map.Entry<String, Object> entry : family.metrics().entrySet()) {
+        String key = key(family, entry.getKey());
+        if (entry.getValue() instanceof Histogram) {
+          keys.addAll(List.of(key + ".count", key + ".sum", key + ".mean"));
+        } else {
+          keys.add(key);
+        }
+      }
+    }
+    return keys;
+  }
+
+  /**
+   * Returns the current value of one entry of {@link #snapshot()}, reading only the metric it
+   * belongs to.
+   *
+   * @param key Snapshot key
+   * @return The value, or null if there is no such metric or its gauge has no value
+   */
+  static Double value(String key) {
+    for (Family family : families.values()) {
+      String name = family.name();
+      if (!key.startsWith(name)
+          || (key.length() > name.length() && key.charAt(name.length()) != '.')) {
+        continue;
+      }
+      for (Map.Entry<String, Object> entry : family.metrics().entrySet()) {
+        String metricKey = key(family, entry.getKey());
+        Object metric = entry.getValue();
+        if (metric instanceof Histogram histogram) {
+          long count = histogram.count();
+          if (key.equals(metricKey + ".count")) {
+            return (double) count;
+          } else if (key.equals(metricKey + ".sum")) {
+            return histogram.sum();
+          } else if (key.equals(metricKey + ".mean")) {
+            return count > 0 ? histogram.sum() / count : 0.0;
+          }
+        } else if (key.equals(metricKey)) {
+          if (metric instanceof Counter counter) {
+            return (double) counter.value();
+          }
+          double value = read((DoubleSupplier) metric);
+          return Double.isNaN(value) ? null : value;
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Wraps a gauge so that it is read at most once per interval, for gauges that are expensive to
+   * read, such as a database count. Exports within the interval see the last value read.
+   *
+   * @param maxAgeMillis How long a value is reused
+   * @param value Supplies the current value
+   * @return The caching gauge
+   */
+  static DoubleSupplier cached(long maxAgeMillis, DoubleSupplier value) {
+    return new DoubleSupplier() {
+      private boolean hasValue;
+      private long readAt;
+      private double last;
+
+      @Override
+      public synchronized double getAsDouble() {
+        long now = System.nanoTime();
+        if (!hasValue || now - readAt >= maxAgeMillis * 1_000_000) {
+          last = value.getAsDouble();
+          readAt = now;
+          hasValue = true;
+        }
+        return last;
+      }
+    };
+  }
+
+  private static String key(Family family, String labelValue) {
+    return family.label() == null ? family.name() : family.name() + "." + labelValue;
+  }
+
+  private static Object register(
+      String name, String help, Type type, String label, String value, Supplier<Object> factory) {
+    Family family = family(name, help, type, label);
+    return family.metrics().computeIfAbsent(value, key -> factory.get());
+  }
+
+  private static Family family(String name, String help, Type type, String label) {
+    Family family =
+        families.computeIfAbsent(
+            name, key -> new Family(name, help, type, label, new ConcurrentHashMap<>()));
+    if (family.type() != type) {
+      throw new IllegalArgumentException(name + " is already registered as a " + family.type());
+    }
+    return family;
+  }
+
+  private static void appendSamples(List<String> lines, String name, String labels, Object metric) {
+    if (metric instanceof Counter counter) {
+      lines.add(sample(name, labels, counter.value()));
+    } else if (metric instanceof Histogram histogram) {
+      long cumulative = 0;
+      for (int i = 0; i < histogram.buckets.length; i++) {
+        cumulative += histogram.buckets[i].sum();
+        String le = i < histogram.bounds.length ? format(histogram.bounds[i]) : "+Inf";
+        String bucketLabels = (labels.isEmpty() ? "" : labels + ",") + "le=\"" + le + "\"";
+        lines.add(sample(name + "_bucket", bucketLabels, cumulative));
+      }
+      lines.add(sample(name + "_sum", labels, histogram.sum()));
+      lines.add(sample(name + "_count", labels, histogram.count()));
+    } else {
+      double value = read((DoubleSupplier) metric);
+      if (!Double.isNaN(value)) {
+        lines.add(sample(name, labels, value));
+      }
+    }
+  }
+
+  private static String sample(String name, String labels, double value) {
+    return name + (labels.isEmpty() ? "" : "{" + labels + "}") + " " + format(value);
+  }
+
+  private static String format(double value) {
+    if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+      return Long.toString((long) value);
+    }
+    return Double.toString(value);
+  }
+
+  private static double read(DoubleSupplier gauge) {
+    try {
+      return gauge.getAsDouble();
+    } catch (RuntimeException e) {
+      return Double.NaN;
+    }
+  }
+
+  private static String escape(String labelValue) {
+    return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+  }
+}
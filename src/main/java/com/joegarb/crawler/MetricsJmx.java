@@ -0,0 +1,95 @@
+package com.joegarb.crawler;
+
+import java.lang.management.ManagementFactory;
+import java.util.Set;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Exposes the {@link Metrics} registry as read-only JMX attributes under {@value #OBJECT_NAME}, one
+ * attribute per entry of {@link Metrics#snapshot()}. The attribute list is rebuilt on every
+ * request, so metrics registered after startup appear too. Reading an attribute reads only its own
+ * metric, so a JMX console polling a counter does not run every gauge.
+ */
+final class MetricsJmx implements DynamicMBean {
+  private static final Logger logger = LoggerFactory.getLogger(MetricsJmx.class);
+
+  /** Name the bean is registered under. */
+  static final String OBJECT_NAME = "com.joegarb.crawler:type=Metrics";
+
+  private MetricsJmx() {}
+
+  /** Registers the bean with the platform MBean server, unless it is already registered. */
+  static void register() {
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    try {
+      ObjectName name = new ObjectName(OBJECT_NAME);
+      if (!server.isRegistered(name)) {
+        server.registerMBean(new MetricsJmx(), name);
+      }
+    } catch (JMException e) {
+      logger.warn("Could not register metrics with JMX: {}", e.getMessage());
+    }
+  }
+
+  @Override
+  public Object getAttribute(String attribute) throws AttributeNotFoundException {
+    Double value = Metrics.value(attribute);
+    if (value == null) {
+      throw new AttributeNotFoundException(attribute);
+    }
+    return value;
+  }
+
+  @Override
+  public AttributeList getAttributes(String[] attributes) {
+    AttributeList list = new AttributeList();
+    for (String attribute : attributes) {
+      Double value = Metrics.value(attribute);
+      if (value != null) {
+        list.add(new Attribute(attribute, value));
+      }
+    }
+    return list;
+  }
+
+  @Override
+  public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+    throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+  }
+
+  @Override
+  public AttributeList setAttributes(AttributeList attributes) {
+    return new AttributeList();
+  }
+
+  @Override
+  public Object invoke(String actionName, Object[] params, String[] signature)
+      throws ReflectionException {
+    throw new ReflectionException(
+        new NoSuchMethodException(actionName), "Metrics have no operations");
+  }
+
+  @Override
+  public MBeanInfo getMBeanInfo() {
+    Set<String> keys = Metrics.keys();
+    MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[keys.size()];
+    int i = 0;
+    for (String name : keys) {
+      attributes[i++] =
+          new MBeanAttributeInfo(name, Double.class.getName(), name, true, false, false);
+    }
+    return new MBeanInfo(
+        MetricsJmx.class.getName(), "Crawler metrics", attributes, null, null, null);
+  }
+}
@@ -0,0 +1,59 @@
+package com.joegarb.crawler;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Serves the {@link Metrics} registry at {@code /metrics} in the Prometheus text format. The server
+ * listens on the loopback interface only.
+ */
+final class MetricsServer {
+  private static final Logger logger = LoggerFactory.getLogger(MetricsServer.class);
+
+  private MetricsServer() {}
+
+  /**
+   * Starts serving metrics.
+   *
+   * @param port Local port to listen on; 0 picks a free port
+   * @return The running server, to be stopped by the caller, or null if it could not be started
+   */
+  static HttpServer start(int port) {
+    try {
+      HttpServer server =
+          HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+      server.createContext("/metrics", MetricsServer::handle);
+      server.start();
+      logger.info(
+          "Serving metrics at http://{}:{}/metrics",
+          server.getAddress().getHostString(),
+          server.getAddress().getPort());
+      return server;
+    } catch (IOException e) {
+      logger.warn("Could not start metrics server on port {}: {}", port, e.getMessage());
+      return null;
+    }
+  }
+
+  private static void handle(HttpExchange exchange) throws IOException {
+    try (exchange) {
+      if (!"GET".equals(exchange.getRequestMethod())) {
+        exchange.sendResponseHeaders(405, -1);
+        return;
+      }
+      byte[] body = Metrics.prometheusText().getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+      exchange.sendResponseHeaders(200, body.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(body);
+      }
+    }
+  }
+}
@@ -0,0 +1,187 @@
+package com.joegarb.crawler;
+
+import java.net.http.HttpHeaders;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+
+/**
+ * Decides how much of a response body to read once its status and headers have arrived.
+ *
+ * <p>Only successful HTML responses are parsed for links, so every other body is discarded without
+ * being buffered: small ones are drained so the connection can be reused, while large or
+ * unknown-length ones are cancelled, which closes the connection instead of downloading the rest.
+ * HTML bodies are read up to a size limit and then cut off; the links in the part that was read are
+ * still extracted. Discarded and cut-off bodies are counted in {@link CrawlStats}.
+ */
+final class PageBodyHandler implements HttpResponse.BodyHandler<String> {
+  /**
+   * Largest discarded body, per its Content-Length, that is read to the end rather than cancelled.
+   * Reading it is cheaper than opening a new connection for the next request.
+   */
+  static final long DRAIN_LIMIT_BYTES = 64 * 1024;
+
+  private final int maxBodyBytes;
+
+  /**
+   * Creates a body handler.
+   *
+   * @param maxBodyBytes Largest HTML body to read, before and after decompression; 0 or less for no
+   *     limit
+   */
+  PageBodyHandler(int maxBodyBytes) {
+    this.maxBodyBytes = maxBodyBytes > 0 ? maxBodyBytes : Integer.MAX_VALUE;
+  }
+
+  @Override
+  public HttpResponse.BodySubscriber<String> apply(HttpResponse.ResponseInfo responseInfo) {
+    int status = responseInfo.statusCode();
+    HttpHeaders headers = responseInfo.headers();
+    if (status == 304) {
+      // Not modified: there is no body
+      return HttpResponse.BodySubscribers.replacing("");
+    }
+    long contentLength = headers.firstValueAsLong("Content-Length").orElse(-1);
+    if (status < 200 || status >= 300 || !isHtml(headers)) {
+      CrawlStats.recordSkippedBody(Math.max(0, contentLength));
+      if (contentLength >= 0 && contentLength <= DRAIN_LIMIT_BYTES) {
+        return HttpResponse.BodySubscribers.replacing("");
+      }
+      return new CancellingSubscriber();
+    }
+    return new CappedSubscriber(headers, contentLength, maxBodyBytes);
+  }
+
+  /**
+   * Checks if response headers declare an HTML body.
+   *
+   * @param headers Response headers
+   * @return true if the Content-Type contains "text/html"
+   */
+  static boolean isHtml(HttpHeaders headers) {
+    String contentType = headers.firstValue("Content-Type").orElse("");
+    return contentType.toLowerCase(Locale.ROOT).contains("text/html");
+  }
+
+  /** Cancels the body as soon as it starts, yielding an empty string. */
+  private static final class CancellingSubscriber implements HttpResponse.BodySubscriber<String> {
+    private final CompletableFuture<String> body = new CompletableFuture<>();
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+      subscription.cancel();
+      body.complete("");
+    }
+
+    @Override
+    public void onNext(List<ByteBuffer> item) {}
+
+    @Override
+    public void onError(Throwable throwable) {}
+
+    @Override
+    public void onComplete() {}
+
+    @Override
+    public CompletionStage<String> getBody() {
+      return body;
+    }
+  }
+
+  /**
+   * Feeds body bytes to a {@link ContentDecoder} as they arrive, cancelling the rest once either
+   * the bytes received or the bytes decoded pass the limit. Flow signals to a subscriber are
+   * serialized, so the fields need no locking.
+   */
+  private static final class CappedSubscriber implements HttpResponse.BodySubscriber<String> {
+    private final HttpHeaders headers;
+    private final long contentLength;
+    private final int maxBytes;
+    private final CompletableFuture<String> body = new CompletableFuture<>();
+    private Flow.Subscription subscription;
+    private ContentDecoder decoder;
+    private long size;
+    private boolean done;
+
+    CappedSubscriber(HttpHeaders headers, long contentLength, int maxBytes) {
+      this.headers = headers;
+      this.contentLength = contentLength;
+      this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+      this.subscription = subscription;
+      decoder = new ContentDecoder(headers, maxBytes, contentLength);
+      subscription.request(1);
+    }
+
+    @Override
+    public void onNext(List<ByteBuffer> item) {
+      if (done) {
+        return;
+      }
+      try {
+        for (ByteBuffer chunk : item) {
+          long remaining = maxBytes - size;
+          boolean overflow = chunk.remaining() > remaining;
+          if (overflow) {
+            chunk = chunk.slice(chunk.position(), (int) remaining);
+          }
+          size += chunk.remaining();
+          if (!decoder.write(chunk) || overflow) {
+            done = true;
+            subscription.cancel();
+            long avoided = contentLength >= 0 ? Math.max(0, contentLength - size) : 0;
+            CrawlStats.recordTruncatedBody(avoided);
+            finish(true);
+            return;
+          }
+        }
+      } catch (RuntimeException e) {
+        done = true;
+        subscription.cancel();
+        decoder.release();
+        body.completeExceptionally(e);
+        return;
+      }
+      subscription.request(1);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      if (!done) {
+        done = true;
+        if (decoder != null) {
+          decoder.release();
+        }
+        body.completeExceptionally(throwable);
+      }
+    }
+
+    @Override
+    public void onComplete() {
+      if (!done) {
+        done = true;
+        finish(false);
+      }
+    }
+
+    @Override
+    public CompletionStage<String> getBody() {
+      return body;
+    }
+
+    private void finish(boolean truncated) {
+      try {
+        body.complete(decoder.finish(truncated));
+      } catch (RuntimeException e) {
+        body.completeExceptionally(e);
+      }
+    }
+  }
+}
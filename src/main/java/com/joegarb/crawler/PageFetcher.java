@@ -6,10 +6,16 @@ import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-/** Fetches web pages via HTTP. */
+/**
+ * Fetches web pages via HTTP, accepting gzip and deflate compressed responses. Only successful HTML
+ * responses are read, up to a maximum size; other bodies are discarded as they arrive, so a
+ * successful non-HTML result has an empty body.
+ */
 public class PageFetcher {
   private static final Logger logger = LoggerFactory.getLogger(PageFetcher.class);
   private static final String USER_AGENT = getUserAgent();
@@ -19,6 +25,38 @@ public class PageFetcher {
           .followRedirects(HttpClient.Redirect.NORMAL)
           .build();
 
+  private static final Metrics.Histogram fetchLatency =
+      Metrics.latency(
+          "crawler_fetch_seconds", "Time from sending a request to having its body, or failing");
+  private static final Metrics.Counter fetchFailures =
+      Metrics.counter(
+          "crawler_fetch_failures_total", "Fetches that got no HTTP response, e.g. network errors");
+  private static final Metrics.Counter[] responsesByClass = new Metrics.Counter[6];
+
+  static {
+    for (int i = 1; i < responsesByClass.length; i++) {
+      responsesByClass[i] =
+          Metrics.counter(
+              "crawler_http_responses_total", "HTTP responses by status class", "class", i + "xx");
+    }
+  }
+
+  private final PageBodyHandler bodyHandler;
+
+  /** Creates a fetcher that cuts off HTML bodies at the configured maximum size. */
+  public PageFetcher() {
+    this(Configuration.HTTP_MAX_BODY_BYTES);
+  }
+
+  /**
+   * Creates a fetcher.
+   *
+   * @param maxBodyBytes Largest HTML body to read; 0 or less for no limit
+   */
+  PageFetcher(int maxBodyBytes) {
+    this.bodyHandler = new PageBodyHandler(maxBodyBytes);
+  }
+
   /**
    * Gets the User-Agent string from application metadata.
    *
@@ -53,6 +91,10 @@ public class PageFetcher {
       return new FetchResult(true, response, null);
     }
 
+    public static FetchResult notModified(HttpResponse<String> response) {
+      return new FetchResult(true, response, null);
+    }
+
     public static FetchResult httpError(HttpResponse<String> response) {
       return new FetchResult(
           false, response, "HTTP error: " + response.statusCode() + " " + response.uri());
@@ -71,49 +113,61 @@ public class PageFetcher {
       return response != null ? response.statusCode() : null;
     }
 
+    /**
+     * Checks if a conditional request found the page unchanged (HTTP 304), in which case there is
+     * no body.
+     *
+     * @return true for a 304 response
+     */
+    public boolean isNotModified() {
+      return response != null && response.statusCode() == 304;
+    }
+
     /**
      * Checks if the response content type is HTML.
      *
      * @return true if the response appears to be HTML, false otherwise
      */
     public boolean isHtml() {
-      if (response == null) {
-        return false;
-      }
-      String contentType = response.headers().firstValue("Content-Type").orElse("");
-      // Check if Content-Type contains "text/html" (case-insensitive)
-      return contentType.toLowerCase().contains("text/html");
+      return response != null && PageBodyHandler.isHtml(response.headers());
     }
   }
 
   /**
-   * Fetches a web page.
+   * Fetches a web page, blocking until the response has been received.
    *
    * @param url The URL to fetch
    * @return FetchResult containing the response or error information
    */
   public FetchResult fetch(String url) {
+    return fetch(url, null);
+  }
+
+  /**
+   * Fetches a web page, blocking until the response has been received. If validators from a
+   * previous fetch are given, the request is conditional and an unchanged page yields a
+   * not-modified result without a body.
+   *
+   * @param url The URL to fetch
+   * @param validators Validators of the last fetched version, or null for an unconditional request
+   * @return FetchResult containing the response or error information
+   */
+  public FetchResult fetch(String url, MetadataStore.PageValidators validators) {
+    long start = System.nanoTime();
+    return recordFetch(send(url, validators), start);
+  }
+
+  /**
+   * Sends a request and waits for the response.
+   *
+   * @param url The URL to fetch
+   * @param validators Validators of the last fetched version, or null
+   * @return FetchResult containing the response or error information
+   */
+  private FetchResult send(String url, MetadataStore.PageValidators validators) {
     try {
-      HttpRequest request =
-          HttpRequest.newBuilder()
-              .uri(URI.create(url))
-              .timeout(Duration.ofSeconds(Configuration.HTTP_TIMEOUT_SECONDS))
-              .header("User-Agent", USER_AGENT)
-              .GET()
-              .build();
-
-      HttpResponse<String> response =
-          httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-
-      // Consider 2xx status codes as success, everything else as failure
-      // Note: With followRedirects enabled, 3xx should be automatically followed.
-      // If we see a 3xx here, it indicates a redirect loop or too many redirects.
-      if (response.statusCode() >= 200 && response.statusCode() < 300) {
-        return FetchResult.success(response);
-      } else {
-        // HTTP error response (3xx redirect issues, 4xx, 5xx, etc.)
-        return FetchResult.httpError(response);
-      }
+      HttpResponse<String> response = httpClient.send(buildRequest(url, validators), bodyHandler);
+      return toResult(response);
     } catch (IOException e) {
       logger.warn("Failed to fetch URL: {} - {}", url, e.getMessage());
       return FetchResult.failure("Network error: " + e.getMessage());
@@ -126,4 +180,111 @@ public class PageFetcher {
       return FetchResult.failure("Invalid URL: " + e.getMessage());
     }
   }
+
+  /**
+   * Fetches a web page without blocking the calling thread.
+   *
+   * @param url The URL to fetch
+   * @return Future that completes with the response or error information; it never completes
+   *     exceptionally
+   */
+  public CompletableFuture<FetchResult> fetchAsync(String url) {
+    return fetchAsync(url, null);
+  }
+
+  /**
+   * Fetches a web page without blocking the calling thread, conditionally if validators are given.
+   *
+   * @param url The URL to fetch
+   * @param validators Validators of the last fetched version, or null for an unconditional request
+   * @return Future that completes with the response or error information; it never completes
+   *     exceptionally
+   */
+  public CompletableFuture<FetchResult> fetchAsync(
+      String url, MetadataStore.PageValidators validators) {
+    long start = System.nanoTime();
+    HttpRequest request;
+    try {
+      request = buildRequest(url, validators);
+    } catch (IllegalArgumentException e) {
+      logger.warn("Invalid URL: {} - {}", url, e.getMessage());
+      return CompletableFuture.completedFuture(
+          recordFetch(FetchResult.failure("Invalid URL: " + e.getMessage()), start));
+    }
+    return httpClient
+        .sendAsync(request, bodyHandler)
+        .handle(
+            (response, error) -> {
+              if (error == null) {
+                return toResult(response);
+              }
+              Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+              logger.warn("Failed to fetch URL: {} - {}", url, cause.getMessage());
+              return FetchResult.failure("Network error: " + cause.getMessage());
+            })
+        .thenApply(result -> recordFetch(result, start));
+  }
+
+  /**
+   * Records the latency and outcome of a fetch in {@link Metrics}.
+   *
+   * @param result The outcome
+   * @param startNanos {@link System#nanoTime} reading taken before the request was sent
+   * @return The result, unchanged
+   */
+  private static FetchResult recordFetch(FetchResult result, long startNanos) {
+    fetchLatency.recordSince(startNanos);
+    Integer status = result.httpStatusCode();
+    if (status == null) {
+      fetchFailures.increment();
+    } else {
+      responsesByClass[Math.min(Math.max(status / 100, 1), 5)].increment();
+    }
+    return result;
+  }
+
+  /**
+   * Builds the GET request for a URL.
+   *
+   * @param url The URL to fetch
+   * @param validators Validators to send as If-None-Match / If-Modified-Since, or null
+   * @return The request
+   * @throws IllegalArgumentException if the URL is invalid
+   */
+  private static HttpRequest buildRequest(String url, MetadataStore.PageValidators validators) {
+    HttpRequest.Builder builder =
+        HttpRequest.newBuilder()
+            .uri(URI.create(url))
+            .timeout(Duration.ofSeconds(Configuration.HTTP_TIMEOUT_SECONDS))
+            .header("User-Agent", USER_AGENT)
+            .header("Accept-Encoding", ContentDecoder.ACCEPT_ENCODING);
+    if (validators != null && validators.etag() != null) {
+      builder.header("If-None-Match", validators.etag());
+    }
+    if (validators != null && validators.lastModified() != null) {
+      builder.header("If-Modified-Since", validators.lastModified());
+    }
+    return builder.GET().build();
+  }
+
+  /**
+   * Classifies a response by its status code.
+   *
+   * @param response The HTTP response
+   * @return Success for 2xx responses, an HTTP error otherwise
+   */
+  private static FetchResult toResult(HttpResponse<String> response) {
+    // Consider 2xx status codes as success, everything else as failure
+    // Note: With followRedirects enabled, 3xx should be automatically followed.
+    // If we see a 3xx here, it indicates a redirect loop or too many redirects.
+    if (response.statusCode() >= 200 && response.statusCode() < 300) {
+      return FetchResult.success(response);
+    } else if (response.statusCode() == 304) {
+      // Only returned for conditional requests, when the page is unchanged
+      return FetchResult.notModified(response);
+    } else {
+      // HTTP error response (3xx redirect issues, 4xx, 5xx, etc.)
+      return FetchResult.httpError(response);
+    }
+  }
 }
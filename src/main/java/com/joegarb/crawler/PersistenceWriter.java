@@ -0,0 +1,355 @@
+package com.joegarb.crawler;
+
+import static com.joegarb.crawler.UrlNormalizer.NormalizedUrl;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Records processed pages on a dedicated writer thread, many pages per transaction.
+ *
+ * <p>Recording a page takes several statements: queuing its new links, marking it crawled and
+ * removing it from the frontier. Run in auto-commit mode each of them is its own transaction, and
+ * so its own fsync. Workers instead hand the page to this writer and move on; the writer commits
+ * the pages it has collected once it has {@code flushSize} of them or {@code flushIntervalMs} has
+ * passed since the first, whichever comes first.
+ *
+ * <p>A page stays claimed in the frontier until its transaction commits, so no other worker picks
+ * it up in the meantime, and {@link Frontier#hasUrls} keeps reporting work until its links have
+ * been queued. A frontier that does not take part in the transaction is only changed once it has
+ * committed, so a rolled-back batch neither loses its pages nor queues their links. {@link #close}
+ * writes everything submitted before it returns.
+ */
+public class PersistenceWriter implements AutoCloseable {
+  private static final Logger logger = LoggerFactory.getLogger(PersistenceWriter.class);
+
+  /** Maximum time in milliseconds a worker waits for queue space before checking for failures. */
+  private static final long SUBMIT_POLL_MS = 100;
+
+  /**
+   * Everything to record about one processed page.
+   *
+   * @param frontierId ID of the page's frontier entry, removed once recorded
+   * @param url Normalized URL of the page
+   * @param notModified Whether a conditional request found the page unchanged (HTTP 304), in which
+   *     case only its crawl time is updated
+   * @param httpStatusCode HTTP status code, or null for network errors
+   * @param errorMessage Error message if the fetch failed, null if successful
+   * @param validators ETag, Last-Modified and content hash of the response, or null
+   * @param links Discovered links keyed by URL; those not yet crawled are added to the frontier
+   */
+  public static record PageWrite(
+      long frontierId,
+      String url,
+      boolean notModified,
+      Integer httpStatusCode,
+      String errorMessage,
+      MetadataStore.PageValidators validators,
+      Map<String, NormalizedUrl> links) {
+    public static PageWrite crawled(
+        long frontierId,
+        String url,
+        Integer httpStatusCode,
+        String errorMessage,
+        MetadataStore.PageValidators validators,
+        Map<String, NormalizedUrl> links) {
+      return new PageWrite(frontierId, url, false, httpStatusCode, errorMessage, validators, links);
+    }
+
+    public static PageWrite notModified(long frontierId, String url) {
+      return new PageWrite(frontierId, url, true, null, null, null, Map.of());
+    }
+  }
+
+  private final ConnectionPool.ConnectionFactory connections;
+  private final Frontier frontier;
+  private final int flushSize;
+  private final long flushIntervalMs;
+  private final SeenUrlFilter seenFilter;
+  private final Runnable committed;
+  // URLs queued or crawled by the open transaction, added to the seen-URL filter once it commits
+  private final Set<String> seenUrls = new HashSet<>();
+  // Changes to a non-transactional frontier, applied in order once the open transaction commits
+  private final List<DatabaseManager.SqlAction> frontierChanges = new ArrayList<>();
+  private final BlockingQueue<PageWrite> queue;
+  private final Thread thread;
+  private volatile boolean closing;
+  private volatile SQLException failure;
+
+  /**
+   * Creates a writer and starts its thread.
+   *
+   * @param connections Source of database connections
+   * @param frontier Frontier that discovered links are added to and processed pages removed from
+   * @param flushSize Maximum number of pages per transaction
+   * @param flushIntervalMs Maximum time in milliseconds a page waits to be written
+   */
+  public PersistenceWriter(
+      ConnectionPool.ConnectionFactory connections,
+      Frontier frontier,
+      int flushSize,
+      long flushIntervalMs) {
+    this(connections, frontier, flushSize, flushIntervalMs, () -> {});
+  }
+
+  /**
+   * Creates a writer that reports each commit, and starts its thread.
+   *
+   * @param connections Source of database connections
+   * @param frontier Frontier that discovered links are added to and processed pages removed from
+   * @param flushSize Maximum number of pages per transaction
+   * @param flushIntervalMs Maximum time in milliseconds a page waits to be written
+   * @param committed Called on the writer thread after each batch commits, e.g. {@link
+   *     FrontierBuffer#signalWork} to wake workers waiting for the links it queued
+   */
+  public PersistenceWriter(
+      ConnectionPool.ConnectionFactory connections,
+      Frontier frontier,
+      int flushSize,
+      long flushIntervalMs,
+      Runnable committed) {
+    this(connections, frontier, flushSize, flushIntervalMs, null, committed);
+  }
+
+  /**
+   * Creates a writer that checks discovered links against a seen-URL filter, and starts its thread.
+   *
+   * @param connections Source of database connections
+   * @param frontier Frontier that discovered links are added to and processed pages removed from
+   * @param flushSize Maximum number of pages per transaction
+   * @param flushIntervalMs Maximum time in milliseconds a page waits to be written
+   * @param seenFilter Filter whose definitely unseen links are queued without a database lookup,
+   *     and that committed URLs are added to; null to look up every link
+   * @param committed Called on the writer thread after each batch commits, e.g. {@link
+   *     FrontierBuffer#signalWork} to wake workers waiting for the links it queued
+   */
+  public PersistenceWriter(
+      ConnectionPool.ConnectionFactory connections,
+      Frontier frontier,
+      int flushSize,
+      long flushIntervalMs,
+      SeenUrlFilter seenFilter,
+      Runnable committed) {
+    this.connections = connections;
+    this.frontier = frontier;
+    this.flushSize = Math.max(1, flushSize);
+    this.flushIntervalMs = Math.max(0, flushIntervalMs);
+    this.seenFilter = seenFilter;
+    this.committed = committed;
+    // Bounded so that workers slow down to the database's pace instead of piling up pages
+    this.queue = new LinkedBlockingQueue<>(this.flushSize * 4);
+    this.thread = Thread.ofPlatform().name("persistence-writer").start(this::writeLoop);
+  }
+
+  /**
+   * Queues a page to be recorded, waiting if the writer is behind.
+   *
+   * @param write The page
+   * @throws SQLException if an earlier write failed or the writer has been closed
+   */
+  public void submit(PageWrite write) throws SQLException {
+    while (true) {
+      checkUsable();
+      try {
+        if (queue.offer(write, SUBMIT_POLL_MS, TimeUnit.MILLISECONDS)) {
+          return;
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new SQLException("Interrupted while queuing " + write.url(), e);
+      }
+    }
+  }
+
+  /**
+   * Returns the number of submitted pages waiting to be written.
+   *
+   * @return Queue depth
+   */
+  public int queueDepth() {
+    return queue.size();
+  }
+
+  /**
+   * Returns the number of pages that can be waiting before submissions block.
+   *
+   * @return Queue capacity
+   */
+  public int queueCapacity() {
+    return flushSize * 4;
+  }
+
+  /**
+   * Writes all submitted pages and stops the writer thread. Later submissions are rejected. Safe to
+   * call more than once, e.g. from both the main thread and a shutdown hook.
+   */
+  @Override
+  public void close() {
+    closing = true;
+    try {
+      thread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      logger.error("Interrupted while waiting for pending writes");
+    }
+  }
+
+  private void checkUsable() throws SQLException {
+    if (failure != null) {
+      throw new SQLException("Persistence writer failed", failure);
+    }
+    if (closing) {
+      throw new SQLException("Persistence writer is closed");
+    }
+  }
+
+  /** Collects batches and writes them until closed with nothing left to write, or a write fails. */
+  private void writeLoop() {
+    List<PageWrite> batch = new ArrayList<>(flushSize);
+    try {
+      while (true) {
+        PageWrite first = queue.poll(SUBMIT_POLL_MS, TimeUnit.MILLISECONDS);
+        if (first == null) {
+          if (closing && queue.isEmpty()) {
+            return;
+          }
+          continue;
+        }
+        batch.add(first);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+        while (batch.size() < flushSize) {
+          long remaining = deadline - System.nanoTime();
+          if (closing || remaining <= 0) {
+            // Out of time: take what is already queued, without waiting for more
+            PageWrite next = queue.poll();
+            if (next == null) {
+              break;
+            }
+            batch.add(next);
+          } else {
+            // Wait in short steps so that close() is noticed promptly
+            long wait = Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(SUBMIT_POLL_MS));
+            PageWrite next = queue.poll(wait, TimeUnit.NANOSECONDS);
+            if (next != null) {
+              batch.add(next);
+            }
+          }
+        }
+        write(batch);
+        batch.clear();
+        committed.run();
+      }
+    } catch (InterruptedException e) {
+      logger.error("Persistence writer interrupted with {} pages unwritten", queue.size());
+    } catch (SQLException e) {
+      failure = e;
+      logger.error("Database error while recording {} pages", batch.size(), e);
+    }
+  }
+
+  /**
+   * Records a batch of pages in one transaction. Pages are recorded in order, and links to pages
+   * crawled earlier in the batch are always looked up, so such a link is seen as crawled even
+   * though the seen-URL filter has not learned the page yet. The pages and the links queued are
+   * added to the seen-URL filter only once the transaction has committed, so a rolled-back batch
+   * leaves no trace there.
+   *
+   * @param batch Pages to record
+   * @throws SQLException if a database access error occurs; nothing from the batch is recorded
+   */
+  private void write(List<PageWrite> batch) throws SQLException {
+    long start = System.nanoTime();
+    try (Connection conn = connections.open()) {
+      DatabaseManager.inTransaction(
+          conn,
+          () -> {
+            seenUrls.clear();
+            frontierChanges.clear();
+            for (PageWrite page : batch) {
+              write(conn, page);
+            }
+          });
+      for (DatabaseManager.SqlAction change : frontierChanges) {
+        change.run();
+      }
+    } finally {
+      frontierChanges.clear();
+    }
+    if (seenFilter != null) {
+      for (String url : seenUrls) {
+        seenFilter.add(url);
+      }
+    }
+    seenUrls.clear();
+    CrawlStats.recordFlush(batch.size(), System.nanoTime() - start);
+  }
+
+  private void write(Connection conn, PageWrite page) throws SQLException {
+    if (page.notModified()) {
+      MetadataStore.markAsNotModified(conn, page.url());
+    } else {
+      if (!page.links().isEmpty()) {
+        List<String> urlsToAdd = uncrawled(conn, page.links().keySet());
+        if (!urlsToAdd.isEmpty()) {
+          List<NormalizedUrl> linksToAdd = new ArrayList<>(urlsToAdd.size());
+          for (String url : urlsToAdd) {
+            linksToAdd.add(page.links().get(url));
+          }
+          changeFrontier(() -> frontier.addDiscovered(conn, page.frontierId(), linksToAdd));
+          seenUrls.addAll(urlsToAdd);
+        }
+      }
+      MetadataStore.markAsCrawled(
+          conn, page.url(), page.httpStatusCode(), page.errorMessage(), page.validators());
+    }
+    changeFrontier(() -> frontier.remove(conn, page.frontierId()));
+    seenUrls.add(page.url());
+  }
+
+  /** Applies a frontier change in the open transaction, or holds it until the commit. */
+  private void changeFrontier(DatabaseManager.SqlAction change) throws SQLException {
+    if (frontier.isTransactional()) {
+      change.run();
+    } else {
+      frontierChanges.add(change);
+    }
+  }
+
+  /**
+   * Returns the links that need crawling. Links the seen-URL filter has definitely never seen have
+   * not been crawled, so only the others are looked up, along with the URLs of the open
+   * transaction, which the filter only learns once it commits.
+   */
+  private List<String> uncrawled(Connection conn, Set<String> urls) throws SQLException {
+    if (seenFilter == null) {
+      return MetadataStore.filterUncrawled(conn, urls);
+    }
+    Set<String> seen = new HashSet<>(seenFilter.filterMaybeSeen(urls));
+    for (String url : urls) {
+      if (seenUrls.contains(url)) {
+        seen.add(url);
+      }
+    }
+    if (seen.isEmpty()) {
+      return new ArrayList<>(urls);
+    }
+    Set<String> due = new HashSet<>(MetadataStore.filterUncrawled(conn, seen));
+    List<String> uncrawled = new ArrayList<>(urls.size());
+    for (String url : urls) {
+      if (!seen.contains(url) || due.contains(url)) {
+        uncrawled.add(url);
+      }
+    }
+    return uncrawled;
+  }
+}
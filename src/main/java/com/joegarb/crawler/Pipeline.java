@@ -0,0 +1,274 @@
+package com.joegarb.crawler;
+
+import static com.joegarb.crawler.FrontierStore.FrontierUrl;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Crawls in three stages connected by bounded queues, so that slow work in one stage does not hold
+ * up the others.
+ *
+ * <ol>
+ *   <li>Fetch: virtual threads take URLs from the frontier buffer and fetch them.
+ *   <li>Parse: a pool of platform threads, one per core by default, extracts links with {@link
+ *       Worker#parseResult}.
+ *   <li>Persist: the {@link PersistenceWriter} records pages in batched transactions.
+ * </ol>
+ *
+ * <p>A full queue blocks the stage feeding it, so a slow database slows parsing and a slow parser
+ * slows fetching rather than letting pages pile up in memory. Queue depths and per-stage latency
+ * are reported by {@link CrawlStats}.
+ */
+public class Pipeline {
+  private static final Logger logger = LoggerFactory.getLogger(Pipeline.class);
+
+  /** Maximum time in milliseconds to block on a queue before checking whether to stop. */
+  private static final long QUEUE_POLL_MS = 100;
+
+  private static volatile Pipeline running;
+
+  /**
+   * Latency of a stage.
+   *
+   * @param processed Number of pages the stage has finished
+   * @param avgWaitMillis Average time a page waited in the stage's input queue
+   * @param avgBusyMillis Average time the stage spent on a page
+   */
+  public static record StageStats(long processed, double avgWaitMillis, double avgBusyMillis) {}
+
+  /**
+   * Snapshot of the pipeline's queues and stages.
+   *
+   * @param fetch Fetch stage latency; its input is the frontier, so it has no wait time
+   * @param parseQueued Fetched pages waiting to be parsed
+   * @param parseCapacity Capacity of the parse queue
+   * @param parse Parse stage latency
+   * @param persistQueued Parsed pages waiting to be written
+   * @param persistCapacity Capacity of the persistence writer's queue
+   */
+  public static record Stats(
+      StageStats fetch,
+      int parseQueued,
+      int parseCapacity,
+      StageStats parse,
+      int persistQueued,
+      int persistCapacity) {}
+
+  /** A fetched page on its way to the parse stage. */
+  private record Fetched(
+      FrontierUrl frontierUrl,
+      MetadataStore.PageValidators previous,
+      PageFetcher.FetchResult result,
+      long queuedAtNanos) {}
+
+  /** Counters for one stage. */
+  private static final class Stage {
+    private final LongAdder processed = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final LongAdder busyNanos = new LongAdder();
+
+    void record(long waited, long busy) {
+      processed.increment();
+      waitNanos.add(waited);
+      busyNanos.add(busy);
+    }
+
+    StageStats stats() {
+      long count = processed.sum();
+      return new StageStats(
+          count,
+          count > 0 ? waitNanos.sum() / 1e6 / count : 0,
+          count > 0 ? busyNanos.sum() / 1e6 / count : 0);
+    }
+  }
+
+  private final ConnectionPool.ConnectionFactory connections;
+  private final FrontierBuffer frontier;
+  private final PageFetcher fetcher;
+  private final PersistenceWriter writer;
+  private final int fetchThreads;
+  private final int parseThreads;
+  private final int queueCapacity;
+  private final BlockingQueue<Fetched> parseQueue;
+  private final Stage fetchStage = new Stage();
+  private final Stage parseStage = new Stage();
+  private volatile boolean fetchingDone;
+  private volatile boolean failed;
+
+  /**
+   * Creates a pipeline.
+   *
+   * @param connections Source of database connections
+   * @param frontier Buffer of claimed URLs
+   * @param fetcher Page fetcher
+   * @param writer Writer for the persist stage
+   * @param fetchThreads Number of fetch threads
+   * @param parseThreads Number of parse threads; 0 or less for one per available core
+   * @param queueCapacity Maximum number of fetched pages waiting to be parsed
+   */
+  public Pipeline(
+      ConnectionPool.ConnectionFactory connections,
+      FrontierBuffer frontier,
+      PageFetcher fetcher,
+      PersistenceWriter writer,
+      int fetchThreads,
+      int parseThreads,
+      int queueCapacity) {
+    this.connections = connections;
+    this.frontier = frontier;
+    this.fetcher = fetcher;
+    this.writer = writer;
+    this.fetchThreads = Math.max(1, fetchThreads);
+    this.parseThreads =
+        parseThreads > 0 ? parseThreads : Runtime.getRuntime().availableProcessors();
+    this.queueCapacity = Math.max(1, queueCapacity);
+    this.parseQueue = new ArrayBlockingQueue<>(this.queueCapacity);
+  }
+
+  /**
+   * Returns the pipeline most recently started in this process, for reporting.
+   *
+   * @return The pipeline, or null if none has run
+   */
+  public static Pipeline running() {
+    return running;
+  }
+
+  /**
+   * Crawls until the frontier queue is empty, a database error occurs or the thread is interrupted,
+   * then waits for fetched pages to be parsed and submitted to the writer.
+   */
+  public void run() {
+    running = this;
+    logger.info(
+        "Pipeline: {} fetch threads, {} parse threads, parse queue capacity {}",
+        fetchThreads,
+        parseThreads,
+        queueCapacity);
+    Thread[] fetchers = new Thread[fetchThreads];
+    Thread.Builder fetchBuilder = Thread.ofVirtual().name("fetch-", 0);
+    for (int i = 0; i < fetchThreads; i++) {
+      fetchers[i] = fetchBuilder.start(this::fetchLoop);
+    }
+    Thread[] parsers = new Thread[parseThreads];
+    Thread.Builder parseBuilder = Thread.ofPlatform().name("parse-", 0);
+    for (int i = 0; i < parseThreads; i++) {
+      parsers[i] = parseBuilder.start(this::parseLoop);
+    }
+
+    try {
+      join(fetchers);
+      fetchingDone = true;
+      join(parsers);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      logger.error("Interrupted while waiting for the pipeline to finish");
+      for (Thread thread : fetchers) {
+        thread.interrupt();
+      }
+      for (Thread thread : parsers) {
+        thread.interrupt();
+      }
+    }
+    logger.info("Pipeline complete");
+  }
+
+  /**
+   * Returns the current queue depths and stage latencies.
+   *
+   * @return Pipeline statistics
+   */
+  public Stats stats() {
+    return new Stats(
+        fetchStage.stats(),
+        parseQueue.size(),
+        queueCapacity,
+        parseStage.stats(),
+        writer.queueDepth(),
+        writer.queueCapacity());
+  }
+
+  /** Fetch stage: fetches claimed URLs and queues the results for parsing. */
+  private void fetchLoop() {
+    while (!Thread.currentThread().isInterrupted() && !failed) {
+      try {
+        FrontierUrl frontierUrl = frontier.take();
+        if (frontierUrl == null) {
+          // Pages still in the pipeline keep their frontier rows until persisted and may add more
+          // urls, so only stop once the queue is empty
+          if (!frontier.hasUrls()) {
+            break;
+          }
+          frontier.awaitWork();
+          continue;
+        }
+
+        long start = System.nanoTime();
+        MetadataStore.PageValidators previous;
+        try (Connection conn = connections.open()) {
+          previous = MetadataStore.getValidators(conn, frontierUrl.url());
+        }
+        PageFetcher.FetchResult result = fetcher.fetch(frontierUrl.url(), previous);
+        long fetched = System.nanoTime();
+        fetchStage.record(0, fetched - start);
+
+        Fetched page = new Fetched(frontierUrl, previous, result, fetched);
+        while (!parseQueue.offer(page, QUEUE_POLL_MS, TimeUnit.MILLISECONDS)) {
+          if (failed) {
+            return;
+          }
+        }
+      } catch (SQLException e) {
+        logger.error("Database error in fetch stage", e);
+        failed = true;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /** Parse stage: extracts links from fetched pages and submits them to the writer. */
+  private void parseLoop() {
+    while (!Thread.currentThread().isInterrupted() && !failed) {
+      Fetched page;
+      try {
+        page = parseQueue.poll(QUEUE_POLL_MS, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+      if (page == null) {
+        if (fetchingDone && parseQueue.isEmpty()) {
+          return;
+        }
+        continue;
+      }
+
+      long start = System.nanoTime();
+      PersistenceWriter.PageWrite write =
+          Worker.parseResult(page.frontierUrl(), page.previous(), page.result());
+      parseStage.record(start - page.queuedAtNanos(), System.nanoTime() - start);
+      try {
+        writer.submit(write);
+      } catch (SQLException e) {
+        logger.error("Database error in parse stage", e);
+        failed = true;
+        return;
+      }
+      CrawlStats.recordPage(page.result().success());
+    }
+  }
+
+  private static void join(Thread[] threads) throws InterruptedException {
+    for (Thread thread : threads) {
+      thread.join();
+    }
+  }
+}
@@ -0,0 +1,113 @@
+package com.joegarb.crawler;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Enforces a minimum delay between requests to the same host.
+ *
+ * <p>Tracks the next time each host may be fetched. Workers ask for the set of hosts that are still
+ * cooling down and exclude them when claiming from the frontier, so the delay is applied per host
+ * rather than per worker thread and idle time is only spent when every pending host is cooling.
+ */
+public class PolitenessScheduler {
+  private final long delayMillis;
+  private final Map<String, Long> nextAllowedAt = new ConcurrentHashMap<>();
+
+  /**
+   * Creates a scheduler.
+   *
+   * @param delayMillis Minimum time in milliseconds between the starts of two requests to a host
+   */
+  public PolitenessScheduler(long delayMillis) {
+    this.delayMillis = Math.max(0, delayMillis);
+  }
+
+  /**
+   * Returns the hosts that may not be fetched yet, forgetting hosts whose delay has passed.
+   *
+   * @return Hosts that are still cooling down
+   */
+  public Set<String> coolingHosts() {
+    long now = System.currentTimeMillis();
+    Set<String> hosts = new HashSet<>();
+    for (Map.Entry<String, Long> entry : nextAllowedAt.entrySet()) {
+      if (entry.getValue() > now) {
+        hosts.add(entry.getKey());
+      } else {
+        nextAllowedAt.remove(entry.getKey(), entry.getValue());
+      }
+    }
+    return hosts;
+  }
+
+  /**
+   * Checks whether a host may be fetched now.
+   *
+   * @param host Host to check (null is treated as its own host)
+   * @return true if the host is not cooling down
+   */
+  public boolean isReady(String host) {
+    Long next = nextAllowedAt.get(key(host));
+    return next == null || next <= System.currentTimeMillis();
+  }
+
+  /**
+   * Reserves the next fetch slot for a host and pushes the host's next allowed time past it.
+   *
+   * <p>Normally the slot is now, since workers only claim URLs for ready hosts. If another worker
+   * reserved the same host in the meantime, the returned slot is in the future and the caller must
+   * wait for it.
+   *
+   * @param host Host about to be fetched (null is treated as its own host)
+   * @return Time in epoch milliseconds at which the fetch may start
+   */
+  public long reserve(String host) {
+    long now = System.currentTimeMillis();
+    long[] slot = new long[1];
+    nextAllowedAt.compute(
+        key(host),
+        (h, next) -> {
+          slot[0] = next == null ? now : Math.max(now, next);
+          return slot[0] + delayMillis;
+        });
+    return slot[0];
+  }
+
+  /**
+   * Reserves the next fetch slot for a host and sleeps until it arrives.
+   *
+   * @param host Host about to be fetched
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public void awaitTurn(String host) throws InterruptedException {
+    long waitMillis = reserve(host) - System.currentTimeMillis();
+    if (waitMillis > 0) {
+      Thread.sleep(waitMillis);
+    }
+  }
+
+  /**
+   * Returns how long until the earliest host that is still cooling down becomes ready. Hosts whose
+   * delay has already passed are ignored, since waiting does not help a caller that found nothing
+   * to fetch while they were ready.
+   *
+   * @return Milliseconds until a cooling host is ready, or Long.MAX_VALUE if no host is cooling
+   */
+  public long millisUntilNextReady() {
+    long now = System.currentTimeMillis();
+    long earliest = Long.MAX_VALUE;
+    for (long next : nextAllowedAt.values()) {
+      if (next > now) {
+        earliest = Math.min(earliest, next);
+      }
+    }
+    return earliest == Long.MAX_VALUE ? Long.MAX_VALUE : earliest - now;
+  }
+
+  private static String key(String host) {
+    return host == null ? "" : host;
+  }
+}
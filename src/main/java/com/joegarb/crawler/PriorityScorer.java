@@ -0,0 +1,52 @@
+package com.joegarb.crawler;
+
+import static com.joegarb.crawler.UrlNormalizer.NormalizedUrl;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Default frontier scorer, favouring shallow pages, pages linked from many others and hosts that
+ * have not used up their budget.
+ *
+ * <p>The score starts at minus the link depth, so each link followed from the start URL costs one
+ * point and a long pagination tail sinks below the shallow pages of every host. Each rediscovery of
+ * a pending URL adds half a point. Every host gets a budget of URLs added by this process at full
+ * priority; beyond it, each further budget's worth of URLs costs another point, so one large host
+ * cannot crowd out the others. Hosts are counted in a fixed table of counters indexed by a hash of
+ * the host name, so memory stays bounded however many hosts are crawled; the rare hosts that share
+ * a counter share a budget.
+ */
+public class PriorityScorer implements FrontierScorer {
+  private static final double REDISCOVERY_BONUS = 0.5;
+  private static final int HOST_COUNTERS = 1 << 16;
+
+  private final int hostBudget;
+  private final AtomicLongArray addedByHost = new AtomicLongArray(HOST_COUNTERS);
+
+  /**
+   * Creates a scorer.
+   *
+   * @param hostBudget URLs per host scored without a host penalty; 0 or less for no penalty
+   */
+  public PriorityScorer(int hostBudget) {
+    this.hostBudget = hostBudget;
+  }
+
+  @Override
+  public double score(NormalizedUrl url, int depth) {
+    double score = -depth;
+    if (hostBudget > 0 && url.host() != null) {
+      long added =
+          addedByHost.incrementAndGet(FrontierStore.hostHash(url.host()) & (HOST_COUNTERS - 1));
+      if (added > hostBudget) {
+        score -= (double) (added - hostBudget) / hostBudget;
+      }
+    }
+    return score;
+  }
+
+  @Override
+  public double rediscoveryBonus() {
+    return REDISCOVERY_BONUS;
+  }
+}
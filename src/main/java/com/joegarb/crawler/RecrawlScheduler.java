@@ -0,0 +1,153 @@
+package com.joegarb.crawler;
+
+import static com.joegarb.crawler.UrlNormalizer.NormalizedUrl;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Re-enqueues crawled URLs into the frontier once they are due for a retry or refresh, so that
+ * pages are refreshed whether or not a link to them is found again.
+ *
+ * <p>A background thread takes batches of due URLs from crawled_urls, most overdue first, and adds
+ * them to the frontier in the same transaction, or once it has committed for a frontier that does
+ * not take part in it. Batches are spaced so that no more than the configured number of URLs per
+ * second is enqueued, leaving most of the crawl's capacity to new pages. Taken URLs are postponed
+ * by the minimum refresh interval, so that they are not taken again while they wait in the
+ * frontier; crawling them schedules them as usual.
+ */
+public class RecrawlScheduler implements AutoCloseable {
+  private static final Logger logger = LoggerFactory.getLogger(RecrawlScheduler.class);
+
+  private static final Metrics.Counter urlsEnqueued =
+      Metrics.counter(
+          "crawler_recrawl_enqueued_total", "Due crawled URLs re-enqueued into the frontier");
+
+  private final ConnectionPool.ConnectionFactory connections;
+  private final Frontier frontier;
+  private final int batchSize;
+  private final long postponeMillis;
+  private final Runnable enqueued;
+  private final ScheduledExecutorService scheduler;
+
+  /**
+   * Creates a scheduler that enqueues due URLs once {@link #startScheduling} is called.
+   *
+   * @param connections Source of database connections
+   * @param frontier Frontier that due URLs are added to
+   * @param batchSize Largest number of URLs enqueued in one transaction
+   * @param postponeMillis Time after which a taken URL that was not crawled is due again
+   * @param enqueued Called after each batch that enqueued URLs, e.g. {@link
+   *     FrontierBuffer#signalWork} to wake idle workers
+   */
+  public RecrawlScheduler(
+      ConnectionPool.ConnectionFactory connections,
+      Frontier frontier,
+      int batchSize,
+      long postponeMillis,
+      Runnable enqueued) {
+    this.connections = connections;
+    this.frontier = frontier;
+    this.batchSize = batchSize;
+    this.postponeMillis = postponeMillis;
+    this.enqueued = enqueued;
+    scheduler =
+        Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+              Thread thread = new Thread(runnable, "recrawl-scheduler");
+              thread.setDaemon(true);
+              return thread;
+            });
+  }
+
+  /**
+   * Starts enqueuing due URLs in the background.
+   *
+   * @param ratePerSecond Largest number of URLs enqueued per second on average
+   */
+  public void startScheduling(double ratePerSecond) {
+    long interval = Math.max(1, (long) (batchSize * 1000 / ratePerSecond));
+    scheduler.scheduleWithFixedDelay(
+        this::enqueueQuietly, interval, interval, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Starts the scheduler as configured.
+   *
+   * @param frontier Frontier that due URLs are added to
+   * @param enqueued Called after each batch that enqueued URLs
+   * @return The running scheduler, or null if disabled
+   */
+  public static RecrawlScheduler start(Frontier frontier, Runnable enqueued) {
+    if (Configuration.RECRAWL_RATE_PER_SECOND <= 0 || Configuration.RECRAWL_BATCH_SIZE <= 0) {
+      return null;
+    }
+    logger.info(
+        "Re-enqueuing due URLs at up to {} per second", Configuration.RECRAWL_RATE_PER_SECOND);
+    RecrawlScheduler scheduler =
+        new RecrawlScheduler(
+            DatabaseManager::getConnection,
+            frontier,
+            Configuration.RECRAWL_BATCH_SIZE,
+            Configuration.RECRAWL_MIN_INTERVAL_SECONDS * 1000L,
+            enqueued);
+    scheduler.startScheduling(Configuration.RECRAWL_RATE_PER_SECOND);
+    return scheduler;
+  }
+
+  /**
+   * Takes one batch of due URLs and adds them to the frontier.
+   *
+   * @return Number of URLs enqueued
+   * @throws SQLException if a database access error occurs
+   */
+  int enqueueDue() throws SQLException {
+    List<NormalizedUrl> due = new ArrayList<>();
+    try (Connection conn = connections.open()) {
+      DatabaseManager.inTransaction(
+          conn,
+          () -> {
+            due.clear();
+            long now = System.currentTimeMillis();
+            for (String url :
+                MetadataStore.takeDueUrls(conn, now, batchSize, now + postponeMillis)) {
+              // Stored URLs are already normalized
+              due.add(new NormalizedUrl(url, UrlNormalizer.extractHost(url)));
+            }
+            if (frontier.isTransactional()) {
+              frontier.add(conn, due);
+            }
+          });
+      if (!frontier.isTransactional()) {
+        frontier.add(conn, due);
+      }
+    }
+    if (!due.isEmpty()) {
+      urlsEnqueued.add(due.size());
+      logger.debug("Re-enqueued {} due URLs", due.size());
+      enqueued.run();
+    }
+    return due.size();
+  }
+
+  private void enqueueQuietly() {
+    try {
+      enqueueDue();
+    } catch (SQLException | RuntimeException e) {
+      logger.warn("Failed to re-enqueue due URLs", e);
+    }
+  }
+
+  /** Stops enqueuing due URLs. */
+  @Override
+  public void close() {
+    scheduler.shutdownNow();
+  }
+}
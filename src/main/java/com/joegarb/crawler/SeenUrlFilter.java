@@ -0,0 +1,234 @@
+package com.joegarb.crawler;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Memory-bounded, approximate set of URLs that are already in the frontier queue or were recently
+ * crawled, kept in front of SQLite as a negative cache.
+ *
+ * <p>A Bloom filter over 64-bit URL fingerprints: it never forgets a URL that was added, but may
+ * report a URL it has never seen as seen with roughly the configured false-positive rate. Links it
+ * has definitely never seen are queued without checking them against the crawled URLs; the rest go
+ * through the normal freshness check, so a false positive only costs that lookup, and a link that
+ * is due for a refresh is still queued again when it is rediscovered. The filter is built at
+ * startup from the frontier queue and the crawled URLs that are not yet due for a refresh, and
+ * {@link PersistenceWriter} adds the URLs it queues and crawls once they have been committed.
+ *
+ * <p>The filter only learns what this process records, so it cannot tell that a page was crawled by
+ * another process crawling the same database. It is therefore not used when the database is shared
+ * with worker processes, where every link is checked against the crawled URLs.
+ */
+public class SeenUrlFilter {
+  private static final Logger logger = LoggerFactory.getLogger(SeenUrlFilter.class);
+  private static final VarHandle BITS = MethodHandles.arrayElementVarHandle(long[].class);
+
+  private static volatile SeenUrlFilter installed;
+
+  private final long[] bits;
+  private final long numBits;
+  private final int numHashes;
+  private final LongAdder checked = new LongAdder();
+  private final LongAdder unseen = new LongAdder();
+  private final LongAdder added = new LongAdder();
+
+  /**
+   * Creates an empty filter.
+   *
+   * @param expectedUrls Number of URLs the filter is sized for
+   * @param falsePositiveRate Target false-positive rate once expectedUrls have been added
+   */
+  public SeenUrlFilter(long expectedUrls, double falsePositiveRate) {
+    long n = Math.max(1, expectedUrls);
+    double p = Math.min(0.5, Math.max(1e-12, falsePositiveRate));
+    long optimalBits = (long) Math.ceil(-n * Math.log(p) / (Math.log(2) * Math.log(2)));
+    int words = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(1, (optimalBits + 63) / 64));
+    this.bits = new long[words];
+    this.numBits = words * 64L;
+    this.numHashes = (int) Math.max(1, Math.round((double) numBits / n * Math.log(2)));
+  }
+
+  /**
+   * Installs the process-wide filter whose counts {@link CrawlStats} reports.
+   *
+   * @param filter Filter to install, or null if filtering is disabled
+   */
+  public static void install(SeenUrlFilter filter) {
+    installed = filter;
+  }
+
+  /**
+   * Returns the process-wide filter.
+   *
+   * @return The installed filter, or null if none is installed
+   */
+  public static SeenUrlFilter installed() {
+    return installed;
+  }
+
+  /**
+   * Builds the filter as configured, unless other processes may crawl the same database, in which
+   * case links it has never seen may still have been crawled by them.
+   *
+   * @param conn Database connection
+   * @param sharedDatabase Whether other processes may record pages in the same database
+   * @return The populated filter, or null if it is disabled or the database is shared
+   * @throws SQLException if a database access error occurs
+   */
+  public static SeenUrlFilter open(Connection conn, boolean sharedDatabase) throws SQLException {
+    if (!Configuration.SEEN_FILTER_ENABLED) {
+      return null;
+    }
+    if (sharedDatabase) {
+      logger.warn(
+          "Seen-URL filter disabled: other processes may crawl this database, so every link is"
+              + " checked against the crawled URLs");
+      return null;
+    }
+    return load(
+        conn,
+        Configuration.SEEN_FILTER_EXPECTED_URLS,
+        Configuration.SEEN_FILTER_FALSE_POSITIVE_RATE);
+  }
+
+  /**
+   * Builds a filter from the frontier queue and the crawled URLs that are still fresh.
+   *
+   * @param conn Database connection
+   * @param expectedUrls Number of URLs the filter is sized for
+   * @param falsePositiveRate Target false-positive rate
+   * @return The populated filter
+   * @throws SQLException if a database access error occurs
+   */
+  public static SeenUrlFilter load(Connection conn, long expectedUrls, double falsePositiveRate)
+      throws SQLException {
+    SeenUrlFilter filter = new SeenUrlFilter(expectedUrls, falsePositiveRate);
+    String sql =
+        "SELECT url FROM frontier_queue "
+            + "UNION ALL SELECT url FROM crawled_urls WHERE next_fetch_at > ?";
+    try (PreparedStatement statement = conn.prepareStatement(sql)) {
+      statement.setLong(1, System.currentTimeMillis());
+      try (ResultSet resultSet = statement.executeQuery()) {
+        while (resultSet.next()) {
+          filter.add(resultSet.getString(1));
+        }
+      }
+    }
+    logger.info(
+        "Seen-URL filter loaded {} URLs ({} KB, {} hashes)",
+        filter.added(),
+        filter.bits.length / 128,
+        filter.numHashes);
+    return filter;
+  }
+
+  /**
+   * Adds a URL to the filter.
+   *
+   * @param url Normalized URL
+   */
+  public void add(String url) {
+    long fingerprint = Fingerprint.of(url);
+    long step = stepOf(fingerprint);
+    long combined = fingerprint;
+    for (int i = 0; i < numHashes; i++) {
+      long bit = Long.remainderUnsigned(combined, numBits);
+      BITS.getAndBitwiseOr(bits, (int) (bit >>> 6), 1L << bit);
+      combined += step;
+    }
+    added.increment();
+  }
+
+  /**
+   * Checks whether a URL may have been added.
+   *
+   * @param url Normalized URL
+   * @return false if the URL was definitely never added, true if it probably was
+   */
+  public boolean mightContain(String url) {
+    long fingerprint = Fingerprint.of(url);
+    long step = stepOf(fingerprint);
+    long combined = fingerprint;
+    for (int i = 0; i < numHashes; i++) {
+      long bit = Long.remainderUnsigned(combined, numBits);
+      if (((long) BITS.getOpaque(bits, (int) (bit >>> 6)) & (1L << bit)) == 0) {
+        return false;
+      }
+      combined += step;
+    }
+    return true;
+  }
+
+  /**
+   * Keeps the URLs that may have been seen, counting the others as unseen.
+   *
+   * @param urls Normalized URLs
+   * @return URLs that may have been added, in their original order; the others definitely were not
+   */
+  public List<String> filterMaybeSeen(Collection<String> urls) {
+    List<String> maybeSeen = new ArrayList<>(urls.size());
+    for (String url : urls) {
+      if (mightContain(url)) {
+        maybeSeen.add(url);
+      }
+    }
+    checked.add(urls.size());
+    unseen.add(urls.size() - maybeSeen.size());
+    return maybeSeen;
+  }
+
+  /**
+   * Returns the number of URLs passed to {@link #filterMaybeSeen}.
+   *
+   * @return Checked URL count
+   */
+  public long checked() {
+    return checked.sum();
+  }
+
+  /**
+   * Returns the number of URLs {@link #filterMaybeSeen} found definitely unseen, each saving a
+   * database lookup.
+   *
+   * @return Unseen URL count
+   */
+  public long unseen() {
+    return unseen.sum();
+  }
+
+  /**
+   * Returns the number of add operations, including repeated URLs.
+   *
+   * @return Added URL count
+   */
+  public long added() {
+    return added.sum();
+  }
+
+  /**
+   * Returns the filter's size in bytes.
+   *
+   * @return Memory used by the bit array
+   */
+  public long sizeInBytes() {
+    return bits.length * 8L;
+  }
+
+  /**
+   * Derives the second hash for double hashing from the upper half of the fingerprint. Forced odd
+   * so that consecutive probes never repeat a bit when the bit count is a power of two.
+   */
+  private static long stepOf(long fingerprint) {
+    return Fingerprint.mix(fingerprint ^ 0x9e3779b97f4a7c15L) | 1;
+  }
+}
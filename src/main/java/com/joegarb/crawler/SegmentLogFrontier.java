@@ -0,0 +1,617 @@
+package com.joegarb.crawler;
+
+import static com.joegarb.crawler.FrontierStore.FrontierUrl;
+import static com.joegarb.crawler.UrlNormalizer.NormalizedUrl;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Frontier kept by a single process in a directory of memory-mapped, append-only segment files, for
+ * crawls whose insert and claim rate SQLite's single writer lock cannot keep up with.
+ *
+ * <p>Added URLs are appended as records to the newest segment; when it is full a new one is
+ * started. A record's ID is its segment number and byte position, so IDs increase in append order
+ * and a record is found from its ID without an index. Claims read forward from a cursor; records of
+ * excluded hosts are set aside in {@link HostQueues} and claimed from there, oldest first, once
+ * their host is allowed. Processed records are marked done in place, which is the only write to a
+ * record after it is appended. A segment is deleted once the cursor has passed it and all of its
+ * records are done, and a segment left mostly done by deferred records is compacted by appending
+ * its remaining records again, which moves them to the back of the queue.
+ *
+ * <p>Queued and claimed URLs are deduplicated by fingerprint in a primitive hash set, rebuilt from
+ * the segments at startup. The cursor and the claims are not persisted: after a crash every record
+ * not marked done is pending again, so a URL being processed at the time is claimed again
+ * (at-least-once). Each record carries a checksum, and a record torn by a crash ends its segment.
+ * Records are written back by the operating system, and forced to disk when a segment fills up and
+ * on {@link #close}.
+ *
+ * <p>I/O errors are reported as {@link SQLException}s so that callers handle them like errors of
+ * the SQLite frontier.
+ */
+public class SegmentLogFrontier implements Frontier {
+  private static final Logger logger = LoggerFactory.getLogger(SegmentLogFrontier.class);
+
+  private static final String SEGMENT_SUFFIX = ".segment";
+
+  // Record layout: total size, checksum of the bytes after the status, status, URL fingerprint,
+  // URL length and bytes, host length (-1 for none) and bytes. The size is written last, so a
+  // record is only visible once complete.
+  private static final int SIZE_OFFSET = 0;
+  private static final int CHECKSUM_OFFSET = 4;
+  private static final int STATUS_OFFSET = 8;
+  private static final int FINGERPRINT_OFFSET = 9;
+  private static final int URL_OFFSET = 17;
+  private static final int FIXED_BYTES = URL_OFFSET + 4 + 4;
+  private static final byte PENDING = 0;
+  private static final byte DONE = 1;
+
+  /**
+   * Most records set aside for excluded hosts. Beyond this, claims look further ahead for records
+   * of allowed hosts without moving the cursor.
+   */
+  private static final int MAX_DEFERRED = 100_000;
+
+  /**
+   * Most records a claim reads ahead of the cursor once the deferred records are at their limit.
+   */
+  private static final int MAX_LOOKAHEAD = 10_000;
+
+  /** Sealed segments with fewer live records than this fraction are compacted. */
+  private static final double COMPACT_BELOW_LIVE_FRACTION = 0.25;
+
+  /** One segment file and what is known about its records. */
+  private static final class Segment {
+    final long number;
+    final Path file;
+    final MappedByteBuffer buffer;
+    int end;
+    int records;
+    int live;
+    boolean sealed;
+
+    Segment(long number, Path file, MappedByteBuffer buffer) {
+      this.number = number;
+      this.file = file;
+      this.buffer = buffer;
+    }
+  }
+
+  private final Path directory;
+  private final int segmentBytes;
+  private final int maxDeferred;
+  private final FileChannel lockChannel;
+
+  // Guarded by lock. A ReentrantLock rather than synchronized so that virtual threads waiting on it
+  // do not pin their carrier threads.
+  private final ReentrantLock lock = new ReentrantLock();
+  private final TreeMap<Long, Segment> segments = new TreeMap<>();
+  private final HostQueues deferred = new HostQueues();
+  // IDs of records ahead of the cursor that were claimed by looking ahead; the cursor skips them
+  private final LongHashSet claimedAhead = new LongHashSet(64);
+  private final LongHashMap<FrontierUrl> claimed = new LongHashMap<>(1024);
+  private final LongHashSet fingerprints = new LongHashSet(1024);
+  private final CRC32C checksum = new CRC32C();
+  private Segment active;
+  private long cursorSegment;
+  private int cursorPosition;
+  private long live;
+  private boolean compacting;
+  private boolean closed;
+
+  /**
+   * Opens the frontier in a directory, creating it if needed and recovering the records of any
+   * existing segments.
+   *
+   * @param directory Directory holding the segment files, used by this process only
+   * @param segmentBytes Size of new segment files in bytes
+   * @throws IOException if the segments cannot be read or created, or another process has the
+   *     directory open
+   */
+  public SegmentLogFrontier(Path directory, int segmentBytes) throws IOException {
+    this(directory, segmentBytes, MAX_DEFERRED);
+  }
+
+  /**
+   * Opens the frontier with a limit on the records set aside for excluded hosts.
+   *
+   * @param directory Directory holding the segment files, used by this process only
+   * @param segmentBytes Size of new segment files in bytes
+   * @param maxDeferred Most records set aside for excluded hosts
+   * @throws IOException if the segments cannot be read or created, or another process has the
+   *     directory open
+   */
+  SegmentLogFrontier(Path directory, int segmentBytes, int maxDeferred) throws IOException {
+    this.directory = directory;
+    this.segmentBytes = Math.max(4096, segmentBytes);
+    this.maxDeferred = maxDeferred;
+    Files.createDirectories(directory);
+    this.lockChannel =
+        FileChannel.open(
+            directory.resolve("lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    FileLock fileLock;
+    try {
+      fileLock = lockChannel.tryLock();
+    } catch (OverlappingFileLockException e) {
+      // Held by this process
+      fileLock = null;
+    }
+    if (fileLock == null) {
+      lockChannel.close();
+      throw new IOException("Frontier log " + directory + " is in use by another process");
+    }
+    try {
+      recover();
+    } catch (IOException | RuntimeException e) {
+      lockChannel.close();
+      throw e;
+    }
+  }
+
+  @Override
+  public void add(Connection conn, List<NormalizedUrl> urls) throws SQLException {
+    if (urls == null || urls.isEmpty()) {
+      return;
+    }
+    int added = 0;
+    lock.lock();
+    try {
+      for (NormalizedUrl url : urls) {
+        long fingerprint = Fingerprint.of(url.url());
+        if (fingerprints.add(fingerprint)) {
+          append(fingerprint, url.url(), url.host());
+          added++;
+        }
+      }
+    } catch (IOException e) {
+      throw new SQLException("Failed to append to frontier log " + directory, e);
+    } finally {
+      lock.unlock();
+    }
+    FrontierMetrics.urlsAdded.add(added);
+  }
+
+  @Override
+  public List<FrontierUrl> claim(Collection<String> excludedHosts, int limit) {
+    long start = System.nanoTime();
+    Set<String> excluded =
+        excludedHosts instanceof Set<String> set ? set : new HashSet<>(excludedHosts);
+    List<FrontierUrl> claimedUrls = new ArrayList<>(Math.max(0, Math.min(limit, 1024)));
+    lock.lock();
+    try {
+      // Deferred records are all older than the ones ahead of the cursor
+      deferred.poll(excluded, limit, claimedUrls);
+      while (claimedUrls.size() < limit && deferred.size() < maxDeferred) {
+        FrontierUrl url = next();
+        if (url == null) {
+          break;
+        }
+        if (url.host() != null && excluded.contains(url.host())) {
+          deferred.add(url.id(), url.url(), url.host());
+        } else {
+          claimedUrls.add(url);
+        }
+      }
+      if (claimedUrls.size() < limit && deferred.size() >= maxDeferred) {
+        claimAhead(excluded, limit, claimedUrls);
+      }
+      for (FrontierUrl url : claimedUrls) {
+        claimed.put(url.id(), url);
+      }
+    } finally {
+      lock.unlock();
+    }
+    FrontierMetrics.claimLatency.recordSince(start);
+    FrontierMetrics.urlsClaimed.add(claimedUrls.size());
+    return claimedUrls;
+  }
+
+  @Override
+  public void release(Collection<Long> ids) {
+    lock.lock();
+    try {
+      for (long id : ids) {
+        FrontierUrl url = claimed.remove(id);
+        if (url != null) {
+          deferred.add(url.id(), url.url(), url.host());
+        }
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Marks a claimed record done. IDs that are not claimed are ignored.
+   *
+   * @param conn Ignored
+   * @param id ID of the claimed entry
+   */
+  @Override
+  public void remove(Connection conn, long id) throws SQLException {
+    lock.lock();
+    try {
+      if (claimed.remove(id) == null) {
+        return;
+      }
+      Segment segment = segments.get(id >>> 32);
+      int position = (int) id;
+      segment.buffer.put(position + STATUS_OFFSET, DONE);
+      fingerprints.remove(segment.buffer.getLong(position + FINGERPRINT_OFFSET));
+      segment.live--;
+      live--;
+      retireIfDone(segment);
+    } catch (IOException e) {
+      throw new SQLException("Failed to delete frontier log segment", e);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public boolean hasUrls() {
+    lock.lock();
+    try {
+      return live > 0;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public long count(boolean claimedUrls) {
+    lock.lock();
+    try {
+      return claimedUrls ? claimed.size() : live - claimed.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the number of segment files, for monitoring and tests.
+   *
+   * @return Segment count
+   */
+  public int segmentCount() {
+    lock.lock();
+    try {
+      return segments.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Forces the newest segment to disk and releases the directory. Claimed records stay pending in
+   * the log. Safe to call more than once.
+   */
+  @Override
+  public void close() {
+    lock.lock();
+    try {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      active.buffer.force();
+      lockChannel.close();
+      logger.info("Closed frontier log {} with {} URLs", directory, live);
+    } catch (IOException e) {
+      logger.error("Failed to close frontier log {}", directory, e);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Maps the existing segments, rebuilds the counts and the fingerprint index, and sets up. */
+  private void recover() throws IOException {
+    List<Path> files = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+      stream.forEach(files::add);
+    }
+    Map<Long, Path> byNumber = new TreeMap<>();
+    for (Path file : files) {
+      String name = file.getFileName().toString();
+      byNumber.put(
+          Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())), file);
+    }
+    for (Map.Entry<Long, Path> entry : byNumber.entrySet()) {
+      Segment segment = new Segment(entry.getKey(), entry.getValue(), map(entry.getValue(), 0));
+      scan(segment);
+      segment.sealed = true;
+      segments.put(segment.number, segment);
+    }
+
+    if (segments.isEmpty()) {
+      active = createSegment(0);
+    } else {
+      active = segments.lastEntry().getValue();
+      active.sealed = false;
+    }
+    cursorSegment = segments.firstKey();
+    cursorPosition = 0;
+    for (Segment segment : new ArrayList<>(segments.values())) {
+      if (segment != active && segment.live == 0) {
+        // Nothing left to claim; the cursor is treated as past it
+        delete(segment);
+      }
+    }
+    cursorSegment = segments.firstKey();
+    if (!byNumber.isEmpty()) {
+      logger.info(
+          "Recovered {} pending frontier URLs from {} segments in {}",
+          live,
+          segments.size(),
+          directory);
+    }
+  }
+
+  /**
+   * Reads a segment's records up to the first one that is missing or torn, counting them and
+   * indexing the fingerprints of those not done.
+   */
+  private void scan(Segment segment) {
+    MappedByteBuffer buffer = segment.buffer;
+    int capacity = buffer.capacity();
+    int position = 0;
+    while (position + FIXED_BYTES <= capacity) {
+      int size = buffer.getInt(position + SIZE_OFFSET);
+      if (size == 0) {
+        break;
+      }
+      if (size < FIXED_BYTES
+          || size > capacity - position
+          || buffer.getInt(position + CHECKSUM_OFFSET) != checksum(buffer, position, size)) {
+        logger.warn(
+            "Discarding torn record at {} of {}; later records are lost", position, segment.file);
+        // Clear the rest so that appends after it are not mistaken for part of it
+        for (int i = position; i < capacity; i++) {
+          buffer.put(i, (byte) 0);
+        }
+        break;
+      }
+      segment.records++;
+      if (buffer.get(position + STATUS_OFFSET) == PENDING) {
+        if (fingerprints.add(buffer.getLong(position + FINGERPRINT_OFFSET))) {
+          segment.live++;
+          live++;
+        } else {
+          // A copy left behind by a compaction interrupted before it marked the original done
+          buffer.put(position + STATUS_OFFSET, DONE);
+        }
+      }
+      position += size;
+    }
+    segment.end = position;
+  }
+
+  /** Appends a record to the active segment, starting a new segment if it is full. */
+  private void append(long fingerprint, String url, String host) throws IOException {
+    byte[] urlBytes = url.getBytes(StandardCharsets.UTF_8);
+    byte[] hostBytes = host == null ? null : host.getBytes(StandardCharsets.UTF_8);
+    int size = FIXED_BYTES + urlBytes.length + (hostBytes == null ? 0 : hostBytes.length);
+    if (size > segmentBytes) {
+      logger.warn("URL too long for the frontier log, dropping it: {}", url);
+      fingerprints.remove(fingerprint);
+      return;
+    }
+    // A compaction started by the roll may fill the new segment as well
+    while (size > active.buffer.capacity() - active.end) {
+      roll();
+    }
+    MappedByteBuffer buffer = active.buffer;
+    int position = active.end;
+    buffer.put(position + STATUS_OFFSET, PENDING);
+    buffer.putLong(position + FINGERPRINT_OFFSET, fingerprint);
+    buffer.putInt(position + URL_OFFSET, urlBytes.length);
+    buffer.put(position + URL_OFFSET + 4, urlBytes);
+    int hostOffset = position + URL_OFFSET + 4 + urlBytes.length;
+    if (hostBytes == null) {
+      buffer.putInt(hostOffset, -1);
+    } else {
+      buffer.putInt(hostOffset, hostBytes.length);
+      buffer.put(hostOffset + 4, hostBytes);
+    }
+    buffer.putInt(position + CHECKSUM_OFFSET, checksum(buffer, position, size));
+    buffer.putInt(position + SIZE_OFFSET, size);
+    active.end += size;
+    active.records++;
+    active.live++;
+    live++;
+  }
+
+  /**
+   * Returns the record at the cursor that is not done and moves the cursor past it, moving on to
+   * the next segment at the end of a sealed one.
+   *
+   * @return The record, or null if the cursor has reached the end of the log
+   */
+  private FrontierUrl next() {
+    while (true) {
+      Segment segment = segments.get(cursorSegment);
+      if (cursorPosition < segment.end) {
+        int position = cursorPosition;
+        cursorPosition += segment.buffer.getInt(position + SIZE_OFFSET);
+        boolean taken =
+            claimedAhead.size() > 0 && claimedAhead.remove((segment.number << 32) | position);
+        if (!taken && segment.buffer.get(position + STATUS_OFFSET) == PENDING) {
+          return read(segment, position);
+        }
+        continue;
+      }
+      if (!segment.sealed) {
+        return null;
+      }
+      cursorSegment = segments.higherKey(cursorSegment);
+      cursorPosition = 0;
+      try {
+        retireIfDone(segment);
+      } catch (IOException e) {
+        logger.warn("Failed to delete frontier log segment {}", segment.file, e);
+      }
+    }
+  }
+
+  /**
+   * Claims records of allowed hosts from ahead of the cursor, for when the deferred records are at
+   * their limit and the cursor cannot move on without dropping records of excluded hosts. The
+   * claimed records are remembered so that the cursor skips them when it gets there.
+   */
+  private void claimAhead(Set<String> excluded, int limit, List<FrontierUrl> claimedUrls) {
+    long segmentNumber = cursorSegment;
+    int position = cursorPosition;
+    int scanned = 0;
+    while (claimedUrls.size() < limit && scanned < MAX_LOOKAHEAD) {
+      Segment segment = segments.get(segmentNumber);
+      if (position >= segment.end) {
+        Long next = segments.higherKey(segmentNumber);
+        if (next == null) {
+          return;
+        }
+        segmentNumber = next;
+        position = 0;
+        continue;
+      }
+      int record = position;
+      position += segment.buffer.getInt(record + SIZE_OFFSET);
+      scanned++;
+      long id = (segment.number << 32) | record;
+      if (segment.buffer.get(record + STATUS_OFFSET) != PENDING || claimedAhead.contains(id)) {
+        continue;
+      }
+      FrontierUrl url = read(segment, record);
+      if (url.host() == null || !excluded.contains(url.host())) {
+        claimedAhead.add(id);
+        claimedUrls.add(url);
+      }
+    }
+  }
+
+  private FrontierUrl read(Segment segment, int position) {
+    MappedByteBuffer buffer = segment.buffer;
+    int urlLength = buffer.getInt(position + URL_OFFSET);
+    byte[] urlBytes = new byte[urlLength];
+    buffer.get(position + URL_OFFSET + 4, urlBytes);
+    int hostOffset = position + URL_OFFSET + 4 + urlLength;
+    int hostLength = buffer.getInt(hostOffset);
+    String host = null;
+    if (hostLength >= 0) {
+      byte[] hostBytes = new byte[hostLength];
+      buffer.get(hostOffset + 4, hostBytes);
+      host = new String(hostBytes, StandardCharsets.UTF_8);
+    }
+    return new FrontierUrl(
+        (segment.number << 32) | position, new String(urlBytes, StandardCharsets.UTF_8), host);
+  }
+
+  /** Seals the active segment, starts a new one and compacts sparse old segments. */
+  private void roll() throws IOException {
+    active.buffer.force();
+    active.sealed = true;
+    active = createSegment(active.number + 1);
+    if (!compacting) {
+      compacting = true;
+      try {
+        compact();
+      } finally {
+        compacting = false;
+      }
+    }
+  }
+
+  /**
+   * Appends the remaining records of sealed segments behind the cursor that are mostly done, then
+   * deletes those segments. Only segments without claimed records are compacted, since a claimed
+   * record's ID must stay valid until it is removed.
+   */
+  private void compact() throws IOException {
+    Set<Long> claimedSegments = new HashSet<>();
+    claimed.forEachValue(url -> claimedSegments.add(url.id() >>> 32));
+    for (Segment segment : new ArrayList<>(segments.headMap(cursorSegment).values())) {
+      if (segment.live == 0
+          || segment.live >= segment.records * COMPACT_BELOW_LIVE_FRACTION
+          || claimedSegments.contains(segment.number)) {
+        continue;
+      }
+      // Every live record behind the cursor that is not claimed has been deferred
+      List<FrontierUrl> moved = new ArrayList<>();
+      deferred.removeIf(url -> (url.id() >>> 32) == segment.number, moved);
+      for (FrontierUrl url : moved) {
+        int position = (int) url.id();
+        // Append the copy before marking the original done, so a crash leaves a duplicate
+        // rather than nothing
+        append(segment.buffer.getLong(position + FINGERPRINT_OFFSET), url.url(), url.host());
+        segment.buffer.put(position + STATUS_OFFSET, DONE);
+        segment.live--;
+        live--;
+      }
+      logger.debug("Compacted {} frontier URLs out of {}", moved.size(), segment.file);
+      retireIfDone(segment);
+    }
+  }
+
+  /** Deletes a sealed segment once the cursor has passed it and all of its records are done. */
+  private void retireIfDone(Segment segment) throws IOException {
+    if (segment.sealed && segment.live == 0 && segment.number < cursorSegment) {
+      delete(segment);
+    }
+  }
+
+  private void delete(Segment segment) throws IOException {
+    segments.remove(segment.number);
+    // The mapping stays valid until it is garbage collected
+    Files.deleteIfExists(segment.file);
+    logger.debug("Deleted frontier log segment {}", segment.file);
+  }
+
+  private Segment createSegment(long number) throws IOException {
+    Path file = directory.resolve(String.format("%010d%s", number, SEGMENT_SUFFIX));
+    Segment segment = new Segment(number, file, map(file, segmentBytes));
+    segment.sealed = false;
+    segments.put(number, segment);
+    return segment;
+  }
+
+  /**
+   * Maps a segment file read-write, creating it with the given size if it does not exist.
+   *
+   * @param file Segment file
+   * @param size Size of a new file, or 0 to map an existing file as it is
+   */
+  private static MappedByteBuffer map(Path file, int size) throws IOException {
+    try (FileChannel channel =
+        FileChannel.open(
+            file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      long length = size > 0 ? size : channel.size();
+      return channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+    }
+  }
+
+  private int checksum(MappedByteBuffer buffer, int position, int size) {
+    checksum.reset();
+    checksum.update(buffer.slice(position + FINGERPRINT_OFFSET, size - FINGERPRINT_OFFSET));
+    return (int) checksum.getValue();
+  }
+}
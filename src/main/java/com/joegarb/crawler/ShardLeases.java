@@ -0,0 +1,329 @@
+package com.joegarb.crawler;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Leases on frontier shards held by this process, so that processes sharing the frontier_queue
+ * table claim from disjoint sets of hosts.
+ *
+ * <p>Every process registers itself in the frontier_workers table and renews its registration and
+ * its shard leases periodically, in one transaction. Each renewal computes this process's fair
+ * share of the shards from the number of live processes: a process holding more than its share
+ * releases the excess, and one holding less takes shards that are unowned or whose lease expired.
+ * Shards are therefore rebalanced within a few renewals when a process joins, stops or dies.
+ *
+ * <p>A process that cannot renew its leases before they expire claims nothing until it can. URLs
+ * claimed before a shard moved to another process stay claimed by this one until it removes or
+ * releases them.
+ */
+public class ShardLeases implements AutoCloseable {
+  private static final Logger logger = LoggerFactory.getLogger(ShardLeases.class);
+
+  private final ConnectionPool.ConnectionFactory connections;
+  private final int shardCount;
+  private final long leaseMillis;
+  private final String owner;
+  private final ScheduledExecutorService renewer;
+
+  // Replaced as a whole by each renewal
+  private volatile List<Integer> shards = List.of();
+  private volatile long expiresAt;
+  private final AtomicBoolean closed = new AtomicBoolean();
+
+  private ShardLeases(
+      ConnectionPool.ConnectionFactory connections, int shardCount, long leaseMillis) {
+    this.connections = connections;
+    this.shardCount = shardCount;
+    this.leaseMillis = leaseMillis;
+    this.owner =
+        ProcessHandle.current().pid()
+            + "-"
+            + Integer.toHexString(ThreadLocalRandom.current().nextInt());
+    this.renewer =
+        Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+              Thread thread = new Thread(runnable, "frontier-shard-lease");
+              thread.setDaemon(true);
+              return thread;
+            });
+  }
+
+  /**
+   * Creates the lease tables if needed, takes this process's share of the shards and starts
+   * renewing the leases in the background.
+   *
+   * @param connections Source of database connections
+   * @param shardCount Number of shards; every process sharing the queue must use the same number
+   * @param leaseMillis Time after which the leases of a process that stopped renewing them expire;
+   *     they are renewed every third of it
+   * @return The leases, renewed until closed
+   * @throws SQLException if a database access error occurs, or if live processes use another number
+   *     of shards
+   */
+  public static ShardLeases open(
+      ConnectionPool.ConnectionFactory connections, int shardCount, long leaseMillis)
+      throws SQLException {
+    ShardLeases leases = new ShardLeases(connections, shardCount, leaseMillis);
+    try {
+      try (Connection conn = connections.open()) {
+        createTables(conn);
+        DatabaseManager.inTransaction(conn, () -> leases.resize(conn));
+      }
+      leases.renew();
+    } catch (SQLException | RuntimeException e) {
+      leases.renewer.shutdownNow();
+      throw e;
+    }
+    long interval = Math.max(1, leaseMillis / 3);
+    leases.renewer.scheduleWithFixedDelay(
+        leases::renewQuietly, interval, interval, TimeUnit.MILLISECONDS);
+    return leases;
+  }
+
+  /**
+   * Creates the frontier_workers and frontier_shards tables if they don't exist.
+   *
+   * @param conn Database connection
+   * @throws SQLException if a database access error occurs
+   */
+  static void createTables(Connection conn) throws SQLException {
+    try (Statement statement = conn.createStatement()) {
+      statement.execute(
+          "CREATE TABLE IF NOT EXISTS frontier_workers ("
+              + "owner TEXT PRIMARY KEY,"
+              + "expires_at INTEGER NOT NULL"
+              + ")");
+      statement.execute(
+          "CREATE TABLE IF NOT EXISTS frontier_shards ("
+              + "shard INTEGER PRIMARY KEY,"
+              + "owner TEXT,"
+              + "expires_at INTEGER"
+              + ")");
+    }
+  }
+
+  /**
+   * Makes the frontier_shards table hold exactly {@code shardCount} shards, unless live processes
+   * hold leases on a different number of them.
+   *
+   * @param conn Database connection, in a transaction
+   * @throws SQLException if a database access error occurs or the shard count is in use
+   */
+  private void resize(Connection conn) throws SQLException {
+    long now = System.currentTimeMillis();
+    try (PreparedStatement statement =
+        conn.prepareStatement(
+            "SELECT COUNT(*), COUNT(CASE WHEN owner IS NOT NULL AND expires_at >= ? THEN 1 END) "
+                + "FROM frontier_shards")) {
+      statement.setLong(1, now);
+      try (ResultSet resultSet = statement.executeQuery()) {
+        resultSet.next();
+        int existing = resultSet.getInt(1);
+        if (existing == shardCount) {
+          return;
+        }
+        if (resultSet.getInt(2) > 0) {
+          throw new SQLException(
+              "Frontier is split into "
+                  + existing
+                  + " shards by running processes, not "
+                  + shardCount);
+        }
+      }
+    }
+    try (Statement statement = conn.createStatement()) {
+      statement.execute("DELETE FROM frontier_shards");
+    }
+    try (PreparedStatement statement =
+        conn.prepareStatement("INSERT INTO frontier_shards (shard) VALUES (?)")) {
+      for (int shard = 0; shard < shardCount; shard++) {
+        statement.setInt(1, shard);
+        statement.addBatch();
+      }
+      statement.executeBatch();
+    }
+    logger.info("Frontier split into {} shards", shardCount);
+  }
+
+  /**
+   * Renews this process's registration and leases, and rebalances the shards among the live
+   * processes.
+   *
+   * @throws SQLException if a database access error occurs
+   */
+  void renew() throws SQLException {
+    List<Integer> held = new ArrayList<>();
+    long now = System.currentTimeMillis();
+    long expires = now + leaseMillis;
+    try (Connection conn = connections.open()) {
+      DatabaseManager.inTransaction(
+          conn,
+          () -> {
+            held.clear();
+            update(
+                conn,
+                "INSERT INTO frontier_workers (owner, expires_at) VALUES (?, ?) "
+                    + "ON CONFLICT (owner) DO UPDATE SET expires_at = excluded.expires_at",
+                owner,
+                expires);
+            update(conn, "DELETE FROM frontier_workers WHERE expires_at < ?", now);
+
+            // Each live process's share, the first processes in owner order taking one extra
+            List<String> owners =
+                strings(conn, "SELECT owner FROM frontier_workers ORDER BY owner");
+            int index = owners.indexOf(owner);
+            int share = shardCount / owners.size() + (index < shardCount % owners.size() ? 1 : 0);
+
+            update(
+                conn,
+                "UPDATE frontier_shards SET expires_at = ? WHERE owner = ? AND expires_at >= ?",
+                expires,
+                owner,
+                now);
+            held.addAll(
+                ints(
+                    conn,
+                    "SELECT shard FROM frontier_shards WHERE owner = ? AND expires_at >= ? "
+                        + "ORDER BY shard",
+                    owner,
+                    now));
+            while (held.size() > share) {
+              int shard = held.remove(held.size() - 1);
+              update(
+                  conn,
+                  "UPDATE frontier_shards SET owner = NULL, expires_at = NULL WHERE shard = ?",
+                  shard);
+            }
+            if (held.size() < share) {
+              // Free shards, this process's own expired ones first
+              for (int shard :
+                  ints(
+                      conn,
+                      "SELECT shard FROM frontier_shards "
+                          + "WHERE owner IS NULL OR expires_at < ? "
+                          + "ORDER BY owner IS NOT ? LIMIT ?",
+                      now,
+                      owner,
+                      share - held.size())) {
+                update(
+                    conn,
+                    "UPDATE frontier_shards SET owner = ?, expires_at = ? WHERE shard = ?",
+                    owner,
+                    expires,
+                    shard);
+                held.add(shard);
+              }
+            }
+          });
+    }
+    held.sort(null);
+    if (!held.equals(shards)) {
+      logger.info("Holding frontier shards {} of {}", held, shardCount);
+    }
+    shards = List.copyOf(held);
+    expiresAt = expires;
+  }
+
+  private void renewQuietly() {
+    try {
+      renew();
+    } catch (SQLException | RuntimeException e) {
+      logger.warn("Failed to renew frontier shard leases", e);
+    }
+  }
+
+  /**
+   * Returns the shards this process may claim from.
+   *
+   * @return Shard numbers in ascending order; empty if the leases have expired without renewal
+   */
+  public List<Integer> shards() {
+    List<Integer> current = shards;
+    return System.currentTimeMillis() < expiresAt ? current : List.of();
+  }
+
+  /**
+   * Returns the number of shards the frontier is split into.
+   *
+   * @return Shard count
+   */
+  public int shardCount() {
+    return shardCount;
+  }
+
+  /**
+   * Stops renewing, and releases the leases and this process's registration so that the other
+   * processes take its shards at their next renewal. Calling it again has no effect.
+   */
+  @Override
+  public void close() {
+    if (closed.getAndSet(true)) {
+      return;
+    }
+    renewer.shutdownNow();
+    shards = List.of();
+    try (Connection conn = connections.open()) {
+      DatabaseManager.inTransaction(
+          conn,
+          () -> {
+            update(
+                conn,
+                "UPDATE frontier_shards SET owner = NULL, expires_at = NULL WHERE owner = ?",
+                owner);
+            update(conn, "DELETE FROM frontier_workers WHERE owner = ?", owner);
+          });
+    } catch (SQLException e) {
+      logger.warn("Failed to release frontier shard leases; they expire on their own", e);
+    }
+  }
+
+  private static void update(Connection conn, String sql, Object... parameters)
+      throws SQLException {
+    try (PreparedStatement statement = conn.prepareStatement(sql)) {
+      for (int i = 0; i < parameters.length; i++) {
+        statement.setObject(i + 1, parameters[i]);
+      }
+      statement.executeUpdate();
+    }
+  }
+
+  private static List<Integer> ints(Connection conn, String sql, Object... parameters)
+      throws SQLException {
+    List<Integer> values = new ArrayList<>();
+    try (PreparedStatement statement = conn.prepareStatement(sql)) {
+      for (int i = 0; i < parameters.length; i++) {
+        statement.setObject(i + 1, parameters[i]);
+      }
+      try (ResultSet resultSet = statement.executeQuery()) {
+        while (resultSet.next()) {
+          values.add(resultSet.getInt(1));
+        }
+      }
+    }
+    return values;
+  }
+
+  private static List<String> strings(Connection conn, String sql) throws SQLException {
+    List<String> values = new ArrayList<>();
+    try (Statement statement = conn.createStatement();
+        ResultSet resultSet = statement.executeQuery(sql)) {
+      while (resultSet.next()) {
+        values.add(resultSet.getString(1));
+      }
+    }
+    return values;
+  }
+}
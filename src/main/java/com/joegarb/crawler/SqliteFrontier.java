@@ -0,0 +1,212 @@
+package com.joegarb.crawler;
+
+import static com.joegarb.crawler.FrontierStore.FrontierUrl;
+import static com.joegarb.crawler.UrlNormalizer.NormalizedUrl;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Frontier kept in the frontier_queue table by {@link FrontierStore}, shared by every process
+ * crawling the same database. Additions and removals take part in the caller's transaction.
+ *
+ * <p>With {@link ShardLeases}, this process only claims URLs of the shards it holds, while
+ * additions, counts and {@link #hasUrls} still cover the whole queue.
+ *
+ * <p>A claim is a lease that expires after a configurable time. A reaper thread renews the claims
+ * this process still holds and then returns URLs whose claim expired to the queue, so that URLs
+ * claimed by a process that died are crawled by another instead of keeping {@link #hasUrls} true
+ * forever, while a slow page of a live process keeps its claim.
+ *
+ * <p>Links added through {@link #addDiscovered} are one link deeper than the page they were found
+ * on, so that the installed {@link FrontierScorer} can favour shallow pages.
+ */
+public class SqliteFrontier implements Frontier {
+  private static final Logger logger = LoggerFactory.getLogger(SqliteFrontier.class);
+
+  private final ConnectionPool.ConnectionFactory connections;
+  private final ShardLeases leases;
+  private final ScheduledExecutorService reaper;
+  // IDs this process has claimed and not yet removed or released, renewed by the reaper
+  private final Set<Long> held = ConcurrentHashMap.newKeySet();
+
+  /**
+   * Creates a frontier over the frontier_queue table, which must already exist, claiming from the
+   * whole queue.
+   *
+   * @param connections Source of database connections for claims, releases and counts
+   */
+  public SqliteFrontier(ConnectionPool.ConnectionFactory connections) {
+    this(connections, null);
+  }
+
+  /**
+   * Creates a frontier over the frontier_queue table, which must already exist, claiming only from
+   * leased shards.
+   *
+   * @param connections Source of database connections for claims, releases and counts
+   * @param leases Shard leases of this process, closed with the frontier; null to claim from the
+   *     whole queue
+   */
+  public SqliteFrontier(ConnectionPool.ConnectionFactory connections, ShardLeases leases) {
+    this(connections, leases, false);
+  }
+
+  private SqliteFrontier(
+      ConnectionPool.ConnectionFactory connections, ShardLeases leases, boolean reaping) {
+    this.connections = connections;
+    this.leases = leases;
+    this.reaper =
+        reaping
+            ? Executors.newSingleThreadScheduledExecutor(
+                runnable -> {
+                  Thread thread = new Thread(runnable, "frontier-reaper");
+                  thread.setDaemon(true);
+                  return thread;
+                })
+            : null;
+  }
+
+  /**
+   * Creates a frontier over the frontier_queue table, which must already exist, and starts
+   * reclaiming expired claims.
+   *
+   * @param connections Source of database connections for claims, releases and counts
+   * @param leases Shard leases of this process, closed with the frontier; null to claim from the
+   *     whole queue
+   * @param claimLeaseMillis Time after which a claimed URL that was neither removed nor released
+   *     returns to the queue, checked every quarter of it; 0 to never reclaim
+   * @return The frontier
+   */
+  public static SqliteFrontier open(
+      ConnectionPool.ConnectionFactory connections, ShardLeases leases, long claimLeaseMillis) {
+    SqliteFrontier frontier = new SqliteFrontier(connections, leases, claimLeaseMillis > 0);
+    if (frontier.reaper != null) {
+      long interval = Math.max(1, claimLeaseMillis / 4);
+      frontier.reaper.scheduleWithFixedDelay(
+          () -> frontier.reclaimQuietly(claimLeaseMillis),
+          interval,
+          interval,
+          TimeUnit.MILLISECONDS);
+    }
+    return frontier;
+  }
+
+  @Override
+  public boolean isTransactional() {
+    return true;
+  }
+
+  @Override
+  public void add(Connection conn, List<NormalizedUrl> urls) throws SQLException {
+    FrontierStore.addNormalizedUrls(conn, urls);
+  }
+
+  @Override
+  public void addDiscovered(Connection conn, long parentId, List<NormalizedUrl> urls)
+      throws SQLException {
+    if (urls.isEmpty()) {
+      return;
+    }
+    FrontierStore.addNormalizedUrls(conn, urls, FrontierStore.depth(conn, parentId) + 1);
+  }
+
+  @Override
+  public List<FrontierUrl> claim(Collection<String> excludedHosts, int limit) throws SQLException {
+    List<FrontierUrl> claimed;
+    if (leases == null) {
+      try (Connection conn = connections.open()) {
+        claimed = FrontierStore.claimUrls(conn, excludedHosts, limit);
+      }
+    } else {
+      List<Integer> shards = leases.shards();
+      if (shards.isEmpty()) {
+        return List.of();
+      }
+      try (Connection conn = connections.open()) {
+        claimed = FrontierStore.claimUrls(conn, excludedHosts, limit, leases.shardCount(), shards);
+      }
+    }
+    for (FrontierUrl url : claimed) {
+      held.add(url.id());
+    }
+    return claimed;
+  }
+
+  @Override
+  public void release(Collection<Long> ids) throws SQLException {
+    if (ids.isEmpty()) {
+      return;
+    }
+    try (Connection conn = connections.open()) {
+      FrontierStore.releaseUrls(conn, ids);
+    }
+    held.removeAll(ids);
+  }
+
+  @Override
+  public void remove(Connection conn, long id) throws SQLException {
+    FrontierStore.removeUrl(conn, id);
+    held.remove(id);
+  }
+
+  @Override
+  public boolean hasUrls() throws SQLException {
+    try (Connection conn = connections.open()) {
+      return FrontierStore.hasUrls(conn);
+    }
+  }
+
+  @Override
+  public long count(boolean claimed) throws SQLException {
+    try (Connection conn = connections.open()) {
+      return FrontierStore.countUrls(conn, claimed);
+    }
+  }
+
+  /**
+   * Renews the claims this process holds, then returns URLs claimed longer ago than the claim lease
+   * to the queue.
+   *
+   * @param claimLeaseMillis Claim lease in milliseconds
+   * @return Number of URLs returned to the queue
+   * @throws SQLException if a database access error occurs
+   */
+  int reclaimExpired(long claimLeaseMillis) throws SQLException {
+    try (Connection conn = connections.open()) {
+      long now = System.currentTimeMillis();
+      FrontierStore.renewClaims(conn, List.copyOf(held), now);
+      return FrontierStore.releaseExpiredClaims(conn, now - claimLeaseMillis);
+    }
+  }
+
+  private void reclaimQuietly(long claimLeaseMillis) {
+    try {
+      int released = reclaimExpired(claimLeaseMillis);
+      if (released > 0) {
+        logger.warn("Returned {} frontier URLs with expired claims to the queue", released);
+      }
+    } catch (SQLException | RuntimeException e) {
+      logger.warn("Failed to reclaim expired frontier claims", e);
+    }
+  }
+
+  @Override
+  public void close() {
+    if (reaper != null) {
+      reaper.shutdownNow();
+    }
+    if (leases != null) {
+      leases.close();
+    }
+  }
+}
@@ -9,6 +9,14 @@ import org.slf4j.LoggerFactory;
 public class UrlNormalizer {
   private static final Logger logger = LoggerFactory.getLogger(UrlNormalizer.class);
 
+  /**
+   * A normalized URL together with its host, so that callers do not need to parse it again.
+   *
+   * @param url Normalized URL
+   * @param host Lowercase host, or null if the URL has none or could not be parsed
+   */
+  public static record NormalizedUrl(String url, String host) {}
+
   /**
    * Normalizes a URL to a canonical form.
    *
@@ -36,4 +44,72 @@ public class UrlNormalizer {
       return url;
     }
   }
+
+  /**
+   * Normalizes a URL and extracts its host from a single parse.
+   *
+   * @param url The URL to normalize
+   * @return The normalized URL and its host; the original URL with a null host if parsing fails
+   */
+  public static NormalizedUrl normalizeWithHost(String url) {
+    if (url == null || url.trim().isEmpty()) {
+      return new NormalizedUrl(url, null);
+    }
+
+    String urlToParse = url.trim();
+    if (!urlToParse.contains("://")) {
+      urlToParse = "http://" + urlToParse;
+    }
+
+    try {
+      return normalizeParsed(URL.parse(urlToParse));
+    } catch (GalimatiasParseException e) {
+      logger.warn("Failed to normalize URL: {}, using original", url, e);
+      return new NormalizedUrl(url, null);
+    }
+  }
+
+  /**
+   * Normalizes an already parsed URL.
+   *
+   * @param url The parsed URL
+   * @return The normalized URL and its host
+   * @throws GalimatiasParseException if the fragment cannot be removed
+   */
+  public static NormalizedUrl normalizeParsed(URL url) throws GalimatiasParseException {
+    io.mola.galimatias.Host host = url.host();
+    return new NormalizedUrl(
+        url.withFragment(null).toString(), host == null ? null : host.toString().toLowerCase());
+  }
+
+  /**
+   * Extracts the host from a URL (e.g., "crawlme.example.com" from
+   * "https://crawlme.example.com/page").
+   *
+   * @param url The URL to extract host from
+   * @return The host (e.g., "crawlme.example.com"), or null if extraction fails
+   */
+  public static String extractHost(String url) {
+    if (url == null || url.trim().isEmpty()) {
+      return null;
+    }
+
+    String urlToParse = url.trim();
+
+    // Assume http:// if not specified
+    if (!urlToParse.contains("://")) {
+      urlToParse = "http://" + urlToParse;
+    }
+
+    try {
+      URL parsedUrl = URL.parse(urlToParse);
+      io.mola.galimatias.Host host = parsedUrl.host();
+      if (host != null) {
+        return host.toString().toLowerCase();
+      }
+    } catch (GalimatiasParseException e) {
+      logger.debug("Could not parse URL for host extraction: {}", url);
+    }
+    return null;
+  }
 }
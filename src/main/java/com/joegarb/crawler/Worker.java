@@ -1,19 +1,41 @@
 package com.joegarb.crawler;
 
 import static com.joegarb.crawler.FrontierStore.FrontierUrl;
+import static com.joegarb.crawler.UrlNormalizer.NormalizedUrl;
 
 import java.sql.Connection;
 import java.sql.SQLException;
-import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-/** Worker thread that performs web crawling tasks. */
-public class Worker extends Thread {
+/**
+ * Worker that performs web crawling tasks.
+ *
+ * <p>A worker only holds a database connection while it claims a URL, never during the HTTP fetch,
+ * so that many workers can share a small number of connections. Results are handed to a {@link
+ * PersistenceWriter}, which records them in batches.
+ */
+public class Worker implements Runnable {
   private static final Logger logger = LoggerFactory.getLogger(Worker.class);
   private static final PageFetcher pageFetcher = new PageFetcher();
 
+  private final FrontierBuffer frontier;
+  private final PersistenceWriter writer;
+
+  /**
+   * Creates a worker.
+   *
+   * @param frontier Buffer of claimed URLs shared by the workers of this process
+   * @param writer Writer recording results, shared by the workers of this process
+   */
+  public Worker(FrontierBuffer frontier, PersistenceWriter writer) {
+    this.frontier = frontier;
+    this.writer = writer;
+  }
+
   @Override
   public void run() {
     doWork();
@@ -22,70 +44,21 @@ public class Worker extends Thread {
   /** Performs the worker's crawling tasks. Can be called directly or from run(). */
   public void doWork() {
     while (!Thread.currentThread().isInterrupted()) {
-      try (Connection conn = DatabaseManager.getConnection()) {
-        FrontierUrl frontierUrl = FrontierStore.getNextUrl(conn);
-        if (frontierUrl != null) {
-          logger.debug(
-              "Worker {} claimed URL: {}", Thread.currentThread().getName(), frontierUrl.url());
-
-          PageFetcher.FetchResult result = pageFetcher.fetch(frontierUrl.url());
-
-          if (result.success() && result.isHtml()) {
-            List<String> links =
-                LinkExtractor.extractLinks(result.response().body(), frontierUrl.url());
-
-            StringBuilder output = new StringBuilder(frontierUrl.url());
-            for (String link : links) {
-              output.append("\n  ").append(link);
-            }
-            logger.info("{}", output.toString());
-
-            // Add links that need crawling to the frontier
-            List<String> urlsToAdd = new ArrayList<>();
-            for (String link : links) {
-              if (!MetadataStore.hasBeenCrawled(conn, link)) {
-                urlsToAdd.add(link);
-              }
-            }
-            if (!urlsToAdd.isEmpty()) {
-              FrontierStore.addUrls(conn, urlsToAdd);
-            }
-
-            MetadataStore.markAsCrawled(conn, frontierUrl.url(), result.httpStatusCode(), null);
-          } else if (result.success() && !result.isHtml()) {
-            // Successfully fetched but not HTML - mark as crawled but don't extract links
-            logger.info(frontierUrl.url());
-            MetadataStore.markAsCrawled(conn, frontierUrl.url(), result.httpStatusCode(), null);
-          } else {
-            logger.warn(
-                "Worker {} failed to fetch URL: {} - {}",
-                Thread.currentThread().getName(),
-                frontierUrl.url(),
-                result.errorMessage());
-
-            MetadataStore.markAsCrawled(
-                conn, frontierUrl.url(), result.httpStatusCode(), result.errorMessage());
-          }
-
-          FrontierStore.removeUrl(conn, frontierUrl.id());
-
-          try {
-            Thread.sleep(Configuration.DELAY_BETWEEN_REQUESTS_MS);
-          } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            logger.error("Worker {} interrupted during delay", Thread.currentThread().getName());
-            break;
-          }
-        } else {
-          // No url available to crawl, but check if other workers are processing urls in case more
-          // urls could get added
-          if (FrontierStore.hasClaimedUrls(conn)) {
-            // Other workers are processing - continue loop to check again
+      try {
+        // The buffer only hands out URLs whose host is ready, and reserves the host's next slot
+        FrontierUrl frontierUrl = frontier.take();
+        if (frontierUrl == null) {
+          // No url available to crawl right now, but wait if urls are pending for hosts that are
+          // cooling down or other workers are processing urls in case more urls could get added
+          if (frontier.hasUrls()) {
+            frontier.awaitWork();
             continue;
           } else {
             break;
           }
         }
+
+        processUrl(frontierUrl);
       } catch (SQLException e) {
         logger.error("Database error in worker", e);
         break;
@@ -93,4 +66,115 @@ public class Worker extends Thread {
     }
     logger.info("Worker {} complete", Thread.currentThread().getName());
   }
+
+  /**
+   * Fetches a claimed URL, records the result and adds newly discovered links to the frontier.
+   *
+   * @param frontierUrl The claimed frontier entry
+   * @throws SQLException if a database access error occurs
+   */
+  private void processUrl(FrontierUrl frontierUrl) throws SQLException {
+    logger.debug("Worker {} claimed URL: {}", Thread.currentThread().getName(), frontierUrl.url());
+
+    MetadataStore.PageValidators previous;
+    try (Connection conn = DatabaseManager.getConnection()) {
+      previous = MetadataStore.getValidators(conn, frontierUrl.url());
+    }
+    PageFetcher.FetchResult result = pageFetcher.fetch(frontierUrl.url(), previous);
+    handleResult(writer, frontierUrl, previous, result);
+  }
+
+  /**
+   * Extracts the links from a fetched page and submits the page to be recorded, along with any
+   * newly discovered links. Shared by the blocking workers and the asynchronous crawler.
+   *
+   * @param writer Writer to submit the page to
+   * @param frontierUrl The claimed frontier entry
+   * @param previous Validators of the previous successful crawl, or null
+   * @param result The outcome of fetching it
+   * @throws SQLException if the writer has failed or been closed
+   */
+  static void handleResult(
+      PersistenceWriter writer,
+      FrontierUrl frontierUrl,
+      MetadataStore.PageValidators previous,
+      PageFetcher.FetchResult result)
+      throws SQLException {
+    writer.submit(parseResult(frontierUrl, previous, result));
+    CrawlStats.recordPage(result.success());
+  }
+
+  /**
+   * Extracts the links from a fetched page, logs the outcome and works out what to record for it.
+   * Touches neither the network nor the database, so the pipeline runs it on its parse stage.
+   *
+   * <p>If the page is unchanged since the previous crawl, either because the server answered a
+   * conditional request with 304 or because the body hashes the same, its links are not extracted
+   * again.
+   *
+   * @param frontierUrl The claimed frontier entry
+   * @param previous Validators of the previous successful crawl, or null
+   * @param result The outcome of fetching it
+   * @return What to record for the page
+   */
+  static PersistenceWriter.PageWrite parseResult(
+      FrontierUrl frontierUrl,
+      MetadataStore.PageValidators previous,
+      PageFetcher.FetchResult result) {
+    if (result.isNotModified()) {
+      logger.info("{} (not modified)", frontierUrl.url());
+      CrawlStats.recordUnchanged();
+      return PersistenceWriter.PageWrite.notModified(frontierUrl.id(), frontierUrl.url());
+    }
+
+    List<NormalizedUrl> links = List.of();
+    Long contentHash = null;
+    if (result.success() && result.isHtml()) {
+      contentHash = Fingerprint.of(result.response().body());
+    }
+    if (contentHash != null && previous != null && contentHash.equals(previous.contentHash())) {
+      // Same body as last time, so its links were already queued then
+      logger.info("{} (unchanged)", frontierUrl.url());
+      CrawlStats.recordUnchanged();
+    } else if (result.success() && result.isHtml()) {
+      links = LinkExtractor.extractNormalizedLinks(result.response().body(), frontierUrl.url());
+
+      StringBuilder output = new StringBuilder(frontierUrl.url());
+      for (NormalizedUrl link : links) {
+        output.append("\n  ").append(link.url());
+      }
+      logger.info("{}", output.toString());
+    } else if (result.success()) {
+      // Successfully fetched but not HTML - mark as crawled but don't extract links
+      logger.info(frontierUrl.url());
+    } else {
+      logger.warn(
+          "Worker {} failed to fetch URL: {} - {}",
+          Thread.currentThread().getName(),
+          frontierUrl.url(),
+          result.errorMessage());
+    }
+
+    // Links come back normalized with their hosts; key them by URL so the host survives filtering
+    Map<String, NormalizedUrl> linksByUrl = new LinkedHashMap<>();
+    for (NormalizedUrl link : links) {
+      linksByUrl.putIfAbsent(link.url(), link);
+    }
+
+    MetadataStore.PageValidators validators = null;
+    if (result.success()) {
+      validators =
+          new MetadataStore.PageValidators(
+              result.response().headers().firstValue("ETag").orElse(null),
+              result.response().headers().firstValue("Last-Modified").orElse(null),
+              contentHash);
+    }
+    return PersistenceWriter.PageWrite.crawled(
+        frontierUrl.id(),
+        frontierUrl.url(),
+        result.httpStatusCode(),
+        result.errorMessage(),
+        validators,
+        linksByUrl);
+  }
 }
@@ -0,0 +1,120 @@
+package com.joegarb.crawler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+
+/** Tests for AsyncCrawler. */
+class AsyncCrawlerTest {
+  @RegisterExtension final TestDatabase db = new TestDatabase();
+  private HttpServer server;
+  private final AtomicInteger active = new AtomicInteger();
+  private final AtomicInteger maxActive = new AtomicInteger();
+  private final Map<String, AtomicInteger> activeByHost = new ConcurrentHashMap<>();
+  private final Map<String, AtomicInteger> maxActiveByHost = new ConcurrentHashMap<>();
+
+  @BeforeEach
+  void setUp() throws IOException {
+    // Slow responses so that requests overlap, tracking concurrency overall and per Host header
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.setExecutor(Executors.newCachedThreadPool());
+    server.createContext(
+        "/",
+        exchange -> {
+          String host = exchange.getRequestHeaders().getFirst("Host").replaceAll(":\\d+$", "");
+          AtomicInteger hostActive = activeByHost.computeIfAbsent(host, h -> new AtomicInteger());
+          maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+          maxActiveByHost
+              .computeIfAbsent(host, h -> new AtomicInteger())
+              .accumulateAndGet(hostActive.incrementAndGet(), Math::max);
+          try {
+            Thread.sleep(50);
+            byte[] body = "<html><body>ok</body></html>".getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/html");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+              out.write(body);
+            }
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          } finally {
+            hostActive.decrementAndGet();
+            active.decrementAndGet();
+          }
+        });
+    server.start();
+  }
+
+  @AfterEach
+  void tearDown() {
+    server.stop(0);
+  }
+
+  @Test
+  void crawlsEveryUrlWithinInFlightLimits() throws SQLException {
+    int port = server.getAddress().getPort();
+    List<String> urls = new ArrayList<>();
+    for (int i = 0; i < 12; i++) {
+      // Two host names for the same server, so both limits come into play
+      String host = i % 2 == 0 ? "127.0.0.1" : "localhost";
+      urls.add("http://" + host + ":" + port + "/page" + i);
+    }
+    try (Connection conn = db.open()) {
+      FrontierStore.addUrls(conn, urls);
+    }
+
+    Set<String> handled = ConcurrentHashMap.newKeySet();
+    AsyncCrawler.ResultHandler handler =
+        (frontierUrl, previous, result) -> {
+          assertTrue(result.success(), result.errorMessage());
+          handled.add(frontierUrl.url());
+          try (Connection conn = db.open()) {
+            FrontierStore.removeUrl(conn, frontierUrl.id());
+          }
+        };
+    PolitenessScheduler politeness = new PolitenessScheduler(0);
+    FrontierBuffer frontier = new FrontierBuffer(new SqliteFrontier(db::open), politeness, 4, 4);
+    new AsyncCrawler(db::open, frontier, new PageFetcher(), handler, 3, 2).run();
+
+    assertEquals(Set.copyOf(urls), handled);
+    assertTrue(maxActive.get() <= 3, "Max in flight: " + maxActive.get());
+    assertTrue(maxActive.get() > 1, "Requests never overlapped");
+    for (Map.Entry<String, AtomicInteger> entry : maxActiveByHost.entrySet()) {
+      assertTrue(entry.getValue().get() <= 2, "Max in flight to " + entry.getKey());
+    }
+    try (Connection conn = db.open()) {
+      assertFalse(FrontierStore.hasUrls(conn));
+    }
+  }
+
+  @Test
+  void fetchAsyncReportsNetworkErrorsAsFailures() {
+    int port = server.getAddress().getPort();
+    server.stop(0);
+
+    PageFetcher.FetchResult result =
+        new PageFetcher().fetchAsync("http://127.0.0.1:" + port + "/").join();
+
+    assertFalse(result.success());
+    assertTrue(result.errorMessage().startsWith("Network error"), result.errorMessage());
+  }
+}
@@ -0,0 +1,99 @@
+package com.joegarb.crawler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.net.http.HttpHeaders;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+/** Tests for CharsetDetector. */
+class CharsetDetectorTest {
+  private static final Charset WINDOWS_1252 = Charset.forName("windows-1252");
+
+  private static Charset detect(String html, String contentType) {
+    byte[] bytes = html.getBytes(StandardCharsets.US_ASCII);
+    return CharsetDetector.detect(bytes, bytes.length, contentType);
+  }
+
+  @Test
+  void readsCharsetFromContentType() {
+    assertEquals(
+        StandardCharsets.UTF_16BE,
+        CharsetDetector.fromContentType("text/html; charset=\"UTF-16BE\""));
+    assertEquals(
+        Charset.forName("Shift_JIS"),
+        CharsetDetector.fromContentType("text/html;charset=shift_jis"));
+    assertNull(CharsetDetector.fromContentType("text/html"));
+    assertNull(CharsetDetector.fromContentType("text/html; charset=bogus"));
+  }
+
+  @Test
+  void treatsLatin1LabelsAsWindows1252() {
+    assertEquals(WINDOWS_1252, CharsetDetector.fromContentType("text/html; charset=ISO-8859-1"));
+    assertEquals(WINDOWS_1252, detect("<meta charset=us-ascii>", ""));
+  }
+
+  @Test
+  void defaultsToUtf8() {
+    assertEquals(StandardCharsets.UTF_8, detect("<html><body>hi</body></html>", ""));
+    assertEquals(StandardCharsets.UTF_8, detect("<p>charset=shift_jis</p>", "text/html"));
+    assertEquals(StandardCharsets.UTF_8, detect("", "text/html; charset=bogus"));
+  }
+
+  @Test
+  void readsMetaCharset() {
+    assertEquals(
+        Charset.forName("Shift_JIS"),
+        detect("<html><head><META Charset = 'Shift_JIS'></head></html>", "text/html"));
+    assertEquals(
+        Charset.forName("EUC-KR"),
+        detect(
+            "<meta http-equiv=\"Content-Type\" content=\"text/html; charset=euc-kr\">",
+            "text/html"));
+  }
+
+  @Test
+  void ignoresMetaInCommentsAndBeyondPrescan() {
+    assertEquals(StandardCharsets.UTF_8, detect("<!-- <meta charset=shift_jis> --><p>hi</p>", ""));
+    String late = " ".repeat(CharsetDetector.PRESCAN_BYTES) + "<meta charset=shift_jis>";
+    assertEquals(StandardCharsets.UTF_8, detect(late, ""));
+  }
+
+  @Test
+  void treatsUtf16MetaAsUtf8() {
+    assertEquals(StandardCharsets.UTF_8, detect("<meta charset=utf-16>", ""));
+  }
+
+  @Test
+  void headerBeatsMetaAndBomBeatsBoth() {
+    String html = "<meta charset=shift_jis>";
+    assertEquals(StandardCharsets.UTF_8, detect(html, "text/html; charset=utf-8"));
+
+    byte[] bytes = ("ÿþ" + html).getBytes(StandardCharsets.ISO_8859_1);
+    assertEquals(
+        StandardCharsets.UTF_16LE,
+        CharsetDetector.detect(bytes, bytes.length, "text/html; charset=utf-8"));
+    assertEquals(2, CharsetDetector.bomLength(bytes, bytes.length));
+    assertEquals(0, CharsetDetector.bomLength(bytes, 1));
+  }
+
+  @Test
+  void stripsUtf8BomWhenDecoding() {
+    byte[] text = "café".getBytes(StandardCharsets.UTF_8);
+    byte[] bytes = new byte[text.length + 3];
+    bytes[0] = (byte) 0xef;
+    bytes[1] = (byte) 0xbb;
+    bytes[2] = (byte) 0xbf;
+    System.arraycopy(text, 0, bytes, 3, text.length);
+    HttpHeaders headers =
+        HttpHeaders.of(
+            Map.of("Content-Type", List.of("text/html; charset=iso-8859-1")), (n, v) -> true);
+
+    assertEquals(3, CharsetDetector.bomLength(bytes, bytes.length));
+    assertEquals("café", ContentDecoder.decode(bytes, bytes.length, headers, bytes.length, false));
+  }
+}
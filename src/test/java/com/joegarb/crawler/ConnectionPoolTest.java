@@ -0,0 +1,211 @@
+package com.joegarb.crawler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/** Tests for ConnectionPool. */
+class ConnectionPoolTest {
+  private ConnectionPool pool;
+
+  @AfterEach
+  void tearDown() {
+    if (pool != null) {
+      pool.close();
+    }
+  }
+
+  private ConnectionPool newPool(int maxSize) {
+    // Every in-memory connection is its own database, which lets tests tell connections apart
+    return new ConnectionPool(
+        () -> DriverManager.getConnection("jdbc:sqlite::memory:"), maxSize, 8);
+  }
+
+  @Test
+  void reusesPhysicalConnection() throws SQLException {
+    pool = newPool(1);
+    try (Connection conn = pool.getConnection();
+        Statement statement = conn.createStatement()) {
+      statement.execute("CREATE TABLE marker (id INTEGER)");
+    }
+    try (Connection conn = pool.getConnection();
+        Statement statement = conn.createStatement();
+        ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM marker")) {
+      assertTrue(resultSet.next());
+    }
+    assertEquals(1, pool.stats().open());
+    assertEquals(1, pool.stats().idle());
+  }
+
+  @Test
+  void cachesPreparedStatements() throws SQLException {
+    pool = newPool(1);
+    for (int i = 0; i < 3; i++) {
+      try (Connection conn = pool.getConnection();
+          PreparedStatement statement = conn.prepareStatement("SELECT ?")) {
+        statement.setInt(1, i);
+        try (ResultSet resultSet = statement.executeQuery()) {
+          assertTrue(resultSet.next());
+          assertEquals(i, resultSet.getInt(1));
+        }
+      }
+    }
+    assertEquals(1, pool.stats().statementCacheMisses());
+    assertEquals(2, pool.stats().statementCacheHits());
+  }
+
+  @Test
+  void cacheDoesNotGrowPastItsSizeWhileStatementsAreInUse() throws SQLException {
+    pool = new ConnectionPool(() -> DriverManager.getConnection("jdbc:sqlite::memory:"), 1, 2);
+    try (Connection conn = pool.getConnection();
+        PreparedStatement first = conn.prepareStatement("SELECT 1");
+        PreparedStatement second = conn.prepareStatement("SELECT 2")) {
+      // The cache is full of statements in use, so this one is not cached
+      for (int i = 0; i < 2; i++) {
+        try (PreparedStatement third = conn.prepareStatement("SELECT 3");
+            ResultSet resultSet = third.executeQuery()) {
+          assertTrue(resultSet.next());
+        }
+      }
+      assertTrue(first.executeQuery().next());
+      assertTrue(second.executeQuery().next());
+    }
+    assertEquals(4, pool.stats().statementCacheMisses());
+    assertEquals(0, pool.stats().statementCacheHits());
+
+    // Once returned, the least recently used statement makes room
+    try (Connection conn = pool.getConnection()) {
+      for (int i = 0; i < 2; i++) {
+        try (PreparedStatement third = conn.prepareStatement("SELECT 3")) {
+          assertTrue(third.executeQuery().next());
+        }
+      }
+    }
+    assertEquals(5, pool.stats().statementCacheMisses());
+    assertEquals(1, pool.stats().statementCacheHits());
+  }
+
+  @Test
+  void nestedUseOfSameSqlGetsSeparateStatements() throws SQLException {
+    pool = newPool(1);
+    try (Connection conn = pool.getConnection();
+        PreparedStatement outer = conn.prepareStatement("SELECT ?");
+        PreparedStatement inner = conn.prepareStatement("SELECT ?")) {
+      outer.setInt(1, 1);
+      inner.setInt(1, 2);
+      try (ResultSet outerResult = outer.executeQuery();
+          ResultSet innerResult = inner.executeQuery()) {
+        assertTrue(outerResult.next());
+        assertTrue(innerResult.next());
+        assertEquals(1, outerResult.getInt(1));
+        assertEquals(2, innerResult.getInt(1));
+      }
+    }
+  }
+
+  @Test
+  void closedStatementCannotBeUsed() throws SQLException {
+    pool = newPool(1);
+    try (Connection conn = pool.getConnection()) {
+      PreparedStatement statement = conn.prepareStatement("SELECT 1");
+      statement.close();
+      assertTrue(statement.isClosed());
+      assertThrows(SQLException.class, statement::executeQuery);
+    }
+  }
+
+  @Test
+  void statementsLeftOpenAreReleasedWithTheirLease() throws SQLException {
+    pool = newPool(1);
+    Connection first = pool.getConnection();
+    PreparedStatement stale = first.prepareStatement("SELECT ?");
+    first.close();
+    assertTrue(stale.isClosed());
+    assertThrows(SQLException.class, () -> stale.setInt(1, 1));
+
+    try (Connection second = pool.getConnection();
+        PreparedStatement statement = second.prepareStatement("SELECT ?")) {
+      // The cached statement is no longer held by the first lease, and closing the stale proxy
+      // must not return it to the cache while the second lease is using it
+      assertEquals(1, pool.stats().statementCacheHits());
+      statement.setInt(1, 2);
+      stale.close();
+      try (PreparedStatement nested = second.prepareStatement("SELECT ?")) {
+        nested.setInt(1, 3);
+        try (ResultSet resultSet = nested.executeQuery()) {
+          assertTrue(resultSet.next());
+          assertEquals(3, resultSet.getInt(1));
+        }
+      }
+      try (ResultSet resultSet = statement.executeQuery()) {
+        assertTrue(resultSet.next());
+        assertEquals(2, resultSet.getInt(1));
+      }
+    }
+    assertEquals(1, pool.stats().statementCacheHits());
+  }
+
+  @Test
+  void closedLeaseCannotBeUsed() throws SQLException {
+    pool = newPool(1);
+    Connection conn = pool.getConnection();
+    conn.close();
+    assertTrue(conn.isClosed());
+    assertThrows(SQLException.class, conn::createStatement);
+  }
+
+  @Test
+  void waitsForReturnedConnectionWhenExhausted() throws Exception {
+    pool = newPool(1);
+    Connection first = pool.getConnection();
+    CompletableFuture<Boolean> second =
+        CompletableFuture.supplyAsync(
+            () -> {
+              try (Connection conn = pool.getConnection()) {
+                return !conn.isClosed();
+              } catch (SQLException e) {
+                throw new RuntimeException(e);
+              }
+            });
+    Thread.sleep(50);
+    assertFalse(second.isDone());
+    first.close();
+    assertTrue(second.get(5, TimeUnit.SECONDS));
+    assertEquals(1, pool.stats().waits());
+    assertEquals(1, pool.stats().open());
+  }
+
+  @Test
+  void rollsBackUnfinishedTransactionOnReturn() throws SQLException {
+    pool = newPool(1);
+    try (Connection conn = pool.getConnection();
+        Statement statement = conn.createStatement()) {
+      statement.execute("CREATE TABLE items (id INTEGER)");
+    }
+    try (Connection conn = pool.getConnection()) {
+      conn.setAutoCommit(false);
+      try (Statement statement = conn.createStatement()) {
+        statement.execute("INSERT INTO items VALUES (1)");
+      }
+    }
+    try (Connection conn = pool.getConnection();
+        Statement statement = conn.createStatement();
+        ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM items")) {
+      assertTrue(conn.getAutoCommit());
+      assertTrue(resultSet.next());
+      assertEquals(0, resultSet.getInt(1));
+    }
+  }
+}
@@ -0,0 +1,153 @@
+package com.joegarb.crawler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+
+/** Tests for FrontierBuffer. */
+class FrontierBufferTest {
+  @RegisterExtension final TestDatabase db = new TestDatabase();
+
+  private void addUrls(String... urls) throws SQLException {
+    try (Connection conn = db.open()) {
+      FrontierStore.addUrls(conn, List.of(urls));
+    }
+  }
+
+  private int countClaimed() throws SQLException {
+    return db.count("SELECT COUNT(*) FROM frontier_queue WHERE claimed_at IS NOT NULL");
+  }
+
+  @Test
+  void handsOutEachHostOnlyWhenReady() throws SQLException {
+    addUrls("https://a.example.com/1", "https://a.example.com/2", "https://b.example.com/1");
+    FrontierBuffer buffer =
+        new FrontierBuffer(new SqliteFrontier(db::open), new PolitenessScheduler(60_000), 4, 4);
+
+    List<String> taken = new ArrayList<>();
+    FrontierStore.FrontierUrl frontierUrl;
+    while ((frontierUrl = buffer.take()) != null) {
+      taken.add(frontierUrl.url());
+    }
+    // One URL per host until the politeness delay passes
+    assertEquals(List.of("https://a.example.com/1", "https://b.example.com/1"), taken);
+    assertEquals(1, buffer.size());
+  }
+
+  @Test
+  void claimsBatchIntoBuffer() throws SQLException {
+    addUrls("https://example.com/1", "https://example.com/2", "https://example.com/3");
+    FrontierBuffer buffer =
+        new FrontierBuffer(new SqliteFrontier(db::open), new PolitenessScheduler(0), 3, 3);
+
+    assertNotNull(buffer.take());
+    // The whole batch was claimed by one refill
+    assertEquals(3, countClaimed());
+    assertEquals(2, buffer.size());
+  }
+
+  @Test
+  void growsBatchSizeWhileQueueDrainsQuickly() throws SQLException {
+    for (int i = 0; i < 100; i++) {
+      addUrls("https://example.com/" + i);
+    }
+    FrontierBuffer buffer =
+        new FrontierBuffer(new SqliteFrontier(db::open), new PolitenessScheduler(0), 1, 32);
+    for (int i = 0; i < 20; i++) {
+      assertNotNull(buffer.take());
+    }
+    assertTrue(buffer.batchSize() > 1);
+  }
+
+  @Test
+  void awaitWorkBacksOffUntilSignalled() throws Exception {
+    FrontierBuffer buffer =
+        new FrontierBuffer(new SqliteFrontier(db::open), new PolitenessScheduler(0), 1, 4);
+    assertNull(buffer.take());
+
+    // Waits double while nothing turns up: 1 + 2 + ... + 512 ms for ten waits
+    long start = System.nanoTime();
+    for (int i = 0; i < 10; i++) {
+      buffer.awaitWork();
+    }
+    assertTrue(System.nanoTime() - start >= 1_000_000_000L);
+
+    // The backoff is per caller: another worker's first wait is short
+    long[] otherWait = new long[1];
+    Thread other =
+        Thread.ofVirtual()
+            .start(
+                () -> {
+                  long otherStart = System.nanoTime();
+                  buffer.awaitWork();
+                  otherWait[0] = System.nanoTime() - otherStart;
+                });
+    other.join();
+    assertTrue(otherWait[0] < 500_000_000L, "Waited " + otherWait[0] + " ns");
+
+    // This caller's next wait would be a full second, but a signal ends it
+    Thread signaller =
+        Thread.ofVirtual()
+            .start(
+                () -> {
+                  try {
+                    Thread.sleep(50);
+                  } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                  }
+                  buffer.signalWork();
+                });
+    start = System.nanoTime();
+    buffer.awaitWork();
+    signaller.join();
+    assertTrue(System.nanoTime() - start < 500_000_000L);
+
+    // After the signal, the backoff starts over
+    start = System.nanoTime();
+    buffer.awaitWork();
+    assertTrue(System.nanoTime() - start < 500_000_000L);
+  }
+
+  @Test
+  void claimsOfDeadProcessReturnToQueueOnceExpired() throws Exception {
+    addUrls("https://example.com/1");
+    // Claimed by a process that never removes or releases it
+    assertNotNull(new SqliteFrontier(db::open).claim(List.of(), 1));
+
+    try (SqliteFrontier frontier = SqliteFrontier.open(db::open, null, 100)) {
+      assertTrue(frontier.claim(List.of(), 1).isEmpty());
+      List<FrontierStore.FrontierUrl> claimed = List.of();
+      for (int i = 0; i < 100 && claimed.isEmpty(); i++) {
+        Thread.sleep(20);
+        claimed = frontier.claim(List.of(), 1);
+      }
+      assertEquals(1, claimed.size());
+      assertEquals("https://example.com/1", claimed.get(0).url());
+    }
+  }
+
+  @Test
+  void releaseAllReturnsBufferedUrlsToQueue() throws SQLException {
+    addUrls("https://example.com/1", "https://example.com/2");
+    FrontierBuffer buffer =
+        new FrontierBuffer(new SqliteFrontier(db::open), new PolitenessScheduler(60_000), 2, 2);
+    assertNotNull(buffer.take());
+    assertEquals(2, countClaimed());
+
+    buffer.releaseAll();
+    assertEquals(0, buffer.size());
+    assertEquals(1, countClaimed());
+    try (Connection conn = db.open()) {
+      assertEquals("https://example.com/2", FrontierStore.getNextUrl(conn).url());
+    }
+    assertNull(buffer.take());
+  }
+}
@@ -0,0 +1,116 @@
+package com.joegarb.crawler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * Tests of the {@link Frontier} contract that every backend must meet: claim order, host exclusion,
+ * deduplication and releases. Backend-specific behaviour is tested in each backend's own test
+ * class.
+ */
+class FrontierContractTest {
+  @RegisterExtension final TestDatabase db = new TestDatabase();
+  @TempDir Path tempDir;
+  private Connection conn;
+
+  @BeforeEach
+  void setUp() throws SQLException {
+    conn = db.open();
+  }
+
+  @AfterEach
+  void tearDown() throws SQLException {
+    conn.close();
+  }
+
+  /** Opens an empty frontier of a backend, named as in {@link Configuration#FRONTIER_BACKEND}. */
+  private Frontier open(String backend) throws Exception {
+    return switch (backend) {
+      case "memory" -> new InMemoryFrontier();
+      case "log" -> new SegmentLogFrontier(tempDir, 4096);
+      case "sqlite" -> new SqliteFrontier(db::open);
+      default -> throw new IllegalArgumentException(backend);
+    };
+  }
+
+  /** Adds URLs to a frontier, normalizing them first. */
+  static void add(Frontier frontier, Connection conn, String... urls) throws SQLException {
+    List<UrlNormalizer.NormalizedUrl> normalized = new ArrayList<>();
+    for (String url : urls) {
+      normalized.add(UrlNormalizer.normalizeWithHost(url));
+    }
+    frontier.add(conn, normalized);
+  }
+
+  /** Returns the URLs of claimed entries, in order. */
+  static List<String> urls(List<FrontierStore.FrontierUrl> claimed) {
+    return claimed.stream().map(FrontierStore.FrontierUrl::url).toList();
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = {"memory", "log", "sqlite"})
+  void claimsOldestFirstSkippingExcludedHosts(String backend) throws Exception {
+    try (Frontier frontier = open(backend)) {
+      add(frontier, conn, "https://a.com/1", "https://b.com/1", "https://a.com/2");
+      add(frontier, conn, "https://c.com/1");
+
+      assertEquals(
+          List.of("https://b.com/1", "https://c.com/1"), urls(frontier.claim(Set.of("a.com"), 10)));
+      add(frontier, conn, "https://d.com/1");
+      assertEquals(List.of("https://a.com/1"), urls(frontier.claim(List.of(), 1)));
+      assertEquals(
+          List.of("https://a.com/2", "https://d.com/1"), urls(frontier.claim(List.of(), 10)));
+      assertTrue(frontier.claim(List.of(), 10).isEmpty());
+      assertEquals(0, frontier.count(false));
+      assertEquals(5, frontier.count(true));
+    }
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = {"memory", "log", "sqlite"})
+  void ignoresUrlsAlreadyPendingOrClaimed(String backend) throws Exception {
+    try (Frontier frontier = open(backend)) {
+      add(frontier, conn, "https://a.com/1", "https://a.com/1");
+      FrontierStore.FrontierUrl claimed = frontier.claim(List.of(), 10).get(0);
+      add(frontier, conn, "https://a.com/1");
+      assertEquals(0, frontier.count(false));
+      assertEquals(1, frontier.count(true));
+
+      // Once processed, the URL may be queued again, e.g. for a refresh
+      frontier.remove(conn, claimed.id());
+      assertFalse(frontier.hasUrls());
+      add(frontier, conn, "https://a.com/1");
+      assertEquals(1, frontier.count(false));
+    }
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = {"memory", "log", "sqlite"})
+  void releasedUrlsKeepTheirPlace(String backend) throws Exception {
+    try (Frontier frontier = open(backend)) {
+      add(frontier, conn, "https://a.com/1", "https://a.com/2", "https://b.com/1");
+      List<FrontierStore.FrontierUrl> claimed = frontier.claim(List.of(), 1);
+      add(frontier, conn, "https://c.com/1");
+
+      frontier.release(List.of(claimed.get(0).id()));
+      assertEquals(0, frontier.count(true));
+      assertEquals(
+          List.of("https://a.com/1", "https://a.com/2", "https://b.com/1", "https://c.com/1"),
+          urls(frontier.claim(List.of(), 10)));
+    }
+  }
+}
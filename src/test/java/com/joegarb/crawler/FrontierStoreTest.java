@@ -1,6 +1,8 @@
 package com.joegarb.crawler;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -9,6 +11,9 @@ import java.sql.DriverManager;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
@@ -23,6 +28,11 @@ class FrontierStoreTest {
     FrontierStore.createTable(conn);
   }
 
+  @AfterEach
+  void tearDown() {
+    FrontierStore.installScorer(FrontierScorer.FIFO);
+  }
+
   @Test
   void addUrl() throws SQLException {
     FrontierStore.addUrl(conn, "https://example.com");
@@ -55,10 +65,10 @@ class FrontierStoreTest {
             statement.executeQuery(
                 "SELECT claimed_at FROM frontier_queue WHERE url = 'https://example.com/'")) {
       assertTrue(resultSet.next());
-      String claimedAt = resultSet.getString("claimed_at");
-      assertTrue(claimedAt != null && !claimedAt.isEmpty());
-      // Verify it's a valid ISO 8601 format
-      assertTrue(claimedAt.contains("T") || claimedAt.contains(" "));
+      long claimedAt = resultSet.getLong("claimed_at");
+      assertFalse(resultSet.wasNull());
+      // Verify it's an epoch milliseconds timestamp from just now
+      assertTrue(Math.abs(System.currentTimeMillis() - claimedAt) < 60_000);
     }
   }
 
@@ -81,6 +91,35 @@ class FrontierStoreTest {
     assertEquals("https://example.com/1", frontierUrl.url());
   }
 
+  @Test
+  void releaseExpiredClaimsReturnsOnlyOldClaims() throws SQLException, InterruptedException {
+    FrontierStore.addUrls(conn, List.of("https://example.com/1", "https://example.com/2"));
+    FrontierStore.getNextUrl(conn);
+    Thread.sleep(10);
+    long cutoff = System.currentTimeMillis();
+    Thread.sleep(10);
+    FrontierStore.getNextUrl(conn);
+
+    assertEquals(1, FrontierStore.releaseExpiredClaims(conn, cutoff));
+    // The released URL keeps its place at the front of the queue
+    assertEquals("https://example.com/1", FrontierStore.getNextUrl(conn).url());
+    assertEquals(0, FrontierStore.releaseExpiredClaims(conn, cutoff));
+  }
+
+  @Test
+  void renewClaimsUpdatesOnlyClaimedEntries() throws SQLException {
+    FrontierStore.addUrls(conn, List.of("https://example.com/1", "https://example.com/2"));
+    FrontierStore.FrontierUrl claimed = FrontierStore.getNextUrl(conn);
+    FrontierStore.FrontierUrl pending = FrontierStore.getNextUrl(conn);
+    FrontierStore.releaseUrls(conn, List.of(pending.id()));
+    long later = System.currentTimeMillis() + 60_000;
+
+    assertEquals(1, FrontierStore.renewClaims(conn, List.of(claimed.id(), pending.id()), later));
+    // The renewed claim is no longer older than a cutoff just before its renewal
+    assertEquals(0, FrontierStore.releaseExpiredClaims(conn, later));
+    assertEquals(1, FrontierStore.countUrls(conn, true));
+  }
+
   @Test
   void removeUrl() throws SQLException {
     FrontierStore.addUrl(conn, "https://example.com");
@@ -95,4 +134,229 @@ class FrontierStoreTest {
       assertEquals(0, resultSet.getInt("count"));
     }
   }
+
+  @Test
+  void addUrlRecordsHost() throws SQLException {
+    FrontierStore.addUrl(conn, "https://Sub.Example.com/page");
+    FrontierStore.FrontierUrl frontierUrl = FrontierStore.getNextUrl(conn);
+    assertEquals("sub.example.com", frontierUrl.host());
+  }
+
+  @Test
+  void getNextUrlSkipsExcludedHosts() throws SQLException {
+    FrontierStore.addUrls(
+        conn,
+        List.of("https://a.example.com/1", "https://a.example.com/2", "https://b.example.com/1"));
+    FrontierStore.FrontierUrl frontierUrl = FrontierStore.getNextUrl(conn, Set.of("a.example.com"));
+    assertEquals("https://b.example.com/1", frontierUrl.url());
+    // Only excluded hosts remain
+    assertNull(FrontierStore.getNextUrl(conn, Set.of("a.example.com")));
+    assertEquals("https://a.example.com/1", FrontierStore.getNextUrl(conn, Set.of()).url());
+  }
+
+  @Test
+  void hasUrlsIncludesClaimedUrls() throws SQLException {
+    assertFalse(FrontierStore.hasUrls(conn));
+    FrontierStore.addUrl(conn, "https://example.com");
+    FrontierStore.getNextUrl(conn);
+    assertTrue(FrontierStore.hasUrls(conn));
+  }
+
+  @Test
+  void claimUrlsClaimsBatchOldestFirst() throws SQLException {
+    FrontierStore.addUrls(
+        conn, List.of("https://example.com/1", "https://example.com/2", "https://example.com/3"));
+    List<FrontierStore.FrontierUrl> claimed = FrontierStore.claimUrls(conn, Set.of(), 2);
+    assertEquals(2, claimed.size());
+    assertEquals("https://example.com/1", claimed.get(0).url());
+    assertEquals("https://example.com/2", claimed.get(1).url());
+    assertEquals(1, FrontierStore.claimUrls(conn, Set.of(), 10).size());
+    assertTrue(FrontierStore.claimUrls(conn, Set.of(), 10).isEmpty());
+  }
+
+  @Test
+  void releaseUrlsMakesClaimedUrlsPendingAgain() throws SQLException {
+    FrontierStore.addUrls(conn, List.of("https://example.com/1", "https://example.com/2"));
+    List<FrontierStore.FrontierUrl> claimed = FrontierStore.claimUrls(conn, Set.of(), 2);
+    FrontierStore.releaseUrls(conn, List.of(claimed.get(1).id()));
+    FrontierStore.FrontierUrl frontierUrl = FrontierStore.getNextUrl(conn);
+    assertEquals("https://example.com/2", frontierUrl.url());
+    assertNull(FrontierStore.getNextUrl(conn));
+  }
+
+  @Test
+  void createTableMigratesLegacyTable() throws SQLException {
+    Connection legacy = DriverManager.getConnection("jdbc:sqlite::memory:");
+    try (Statement statement = legacy.createStatement()) {
+      // Schema written by versions before the host column and numeric timestamps
+      statement.execute(
+          "CREATE TABLE frontier_queue ("
+              + "id INTEGER PRIMARY KEY AUTOINCREMENT,"
+              + "url TEXT NOT NULL UNIQUE,"
+              + "added_at TEXT NOT NULL DEFAULT (datetime('now')),"
+              + "claimed_at TEXT"
+              + ")");
+      statement.execute(
+          "INSERT INTO frontier_queue (url, added_at) "
+              + "VALUES ('https://example.com/old', '2024-01-01 00:00:00')");
+      statement.execute(
+          "INSERT INTO frontier_queue (url, added_at) "
+              + "VALUES ('https://example.com/new', '2024-01-02 00:00:00')");
+    }
+
+    FrontierStore.createTable(legacy);
+
+    try (Statement statement = legacy.createStatement();
+        ResultSet resultSet =
+            statement.executeQuery(
+                "SELECT added_at, typeof(added_at), host, host_hash FROM frontier_queue "
+                    + "ORDER BY id")) {
+      assertTrue(resultSet.next());
+      assertEquals(1704067200000L, resultSet.getLong(1));
+      assertEquals("integer", resultSet.getString(2));
+      assertEquals("example.com", resultSet.getString(3));
+      assertEquals(FrontierStore.hostHash("example.com"), resultSet.getInt(4));
+    }
+    assertEquals("https://example.com/old", FrontierStore.getNextUrl(legacy).url());
+    // Running again on a migrated table is a no-op
+    FrontierStore.createTable(legacy);
+    assertEquals("https://example.com/new", FrontierStore.getNextUrl(legacy).url());
+  }
+
+  @Test
+  void createTableAddsHostHashToUnshardedTable() throws SQLException {
+    Connection unsharded = DriverManager.getConnection("jdbc:sqlite::memory:");
+    try (Statement statement = unsharded.createStatement()) {
+      // Schema and pending index written by versions before sharding
+      statement.execute(
+          "CREATE TABLE frontier_queue ("
+              + "id INTEGER PRIMARY KEY AUTOINCREMENT,"
+              + "url TEXT NOT NULL UNIQUE,"
+              + "host TEXT,"
+              + "added_at INTEGER NOT NULL,"
+              + "claimed_at INTEGER"
+              + ")");
+      statement.execute(
+          "CREATE INDEX frontier_queue_pending "
+              + "ON frontier_queue (added_at, host) WHERE claimed_at IS NULL");
+      statement.execute(
+          "INSERT INTO frontier_queue (url, host, added_at) "
+              + "VALUES ('https://a.example.com/', 'a.example.com', 1), "
+              + "('https://b.example.com/', 'b.example.com', 2)");
+    }
+
+    FrontierStore.createTable(unsharded);
+
+    // The hosts hash to different shards; each URL is claimed only from its host's
+    int shardA = FrontierStore.hostHash("a.example.com") % 4;
+    int shardB = FrontierStore.hostHash("b.example.com") % 4;
+    assertTrue(shardA != shardB);
+    List<FrontierStore.FrontierUrl> claimed =
+        FrontierStore.claimUrls(unsharded, Set.of(), 10, 4, List.of(shardB));
+    assertEquals(1, claimed.size());
+    assertEquals("https://b.example.com/", claimed.get(0).url());
+    assertTrue(FrontierStore.claimUrls(unsharded, Set.of(), 10, 4, List.of(shardB)).isEmpty());
+    assertEquals("https://a.example.com/", FrontierStore.getNextUrl(unsharded).url());
+    // Depth and score were added too, at 0 for existing rows
+    assertEquals(
+        "REAL", DatabaseManager.columnType(unsharded, "frontier_queue", "score").toUpperCase());
+    assertNotNull(DatabaseManager.columnType(unsharded, "frontier_queue", "depth"));
+  }
+
+  @Test
+  void claimsHighestScoreFirst() throws SQLException {
+    FrontierStore.installScorer(new PriorityScorer(0));
+    FrontierStore.addNormalizedUrls(conn, List.of(normalized("https://example.com/deep")), 3);
+    FrontierStore.addNormalizedUrls(conn, List.of(normalized("https://example.com/mid")), 1);
+    FrontierStore.addNormalizedUrls(conn, List.of(normalized("https://example.com/")), 0);
+
+    List<FrontierStore.FrontierUrl> claimed = FrontierStore.claimUrls(conn, Set.of(), 10);
+    assertEquals(
+        List.of("https://example.com/", "https://example.com/mid", "https://example.com/deep"),
+        claimed.stream().map(FrontierStore.FrontierUrl::url).toList());
+    assertEquals(3, FrontierStore.depth(conn, claimed.get(2).id()));
+  }
+
+  @Test
+  void rediscoveryRaisesScoreOfPendingUrls() throws SQLException {
+    FrontierStore.installScorer(new PriorityScorer(0));
+    FrontierStore.addNormalizedUrls(conn, List.of(normalized("https://example.com/a")), 1);
+    FrontierStore.addNormalizedUrls(conn, List.of(normalized("https://example.com/b")), 1);
+    // b is linked from two more pages, and overtakes a
+    FrontierStore.addNormalizedUrls(conn, List.of(normalized("https://example.com/b")), 1);
+    FrontierStore.addNormalizedUrls(conn, List.of(normalized("https://example.com/b")), 1);
+
+    assertEquals("https://example.com/b", FrontierStore.getNextUrl(conn).url());
+    assertEquals("https://example.com/a", FrontierStore.getNextUrl(conn).url());
+    assertNull(FrontierStore.getNextUrl(conn));
+  }
+
+  @Test
+  void rediscoveryDoesNotCountAgainstHostBudget() throws SQLException {
+    FrontierStore.installScorer(new PriorityScorer(2));
+    FrontierStore.addNormalizedUrls(conn, List.of(normalized("https://big.com/a")), 1);
+    // Rediscovering a, even several times in one batch, neither scores it again nor uses budget
+    FrontierStore.addNormalizedUrls(
+        conn, List.of(normalized("https://big.com/a"), normalized("https://big.com/a")), 1);
+    FrontierStore.addNormalizedUrls(
+        conn, List.of(normalized("https://big.com/b"), normalized("https://big.com/b")), 1);
+    FrontierStore.addNormalizedUrls(conn, List.of(normalized("https://big.com/c")), 1);
+
+    try (Statement statement = conn.createStatement();
+        ResultSet resultSet =
+            statement.executeQuery("SELECT url, score FROM frontier_queue ORDER BY url")) {
+      assertTrue(resultSet.next());
+      assertEquals(-0.5, resultSet.getDouble("score"), "a: depth 1 plus one rediscovery");
+      assertTrue(resultSet.next());
+      assertEquals(-1.0, resultSet.getDouble("score"), "b: second URL, within budget");
+      assertTrue(resultSet.next());
+      assertEquals(-1.5, resultSet.getDouble("score"), "c: first URL over budget");
+      assertFalse(resultSet.next());
+    }
+  }
+
+  @Test
+  void fifoScorerClaimsOldestFirstRegardlessOfDepth() throws SQLException {
+    FrontierStore.addNormalizedUrls(conn, List.of(normalized("https://example.com/deep")), 3);
+    FrontierStore.addNormalizedUrls(conn, List.of(normalized("https://example.com/")), 0);
+    assertEquals("https://example.com/deep", FrontierStore.getNextUrl(conn).url());
+  }
+
+  private static UrlNormalizer.NormalizedUrl normalized(String url) {
+    return UrlNormalizer.normalizeWithHost(url);
+  }
+
+  @Test
+  void claimsOnlyFromGivenShards() throws SQLException {
+    for (int i = 0; i < 50; i++) {
+      FrontierStore.addUrl(conn, "https://host" + i + ".example.com/");
+    }
+    List<FrontierStore.FrontierUrl> claimed =
+        FrontierStore.claimUrls(conn, Set.of(), 100, 4, List.of(1, 3));
+    assertFalse(claimed.isEmpty());
+    for (FrontierStore.FrontierUrl url : claimed) {
+      int shard = FrontierStore.hostHash(url.host()) % 4;
+      assertTrue(shard == 1 || shard == 3, url.host());
+    }
+    assertEquals(50 - claimed.size(), FrontierStore.claimUrls(conn, Set.of(), 100).size());
+    assertTrue(FrontierStore.claimUrls(conn, Set.of(), 100, 4, List.of()).isEmpty());
+  }
+
+  @Test
+  void claimUsesPendingIndex() throws SQLException {
+    try (Statement statement = conn.createStatement();
+        ResultSet resultSet =
+            statement.executeQuery(
+                "EXPLAIN QUERY PLAN SELECT id FROM frontier_queue WHERE claimed_at IS NULL "
+                    + "AND (host IS NULL OR host NOT IN (SELECT value FROM json_each('[]'))) "
+                    + "AND host_hash % 4 IN (SELECT value FROM json_each('[0,2]')) "
+                    + "ORDER BY score DESC, added_at ASC LIMIT 1")) {
+      StringBuilder plan = new StringBuilder();
+      while (resultSet.next()) {
+        plan.append(resultSet.getString("detail")).append('\n');
+      }
+      assertTrue(plan.toString().contains("frontier_queue_pending"), plan.toString());
+      assertFalse(plan.toString().contains("TEMP B-TREE FOR ORDER BY"), plan.toString());
+    }
+  }
 }
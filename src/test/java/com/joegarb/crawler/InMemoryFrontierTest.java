@@ -0,0 +1,42 @@
+package com.joegarb.crawler;
+
+import static com.joegarb.crawler.FrontierContractTest.add;
+import static com.joegarb.crawler.FrontierContractTest.urls;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** Tests for InMemoryFrontier. */
+class InMemoryFrontierTest {
+  @TempDir Path tempDir;
+
+  @Test
+  void restoresSnapshotWithClaimedUrlsPending() throws Exception {
+    Path file = tempDir.resolve("frontier.snapshot");
+    InMemoryFrontier frontier = InMemoryFrontier.open(file, 0);
+    add(frontier, null, "https://a.com/1", "https://b.com/1", "https://c.com/1");
+    frontier.claim(List.of(), 1);
+    frontier.close();
+
+    InMemoryFrontier restored = InMemoryFrontier.open(file, 0);
+    assertEquals(3, restored.count(false));
+    assertEquals(0, restored.count(true));
+    add(restored, null, "https://b.com/1", "https://d.com/1");
+    assertEquals(
+        List.of("https://a.com/1", "https://b.com/1", "https://c.com/1", "https://d.com/1"),
+        urls(restored.claim(List.of(), 10)));
+  }
+
+  @Test
+  void rejectsFilesThatAreNotSnapshots() throws Exception {
+    Path file = tempDir.resolve("frontier.snapshot");
+    Files.writeString(file, "not a snapshot");
+    assertThrows(IOException.class, () -> InMemoryFrontier.open(file, 0));
+  }
+}
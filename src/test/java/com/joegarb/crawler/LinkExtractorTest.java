@@ -4,41 +4,47 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.util.Arrays;
 import java.util.List;
-import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.EnumSource;
 
 /** Tests for LinkExtractor. */
 class LinkExtractorTest {
   private static final String BASE_URL = "https://crawlme.example.com/page";
 
-  @Test
-  void extractsAbsoluteLinksOnSameHost() {
+  @ParameterizedTest
+  @EnumSource(LinkExtractor.Mode.class)
+  void extractsAbsoluteLinksOnSameHost(LinkExtractor.Mode mode) {
     String html =
         "<html><body><a href=\"https://crawlme.example.com/other\">Link</a></body></html>";
-    List<String> links = LinkExtractor.extractLinks(html, BASE_URL);
+    List<String> links = LinkExtractor.extractLinks(html, BASE_URL, mode);
 
     assertEquals(1, links.size());
     assertTrue(links.contains("https://crawlme.example.com/other"));
   }
 
-  @Test
-  void resolvesRelativeLinks() {
+  @ParameterizedTest
+  @EnumSource(LinkExtractor.Mode.class)
+  void resolvesRelativeLinks(LinkExtractor.Mode mode) {
     String html = "<html><body><a href=\"/relative\">Link</a></body></html>";
-    List<String> links = LinkExtractor.extractLinks(html, BASE_URL);
+    List<String> links = LinkExtractor.extractLinks(html, BASE_URL, mode);
 
     assertEquals(1, links.size());
     assertTrue(links.contains("https://crawlme.example.com/relative"));
   }
 
-  @Test
-  void filtersOutExternalLinks() {
+  @ParameterizedTest
+  @EnumSource(LinkExtractor.Mode.class)
+  void filtersOutExternalLinks(LinkExtractor.Mode mode) {
     String html =
         "<html><body>"
             + "<a href=\"https://crawlme.example.com/internal\">Internal</a>"
             + "<a href=\"https://facebook.com/external\">External</a>"
             + "<a href=\"https://example.com/other\">Other Domain</a>"
             + "</body></html>";
-    List<String> links = LinkExtractor.extractLinks(html, BASE_URL);
+    List<String> links = LinkExtractor.extractLinks(html, BASE_URL, mode);
 
     assertEquals(1, links.size());
     assertTrue(links.contains("https://crawlme.example.com/internal"));
@@ -46,15 +52,16 @@ class LinkExtractorTest {
     assertFalse(links.contains("https://example.com/other"));
   }
 
-  @Test
-  void extractsMultipleLinks() {
+  @ParameterizedTest
+  @EnumSource(LinkExtractor.Mode.class)
+  void extractsMultipleLinks(LinkExtractor.Mode mode) {
     String html =
         "<html><body>"
             + "<a href=\"/page1\">Page 1</a>"
             + "<a href=\"/page2\">Page 2</a>"
             + "<a href=\"https://crawlme.example.com/page3\">Page 3</a>"
             + "</body></html>";
-    List<String> links = LinkExtractor.extractLinks(html, BASE_URL);
+    List<String> links = LinkExtractor.extractLinks(html, BASE_URL, mode);
 
     assertEquals(3, links.size());
     assertTrue(links.contains("https://crawlme.example.com/page1"));
@@ -62,27 +69,30 @@ class LinkExtractorTest {
     assertTrue(links.contains("https://crawlme.example.com/page3"));
   }
 
-  @Test
-  void handlesEmptyHtml() {
+  @ParameterizedTest
+  @EnumSource(LinkExtractor.Mode.class)
+  void handlesEmptyHtml(LinkExtractor.Mode mode) {
     String html = "<html><body></body></html>";
-    List<String> links = LinkExtractor.extractLinks(html, BASE_URL);
+    List<String> links = LinkExtractor.extractLinks(html, BASE_URL, mode);
 
     assertTrue(links.isEmpty());
   }
 
-  @Test
-  void resolvesRelativePaths() {
+  @ParameterizedTest
+  @EnumSource(LinkExtractor.Mode.class)
+  void resolvesRelativePaths(LinkExtractor.Mode mode) {
     // Links without scheme are resolved relative to base URL
     String html = "<html><body><a href=\"not-a-valid-url\">Link</a></body></html>";
-    List<String> links = LinkExtractor.extractLinks(html, BASE_URL);
+    List<String> links = LinkExtractor.extractLinks(html, BASE_URL, mode);
 
     // Relative link gets resolved to base URL's domain
     assertEquals(1, links.size());
     assertTrue(links.contains("https://crawlme.example.com/not-a-valid-url"));
   }
 
-  @Test
-  void allowsSubdomainsOfHost() {
+  @ParameterizedTest
+  @EnumSource(LinkExtractor.Mode.class)
+  void allowsSubdomainsOfHost(LinkExtractor.Mode mode) {
     // Should allow subdomains of the target host
     // e.g., if target is "crawlme.example.com", allow "sub.crawlme.example.com"
     String html =
@@ -93,7 +103,7 @@ class LinkExtractorTest {
             + "<a href=\"https://example.com/parent\">Parent Domain</a>"
             + "<a href=\"https://other.example.com/different\">Different Host</a>"
             + "</body></html>";
-    List<String> links = LinkExtractor.extractLinks(html, BASE_URL);
+    List<String> links = LinkExtractor.extractLinks(html, BASE_URL, mode);
 
     assertEquals(3, links.size());
     assertTrue(links.contains("https://crawlme.example.com/exact"));
@@ -102,4 +112,100 @@ class LinkExtractorTest {
     assertFalse(links.contains("https://example.com/parent"));
     assertFalse(links.contains("https://other.example.com/different"));
   }
+
+  @ParameterizedTest
+  @EnumSource(LinkExtractor.Mode.class)
+  void resolvesRelativeLinksAgainstBaseHref(LinkExtractor.Mode mode) {
+    String html =
+        "<html><head><base href=\"/docs/\"></head><body>"
+            + "<a href=\"guide\">Guide</a>"
+            + "<a href=\"/root\">Root</a>"
+            + "</body></html>";
+    List<String> links = LinkExtractor.extractLinks(html, BASE_URL, mode);
+
+    assertEquals(
+        List.of("https://crawlme.example.com/docs/guide", "https://crawlme.example.com/root"),
+        links);
+  }
+
+  @ParameterizedTest
+  @EnumSource(LinkExtractor.Mode.class)
+  void ignoresLinksInCommentsAndScripts(LinkExtractor.Mode mode) {
+    String html =
+        "<html><head><script>var s = '<a href=\"/script\">';</script>"
+            + "<style>a[href=\"/style\"] {}</style></head><body>"
+            + "<!-- <a href=\"/comment\">Commented</a> -->"
+            + "<textarea><a href=\"/textarea\"></a></textarea>"
+            + "<a href=\"/real\">Real</a>"
+            + "</body></html>";
+    List<String> links = LinkExtractor.extractLinks(html, BASE_URL, mode);
+
+    assertEquals(List.of("https://crawlme.example.com/real"), links);
+  }
+
+  @ParameterizedTest
+  @CsvSource(
+      delimiter = '|',
+      value = {
+        "<head><noscript><a href=/head></noscript></head><a href=/real>|/real",
+        "<noscript><a href=/before-body></noscript><a href=/real>|/real",
+        "<head></head><noscript><a href=/after-head></noscript><a href=/real>|/after-head /real",
+        "<p>Text<noscript><a href=/body></noscript><a href=/real>|/body /real",
+        "<body><xmp><a href=/xmp></xmp><iframe><a href=/iframe></iframe><a href=/real>|/real",
+        "<a href=/real><plaintext><a href=/plain></plaintext><a href=/after>|/real",
+        "<title><a href=/title></title><textarea><a href=/ta></textarea><a href=/real>|/real"
+      })
+  void streamingMatchesDomAroundRawText(String html, String expectedPaths) {
+    List<String> expected =
+        Arrays.stream(expectedPaths.split(" "))
+            .map(path -> "https://crawlme.example.com" + path)
+            .toList();
+    assertEquals(expected, LinkExtractor.extractLinks(html, BASE_URL, LinkExtractor.Mode.DOM));
+    assertEquals(
+        expected, LinkExtractor.extractLinks(html, BASE_URL, LinkExtractor.Mode.STREAMING));
+  }
+
+  @ParameterizedTest
+  @EnumSource(LinkExtractor.Mode.class)
+  void handlesAttributeSyntaxVariants(LinkExtractor.Mode mode) {
+    String html =
+        "<BODY>"
+            + "<A HREF='/upper'>Upper</A>"
+            + "<a title=\"a > b\" href=/unquoted>Unquoted</a>"
+            + "<a href=\"/search?q=1&amp;page=2\">Entities</a>"
+            + "<a href = \"/spaced\" >Spaced</a>"
+            + "<abbr href=\"/not-a-link\"></abbr>"
+            + "<a href=\"\">Empty</a>"
+            + "<a name=\"anchor\">No href</a>"
+            + "</BODY>";
+    List<String> links = LinkExtractor.extractLinks(html, BASE_URL, mode);
+
+    assertEquals(
+        List.of(
+            "https://crawlme.example.com/upper",
+            "https://crawlme.example.com/unquoted",
+            "https://crawlme.example.com/search?q=1&page=2",
+            "https://crawlme.example.com/spaced"),
+        links);
+  }
+
+  @ParameterizedTest
+  @EnumSource(LinkExtractor.Mode.class)
+  void returnsHostsAndSkipsNonHttpLinks(LinkExtractor.Mode mode) {
+    String html =
+        "<html><body>"
+            + "<a href=\"https://Sub.Crawlme.Example.com/a#section\">Sub</a>"
+            + "<a href=\"mailto:joe@crawlme.example.com\">Mail</a>"
+            + "<a href=\"javascript:void(0)\">Script</a>"
+            + "<a href=\"ftp://crawlme.example.com/file\">FTP</a>"
+            + "</body></html>";
+    List<UrlNormalizer.NormalizedUrl> links =
+        LinkExtractor.extractNormalizedLinks(html, BASE_URL, mode);
+
+    assertEquals(
+        List.of(
+            new UrlNormalizer.NormalizedUrl(
+                "https://sub.crawlme.example.com/a", "sub.crawlme.example.com")),
+        links);
+  }
 }
@@ -0,0 +1,48 @@
+package com.joegarb.crawler;
+
+import static com.joegarb.crawler.LongHashSetTest.keysWithHome;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.junit.jupiter.api.Test;
+
+/** Tests for LongHashMap. */
+class LongHashMapTest {
+
+  @Test
+  void survivesRemovalsAndGrowth() {
+    LongHashMap<String> map = new LongHashMap<>(4);
+    for (long i = 1; i <= 10_000; i++) {
+      map.put(i, "v" + i);
+    }
+    for (long i = 1; i <= 10_000; i += 3) {
+      assertEquals("v" + i, map.remove(i));
+    }
+    for (long i = 1; i <= 10_000; i++) {
+      assertEquals((i - 1) % 3 == 0 ? null : "v" + i, map.get(i));
+    }
+  }
+
+  @Test
+  void removalKeepsProbeRunsThatWrapPastTheEndOfTheTable() {
+    int capacity = LongHashSet.capacityFor(4);
+    long[] last = keysWithHome(capacity - 1, capacity, 3);
+    long[] first = keysWithHome(0, capacity, 1);
+    LongHashMap<String> map = new LongHashMap<>(4);
+    // One run from the last slot, wrapping into slots 0 and 1 and pushing first to slot 2
+    for (long key : new long[] {last[0], last[1], last[2], first[0]}) {
+      assertNull(map.put(key, "v" + key));
+    }
+
+    assertEquals("v" + last[0], map.remove(last[0]));
+    assertNull(map.get(last[0]));
+    for (long key : new long[] {last[1], last[2], first[0]}) {
+      assertEquals("v" + key, map.get(key));
+    }
+
+    assertEquals("v" + last[1], map.remove(last[1]));
+    assertEquals("v" + last[2], map.get(last[2]));
+    assertEquals("v" + first[0], map.get(first[0]));
+    assertEquals(2, map.size());
+  }
+}
@@ -0,0 +1,88 @@
+package com.joegarb.crawler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/** Tests for LongHashSet. */
+class LongHashSetTest {
+
+  /**
+   * Returns keys whose probe runs start at the same slot of a table, so that they collide.
+   *
+   * @param slot Home slot of the keys
+   * @param capacity Table capacity, as returned by {@link LongHashSet#capacityFor}
+   * @param count Number of keys
+   * @return The keys, all non-zero
+   */
+  static long[] keysWithHome(int slot, int capacity, int count) {
+    long[] keys = new long[count];
+    int found = 0;
+    for (long key = 1; found < count; key++) {
+      if ((Fingerprint.mix(key) & (capacity - 1)) == slot) {
+        keys[found++] = key;
+      }
+    }
+    return keys;
+  }
+
+  @Test
+  void survivesRemovalsAndGrowth() {
+    LongHashSet set = new LongHashSet(4);
+    for (long i = 0; i < 10_000; i++) {
+      assertTrue(set.add(i * 7919));
+    }
+    for (long i = 0; i < 10_000; i += 2) {
+      assertTrue(set.remove(i * 7919));
+    }
+    for (long i = 0; i < 10_000; i++) {
+      assertEquals(i % 2 == 1, set.contains(i * 7919));
+    }
+    assertEquals(5_000, set.size());
+  }
+
+  @Test
+  void removalKeepsProbeRunsThatWrapPastTheEndOfTheTable() {
+    int capacity = LongHashSet.capacityFor(4);
+    long[] last = keysWithHome(capacity - 1, capacity, 3);
+    long[] first = keysWithHome(0, capacity, 1);
+    long[] second = keysWithHome(1, capacity, 1);
+    LongHashSet set = new LongHashSet(4);
+    // One run from the last slot: last[0..2] wrap into slots 0 and 1, pushing first to slot 2 and
+    // second to slot 3
+    for (long key : new long[] {last[0], last[1], last[2], first[0], second[0]}) {
+      assertTrue(set.add(key));
+    }
+
+    assertTrue(set.remove(last[0]));
+    assertFalse(set.contains(last[0]));
+    for (long key : new long[] {last[1], last[2], first[0], second[0]}) {
+      assertTrue(set.contains(key));
+    }
+
+    assertTrue(set.remove(first[0]));
+    for (long key : new long[] {last[1], last[2], second[0]}) {
+      assertTrue(set.contains(key));
+    }
+    assertEquals(3, set.size());
+    assertFalse(set.add(second[0]));
+    assertTrue(set.add(last[0]));
+    assertTrue(set.add(first[0]));
+    assertEquals(5, set.size());
+  }
+
+  @Test
+  void tracksZeroSeparately() {
+    LongHashSet set = new LongHashSet(4);
+    assertFalse(set.contains(0));
+    assertTrue(set.add(0));
+    assertFalse(set.add(0));
+    assertTrue(set.contains(0));
+    assertEquals(1, set.size());
+    assertTrue(set.remove(0));
+    assertFalse(set.remove(0));
+    assertEquals(0, set.size());
+  }
+}
@@ -1,6 +1,8 @@
 package com.joegarb.crawler;
 
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import org.junit.jupiter.api.Test;
 
@@ -10,4 +12,19 @@ class MainTest {
   void mainClassExists() {
     assertNotNull(Main.class);
   }
+
+  @Test
+  void virtualWorkerModeStartsVirtualThreads() throws InterruptedException {
+    Thread thread = Main.workerThreadBuilder("virtual").start(() -> {});
+    thread.join();
+    assertTrue(thread.isVirtual());
+    assertTrue(thread.getName().startsWith("worker-"));
+  }
+
+  @Test
+  void platformWorkerModeStartsPlatformThreads() throws InterruptedException {
+    Thread thread = Main.workerThreadBuilder("platform").start(() -> {});
+    thread.join();
+    assertFalse(thread.isVirtual());
+  }
 }
@@ -1,6 +1,9 @@
 package com.joegarb.crawler;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.sql.Connection;
@@ -8,11 +11,14 @@ import java.sql.DriverManager;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.List;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 /** Tests for MetadataStore. */
 class MetadataStoreTest {
+  private static final long SIX_MINUTES_MS = 6 * 60 * 1000L;
+  private static final long TWENTY_FIVE_HOURS_MS = 25 * 60 * 60 * 1000L;
   private Connection conn;
 
   @BeforeEach
@@ -44,16 +50,16 @@ class MetadataStoreTest {
     MetadataStore.markAsCrawled(conn, normalizedUrl, 200, null);
 
     // Get original timestamp
-    String originalTimestamp;
+    long originalTimestamp;
     try (Statement statement = conn.createStatement();
         ResultSet resultSet =
             statement.executeQuery(
                 "SELECT crawled_at FROM crawled_urls WHERE url = '" + normalizedUrl + "'")) {
       assertTrue(resultSet.next());
-      originalTimestamp = resultSet.getString("crawled_at");
+      originalTimestamp = resultSet.getLong("crawled_at");
     }
 
-    Thread.sleep(1100); // Ensure timestamp will be different
+    Thread.sleep(10); // Ensure timestamp will be different
 
     MetadataStore.markAsCrawled(conn, normalizedUrl, 200, null);
     // Verify timestamp was updated
@@ -62,8 +68,8 @@ class MetadataStoreTest {
             statement.executeQuery(
                 "SELECT crawled_at FROM crawled_urls WHERE url = '" + normalizedUrl + "'")) {
       assertTrue(resultSet.next());
-      String updatedTimestamp = resultSet.getString("crawled_at");
-      assertTrue(updatedTimestamp.compareTo(originalTimestamp) > 0);
+      long updatedTimestamp = resultSet.getLong("crawled_at");
+      assertTrue(updatedTimestamp > originalTimestamp);
     }
   }
 
@@ -75,7 +81,11 @@ class MetadataStoreTest {
     // Set crawled_at to be older than the retry interval (5 minutes)
     try (Statement statement = conn.createStatement()) {
       statement.execute(
-          "UPDATE crawled_urls SET crawled_at = datetime('now', '-6 minutes') WHERE url = '"
+          "UPDATE crawled_urls SET crawled_at = crawled_at - "
+              + SIX_MINUTES_MS
+              + ", next_fetch_at = next_fetch_at - "
+              + SIX_MINUTES_MS
+              + " WHERE url = '"
               + normalizedUrl
               + "'");
     }
@@ -92,7 +102,11 @@ class MetadataStoreTest {
     // Set crawled_at to be older than the refresh interval (24 hours)
     try (Statement statement = conn.createStatement()) {
       statement.execute(
-          "UPDATE crawled_urls SET crawled_at = datetime('now', '-25 hours') WHERE url = '"
+          "UPDATE crawled_urls SET crawled_at = crawled_at - "
+              + TWENTY_FIVE_HOURS_MS
+              + ", next_fetch_at = next_fetch_at - "
+              + TWENTY_FIVE_HOURS_MS
+              + " WHERE url = '"
               + normalizedUrl
               + "'");
     }
@@ -109,4 +123,283 @@ class MetadataStoreTest {
     // crawled_at is recent (just set), so should return true
     assertTrue(MetadataStore.hasBeenCrawled(conn, normalizedUrl));
   }
+
+  @Test
+  void filterUncrawledMatchesHasBeenCrawled() throws SQLException {
+    String fresh = UrlNormalizer.normalize("https://example.com/fresh");
+    String staleSuccess = UrlNormalizer.normalize("https://example.com/stale-success");
+    String staleFailure = UrlNormalizer.normalize("https://example.com/stale-failure");
+    String recentFailure = UrlNormalizer.normalize("https://example.com/recent-failure");
+    String neverCrawled = UrlNormalizer.normalize("https://example.com/new");
+    MetadataStore.markAsCrawled(conn, fresh, 200, null);
+    MetadataStore.markAsCrawled(conn, staleSuccess, 200, null);
+    MetadataStore.markAsCrawled(conn, staleFailure, null, "Network error");
+    MetadataStore.markAsCrawled(conn, recentFailure, 500, "Server error");
+    try (Statement statement = conn.createStatement()) {
+      statement.execute(
+          "UPDATE crawled_urls SET crawled_at = crawled_at - "
+              + TWENTY_FIVE_HOURS_MS
+              + ", next_fetch_at = next_fetch_at - "
+              + TWENTY_FIVE_HOURS_MS
+              + " WHERE url = '"
+              + staleSuccess
+              + "'");
+      statement.execute(
+          "UPDATE crawled_urls SET crawled_at = crawled_at - "
+              + SIX_MINUTES_MS
+              + ", next_fetch_at = next_fetch_at - "
+              + SIX_MINUTES_MS
+              + " WHERE url = '"
+              + staleFailure
+              + "'");
+    }
+
+    List<String> urls = List.of(fresh, staleSuccess, staleFailure, recentFailure, neverCrawled);
+    List<String> uncrawled = MetadataStore.filterUncrawled(conn, urls);
+
+    assertEquals(List.of(staleSuccess, staleFailure, neverCrawled), uncrawled);
+    for (String url : urls) {
+      assertEquals(!MetadataStore.hasBeenCrawled(conn, url), uncrawled.contains(url));
+    }
+  }
+
+  @Test
+  void filterUncrawledRemovesDuplicates() throws SQLException {
+    List<String> uncrawled =
+        MetadataStore.filterUncrawled(
+            conn,
+            List.of("https://example.com/a", "https://example.com/a", "https://example.com/b"));
+    assertEquals(List.of("https://example.com/a", "https://example.com/b"), uncrawled);
+    assertTrue(MetadataStore.filterUncrawled(conn, List.of()).isEmpty());
+  }
+
+  @Test
+  void createTableMigratesLegacyTable() throws SQLException {
+    Connection legacy = DriverManager.getConnection("jdbc:sqlite::memory:");
+    try (Statement statement = legacy.createStatement()) {
+      // Schema written by versions before numeric timestamps
+      statement.execute(
+          "CREATE TABLE crawled_urls ("
+              + "url TEXT PRIMARY KEY,"
+              + "crawled_at TEXT NOT NULL DEFAULT (datetime('now')),"
+              + "http_status_code INTEGER,"
+              + "error_message TEXT"
+              + ")");
+      statement.execute(
+          "INSERT INTO crawled_urls (url, http_status_code) VALUES ('https://example.com/', 200)");
+      statement.execute(
+          "INSERT INTO crawled_urls (url, crawled_at, http_status_code) "
+              + "VALUES ('https://example.com/old', '2024-01-01 00:00:00', 200)");
+    }
+
+    MetadataStore.createTable(legacy);
+
+    try (Statement statement = legacy.createStatement();
+        ResultSet resultSet =
+            statement.executeQuery(
+                "SELECT crawled_at, next_fetch_at FROM crawled_urls "
+                    + "WHERE url = 'https://example.com/old'")) {
+      assertTrue(resultSet.next());
+      assertEquals(1704067200000L, resultSet.getLong("crawled_at"));
+      assertEquals(
+          1704067200000L + Configuration.SUCCESS_REFRESH_INTERVAL_SECONDS * 1000L,
+          resultSet.getLong("next_fetch_at"));
+    }
+    // Freshness is preserved across the migration
+    assertTrue(MetadataStore.hasBeenCrawled(legacy, "https://example.com/"));
+    assertFalse(MetadataStore.hasBeenCrawled(legacy, "https://example.com/old"));
+  }
+
+  @Test
+  void storesValidatorsForSuccessfulCrawls() throws SQLException {
+    MetadataStore.PageValidators validators =
+        new MetadataStore.PageValidators("\"abc\"", "Wed, 21 Oct 2015 07:28:00 GMT", 42L);
+    MetadataStore.markAsCrawled(conn, "https://example.com/", 200, null, validators);
+    MetadataStore.markAsCrawled(conn, "https://example.com/failed", 500, "HTTP error", null);
+    MetadataStore.markAsCrawled(conn, "https://example.com/bare", 200, null);
+
+    assertEquals(validators, MetadataStore.getValidators(conn, "https://example.com/"));
+    assertNull(MetadataStore.getValidators(conn, "https://example.com/failed"));
+    assertNull(MetadataStore.getValidators(conn, "https://example.com/bare"));
+    assertNull(MetadataStore.getValidators(conn, "https://example.com/never"));
+  }
+
+  @Test
+  void markAsNotModifiedKeepsValidatorsAndSchedulesRefresh() throws SQLException {
+    MetadataStore.PageValidators validators = new MetadataStore.PageValidators("\"v1\"", null, 7L);
+    MetadataStore.markAsCrawled(conn, "https://example.com/", 200, null, validators);
+    try (Statement statement = conn.createStatement()) {
+      statement.executeUpdate(
+          "UPDATE crawled_urls SET crawled_at = crawled_at - "
+              + TWENTY_FIVE_HOURS_MS
+              + ", next_fetch_at = next_fetch_at - "
+              + TWENTY_FIVE_HOURS_MS);
+    }
+    assertFalse(MetadataStore.hasBeenCrawled(conn, "https://example.com/"));
+
+    MetadataStore.markAsNotModified(conn, "https://example.com/");
+
+    assertTrue(MetadataStore.hasBeenCrawled(conn, "https://example.com/"));
+    assertEquals(validators, MetadataStore.getValidators(conn, "https://example.com/"));
+  }
+
+  @Test
+  void createTableAddsValidatorColumnsToExistingTable() throws SQLException {
+    Connection previous = DriverManager.getConnection("jdbc:sqlite::memory:");
+    try (Statement statement = previous.createStatement()) {
+      statement.execute(
+          "CREATE TABLE crawled_urls (url TEXT PRIMARY KEY, crawled_at INTEGER NOT NULL,"
+              + " next_fetch_at INTEGER NOT NULL, http_status_code INTEGER, error_message TEXT)"
+              + " WITHOUT ROWID");
+      statement.execute(
+          "INSERT INTO crawled_urls VALUES ('https://example.com/', 0, 9999999999999, 200, NULL)");
+    }
+
+    MetadataStore.createTable(previous);
+
+    assertNull(MetadataStore.getValidators(previous, "https://example.com/"));
+    assertTrue(MetadataStore.hasBeenCrawled(previous, "https://example.com/"));
+    MetadataStore.markAsCrawled(
+        previous,
+        "https://example.com/",
+        200,
+        null,
+        new MetadataStore.PageValidators("\"x\"", null, null));
+    assertEquals("\"x\"", MetadataStore.getValidators(previous, "https://example.com/").etag());
+    assertNotNull(DatabaseManager.columnType(previous, "crawled_urls", "refresh_interval"));
+    assertNotNull(DatabaseManager.columnType(previous, "crawled_urls", "retry_interval"));
+  }
+
+  private long refreshInterval(String url) throws SQLException {
+    try (Statement statement = conn.createStatement();
+        ResultSet resultSet =
+            statement.executeQuery(
+                "SELECT refresh_interval, next_fetch_at - crawled_at FROM crawled_urls "
+                    + "WHERE url = '"
+                    + url
+                    + "'")) {
+      assertTrue(resultSet.next());
+      // The next fetch is always one interval after the crawl
+      assertEquals(resultSet.getLong(1), resultSet.getLong(2));
+      return resultSet.getLong(1);
+    }
+  }
+
+  private long retryDelay(String url) throws SQLException {
+    try (Statement statement = conn.createStatement();
+        ResultSet resultSet =
+            statement.executeQuery(
+                "SELECT retry_interval, next_fetch_at - crawled_at FROM crawled_urls "
+                    + "WHERE url = '"
+                    + url
+                    + "'")) {
+      assertTrue(resultSet.next());
+      // A failed URL is retried one retry interval after the crawl
+      assertEquals(resultSet.getLong(1), resultSet.getLong(2));
+      return resultSet.getLong(1);
+    }
+  }
+
+  @Test
+  void refreshIntervalAdaptsToContentChanges() throws SQLException {
+    String url = "https://example.com/";
+    long initial = Configuration.SUCCESS_REFRESH_INTERVAL_SECONDS * 1000L;
+    MetadataStore.markAsCrawled(
+        conn, url, 200, null, new MetadataStore.PageValidators(null, null, 1L));
+    assertEquals(initial, refreshInterval(url));
+
+    // Unchanged content, then 304 Not Modified, double the interval
+    MetadataStore.markAsCrawled(
+        conn, url, 200, null, new MetadataStore.PageValidators(null, null, 1L));
+    assertEquals(2 * initial, refreshInterval(url));
+    MetadataStore.markAsNotModified(conn, url);
+    assertEquals(4 * initial, refreshInterval(url));
+
+    // Changed content halves it
+    MetadataStore.markAsCrawled(
+        conn, url, 200, null, new MetadataStore.PageValidators(null, null, 2L));
+    assertEquals(2 * initial, refreshInterval(url));
+
+    // A failure is retried sooner but keeps the interval for the next success
+    MetadataStore.markAsCrawled(conn, url, 500, "HTTP error", null);
+    MetadataStore.markAsCrawled(
+        conn, url, 200, null, new MetadataStore.PageValidators(null, null, 3L));
+    assertEquals(2 * initial, refreshInterval(url));
+  }
+
+  @Test
+  void consecutiveFailuresBackOffUntilASuccess() throws SQLException {
+    String url = "https://example.com/gone";
+    long first = Configuration.FAILED_RETRY_INTERVAL_SECONDS * 1000L;
+    MetadataStore.markAsCrawled(conn, url, 404, "HTTP error", null);
+    assertEquals(first, retryDelay(url));
+    MetadataStore.markAsCrawled(conn, url, 404, "HTTP error", null);
+    assertEquals(2 * first, retryDelay(url));
+    MetadataStore.markAsCrawled(conn, url, null, "Network error", null);
+    assertEquals(4 * first, retryDelay(url));
+
+    // A success resets the backoff
+    MetadataStore.markAsCrawled(conn, url, 200, null, null);
+    MetadataStore.markAsCrawled(conn, url, 410, "HTTP error", null);
+    assertEquals(first, retryDelay(url));
+  }
+
+  @Test
+  void retryIntervalStaysWithinBounds() {
+    long max = Configuration.RECRAWL_MAX_INTERVAL_SECONDS * 1000L;
+    assertEquals(
+        Configuration.FAILED_RETRY_INTERVAL_SECONDS * 1000L, MetadataStore.retryInterval(null));
+    assertEquals(max, MetadataStore.retryInterval(max));
+  }
+
+  @Test
+  void refreshIntervalStaysWithinBounds() {
+    long min = Configuration.RECRAWL_MIN_INTERVAL_SECONDS * 1000L;
+    long max = Configuration.RECRAWL_MAX_INTERVAL_SECONDS * 1000L;
+    assertEquals(min, MetadataStore.refreshInterval(min, true));
+    assertEquals(max, MetadataStore.refreshInterval(max, false));
+    assertEquals(
+        Configuration.SUCCESS_REFRESH_INTERVAL_SECONDS * 1000L,
+        MetadataStore.refreshInterval(null, null));
+  }
+
+  @Test
+  void takeDueUrlsTakesMostOverdueFirstAndPostponesThem() throws SQLException {
+    for (String page : List.of("a", "b", "c", "fresh")) {
+      MetadataStore.markAsCrawled(conn, "https://example.com/" + page, 200, null);
+    }
+    try (Statement statement = conn.createStatement()) {
+      statement.executeUpdate("UPDATE crawled_urls SET next_fetch_at = 3 WHERE url LIKE '%/a'");
+      statement.executeUpdate("UPDATE crawled_urls SET next_fetch_at = 1 WHERE url LIKE '%/b'");
+      statement.executeUpdate("UPDATE crawled_urls SET next_fetch_at = 2 WHERE url LIKE '%/c'");
+    }
+    long now = System.currentTimeMillis();
+
+    assertEquals(
+        List.of("https://example.com/b", "https://example.com/c"),
+        MetadataStore.takeDueUrls(conn, now, 2, now + SIX_MINUTES_MS));
+    assertEquals(
+        List.of("https://example.com/a"),
+        MetadataStore.takeDueUrls(conn, now, 10, now + SIX_MINUTES_MS));
+    assertTrue(MetadataStore.takeDueUrls(conn, now, 10, now + SIX_MINUTES_MS).isEmpty());
+    // Taken URLs are due again once postponed
+    assertEquals(
+        3, MetadataStore.takeDueUrls(conn, now + SIX_MINUTES_MS, 10, Long.MAX_VALUE).size());
+  }
+
+  @Test
+  void takeDueUrlsUsesDueIndex() throws SQLException {
+    try (Statement statement = conn.createStatement();
+        ResultSet resultSet =
+            statement.executeQuery(
+                "EXPLAIN QUERY PLAN SELECT url FROM crawled_urls WHERE next_fetch_at <= 0 "
+                    + "ORDER BY next_fetch_at LIMIT 10")) {
+      StringBuilder plan = new StringBuilder();
+      while (resultSet.next()) {
+        plan.append(resultSet.getString("detail")).append('\n');
+      }
+      assertTrue(plan.toString().contains("crawled_urls_due"), plan.toString());
+      assertFalse(plan.toString().contains("TEMP B-TREE"), plan.toString());
+    }
+  }
 }
@@ -0,0 +1,139 @@
+package com.joegarb.crawler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.sun.net.httpserver.HttpServer;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.DoubleSupplier;
+import javax.management.ObjectName;
+import org.junit.jupiter.api.Test;
+
+/** Tests for Metrics and its JMX and HTTP exporters. */
+class MetricsTest {
+
+  @Test
+  void registeringTwiceReturnsTheSameMetric() {
+    Metrics.Counter counter = Metrics.counter("test_same_total", "Test counter");
+    assertSame(counter, Metrics.counter("test_same_total", "Test counter"));
+    assertThrows(
+        IllegalArgumentException.class, () -> Metrics.latency("test_same_total", "Not a counter"));
+  }
+
+  @Test
+  void rendersCountersAndHistogramsInPrometheusFormat() {
+    Metrics.counter("test_status_total", "Test statuses", "class", "2xx").add(3);
+    Metrics.counter("test_status_total", "Test statuses", "class", "4xx").increment();
+    Metrics.Histogram histogram = Metrics.histogram("test_sizes", "Test sizes", 1, 10);
+    histogram.record(0);
+    histogram.record(5);
+    histogram.record(50);
+
+    String text = Metrics.prometheusText();
+
+    assertTrue(text.contains("# HELP test_status_total Test statuses\n"));
+    assertTrue(text.contains("# TYPE test_status_total counter\n"));
+    assertTrue(text.contains("test_status_total{class=\"2xx\"} 3\n"));
+    assertTrue(text.contains("test_status_total{class=\"4xx\"} 1\n"));
+    assertTrue(text.contains("# TYPE test_sizes histogram\n"));
+    // Buckets are cumulative
+    assertTrue(text.contains("test_sizes_bucket{le=\"1\"} 1\n"));
+    assertTrue(text.contains("test_sizes_bucket{le=\"10\"} 2\n"));
+    assertTrue(text.contains("test_sizes_bucket{le=\"+Inf\"} 3\n"));
+    assertTrue(text.contains("test_sizes_sum 55\n"));
+    assertTrue(text.contains("test_sizes_count 3\n"));
+  }
+
+  @Test
+  void exportsLatencyInSeconds() {
+    Metrics.Histogram latency = Metrics.latency("test_latency_seconds", "Test latency");
+    latency.record(2_000_000); // 2 ms
+
+    String text = Metrics.prometheusText();
+
+    assertTrue(text.contains("test_latency_seconds_bucket{le=\"0.001\"} 0\n"));
+    assertTrue(text.contains("test_latency_seconds_bucket{le=\"0.0025\"} 1\n"));
+    assertTrue(text.contains("test_latency_seconds_sum 0.002\n"));
+  }
+
+  @Test
+  void omitsFailingGauges() {
+    Metrics.gauge("test_gauge", "Test gauge", () -> 7);
+    Metrics.gauge(
+        "test_broken_gauge",
+        "Broken gauge",
+        () -> {
+          throw new IllegalStateException("unavailable");
+        });
+
+    String text = Metrics.prometheusText();
+
+    assertTrue(text.contains("test_gauge 7\n"));
+    assertTrue(!text.contains("test_broken_gauge"));
+    assertEquals(7.0, Metrics.snapshot().get("test_gauge"));
+  }
+
+  @Test
+  void exposesMetricsOverJmx() throws Exception {
+    Metrics.counter("test_jmx_total", "Test JMX counter").add(4);
+    MetricsJmx.register();
+    MetricsJmx.register();
+
+    Object value =
+        ManagementFactory.getPlatformMBeanServer()
+            .getAttribute(new ObjectName(MetricsJmx.OBJECT_NAME), "test_jmx_total");
+
+    assertEquals(4.0, value);
+  }
+
+  @Test
+  void readsOnlyTheRequestedMetric() {
+    AtomicInteger reads = new AtomicInteger();
+    Metrics.gauge("test_counted_gauge", "Counted gauge", reads::incrementAndGet);
+    Metrics.histogram("test_read_seconds", "Test histogram", 1).record(3);
+
+    assertEquals(3.0, Metrics.value("test_read_seconds.sum"));
+    assertEquals(1.0, Metrics.value("test_read_seconds.count"));
+    assertNull(Metrics.value("test_read_seconds"));
+    assertTrue(Metrics.keys().contains("test_counted_gauge"));
+    assertEquals(0, reads.get());
+    assertEquals(1.0, Metrics.value("test_counted_gauge"));
+  }
+
+  @Test
+  void cachedGaugeReusesRecentValue() {
+    AtomicInteger reads = new AtomicInteger();
+    DoubleSupplier gauge = Metrics.cached(60_000, reads::incrementAndGet);
+    assertEquals(1.0, gauge.getAsDouble());
+    assertEquals(1.0, gauge.getAsDouble());
+    assertEquals(2.0, Metrics.cached(0, reads::incrementAndGet).getAsDouble());
+  }
+
+  @Test
+  void servesMetricsOverHttp() throws Exception {
+    Metrics.counter("test_http_total", "Test HTTP counter").increment();
+    HttpServer server = MetricsServer.start(0);
+    assertNotNull(server);
+    try {
+      URI uri = URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/metrics");
+      HttpResponse<String> response =
+          HttpClient.newHttpClient()
+              .send(HttpRequest.newBuilder(uri).build(), HttpResponse.BodyHandlers.ofString());
+
+      assertEquals(200, response.statusCode());
+      assertTrue(response.headers().firstValue("Content-Type").orElse("").startsWith("text/plain"));
+      assertTrue(response.body().contains("test_http_total 1\n"));
+    } finally {
+      server.stop(0);
+    }
+  }
+}
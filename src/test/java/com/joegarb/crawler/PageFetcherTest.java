@@ -0,0 +1,322 @@
+package com.joegarb.crawler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.http.HttpHeaders;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/** Tests for PageFetcher against a local HTTP server. */
+class PageFetcherTest {
+  private static final int PDF_BYTES = 4 * 1024 * 1024;
+  private static final int MAX_BODY_BYTES = 64 * 1024;
+  private static final String HTML =
+      "<html><body>" + "<a href=\"/page\">Link</a> ".repeat(200) + "café</body></html>";
+
+  private HttpServer server;
+  private String baseUrl;
+  private final AtomicReference<String> acceptEncoding = new AtomicReference<>();
+  private final AtomicReference<String> ifNoneMatch = new AtomicReference<>();
+  private final AtomicReference<String> ifModifiedSince = new AtomicReference<>();
+  private final PageFetcher fetcher = new PageFetcher(MAX_BODY_BYTES);
+
+  @BeforeEach
+  void setUp() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/gzip", exchange -> respond(exchange, "gzip", gzip(html())));
+    server.createContext("/deflate", exchange -> respond(exchange, "deflate", deflate(true)));
+    server.createContext("/raw-deflate", exchange -> respond(exchange, "deflate", deflate(false)));
+    server.createContext("/plain", exchange -> respond(exchange, null, html()));
+    server.createContext("/corrupt", exchange -> respond(exchange, "gzip", html()));
+    server.createContext(
+        "/meta-latin1",
+        exchange -> {
+          byte[] body =
+              "<html><head><meta charset=\"iso-8859-1\"></head><body>café</body></html>"
+                  .getBytes(StandardCharsets.ISO_8859_1);
+          exchange.getResponseHeaders().set("Content-Type", "text/html");
+          exchange.sendResponseHeaders(200, body.length);
+          try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+          }
+        });
+    server.createContext("/large", exchange -> respond(exchange, null, large()));
+    server.createContext("/large-gzip", exchange -> respond(exchange, "gzip", gzip(large())));
+    server.createContext("/huge-gzip", exchange -> respond(exchange, "gzip", gzip(huge())));
+    server.createContext(
+        "/pdf", exchange -> respond(exchange, "application/pdf", null, 200, PDF_BYTES, true));
+    server.createContext(
+        "/pdf-chunked",
+        exchange -> respond(exchange, "application/pdf", null, 200, PDF_BYTES, false));
+    server.createContext(
+        "/missing", exchange -> respond(exchange, "text/html", null, 404, html().length, true));
+    server.createContext(
+        "/conditional",
+        exchange -> {
+          ifNoneMatch.set(exchange.getRequestHeaders().getFirst("If-None-Match"));
+          ifModifiedSince.set(exchange.getRequestHeaders().getFirst("If-Modified-Since"));
+          if ("\"v1\"".equals(ifNoneMatch.get())) {
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+          } else {
+            exchange.getResponseHeaders().set("ETag", "\"v1\"");
+            respond(exchange, null, html());
+          }
+        });
+    server.start();
+    baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+  }
+
+  @AfterEach
+  void tearDown() {
+    server.stop(0);
+  }
+
+  private void respond(com.sun.net.httpserver.HttpExchange exchange, String encoding, byte[] body)
+      throws IOException {
+    acceptEncoding.set(exchange.getRequestHeaders().getFirst("Accept-Encoding"));
+    exchange.getResponseHeaders().set("Content-Type", "text/html; charset=UTF-8");
+    if (encoding != null) {
+      exchange.getResponseHeaders().set("Content-Encoding", encoding);
+    }
+    exchange.sendResponseHeaders(200, body.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(body);
+    }
+  }
+
+  /** Streams a body of filler bytes, stopping quietly if the client goes away. */
+  private void respond(
+      com.sun.net.httpserver.HttpExchange exchange,
+      String contentType,
+      String encoding,
+      int status,
+      int length,
+      boolean sendLength)
+      throws IOException {
+    exchange.getResponseHeaders().set("Content-Type", contentType);
+    exchange.sendResponseHeaders(status, sendLength ? length : 0);
+    byte[] chunk = new byte[8192];
+    try (OutputStream out = exchange.getResponseBody()) {
+      for (int written = 0; written < length; written += chunk.length) {
+        out.write(chunk, 0, Math.min(chunk.length, length - written));
+      }
+    } catch (IOException e) {
+      // Expected when the client cancels the body
+    }
+  }
+
+  private static byte[] html() {
+    return HTML.getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static byte[] large() {
+    return ("<html><body>" + "<a href=\"/page\">Link</a>\n".repeat(20_000) + "</body></html>")
+        .getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static byte[] huge() {
+    StringBuilder html = new StringBuilder("<html><body>");
+    for (int i = 0; i < 200_000; i++) {
+      html.append("<a href=\"/page/").append(i * 7919L % 1_000_003).append("\">Link</a>\n");
+    }
+    return html.append("</body></html>").toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static byte[] gzip(byte[] data) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+      out.write(data);
+    }
+    return bytes.toByteArray();
+  }
+
+  private static byte[] deflate(boolean zlibWrapped) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, !zlibWrapped);
+    try (DeflaterOutputStream out = new DeflaterOutputStream(bytes, deflater)) {
+      out.write(html());
+    } finally {
+      deflater.end();
+    }
+    return bytes.toByteArray();
+  }
+
+  @Test
+  void requestsCompressionAndDecodesGzip() {
+    long receivedBefore = CrawlStats.bytesReceived();
+    long decodedBefore = CrawlStats.bytesDecoded();
+
+    PageFetcher.FetchResult result = fetcher.fetch(baseUrl + "/gzip");
+
+    assertTrue(result.success(), result.errorMessage());
+    assertEquals(HTML, result.response().body());
+    assertTrue(acceptEncoding.get().contains("gzip"));
+    long received = CrawlStats.bytesReceived() - receivedBefore;
+    long decoded = CrawlStats.bytesDecoded() - decodedBefore;
+    assertEquals(html().length, decoded);
+    assertTrue(received < decoded / 5, "Received " + received + " of " + decoded);
+  }
+
+  @Test
+  void decodesZlibAndRawDeflate() {
+    assertEquals(HTML, fetcher.fetch(baseUrl + "/deflate").response().body());
+    assertEquals(HTML, fetcher.fetch(baseUrl + "/raw-deflate").response().body());
+  }
+
+  @Test
+  void passesUncompressedBodiesThrough() {
+    PageFetcher.FetchResult result = fetcher.fetch(baseUrl + "/plain");
+
+    assertTrue(result.success());
+    assertTrue(result.isHtml());
+    assertEquals(HTML, result.response().body());
+  }
+
+  @Test
+  void asyncFetchDecodesGzip() {
+    PageFetcher.FetchResult result = fetcher.fetchAsync(baseUrl + "/gzip").join();
+
+    assertTrue(result.success(), result.errorMessage());
+    assertEquals(HTML, result.response().body());
+  }
+
+  @Test
+  void reportsCorruptCompressedBodyAsFailure() {
+    PageFetcher.FetchResult result = fetcher.fetch(baseUrl + "/corrupt");
+
+    assertFalse(result.success());
+  }
+
+  @Test
+  void decodesWithCharsetDeclaredInMeta() {
+    PageFetcher.FetchResult result = fetcher.fetch(baseUrl + "/meta-latin1");
+
+    assertTrue(result.success(), result.errorMessage());
+    assertTrue(result.response().body().contains("café"), result.response().body());
+  }
+
+  @Test
+  void sendsValidatorsAndReportsNotModified() {
+    PageFetcher.FetchResult first = fetcher.fetch(baseUrl + "/conditional");
+    assertNull(ifNoneMatch.get());
+    assertFalse(first.isNotModified());
+    assertEquals("\"v1\"", first.response().headers().firstValue("ETag").orElse(null));
+
+    MetadataStore.PageValidators validators =
+        new MetadataStore.PageValidators("\"v1\"", "Wed, 21 Oct 2015 07:28:00 GMT", null);
+    PageFetcher.FetchResult second = fetcher.fetch(baseUrl + "/conditional", validators);
+
+    assertEquals("\"v1\"", ifNoneMatch.get());
+    assertEquals("Wed, 21 Oct 2015 07:28:00 GMT", ifModifiedSince.get());
+    assertTrue(second.success());
+    assertTrue(second.isNotModified());
+    assertNull(second.errorMessage());
+    assertEquals(304, second.httpStatusCode());
+  }
+
+  @Test
+  void discardsNonHtmlBodyWithoutReadingIt() {
+    long skippedBefore = CrawlStats.bodiesSkipped();
+    long avoidedBefore = CrawlStats.bytesAvoided();
+    long receivedBefore = CrawlStats.bytesReceived();
+
+    PageFetcher.FetchResult result = fetcher.fetch(baseUrl + "/pdf");
+
+    assertTrue(result.success(), result.errorMessage());
+    assertFalse(result.isHtml());
+    assertEquals("", result.response().body());
+    assertEquals(1, CrawlStats.bodiesSkipped() - skippedBefore);
+    assertEquals(PDF_BYTES, CrawlStats.bytesAvoided() - avoidedBefore);
+    assertEquals(0, CrawlStats.bytesReceived() - receivedBefore);
+  }
+
+  @Test
+  void discardsNonHtmlBodyOfUnknownLength() {
+    PageFetcher.FetchResult result = fetcher.fetchAsync(baseUrl + "/pdf-chunked").join();
+
+    assertTrue(result.success(), result.errorMessage());
+    assertEquals("", result.response().body());
+  }
+
+  @Test
+  void discardsErrorResponseBody() {
+    PageFetcher.FetchResult result = fetcher.fetch(baseUrl + "/missing");
+
+    assertFalse(result.success());
+    assertEquals(404, result.httpStatusCode());
+    assertEquals("", result.response().body());
+  }
+
+  @Test
+  void cutsOffOversizedHtml() {
+    long truncatedBefore = CrawlStats.bodiesTruncated();
+    long avoidedBefore = CrawlStats.bytesAvoided();
+
+    PageFetcher.FetchResult result = fetcher.fetch(baseUrl + "/large");
+
+    assertTrue(result.success(), result.errorMessage());
+    String body = result.response().body();
+    assertEquals(MAX_BODY_BYTES, body.length());
+    assertTrue(new String(large(), StandardCharsets.UTF_8).startsWith(body));
+    assertEquals(1, CrawlStats.bodiesTruncated() - truncatedBefore);
+    assertEquals(large().length - MAX_BODY_BYTES, CrawlStats.bytesAvoided() - avoidedBefore);
+  }
+
+  @Test
+  void cutsOffOversizedHtmlAfterDecompression() {
+    long truncatedBefore = CrawlStats.bodiesTruncated();
+
+    PageFetcher.FetchResult result = fetcher.fetch(baseUrl + "/large-gzip");
+
+    assertTrue(result.success(), result.errorMessage());
+    assertEquals(MAX_BODY_BYTES, result.response().body().length());
+    assertEquals(1, CrawlStats.bodiesTruncated() - truncatedBefore);
+  }
+
+  @Test
+  void stopsDownloadingCompressedBodyOnceDecodedLimitIsReached() throws IOException {
+    int compressedLength = gzip(huge()).length;
+    long truncatedBefore = CrawlStats.bodiesTruncated();
+    long avoidedBefore = CrawlStats.bytesAvoided();
+
+    PageFetcher.FetchResult result = fetcher.fetch(baseUrl + "/huge-gzip");
+
+    assertTrue(result.success(), result.errorMessage());
+    assertEquals(MAX_BODY_BYTES, result.response().body().length());
+    assertTrue(new String(huge(), StandardCharsets.UTF_8).startsWith(result.response().body()));
+    assertEquals(1, CrawlStats.bodiesTruncated() - truncatedBefore);
+    // Only the compressed bytes that decode to the limit are read, well short of the limit itself
+    assertTrue(CrawlStats.bytesAvoided() - avoidedBefore > compressedLength - MAX_BODY_BYTES);
+  }
+
+  @Test
+  void decodesTruncatedCompressedStreamAsFarAsItGoes() throws IOException {
+    byte[] compressed = gzip(large());
+    byte[] partial = Arrays.copyOf(compressed, compressed.length / 2);
+    HttpHeaders headers =
+        HttpHeaders.of(Map.of("Content-Encoding", List.of("gzip")), (name, value) -> true);
+
+    String body = ContentDecoder.decode(partial, partial.length, headers, Integer.MAX_VALUE, true);
+
+    assertFalse(body.isEmpty());
+    assertTrue(new String(large(), StandardCharsets.UTF_8).startsWith(body));
+  }
+}
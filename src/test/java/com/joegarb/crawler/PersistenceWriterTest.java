@@ -0,0 +1,258 @@
+package com.joegarb.crawler;
+
+import static com.joegarb.crawler.UrlNormalizer.NormalizedUrl;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+
+/** Tests for PersistenceWriter. */
+class PersistenceWriterTest {
+  @RegisterExtension final TestDatabase db = new TestDatabase();
+
+  /** Adds URLs to the frontier and claims them, as a worker would before processing them. */
+  private List<FrontierStore.FrontierUrl> claim(List<String> urls) throws SQLException {
+    try (Connection conn = db.open()) {
+      FrontierStore.addUrls(conn, urls);
+      return FrontierStore.claimUrls(conn, List.of(), urls.size());
+    }
+  }
+
+  private static Map<String, NormalizedUrl> links(String... urls) {
+    Map<String, NormalizedUrl> links = new LinkedHashMap<>();
+    for (String url : urls) {
+      links.put(url, UrlNormalizer.normalizeWithHost(url));
+    }
+    return links;
+  }
+
+  private static PersistenceWriter.PageWrite crawled(
+      FrontierStore.FrontierUrl page, Map<String, NormalizedUrl> links) {
+    return PersistenceWriter.PageWrite.crawled(page.id(), page.url(), 200, null, null, links);
+  }
+
+  @Test
+  void recordsPagesInBatchedTransactions() throws SQLException {
+    List<String> urls = new ArrayList<>();
+    for (int i = 0; i < 25; i++) {
+      urls.add("https://example.com/page" + i);
+    }
+    List<FrontierStore.FrontierUrl> pages = claim(urls);
+    long transactionsBefore = CrawlStats.writeTransactions();
+
+    try (PersistenceWriter writer =
+        new PersistenceWriter(db::open, new SqliteFrontier(db::open), 10, 60_000)) {
+      for (FrontierStore.FrontierUrl page : pages) {
+        writer.submit(crawled(page, links(page.url() + "/child")));
+      }
+    }
+
+    assertEquals(3, CrawlStats.writeTransactions() - transactionsBefore);
+    assertEquals(25, db.count("SELECT COUNT(*) FROM crawled_urls"));
+    assertEquals(25, db.count("SELECT COUNT(*) FROM frontier_queue"));
+    assertEquals(0, db.count("SELECT COUNT(*) FROM frontier_queue WHERE url NOT LIKE '%/child'"));
+  }
+
+  @Test
+  void flushesAfterInterval() throws Exception {
+    FrontierStore.FrontierUrl page = claim(List.of("https://example.com/")).get(0);
+
+    try (PersistenceWriter writer =
+        new PersistenceWriter(db::open, new SqliteFrontier(db::open), 100, 20)) {
+      writer.submit(crawled(page, Map.of()));
+      long deadline = System.currentTimeMillis() + 5_000;
+      while (db.count("SELECT COUNT(*) FROM crawled_urls") == 0
+          && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      assertEquals(1, db.count("SELECT COUNT(*) FROM crawled_urls"));
+    }
+  }
+
+  @Test
+  void skipsLinksToPagesCrawledEarlierInTheBatch() throws SQLException {
+    List<FrontierStore.FrontierUrl> pages =
+        claim(List.of("https://example.com/a", "https://example.com/b"));
+
+    try (PersistenceWriter writer =
+        new PersistenceWriter(db::open, new SqliteFrontier(db::open), 10, 60_000)) {
+      writer.submit(crawled(pages.get(0), Map.of()));
+      writer.submit(crawled(pages.get(1), links("https://example.com/a")));
+    }
+
+    assertEquals(2, db.count("SELECT COUNT(*) FROM crawled_urls"));
+    try (Connection conn = db.open()) {
+      assertFalse(FrontierStore.hasUrls(conn));
+    }
+  }
+
+  @Test
+  void recordsNotModifiedPages() throws SQLException {
+    FrontierStore.FrontierUrl page = claim(List.of("https://example.com/")).get(0);
+    try (Connection conn = db.open()) {
+      MetadataStore.markAsCrawled(conn, page.url(), 200, null);
+    }
+
+    try (PersistenceWriter writer =
+        new PersistenceWriter(db::open, new SqliteFrontier(db::open), 10, 60_000)) {
+      writer.submit(PersistenceWriter.PageWrite.notModified(page.id(), page.url()));
+    }
+
+    assertEquals(1, db.count("SELECT COUNT(*) FROM crawled_urls WHERE http_status_code = 200"));
+    try (Connection conn = db.open()) {
+      assertFalse(FrontierStore.hasUrls(conn));
+    }
+  }
+
+  @Test
+  void recordsPagesAndLinksInSeenFilterOnlyOnceCommitted() throws SQLException {
+    List<FrontierStore.FrontierUrl> pages =
+        claim(List.of("https://example.com/a", "https://example.com/b"));
+    SeenUrlFilter filter = new SeenUrlFilter(1_000, 0.0001);
+    try (PersistenceWriter writer =
+        new PersistenceWriter(
+            db::open, new SqliteFrontier(db::open), 10, 60_000, filter, () -> {})) {
+      writer.submit(crawled(pages.get(0), links("https://example.com/a/child")));
+    }
+    assertTrue(filter.mightContain("https://example.com/a"));
+    assertTrue(filter.mightContain("https://example.com/a/child"));
+
+    try (Connection conn = db.open();
+        Statement statement = conn.createStatement()) {
+      statement.executeUpdate("DROP TABLE crawled_urls");
+    }
+    try (PersistenceWriter writer =
+        new PersistenceWriter(
+            db::open, new SqliteFrontier(db::open), 10, 60_000, filter, () -> {})) {
+      writer.submit(crawled(pages.get(1), links("https://example.com/b/child")));
+    }
+    assertFalse(filter.mightContain("https://example.com/b"));
+    assertFalse(filter.mightContain("https://example.com/b/child"));
+  }
+
+  @Test
+  void looksUpOnlyLinksTheSeenFilterMayHaveSeen() throws SQLException {
+    FrontierStore.FrontierUrl page = claim(List.of("https://example.com/")).get(0);
+    try (Connection conn = db.open()) {
+      MetadataStore.markAsCrawled(conn, "https://example.com/fresh", 200, null);
+      MetadataStore.markAsCrawled(conn, "https://example.com/due", 200, null);
+      try (Statement statement = conn.createStatement()) {
+        statement.executeUpdate(
+            "UPDATE crawled_urls SET next_fetch_at = 0 WHERE url = 'https://example.com/due'");
+      }
+    }
+    SeenUrlFilter filter = new SeenUrlFilter(1_000, 0.0001);
+    filter.add("https://example.com/fresh");
+    filter.add("https://example.com/due");
+
+    try (PersistenceWriter writer =
+        new PersistenceWriter(
+            db::open, new SqliteFrontier(db::open), 10, 60_000, filter, () -> {})) {
+      writer.submit(
+          crawled(
+              page,
+              links(
+                  "https://example.com/new",
+                  "https://example.com/fresh",
+                  "https://example.com/due")));
+    }
+
+    assertEquals(3, filter.checked());
+    assertEquals(1, filter.unseen());
+    // The fresh page is skipped, but the due one is queued again for a refresh
+    assertEquals(2, db.count("SELECT COUNT(*) FROM frontier_queue"));
+    assertEquals(
+        0, db.count("SELECT COUNT(*) FROM frontier_queue WHERE url = 'https://example.com/fresh'"));
+  }
+
+  @Test
+  void looksUpLinksToPagesCrawledEarlierInTheBatch() throws SQLException {
+    // Queued by something other than the writer, so the filter has never seen them
+    List<FrontierStore.FrontierUrl> pages =
+        claim(List.of("https://example.com/a", "https://example.com/b"));
+    SeenUrlFilter filter = new SeenUrlFilter(1_000, 0.0001);
+    long transactionsBefore = CrawlStats.writeTransactions();
+    try (PersistenceWriter writer =
+        new PersistenceWriter(
+            db::open, new SqliteFrontier(db::open), 10, 60_000, filter, () -> {})) {
+      writer.submit(crawled(pages.get(0), links()));
+      writer.submit(crawled(pages.get(1), links("https://example.com/a")));
+    }
+
+    assertEquals(1, CrawlStats.writeTransactions() - transactionsBefore);
+    assertEquals(0, db.count("SELECT COUNT(*) FROM frontier_queue"));
+  }
+
+  @Test
+  void doesNotRequeuePagesCrawledByAnotherProcess() throws SQLException {
+    List<FrontierStore.FrontierUrl> pages =
+        claim(List.of("https://example.com/a", "https://example.com/b"));
+    // Both processes start before either has crawled anything
+    SeenUrlFilter firstFilter;
+    SeenUrlFilter secondFilter;
+    try (Connection conn = db.open()) {
+      firstFilter = SeenUrlFilter.open(conn, true);
+      secondFilter = SeenUrlFilter.open(conn, true);
+    }
+    SqliteFrontier firstFrontier = new SqliteFrontier(db::open);
+    try (PersistenceWriter first =
+        new PersistenceWriter(db::open, firstFrontier, 10, 60_000, firstFilter, () -> {})) {
+      first.submit(crawled(pages.get(0), links("https://example.com/c")));
+    }
+    // The first process then crawls a page the second one has never heard of
+    try (PersistenceWriter first =
+        new PersistenceWriter(db::open, firstFrontier, 10, 60_000, firstFilter, () -> {})) {
+      first.submit(crawled(firstFrontier.claim(List.of(), 1).get(0), links()));
+    }
+    try (PersistenceWriter second =
+        new PersistenceWriter(
+            db::open, new SqliteFrontier(db::open), 10, 60_000, secondFilter, () -> {})) {
+      second.submit(crawled(pages.get(1), links("https://example.com/c")));
+    }
+
+    assertEquals(0, db.count("SELECT COUNT(*) FROM frontier_queue"));
+    assertEquals(3, db.count("SELECT COUNT(*) FROM crawled_urls"));
+  }
+
+  @Test
+  void changesNonTransactionalFrontierOnlyOnceCommitted() throws SQLException {
+    try (InMemoryFrontier frontier = new InMemoryFrontier()) {
+      frontier.add(null, List.of(UrlNormalizer.normalizeWithHost("https://example.com/")));
+      FrontierStore.FrontierUrl page = frontier.claim(List.of(), 1).get(0);
+      try (Connection conn = db.open();
+          Statement statement = conn.createStatement()) {
+        statement.executeUpdate("DROP TABLE crawled_urls");
+      }
+
+      try (PersistenceWriter writer = new PersistenceWriter(db::open, frontier, 10, 60_000)) {
+        writer.submit(crawled(page, links("https://example.com/child")));
+      }
+
+      // The batch rolled back, so the page is still claimed and its link was not queued
+      assertEquals(1, frontier.count(true));
+      assertEquals(0, frontier.count(false));
+    }
+  }
+
+  @Test
+  void rejectsSubmissionsAfterClose() throws SQLException {
+    FrontierStore.FrontierUrl page = claim(List.of("https://example.com/")).get(0);
+    PersistenceWriter writer =
+        new PersistenceWriter(db::open, new SqliteFrontier(db::open), 10, 60_000);
+    writer.close();
+    writer.close();
+
+    SQLException e = assertThrows(SQLException.class, () -> writer.submit(crawled(page, Map.of())));
+    assertTrue(e.getMessage().contains("closed"), e.getMessage());
+  }
+}
@@ -0,0 +1,84 @@
+package com.joegarb.crawler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.Executors;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+
+/** Tests for Pipeline. */
+class PipelineTest {
+  private static final int PAGES = 30;
+
+  @RegisterExtension final TestDatabase db = new TestDatabase();
+  private HttpServer server;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    // A binary tree of pages: /page{n} links to /page{2n+1} and /page{2n+2}
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.setExecutor(Executors.newCachedThreadPool());
+    server.createContext(
+        "/",
+        exchange -> {
+          int n = Integer.parseInt(exchange.getRequestURI().getPath().substring("/page".length()));
+          StringBuilder html = new StringBuilder("<html><body>");
+          for (int child = 2 * n + 1; child <= 2 * n + 2 && child < PAGES; child++) {
+            html.append("<a href=\"/page").append(child).append("\">").append(child).append("</a>");
+          }
+          byte[] body = html.append("</body></html>").toString().getBytes(StandardCharsets.UTF_8);
+          exchange.getResponseHeaders().set("Content-Type", "text/html");
+          exchange.sendResponseHeaders(200, body.length);
+          try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+          }
+        });
+    server.start();
+  }
+
+  @AfterEach
+  void tearDown() {
+    server.stop(0);
+  }
+
+  @Test
+  void crawlsEveryPageThroughAllStages() throws SQLException {
+    try (Connection conn = db.open()) {
+      FrontierStore.addUrl(conn, "http://127.0.0.1:" + server.getAddress().getPort() + "/page0");
+    }
+
+    PolitenessScheduler politeness = new PolitenessScheduler(0);
+    FrontierBuffer frontier = new FrontierBuffer(new SqliteFrontier(db::open), politeness, 1, 4);
+    Pipeline pipeline;
+    try (PersistenceWriter writer =
+        new PersistenceWriter(db::open, new SqliteFrontier(db::open), 8, 20)) {
+      pipeline = new Pipeline(db::open, frontier, new PageFetcher(), writer, 4, 2, 2);
+      pipeline.run();
+    }
+
+    try (Connection conn = db.open();
+        Statement statement = conn.createStatement();
+        ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM crawled_urls")) {
+      resultSet.next();
+      assertEquals(PAGES, resultSet.getInt(1));
+      assertFalse(FrontierStore.hasUrls(conn));
+    }
+    Pipeline.Stats stats = pipeline.stats();
+    assertEquals(PAGES, stats.fetch().processed());
+    assertEquals(PAGES, stats.parse().processed());
+    assertEquals(0, stats.parseQueued());
+    assertEquals(2, stats.parseCapacity());
+  }
+}
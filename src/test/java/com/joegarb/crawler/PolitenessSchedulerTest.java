@@ -0,0 +1,49 @@
+package com.joegarb.crawler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/** Tests for PolitenessScheduler. */
+class PolitenessSchedulerTest {
+
+  @Test
+  void newHostIsReady() {
+    PolitenessScheduler scheduler = new PolitenessScheduler(1000);
+    assertTrue(scheduler.isReady("example.com"));
+    assertTrue(scheduler.coolingHosts().isEmpty());
+    assertEquals(Long.MAX_VALUE, scheduler.millisUntilNextReady());
+  }
+
+  @Test
+  void reservedHostCoolsDownWithoutAffectingOtherHosts() {
+    PolitenessScheduler scheduler = new PolitenessScheduler(60_000);
+    scheduler.reserve("a.example.com");
+
+    assertFalse(scheduler.isReady("a.example.com"));
+    assertTrue(scheduler.isReady("b.example.com"));
+    assertEquals(1, scheduler.coolingHosts().size());
+    assertTrue(scheduler.coolingHosts().contains("a.example.com"));
+    assertTrue(scheduler.millisUntilNextReady() > 0);
+  }
+
+  @Test
+  void concurrentReservationsForSameHostAreSpacedByDelay() {
+    PolitenessScheduler scheduler = new PolitenessScheduler(60_000);
+    long first = scheduler.reserve("example.com");
+    long second = scheduler.reserve("example.com");
+    assertTrue(second - first >= 60_000);
+  }
+
+  @Test
+  void hostBecomesReadyAfterDelay() throws InterruptedException {
+    PolitenessScheduler scheduler = new PolitenessScheduler(20);
+    scheduler.reserve("example.com");
+    Thread.sleep(40);
+    assertTrue(scheduler.isReady("example.com"));
+    assertEquals(Long.MAX_VALUE, scheduler.millisUntilNextReady());
+    assertTrue(scheduler.coolingHosts().isEmpty());
+  }
+}
@@ -0,0 +1,66 @@
+package com.joegarb.crawler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/** Tests for PriorityScorer and FrontierScorer.create. */
+class PriorityScorerTest {
+  private static UrlNormalizer.NormalizedUrl url(String host, int page) {
+    return new UrlNormalizer.NormalizedUrl("https://" + host + "/" + page, host);
+  }
+
+  @Test
+  void shallowerUrlsScoreHigher() {
+    PriorityScorer scorer = new PriorityScorer(1000);
+    assertTrue(scorer.score(url("a.com", 0), 0) > scorer.score(url("a.com", 1), 1));
+    assertTrue(scorer.score(url("a.com", 2), 1) > scorer.score(url("a.com", 3), 5));
+  }
+
+  @Test
+  void hostOverBudgetScoresLower() {
+    PriorityScorer scorer = new PriorityScorer(2);
+    assertEquals(-1.0, scorer.score(url("big.com", 0), 1));
+    assertEquals(-1.0, scorer.score(url("big.com", 1), 1));
+    // Half a budget over, then a full budget over
+    assertEquals(-1.5, scorer.score(url("big.com", 2), 1));
+    assertEquals(-2.0, scorer.score(url("big.com", 3), 1));
+    // Other hosts are unaffected
+    assertEquals(-1.0, scorer.score(url("small.com", 0), 1));
+  }
+
+  /** Custom scorer loaded by class name. */
+  public static class HostLengthScorer implements FrontierScorer {
+    public HostLengthScorer() {}
+
+    @Override
+    public double score(UrlNormalizer.NormalizedUrl url, int depth) {
+      return url.host().length();
+    }
+  }
+
+  @Test
+  void createsScorersByName() {
+    assertSame(FrontierScorer.FIFO, FrontierScorer.create("fifo", 10));
+    assertInstanceOf(PriorityScorer.class, FrontierScorer.create("priority", 10));
+    FrontierScorer custom = FrontierScorer.create(HostLengthScorer.class.getName(), 10);
+    assertInstanceOf(HostLengthScorer.class, custom);
+    assertEquals(5.0, custom.score(url("a.com", 0), 3));
+  }
+
+  @Test
+  void rejectsUnknownAndUnloadableScorers() {
+    assertThrows(IllegalArgumentException.class, () -> FrontierScorer.create("no.such.Scorer", 10));
+    // Not a scorer
+    assertThrows(
+        IllegalArgumentException.class, () -> FrontierScorer.create(String.class.getName(), 10));
+    // No public no-arg constructor
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> FrontierScorer.create(PriorityScorer.class.getName(), 10));
+  }
+}
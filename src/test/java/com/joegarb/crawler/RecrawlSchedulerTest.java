@@ -0,0 +1,69 @@
+package com.joegarb.crawler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+
+/** Tests for RecrawlScheduler. */
+class RecrawlSchedulerTest {
+  private static final long POSTPONE_MILLIS = 60_000;
+
+  @RegisterExtension final TestDatabase db = new TestDatabase();
+
+  @Test
+  void enqueuesDueUrlsInBatches() throws SQLException {
+    try (Connection conn = db.open()) {
+      for (int page = 0; page < 5; page++) {
+        MetadataStore.markAsCrawled(conn, "https://example.com/" + page, 200, null);
+      }
+      MetadataStore.markAsCrawled(conn, "https://example.com/fresh", 200, null);
+      try (Statement statement = conn.createStatement()) {
+        statement.executeUpdate(
+            "UPDATE crawled_urls SET next_fetch_at = 0 WHERE url NOT LIKE '%fresh'");
+      }
+    }
+    SqliteFrontier frontier = new SqliteFrontier(db::open);
+    AtomicInteger signals = new AtomicInteger();
+
+    try (RecrawlScheduler scheduler =
+        new RecrawlScheduler(db::open, frontier, 3, POSTPONE_MILLIS, signals::incrementAndGet)) {
+      assertEquals(3, scheduler.enqueueDue());
+      assertEquals(2, scheduler.enqueueDue());
+      // Enqueued URLs are postponed, and the fresh one is not due
+      assertEquals(0, scheduler.enqueueDue());
+      assertEquals(2, signals.get());
+    }
+
+    List<FrontierStore.FrontierUrl> claimed = frontier.claim(List.of(), 10);
+    assertEquals(5, claimed.size());
+    for (FrontierStore.FrontierUrl url : claimed) {
+      assertEquals("example.com", url.host());
+      assertFalse(url.url().endsWith("fresh"), url.url());
+    }
+  }
+
+  @Test
+  void enqueuesIntoNonTransactionalFrontierOnceCommitted() throws SQLException {
+    try (Connection conn = db.open()) {
+      MetadataStore.markAsCrawled(conn, "https://example.com/", 200, null);
+      try (Statement statement = conn.createStatement()) {
+        statement.executeUpdate("UPDATE crawled_urls SET next_fetch_at = 0");
+      }
+    }
+
+    try (InMemoryFrontier frontier = new InMemoryFrontier();
+        RecrawlScheduler scheduler =
+            new RecrawlScheduler(db::open, frontier, 3, POSTPONE_MILLIS, () -> {})) {
+      assertEquals(1, scheduler.enqueueDue());
+      assertEquals(1, frontier.count(false));
+      assertEquals(0, scheduler.enqueueDue());
+    }
+  }
+}
@@ -0,0 +1,78 @@
+package com.joegarb.crawler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+/** Tests for SeenUrlFilter. */
+class SeenUrlFilterTest {
+
+  @Test
+  void addedUrlsAreAlwaysReportedAsSeen() {
+    SeenUrlFilter filter = new SeenUrlFilter(10_000, 0.01);
+    for (int i = 0; i < 10_000; i++) {
+      filter.add("https://example.com/page/" + i);
+    }
+    for (int i = 0; i < 10_000; i++) {
+      assertTrue(filter.mightContain("https://example.com/page/" + i));
+    }
+  }
+
+  @Test
+  void falsePositiveRateStaysNearTarget() {
+    SeenUrlFilter filter = new SeenUrlFilter(10_000, 0.01);
+    for (int i = 0; i < 10_000; i++) {
+      filter.add("https://example.com/page/" + i);
+    }
+    int falsePositives = 0;
+    for (int i = 0; i < 100_000; i++) {
+      if (filter.mightContain("https://example.com/other/" + i)) {
+        falsePositives++;
+      }
+    }
+    assertTrue(falsePositives < 2_000, "False positives: " + falsePositives);
+  }
+
+  @Test
+  void filterMaybeSeenKeepsPossiblySeenUrlsAndCountsTheOthers() {
+    SeenUrlFilter filter = new SeenUrlFilter(1_000, 0.0001);
+    filter.add("https://example.com/a");
+    filter.add("https://example.com/c");
+
+    List<String> maybeSeen =
+        filter.filterMaybeSeen(
+            List.of("https://example.com/a", "https://example.com/b", "https://example.com/c"));
+
+    assertEquals(List.of("https://example.com/a", "https://example.com/c"), maybeSeen);
+    assertEquals(3, filter.checked());
+    assertEquals(1, filter.unseen());
+  }
+
+  @Test
+  void loadIncludesQueuedAndFreshUrlsButNotStaleOnes() throws SQLException {
+    try (Connection conn = DriverManager.getConnection("jdbc:sqlite::memory:")) {
+      FrontierStore.createTable(conn);
+      MetadataStore.createTable(conn);
+      FrontierStore.addUrl(conn, "https://example.com/queued");
+      MetadataStore.markAsCrawled(conn, "https://example.com/fresh", 200, null);
+      MetadataStore.markAsCrawled(conn, "https://example.com/stale", 200, null);
+      try (Statement statement = conn.createStatement()) {
+        statement.executeUpdate(
+            "UPDATE crawled_urls SET next_fetch_at = 0 WHERE url = 'https://example.com/stale'");
+      }
+
+      SeenUrlFilter filter = SeenUrlFilter.load(conn, 1_000, 0.0001);
+
+      assertTrue(filter.mightContain(UrlNormalizer.normalize("https://example.com/queued")));
+      assertTrue(filter.mightContain("https://example.com/fresh"));
+      assertFalse(filter.mightContain("https://example.com/stale"));
+    }
+  }
+}
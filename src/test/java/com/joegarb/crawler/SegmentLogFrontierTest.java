@@ -0,0 +1,155 @@
+package com.joegarb.crawler;
+
+import static com.joegarb.crawler.FrontierContractTest.add;
+import static com.joegarb.crawler.FrontierContractTest.urls;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** Tests for SegmentLogFrontier. */
+class SegmentLogFrontierTest {
+  private static final int SEGMENT_BYTES = 4096;
+
+  @TempDir Path tempDir;
+
+  private static void drain(Frontier frontier) throws Exception {
+    List<FrontierStore.FrontierUrl> claimed;
+    while (!(claimed = frontier.claim(List.of(), 16)).isEmpty()) {
+      for (FrontierStore.FrontierUrl url : claimed) {
+        frontier.remove(null, url.id());
+      }
+    }
+  }
+
+  @Test
+  void claimsAheadOnceDeferredHostsAreAtTheirLimit() throws Exception {
+    try (SegmentLogFrontier frontier = new SegmentLogFrontier(tempDir, SEGMENT_BYTES, 2)) {
+      add(
+          frontier,
+          null,
+          "https://a.com/1",
+          "https://a.com/2",
+          "https://a.com/3",
+          "https://b.com/1",
+          "https://b.com/2");
+
+      List<FrontierStore.FrontierUrl> claimed = frontier.claim(Set.of("a.com"), 1);
+      assertEquals(List.of("https://b.com/1"), urls(claimed));
+      frontier.remove(null, claimed.get(0).id());
+      claimed = frontier.claim(Set.of("a.com"), 10);
+      assertEquals(List.of("https://b.com/2"), urls(claimed));
+      frontier.release(List.of(claimed.get(0).id()));
+
+      // The cursor skips the records claimed ahead of it, so none is claimed twice
+      assertEquals(
+          List.of("https://a.com/1", "https://a.com/2", "https://b.com/2", "https://a.com/3"),
+          urls(frontier.claim(List.of(), 10)));
+      assertTrue(frontier.claim(List.of(), 10).isEmpty());
+    }
+  }
+
+  @Test
+  void recoversUnprocessedUrlsAfterRestart() throws Exception {
+    try (SegmentLogFrontier frontier = new SegmentLogFrontier(tempDir, SEGMENT_BYTES)) {
+      add(frontier, null, "https://a.com/1", "https://b.com/1", "https://c.com/1");
+      List<FrontierStore.FrontierUrl> claimed = frontier.claim(List.of(), 2);
+      frontier.remove(null, claimed.get(0).id());
+    }
+
+    // The claimed but unprocessed URL is claimed again, in its original place
+    try (SegmentLogFrontier frontier = new SegmentLogFrontier(tempDir, SEGMENT_BYTES)) {
+      assertEquals(2, frontier.count(false));
+      add(frontier, null, "https://b.com/1", "https://a.com/1");
+      assertEquals(
+          List.of("https://b.com/1", "https://c.com/1", "https://a.com/1"),
+          urls(frontier.claim(List.of(), 10)));
+    }
+  }
+
+  @Test
+  void discardsTornRecordAtEndOfLog() throws Exception {
+    try (SegmentLogFrontier frontier = new SegmentLogFrontier(tempDir, SEGMENT_BYTES)) {
+      add(frontier, null, "https://a.com/1", "https://b.com/1");
+    }
+    // Corrupt the last byte of the second record, as if the crash hit while it was written
+    Path segment = tempDir.resolve("0000000000.segment");
+    try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+      int firstSize = file.readInt();
+      file.seek(firstSize);
+      int secondSize = file.readInt();
+      file.seek(firstSize + secondSize - 1);
+      file.write('x');
+    }
+
+    try (SegmentLogFrontier frontier = new SegmentLogFrontier(tempDir, SEGMENT_BYTES)) {
+      assertEquals(1, frontier.count(false));
+      add(frontier, null, "https://c.com/1");
+      assertEquals(
+          List.of("https://a.com/1", "https://c.com/1"), urls(frontier.claim(List.of(), 10)));
+    }
+  }
+
+  @Test
+  void deletesSegmentsOnceProcessed() throws Exception {
+    try (SegmentLogFrontier frontier = new SegmentLogFrontier(tempDir, SEGMENT_BYTES)) {
+      for (int i = 0; i < 500; i++) {
+        add(frontier, null, "https://example.com/page/" + i);
+      }
+      assertTrue(frontier.segmentCount() > 5);
+
+      drain(frontier);
+      assertFalse(frontier.hasUrls());
+      assertEquals(1, frontier.segmentCount());
+    }
+  }
+
+  @Test
+  void compactsSegmentsHeldOpenByDeferredHosts() throws Exception {
+    try (SegmentLogFrontier frontier = new SegmentLogFrontier(tempDir, SEGMENT_BYTES)) {
+      // One slow host's URL in each batch of fast-host URLs
+      for (int i = 0; i < 400; i++) {
+        add(frontier, null, i % 10 == 0 ? "https://slow.com/" + i : "https://fast.com/" + i);
+      }
+      List<FrontierStore.FrontierUrl> claimed;
+      while (!(claimed = frontier.claim(Set.of("slow.com"), 16)).isEmpty()) {
+        for (FrontierStore.FrontierUrl url : claimed) {
+          frontier.remove(null, url.id());
+        }
+      }
+      int segmentsBefore = frontier.segmentCount();
+      assertEquals(40, frontier.count(false));
+
+      // Filling the next segment compacts the old ones
+      for (int i = 0; i < 100; i++) {
+        add(frontier, null, "https://other.com/" + i);
+      }
+      assertTrue(frontier.segmentCount() < segmentsBefore);
+      assertEquals(140, frontier.count(false));
+
+      List<String> slow = new ArrayList<>();
+      while (!(claimed = frontier.claim(Set.of("other.com"), 16)).isEmpty()) {
+        slow.addAll(urls(claimed));
+      }
+      assertEquals(40, slow.size());
+      assertTrue(slow.stream().allMatch(url -> url.startsWith("https://slow.com/")));
+    }
+  }
+
+  @Test
+  void refusesDirectoryInUse() throws Exception {
+    try (SegmentLogFrontier frontier = new SegmentLogFrontier(tempDir, SEGMENT_BYTES)) {
+      assertFalse(frontier.hasUrls());
+      assertThrows(IOException.class, () -> new SegmentLogFrontier(tempDir, SEGMENT_BYTES));
+    }
+  }
+}
@@ -0,0 +1,107 @@
+package com.joegarb.crawler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+
+/** Tests for ShardLeases and sharded claims from SqliteFrontier. */
+class ShardLeasesTest {
+  // Long enough that the background renewal never runs during a test
+  private static final long LEASE_MILLIS = 60_000;
+
+  @RegisterExtension final TestDatabase db = new TestDatabase();
+
+  @Test
+  void rebalancesWhenProcessesJoinAndLeave() throws SQLException {
+    try (ShardLeases first = ShardLeases.open(db::open, 8, LEASE_MILLIS)) {
+      assertEquals(List.of(0, 1, 2, 3, 4, 5, 6, 7), first.shards());
+
+      ShardLeases second = ShardLeases.open(db::open, 8, LEASE_MILLIS);
+      // Every shard is still leased to the first process until it renews and gives up its excess
+      assertEquals(List.of(), second.shards());
+      first.renew();
+      second.renew();
+      assertEquals(4, first.shards().size());
+      assertEquals(4, second.shards().size());
+      Set<Integer> all = new HashSet<>(first.shards());
+      all.addAll(second.shards());
+      assertEquals(8, all.size());
+
+      second.close();
+      first.renew();
+      assertEquals(List.of(0, 1, 2, 3, 4, 5, 6, 7), first.shards());
+    }
+  }
+
+  @Test
+  void takesShardsOfDeadProcess() throws SQLException {
+    try (ShardLeases leases = ShardLeases.open(db::open, 4, LEASE_MILLIS)) {
+      assertEquals(4, leases.shards().size());
+    }
+    // A process that died holding every shard, its leases expired
+    db.execute("INSERT INTO frontier_workers (owner, expires_at) VALUES ('dead', 1)");
+    db.execute("UPDATE frontier_shards SET owner = 'dead', expires_at = 1");
+
+    try (ShardLeases leases = ShardLeases.open(db::open, 4, LEASE_MILLIS)) {
+      assertEquals(List.of(0, 1, 2, 3), leases.shards());
+    }
+  }
+
+  @Test
+  void refusesShardCountDifferentFromLiveProcesses() throws SQLException {
+    try (ShardLeases leases = ShardLeases.open(db::open, 4, LEASE_MILLIS)) {
+      assertEquals(4, leases.shards().size());
+      assertThrows(SQLException.class, () -> ShardLeases.open(db::open, 8, LEASE_MILLIS));
+    }
+    // Once no process holds leases, the count can change
+    try (ShardLeases leases = ShardLeases.open(db::open, 8, LEASE_MILLIS)) {
+      assertEquals(8, leases.shards().size());
+    }
+  }
+
+  @Test
+  void processesClaimDisjointHosts() throws SQLException {
+    List<String> urls = new ArrayList<>();
+    for (int host = 0; host < 20; host++) {
+      for (int page = 0; page < 5; page++) {
+        urls.add("https://host" + host + ".example.com/" + page);
+      }
+    }
+    try (Connection conn = db.open()) {
+      FrontierStore.addUrls(conn, urls);
+    }
+
+    try (ShardLeases firstLeases = ShardLeases.open(db::open, 8, LEASE_MILLIS);
+        ShardLeases secondLeases = ShardLeases.open(db::open, 8, LEASE_MILLIS)) {
+      firstLeases.renew();
+      secondLeases.renew();
+      SqliteFrontier first = new SqliteFrontier(db::open, firstLeases);
+      SqliteFrontier second = new SqliteFrontier(db::open, secondLeases);
+
+      Set<String> firstHosts = new HashSet<>();
+      Set<String> secondHosts = new HashSet<>();
+      int claimed = 0;
+      for (FrontierStore.FrontierUrl url : first.claim(List.of(), 1000)) {
+        assertTrue(firstLeases.shards().contains(FrontierStore.hostHash(url.host()) % 8));
+        firstHosts.add(url.host());
+        claimed++;
+      }
+      for (FrontierStore.FrontierUrl url : second.claim(List.of(), 1000)) {
+        assertTrue(secondLeases.shards().contains(FrontierStore.hostHash(url.host()) % 8));
+        secondHosts.add(url.host());
+        claimed++;
+      }
+      assertEquals(100, claimed);
+      assertEquals(20, firstHosts.size() + secondHosts.size());
+    }
+  }
+}
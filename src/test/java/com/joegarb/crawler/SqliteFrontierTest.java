@@ -0,0 +1,38 @@
+package com.joegarb.crawler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+
+/** Tests for SqliteFrontier. */
+class SqliteFrontierTest {
+  private static final long CLAIM_LEASE_MILLIS = 60_000;
+
+  @RegisterExtension final TestDatabase db = new TestDatabase();
+
+  /** Backdates every claim past the claim lease, as if no one had renewed it in time. */
+  private void expireClaims() throws SQLException {
+    db.execute("UPDATE frontier_queue SET claimed_at = 0 WHERE claimed_at IS NOT NULL");
+  }
+
+  @Test
+  void reclaimsOnlyClaimsNoLongerHeld() throws SQLException {
+    try (Connection conn = db.open()) {
+      FrontierStore.addUrls(conn, List.of("https://a.com/1", "https://a.com/2", "https://b.com/1"));
+      // Claimed by a process that has since died
+      FrontierStore.claimUrls(conn, List.of("a.com"), 1);
+    }
+    SqliteFrontier frontier = new SqliteFrontier(db::open);
+    List<FrontierStore.FrontierUrl> claimed = frontier.claim(List.of(), 2);
+    assertEquals(2, claimed.size());
+    expireClaims();
+
+    // The claims this frontier holds are renewed, so only the dead process's claim returns
+    assertEquals(1, frontier.reclaimExpired(CLAIM_LEASE_MILLIS));
+    assertEquals(2, frontier.count(true));
+  }
+}
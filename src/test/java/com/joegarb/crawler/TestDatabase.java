@@ -0,0 +1,93 @@
+package com.joegarb.crawler;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Properties;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.extension.AfterEachCallback;
+import org.junit.jupiter.api.extension.BeforeEachCallback;
+import org.junit.jupiter.api.extension.ExtensionContext;
+
+/**
+ * A fresh SQLite database file with the frontier_queue and crawled_urls tables for each test,
+ * registered with {@code @RegisterExtension final TestDatabase db = new TestDatabase();}.
+ *
+ * <p>A file rather than an in-memory database, since the classes under test open and close their
+ * own connections through {@code db::open}. Connections are configured like {@link
+ * DatabaseManager}'s, so that concurrent writers wait for each other.
+ */
+final class TestDatabase implements BeforeEachCallback, AfterEachCallback {
+  private Path directory;
+  private String url;
+
+  @Override
+  public void beforeEach(ExtensionContext context) throws IOException, SQLException {
+    directory = Files.createTempDirectory("crawler-test");
+    url = "jdbc:sqlite:" + directory.resolve("crawler.db");
+    try (Connection conn = open()) {
+      FrontierStore.createTable(conn);
+      MetadataStore.createTable(conn);
+    }
+  }
+
+  @Override
+  public void afterEach(ExtensionContext context) throws IOException {
+    List<Path> files;
+    try (Stream<Path> list = Files.list(directory)) {
+      files = list.toList();
+    }
+    for (Path file : files) {
+      Files.deleteIfExists(file);
+    }
+    Files.deleteIfExists(directory);
+  }
+
+  /**
+   * Opens a new connection to the database.
+   *
+   * @return The connection
+   * @throws SQLException if a database access error occurs
+   */
+  Connection open() throws SQLException {
+    Properties properties = new Properties();
+    properties.setProperty("busy_timeout", "5000");
+    properties.setProperty("transaction_mode", "IMMEDIATE");
+    return DriverManager.getConnection(url, properties);
+  }
+
+  /**
+   * Runs a statement on a connection of its own.
+   *
+   * @param sql SQL statement
+   * @throws SQLException if a database access error occurs
+   */
+  void execute(String sql) throws SQLException {
+    try (Connection conn = open();
+        Statement statement = conn.createStatement()) {
+      statement.execute(sql);
+    }
+  }
+
+  /**
+   * Runs a query whose first column is a count, on a connection of its own.
+   *
+   * @param sql Query, e.g. {@code SELECT COUNT(*) FROM frontier_queue}
+   * @return The first column of the first row
+   * @throws SQLException if a database access error occurs
+   */
+  int count(String sql) throws SQLException {
+    try (Connection conn = open();
+        Statement statement = conn.createStatement();
+        ResultSet resultSet = statement.executeQuery(sql)) {
+      resultSet.next();
+      return resultSet.getInt(1);
+    }
+  }
+}
@@ -50,4 +50,20 @@ class UrlNormalizerTest {
     String invalid = "not a valid url";
     assertEquals(invalid, UrlNormalizer.normalize(invalid));
   }
+
+  @Test
+  void normalizeWithHostMatchesSeparateCalls() {
+    String url = "HTTPS://Sub.EXAMPLE.com:443/Path?q=1#frag";
+    UrlNormalizer.NormalizedUrl normalized = UrlNormalizer.normalizeWithHost(url);
+    assertEquals(UrlNormalizer.normalize(url), normalized.url());
+    assertEquals(UrlNormalizer.extractHost(url), normalized.host());
+    assertEquals("sub.example.com", normalized.host());
+  }
+
+  @Test
+  void normalizeWithHostAssumesHttpSchemeWhenMissing() {
+    UrlNormalizer.NormalizedUrl normalized = UrlNormalizer.normalizeWithHost("joe.org/page");
+    assertEquals("http://joe.org/page", normalized.url());
+    assertEquals("joe.org", normalized.host());
+  }
 }